@@ -0,0 +1,64 @@
+package com.vanillasource.scan.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Runs the benchmarks with the allocation profiler and JSON results by default, so results of
+ * different releases can be compared. Accepts all the usual JMH command line options, which take
+ * precedence over the defaults. Unless the thread count is given with <code>-t</code>, all benchmarks are run
+ * once for each thread count in the <code>scan.benchmark.threads</code> system property, each into its own result file:
+ *
+ * <pre>
+ * java -Dscan.benchmark.threads=1,4,16,64 -jar target/benchmarks.jar -rff results.json MessageIds
+ * </pre>
+ */
+public final class BenchmarkMain {
+   private static final String DEFAULT_THREADS = "1,4,16,64";
+   private static final String DEFAULT_RESULT = "jmh-result.json";
+
+   private BenchmarkMain() {
+   }
+
+   public static void main(String[] args) throws Exception {
+      CommandLineOptions commandLine = new CommandLineOptions(args);
+      if (commandLine.shouldHelp() || commandLine.shouldList()) {
+         org.openjdk.jmh.Main.main(args);
+         return;
+      }
+      String result = commandLine.getResult().orElse(DEFAULT_RESULT);
+      if (commandLine.getThreads().hasValue()) {
+         new Runner(options(commandLine, result).build()).run();
+         return;
+      }
+      int[] threadCounts = Arrays.stream(System.getProperty("scan.benchmark.threads", DEFAULT_THREADS).split(","))
+            .map(String::trim)
+            .mapToInt(Integer::parseInt)
+            .toArray();
+      for (int threads : threadCounts) {
+         new Runner(options(commandLine, withSuffix(result, "-threads-"+threads)).threads(threads).build()).run();
+      }
+   }
+
+   private static ChainedOptionsBuilder options(CommandLineOptions commandLine, String result) {
+      ChainedOptionsBuilder options = new OptionsBuilder()
+            .parent(commandLine)
+            .resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON))
+            .result(result);
+      if (commandLine.getProfilers().isEmpty()) {
+         options.addProfiler(GCProfiler.class);
+      }
+      return options;
+   }
+
+   private static String withSuffix(String file, String suffix) {
+      int extension = file.lastIndexOf('.');
+      return extension <= 0 ? file+suffix : file.substring(0, extension)+suffix+file.substring(extension);
+   }
+}
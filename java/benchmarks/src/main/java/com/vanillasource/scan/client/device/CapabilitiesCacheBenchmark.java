@@ -0,0 +1,135 @@
+package com.vanillasource.scan.client.device;
+
+import com.vanillasource.scan.client.types.ArrayValue;
+import com.vanillasource.scan.client.types.IntegerArrayValue;
+import com.vanillasource.scan.client.types.IntegerValue;
+import com.vanillasource.scan.client.types.StructValue;
+import com.vanillasource.scan.client.types.TypeDefinitions;
+import com.vanillasource.scan.client.types.UnionValue;
+import com.vanillasource.scan.client.types.UnitValue;
+import com.vanillasource.scan.client.types.Value;
+import com.vanillasource.scan.client.types.codec.CompiledValueCodec;
+import com.vanillasource.scan.client.types.codec.ValueCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time until the capabilities of all devices of an installation are known, when all of them come online.
+ * Devices of the same model send the same capabilities. Without a cache every device is parsed, a cold cache
+ * parses every model once, and a cache warmed up from its store at startup parses none of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class CapabilitiesCacheBenchmark {
+   private static final int DEVICE_COUNT = 5000;
+   private static final int STORE_CAPACITY = 16*1024*1024;
+   private static final ValueCodec CODEC = CompiledValueCodec.compile(TypeDefinitions.parse("""
+      Modality = Struct(name: String, modalityURI: String, readable: Boolean, writable: Boolean,
+         minimumSetWait: VariableLengthInteger(8), stateType: String, intentType: String)
+      Capabilities = Struct(
+         protocolVersion: Struct(major: Byte, minor: Byte),
+         deviceDefinition: Struct(deviceName: String, deviceURI: String),
+         typesDefinitions: DynamicArray(Byte),
+         modalities: DynamicArray(Modality))
+      """).type("Capabilities"));
+
+   @Param({"noCache", "cold", "warm"})
+   public String mode;
+
+   @Param({"50", "5000"})
+   public int modelCount;
+
+   private ByteBuffer[] devices;
+   private Path storeFile;
+   private CapabilitiesCache cache;
+
+   @Setup
+   public void setUp() throws IOException {
+      ByteBuffer[] models = new ByteBuffer[modelCount];
+      for (int i = 0; i < modelCount; i++) {
+         models[i] = capabilities(i);
+      }
+      devices = new ByteBuffer[DEVICE_COUNT];
+      for (int i = 0; i < DEVICE_COUNT; i++) {
+         devices[i] = models[i % modelCount].duplicate();
+      }
+      storeFile = Files.createTempFile("scan-capabilities", ".store");
+      CapabilitiesCache filling = new CapabilitiesCache(modelCount, CapabilitiesStore.open(storeFile, STORE_CAPACITY));
+      for (ByteBuffer model : models) {
+         filling.get(model);
+      }
+   }
+
+   @Setup(Level.Invocation)
+   public void startUp() {
+      cache = switch (mode) {
+         case "noCache" -> null;
+         case "cold" -> new CapabilitiesCache(modelCount);
+         case "warm" -> new CapabilitiesCache(modelCount, CapabilitiesStore.open(storeFile, STORE_CAPACITY));
+         default -> throw new IllegalArgumentException("unknown mode "+mode);
+      };
+      if (cache != null) {
+         cache.warmUp();
+      }
+   }
+
+   @TearDown
+   public void tearDown() throws IOException {
+      Files.deleteIfExists(storeFile);
+   }
+
+   @Benchmark
+   public int allDevicesOnline() {
+      int modalities = 0;
+      for (ByteBuffer device : devices) {
+         Capabilities capabilities = cache == null ? Capabilities.parse(device) : cache.get(device);
+         modalities += capabilities.modalities().size();
+      }
+      return modalities;
+   }
+
+   private static ByteBuffer capabilities(int model) {
+      Value modality = new StructValue(string("Brightness"), string("https://example.com/brightness"),
+            new UnionValue(1, UnitValue.INSTANCE), new UnionValue(1, UnitValue.INSTANCE), new IntegerValue(250),
+            string("Level"), string("Option(Level)"));
+      Value capabilities = new StructValue(
+            new StructValue(new IntegerValue(1), new IntegerValue(1)),
+            new StructValue(string("Lamp "+model), string("https://example.com/lamp/"+model)),
+            string("Level = Byte {0 to "+(model % 200 + 1)+"}\nColor = Struct(red: Level, green: Level, blue: Level)"),
+            new ArrayValue(new Value[] {modality}));
+      ByteBuffer buffer = ByteBuffer.allocate(1024);
+      CODEC.encode(capabilities, buffer);
+      return buffer.flip();
+   }
+
+   private static Value string(String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      long[] items = new long[bytes.length];
+      for (int i = 0; i < bytes.length; i++) {
+         items[i] = bytes[i] & 0xFF;
+      }
+      return new IntegerArrayValue(items);
+   }
+}
@@ -0,0 +1,63 @@
+package com.vanillasource.scan.client.device;
+
+import com.vanillasource.util.TimeSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Producing values for many joins with different waits, while the wheel is advanced
+ * by a timer thread, like a device serving a lot of subscribers does.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JoinSchedulerBenchmark {
+   @Param({"1000", "100000"})
+   public int joinCount;
+
+   private final LongAdder sent = new LongAdder();
+   private JoinScheduler<Integer, Long> scheduler;
+
+   @Setup
+   public void setUp() {
+      scheduler = new JoinScheduler<>(TimeSource.SYSTEM, (key, value) -> sent.increment());
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      for (int key = 0; key < joinCount; key++) {
+         scheduler.join(key, random.nextLong(10, 1000));
+      }
+   }
+
+   @Benchmark
+   @Group("produce")
+   @GroupThreads(3)
+   public void update() {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      scheduler.update(random.nextInt(joinCount), random.nextLong());
+   }
+
+   @Benchmark
+   @Group("produce")
+   @GroupThreads(1)
+   public long advance() {
+      scheduler.advance();
+      return sent.sum();
+   }
+}
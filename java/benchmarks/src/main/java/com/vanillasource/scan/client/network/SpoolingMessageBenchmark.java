@@ -0,0 +1,65 @@
+package com.vanillasource.scan.client.network;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spooling chunks of a large message and reading them back, in a ring on the heap, off the heap,
+ * or in a memory mapped file. The ring never fills up, so the drop policy does not matter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpoolingMessageBenchmark {
+   private static final int RING_SIZE = 1024*1024;
+
+   @Param({"heap", "direct", "mapped"})
+   public String storage;
+
+   @Param({"64", "1024", "16384"})
+   public int chunkSize;
+
+   private SpoolingMessage message;
+   private ByteBuffer chunk;
+
+   @Setup
+   public void setUp() {
+      message = switch (storage) {
+         case "heap" -> new SpoolingMessage(ByteBuffer.allocate(RING_SIZE), SpoolingMessage.DropPolicy.BLOCK);
+         case "direct" -> new SpoolingMessage(ByteBuffer.allocateDirect(RING_SIZE), SpoolingMessage.DropPolicy.BLOCK);
+         case "mapped" -> SpoolingMessage.spoolTo(Path.of(System.getProperty("java.io.tmpdir")), RING_SIZE, SpoolingMessage.DropPolicy.BLOCK);
+         default -> throw new IllegalArgumentException("unknown storage "+storage);
+      };
+      chunk = ByteBuffer.allocate(chunkSize);
+   }
+
+   @TearDown
+   public void tearDown() {
+      message.close();
+   }
+
+   @Benchmark
+   public int spoolAndRead() {
+      message.recieve(chunk.clear());
+      int length = message.poll().remaining();
+      message.consume();
+      return length;
+   }
+}
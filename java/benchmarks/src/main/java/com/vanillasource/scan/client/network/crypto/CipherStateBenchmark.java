@@ -0,0 +1,60 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encrypting payloads of a connection, and decrypting them on the other side.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherStateBenchmark {
+   @Param({"64", "1024", "32768"})
+   public int payloadSize;
+
+   private CipherState sender;
+   private CipherState receiver;
+   private ByteBuffer plaintext;
+   private ByteBuffer ciphertext;
+
+   @Setup
+   public void setUp() {
+      byte[] key = new byte[CipherState.KEY_LENGTH];
+      sender = new CipherState(key);
+      receiver = new CipherState(key);
+      plaintext = ByteBuffer.allocate(payloadSize);
+      ciphertext = ByteBuffer.allocate(payloadSize + CipherState.MAC_LENGTH);
+   }
+
+   @Benchmark
+   public ByteBuffer encrypt() {
+      sender.encrypt(plaintext.clear(), ciphertext.clear());
+      return ciphertext;
+   }
+
+   /**
+    * Encrypt and decrypt a payload, as decryption needs a fresh ciphertext for every nonce.
+    */
+   @Benchmark
+   public ByteBuffer encryptAndDecrypt() {
+      sender.encrypt(plaintext.clear(), ciphertext.clear());
+      receiver.decrypt(ciphertext.flip(), plaintext.clear());
+      return plaintext;
+   }
+}
@@ -0,0 +1,108 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import com.vanillasource.util.TimeSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time until all devices are connected again, when all of them start a handshake with the same
+ * responder at once, like after a power outage. The handshakes per second are the device count divided
+ * by this time. Devices use the last of the responder's PSKs, so with a cold PSK cache, as after a restart
+ * of the responder, all PSKs are tried, with a warm cache the right one is tried first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HandshakeEngineBenchmark {
+   private static final int PSK_COUNT = 8;
+
+   @Param({"100", "1000"})
+   public int deviceCount;
+
+   @Param({"1", "8"})
+   public int workerCount;
+
+   @Param({"cold", "warm"})
+   public String pskCache;
+
+   private List<byte[]> psks;
+   private byte[] responderKey;
+   private HandshakeEngine[] devices;
+   private ExecutorService workers;
+   private HandshakeEngine responder;
+   private ByteBuffer[] initiations;
+
+   @Setup
+   public void setUp() {
+      psks = new ArrayList<>();
+      for (int i = 0; i < PSK_COUNT; i++) {
+         byte[] psk = new byte[32];
+         psk[0] = (byte) i;
+         psks.add(psk);
+      }
+      responderKey = X25519.generatePrivateKey();
+      devices = new HandshakeEngine[deviceCount];
+      for (int i = 0; i < deviceCount; i++) {
+         devices[i] = new HandshakeEngine(X25519.generatePrivateKey(), List::of, Runnable::run, 1, throttle());
+      }
+      workers = Executors.newFixedThreadPool(workerCount);
+   }
+
+   @Setup(Level.Invocation)
+   public void powerOutage() {
+      responder = new HandshakeEngine(responderKey, () -> psks, workers, deviceCount, throttle());
+      if (pskCache.equals("warm")) {
+         initiateAll();
+         connectAll();
+      }
+      initiateAll();
+   }
+
+   @TearDown
+   public void tearDown() {
+      workers.shutdown();
+   }
+
+   @Benchmark
+   public long connectAll() {
+      CompletableFuture<?>[] sessions = new CompletableFuture<?>[deviceCount];
+      for (int i = 0; i < deviceCount; i++) {
+         sessions[i] = responder.respond(devices[i].localAddress(), KKpsk1Handshake.PROTOCOL_NAME, initiations[i]);
+      }
+      CompletableFuture.allOf(sessions).join();
+      return responder.completedCount();
+   }
+
+   private void initiateAll() {
+      initiations = new ByteBuffer[deviceCount];
+      for (int i = 0; i < deviceCount; i++) {
+         initiations[i] = devices[i].initiate(responder.localAddress(), psks.get(PSK_COUNT - 1)).initiation();
+      }
+   }
+
+   private HandshakeThrottle throttle() {
+      return new HandshakeThrottle(TimeSource.SYSTEM, 2, 1000, deviceCount);
+   }
+}
@@ -0,0 +1,62 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Complete handshakes between two devices. The responder knows the given number of PSKs,
+ * and the initiator uses the last one, so the responder has to try all of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KKpsk1HandshakeBenchmark {
+   private static final byte[] PROLOGUE = { 1 };
+
+   @Param({"1", "16"})
+   public int pskCount;
+
+   private byte[] initiatorKey;
+   private byte[] responderKey;
+   private PeerAddress initiator;
+   private PeerAddress responder;
+   private List<byte[]> psks;
+
+   @Setup
+   public void setUp() {
+      initiatorKey = X25519.generatePrivateKey();
+      responderKey = X25519.generatePrivateKey();
+      initiator = PeerAddress.create(X25519.publicKey(initiatorKey));
+      responder = PeerAddress.create(X25519.publicKey(responderKey));
+      psks = new ArrayList<>();
+      for (int i = 0; i < pskCount; i++) {
+         byte[] psk = new byte[32];
+         psk[0] = (byte) i;
+         psks.add(psk);
+      }
+   }
+
+   @Benchmark
+   public Session handshake() {
+      KKpsk1Handshake.Initiator handshake = KKpsk1Handshake.initiate(PROLOGUE, initiatorKey, initiator, responder, psks.get(pskCount - 1));
+      Session session = KKpsk1Handshake.respond(PROLOGUE, responderKey, responder, initiator, handshake.initiation(), psks);
+      return handshake.complete(session.response());
+   }
+}
@@ -0,0 +1,108 @@
+package com.vanillasource.scan.client.network.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of variable length integers, one at a time through the static codec,
+ * through instances, and in batches. Values are of the given wire length.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VariableLengthIntegerBenchmark {
+   private static final int BATCH = 1024;
+
+   @Param({"1", "2", "4", "8"})
+   public int encodedLength;
+
+   private final long[] values = new long[BATCH];
+   private final long[] decoded = new long[BATCH];
+   private VariableLengthInteger[] instances;
+   private ByteBuffer buffer;
+
+   @Setup
+   public void setUp() {
+      long min = encodedLength == 1 ? 0 : 1L << (7*(encodedLength-1));
+      long max = encodedLength == 8 ? VariableLengthInteger.MAX_LONG_VALUE : (1L << (7*encodedLength)) - 1;
+      instances = new VariableLengthInteger[BATCH];
+      for (int i = 0; i < BATCH; i++) {
+         values[i] = min + (max - min) / BATCH * i;
+         instances[i] = VariableLengthInteger.createLong(values[i]);
+      }
+      buffer = ByteBuffer.allocate(BATCH * VariableLengthInteger.MAX_LENGTH);
+      VariableLengthInteger.encode(values, 0, BATCH, buffer);
+      buffer.flip();
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(BATCH)
+   public void encodeEach(Blackhole blackhole) {
+      buffer.clear();
+      for (long value : values) {
+         VariableLengthInteger.encode(value, buffer);
+      }
+      blackhole.consume(buffer.position());
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(BATCH)
+   public void decodeEach(Blackhole blackhole) {
+      buffer.rewind();
+      for (int i = 0; i < BATCH; i++) {
+         blackhole.consume(VariableLengthInteger.decode(buffer));
+      }
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(BATCH)
+   public void encodeBatch(Blackhole blackhole) {
+      buffer.clear();
+      VariableLengthInteger.encode(values, 0, BATCH, buffer);
+      blackhole.consume(buffer.position());
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(BATCH)
+   public long[] decodeBatch() {
+      buffer.rewind();
+      VariableLengthInteger.decode(buffer, decoded, 0, BATCH);
+      return decoded;
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(BATCH)
+   public void writeInstances(Blackhole blackhole) {
+      buffer.clear();
+      for (VariableLengthInteger instance : instances) {
+         instance.writeTo(buffer);
+      }
+      blackhole.consume(buffer.position());
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(BATCH)
+   public void readInstances(Blackhole blackhole) {
+      buffer.rewind();
+      for (int i = 0; i < BATCH; i++) {
+         blackhole.consume(VariableLengthInteger.read(buffer));
+      }
+   }
+}
@@ -0,0 +1,62 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.util.TimeSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshing and resolving announced devices, shared by all threads like the cache of a network is.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnnouncementCacheBenchmark {
+   @Param({"100", "10000", "100000"})
+   public int deviceCount;
+
+   private AnnouncementCache cache;
+   private PeerAddress[] addresses;
+   private InetAddress ip;
+
+   @Setup
+   public void setUp() throws Exception {
+      cache = new AnnouncementCache(TimeSource.SYSTEM, (address, online) -> {}, Long.MAX_VALUE/2);
+      ip = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+      addresses = new PeerAddress[deviceCount];
+      for (int i = 0; i < deviceCount; i++) {
+         addresses[i] = PeerAddress.create(i, 31L*i, 17L*i, 7L*i);
+         cache.announce(addresses[i], ip);
+      }
+   }
+
+   @Benchmark
+   public void announce() {
+      cache.announce(randomAddress(), ip);
+   }
+
+   @Benchmark
+   public InetAddress resolve() {
+      return cache.resolve(randomAddress());
+   }
+
+   private PeerAddress randomAddress() {
+      return addresses[ThreadLocalRandom.current().nextInt(deviceCount)];
+   }
+}
@@ -0,0 +1,71 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A frame peer that only counts the payload bytes it receives. Not thread-safe.
+ */
+public final class CountingFramePeer implements FramePeer {
+   private long frames = 0;
+   private long bytes = 0;
+
+   public long frames() {
+      return frames;
+   }
+
+   public long bytes() {
+      return bytes;
+   }
+
+   @Override
+   public void initiateHandshake(String protocolName, ByteBuffer handshake) {
+      frames++;
+   }
+
+   @Override
+   public void continueHandshake(ByteBuffer handshake) {
+      frames++;
+   }
+
+   @Override
+   public void closeConnection() {
+      frames++;
+   }
+
+   @Override
+   public void renegotiate() {
+      frames++;
+   }
+
+   @Override
+   public void ignoredFrame(int frameCode) {
+      frames++;
+   }
+
+   @Override
+   public void keepAlive() {
+      frames++;
+   }
+
+   @Override
+   public void messageIntermediateFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+      count(payload);
+   }
+
+   @Override
+   public void messageLastFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+      count(payload);
+   }
+
+   @Override
+   public void messageSingleFrame(ByteBuffer payload) {
+      count(payload);
+   }
+
+   private void count(ByteBuffer payload) {
+      frames++;
+      bytes += payload.remaining();
+   }
+}
@@ -0,0 +1,94 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddressPool;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.network.physical.PhysicalPeer;
+import com.vanillasource.util.ByteBufferPool;
+import com.vanillasource.util.Lock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a stream of payload frames, as read from a connection in reads of the given size. Frames
+ * crossing the boundary of reads have to be collected before they are dispatched.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecoderBenchmark {
+   private static final int STREAM_SIZE = 256*1024;
+
+   @Param({"64", "1024", "16384"})
+   public int payloadSize;
+
+   @Param({"1500", "65536"})
+   public int readSize;
+
+   @Param({"false", "true"})
+   public boolean interned;
+
+   private final CountingFramePeer frames = new CountingFramePeer();
+   private ByteBuffer stream;
+   private FrameDecoder decoder;
+
+   @Setup
+   public void setUp() {
+      stream = ByteBuffer.allocate(STREAM_SIZE + FrameEncoder.HEADER_BUFFER_SIZE + payloadSize);
+      FrameEncoder encoder = new FrameEncoder(new FrameScheduler(new PhysicalPeer() {
+         @Override
+         public void receive(ByteBuffer message) {
+            stream.put(message);
+         }
+
+         @Override
+         public void close() {
+         }
+      }, new Lock()), new ByteBufferPool(FrameEncoder.HEADER_BUFFER_SIZE), PeerAddress.create(1, 1, 1, 1), PeerAddress.create(2, 2, 2, 2));
+      while (stream.position() < STREAM_SIZE) {
+         encoder.messageSingleFrame(ByteBuffer.allocate(payloadSize));
+      }
+      stream.flip();
+      decoder = new FrameDecoder(new FrameReceiver() {
+         @Override
+         public FramePeer logicalConnection(PeerAddress source, PeerAddress destination, boolean initiating) {
+            return frames;
+         }
+
+         @Override
+         public void advertisement(PeerAddresses addresses) {
+         }
+
+         @Override
+         public void identityQuery(VariableLengthInteger queryId, PeerAddresses addresses) {
+         }
+      }, interned ? new PeerAddressPool() : null);
+   }
+
+   /**
+    * Decode the whole stream, which is a bit over 256 KB.
+    */
+   @Benchmark
+   public long decode() {
+      for (int position = 0; position < stream.limit(); position += readSize) {
+         decoder.receive(stream.slice(position, Math.min(readSize, stream.limit() - position)));
+      }
+      return frames.bytes();
+   }
+}
@@ -0,0 +1,85 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.physical.LoopbackSocketPeer;
+import com.vanillasource.scan.client.network.physical.PhysicalPeer;
+import com.vanillasource.util.Lock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of small messages on a physical connection saturated by large streams. Three threads
+ * stream maximum size bulk frames, while one thread sends small priority frames, into a loopback socket.
+ * The percentiles of the small sender are the interesting result. The scheduler is compared to writing
+ * frames in the order senders get the output lock.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameSchedulerBenchmark {
+   private static final int SMALL_FRAME_LENGTH = 64;
+
+   @Param({"scheduler", "lock"})
+   public String implementation;
+
+   private PhysicalPeer output;
+   private Lock outputLock;
+   private FrameScheduler scheduler;
+   private ByteBuffer smallFrame;
+   private ByteBuffer bulkFrame;
+
+   @Setup
+   public void setUp() {
+      output = new LoopbackSocketPeer();
+      outputLock = new Lock();
+      scheduler = new FrameScheduler(output, outputLock);
+      smallFrame = ByteBuffer.allocateDirect(SMALL_FRAME_LENGTH);
+      bulkFrame = ByteBuffer.allocateDirect(FrameScheduler.DEFAULT_QUANTUM);
+   }
+
+   @TearDown
+   public void tearDown() {
+      output.close();
+   }
+
+   @Benchmark
+   @Group("saturated")
+   @GroupThreads(3)
+   public void bulk() {
+      ByteBuffer[] frame = { bulkFrame.duplicate() };
+      if (implementation.equals("scheduler")) {
+         scheduler.sendBulk(Thread.currentThread(), frame);
+      } else {
+         outputLock.synchronize(() -> output.receive(frame));
+      }
+   }
+
+   @Benchmark
+   @Group("saturated")
+   @GroupThreads(1)
+   public void small() {
+      ByteBuffer[] frame = { smallFrame.duplicate() };
+      if (implementation.equals("scheduler")) {
+         scheduler.sendPriority(frame);
+      } else {
+         outputLock.synchronize(() -> output.receive(frame));
+      }
+   }
+}
@@ -0,0 +1,202 @@
+package com.vanillasource.scan.client.network.network;
+
+import com.vanillasource.scan.client.network.Message;
+import com.vanillasource.scan.client.network.NetworkListener;
+import com.vanillasource.scan.client.network.Peer;
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.Role;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.network.frame.AnnouncementCache;
+import com.vanillasource.scan.client.network.frame.FrameNetwork;
+import com.vanillasource.scan.client.network.frame.FrameNetworkListener;
+import com.vanillasource.scan.client.network.frame.FramePeer;
+import com.vanillasource.scan.client.network.frame.PhysicalNetworkFrameNetwork;
+import com.vanillasource.scan.client.network.physical.LoopbackPhysicalNetwork;
+import com.vanillasource.util.ByteBufferAllocator;
+import com.vanillasource.util.TimeSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connecting and sending messages through the whole network stack of two devices, down to frames
+ * on an in-memory physical network. Every thread has its own pair of devices. There is no encryption,
+ * connections are initiated with an empty handshake, which the receiving side ignores. The in-memory
+ * network delivers headers and payloads separately, so every frame straddles two reads of the decoder.
+ * Decoders allocate those frames from a pooled or an unpooled allocator, run with the GC profiler
+ * to compare the allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameNetworkNetworkBenchmark {
+   private static final String PROTOCOL_NAME = "Noise_NN_25519_AESGCM_SHA256";
+   private static final PeerAddress INITIATOR_ADDRESS = PeerAddress.create(1, 1, 1, 1);
+   private static final PeerAddress RESPONDER_ADDRESS = PeerAddress.create(2, 2, 2, 2);
+
+   @Param({"64", "1024", "32768"})
+   public int payloadSize;
+
+   @Param({"0", "120"})
+   public int pressure;
+
+   @Param({"pooled", "unpooled"})
+   public String allocator;
+
+   private final CountingPeer received = new CountingPeer();
+   private FrameNetworkNetwork initiator;
+   private FrameNetworkNetwork responder;
+   private FrameNetwork responderFrames;
+   private Peer connection;
+   private ByteBuffer payload;
+   private long lastAnnouncement;
+
+   @Setup
+   public void setUp() throws Exception {
+      ByteBufferAllocator frameAllocator = switch (allocator) {
+         case "pooled" -> new ByteBufferAllocator();
+         case "unpooled" -> ByteBufferAllocator.UNPOOLED;
+         default -> throw new IllegalArgumentException("unknown allocator "+allocator);
+      };
+      LoopbackPhysicalNetwork[] physical = LoopbackPhysicalNetwork.pair(
+            InetAddress.getByAddress(new byte[] {127, 0, 0, 1}), InetAddress.getByAddress(new byte[] {127, 0, 0, 2}));
+      initiator = new FrameNetworkNetwork(new QueryIds(TimeSource.SYSTEM), () -> MessageIdsBenchmark.create("atomic", pressure),
+            new Listener(), listener -> new HandshakingFrameNetwork(
+                  frameNetwork(INITIATOR_ADDRESS, listener, physical[0], frameAllocator)));
+      responder = new FrameNetworkNetwork(new QueryIds(TimeSource.SYSTEM), () -> MessageIdsBenchmark.create("atomic", pressure),
+            new Listener(), listener -> {
+               responderFrames = frameNetwork(RESPONDER_ADDRESS, listener, physical[1], frameAllocator);
+               return responderFrames;
+            });
+      announce();
+      connection = initiator.connect(RESPONDER_ADDRESS, Role.UNKNOWN, Peer.UNCONNECTED);
+      payload = ByteBuffer.allocate(payloadSize);
+   }
+
+   @TearDown
+   public void tearDown() {
+      initiator.close();
+      responder.close();
+   }
+
+   @Benchmark
+   public long send() {
+      connection.receive(payload.clear());
+      return received.bytes;
+   }
+
+   @Benchmark
+   public long connectSendClose() {
+      if (System.currentTimeMillis() - lastAnnouncement >= AnnouncementCache.ANNOUNCEMENT_PERIOD_MILLIS) {
+         announce();
+      }
+      Peer peer = initiator.connect(RESPONDER_ADDRESS, Role.UNKNOWN, Peer.UNCONNECTED);
+      peer.receive(payload.clear());
+      peer.close();
+      return received.bytes;
+   }
+
+   private static PhysicalNetworkFrameNetwork frameNetwork(PeerAddress address, FrameNetworkListener listener,
+                                                          LoopbackPhysicalNetwork physical, ByteBufferAllocator allocator) {
+      return new PhysicalNetworkFrameNetwork(address, listener, physical.factory(), 0, TimeSource.SYSTEM,
+            delayMillis -> CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS), allocator);
+   }
+
+   /**
+    * The responder announces itself, so the initiator can resolve it, like devices do periodically.
+    */
+   private void announce() {
+      responderFrames.identityAnnouncement(PeerAddresses.of(RESPONDER_ADDRESS));
+      lastAnnouncement = System.currentTimeMillis();
+   }
+
+   private final class Listener implements NetworkListener {
+      @Override
+      public void receiveAnnouncement(PeerAddress address) {
+      }
+
+      @Override
+      public void receiveOnlineStatus(PeerAddress address, boolean online) {
+      }
+
+      @Override
+      public Peer receiveConnection(PeerAddress address, Role role, Peer initiator) {
+         return received;
+      }
+   }
+
+   /**
+    * Initiates every connection with an empty handshake, in place of the security layer.
+    */
+   private static final class HandshakingFrameNetwork implements FrameNetwork {
+      private final FrameNetwork delegate;
+
+      private HandshakingFrameNetwork(FrameNetwork delegate) {
+         this.delegate = delegate;
+      }
+
+      @Override
+      public void identityQuery(VariableLengthInteger queryId, PeerAddresses addresses) {
+         delegate.identityQuery(queryId, addresses);
+      }
+
+      @Override
+      public void identityAnnouncement(PeerAddresses addresses) {
+         delegate.identityAnnouncement(addresses);
+      }
+
+      @Override
+      public void close() {
+         delegate.close();
+      }
+
+      @Override
+      public FramePeer connect(PeerAddress address, Role role, FramePeer initiator) {
+         FramePeer peer = delegate.connect(address, role, initiator);
+         peer.initiateHandshake(PROTOCOL_NAME, ByteBufferAllocator.EMPTY);
+         return peer;
+      }
+   }
+
+   private static final class CountingPeer implements Peer {
+      private long bytes = 0;
+      private final Message message = new Message() {
+         @Override
+         public void recieve(ByteBuffer buffer) {
+            bytes += buffer.remaining();
+         }
+
+         @Override
+         public void endWith(ByteBuffer buffer) {
+            bytes += buffer.remaining();
+         }
+      };
+
+      @Override
+      public Message create() {
+         return message;
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+}
@@ -0,0 +1,81 @@
+package com.vanillasource.scan.client.network.network;
+
+import com.vanillasource.scan.client.network.Message;
+import com.vanillasource.scan.client.network.Peer;
+import com.vanillasource.scan.client.network.frame.CountingFramePeer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sending messages as frames. Every thread sends on its own peer, but all of them share the message ids of one
+ * connection, like concurrent senders on the same logical connection do. Messages that fit into one chunk don't need an id,
+ * larger ones are split into chunks and hold an id while being sent.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramePeerToPeerBenchmark {
+   @State(Scope.Benchmark)
+   public static class Connection {
+      @Param({"bitmask", "atomic"})
+      public String implementation;
+
+      @Param({"0", "64", "120"})
+      public int pressure;
+
+      private MessageIds messageIds;
+
+      @Setup
+      public void setUp() {
+         messageIds = MessageIdsBenchmark.create(implementation, pressure);
+      }
+   }
+
+   @State(Scope.Thread)
+   public static class Sender {
+      @Param({"64", "1024", "32768"})
+      public int payloadSize;
+
+      private final CountingFramePeer frames = new CountingFramePeer();
+      private Peer peer;
+      private ByteBuffer payload;
+
+      @Setup
+      public void setUp(Connection connection) {
+         peer = new FramePeerToPeer(connection.messageIds, frames);
+         payload = ByteBuffer.allocate(payloadSize);
+      }
+   }
+
+   @Benchmark
+   public long sendWhole(Sender sender) {
+      sender.peer.receive(sender.payload.clear());
+      return sender.frames.bytes();
+   }
+
+   /**
+    * Send the message in two parts, so even small messages need an id.
+    */
+   @Benchmark
+   public long sendInParts(Sender sender) {
+      Message message = sender.peer.create();
+      int half = sender.payloadSize / 2;
+      message.recieve(sender.payload.clear().limit(half));
+      message.endWith(sender.payload.limit(sender.payloadSize).position(half));
+      return sender.frames.bytes();
+   }
+}
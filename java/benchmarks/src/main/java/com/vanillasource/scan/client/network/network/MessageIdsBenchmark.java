@@ -0,0 +1,68 @@
+package com.vanillasource.scan.client.network.network;
+
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reserving and releasing message ids of one connection from all benchmark threads. The pressure
+ * is the number of ids of the 128 available that are held for the whole run, so reservers have to search past them,
+ * and with more threads than free ids, wait for each other.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageIdsBenchmark {
+   static final int ID_COUNT = 128;
+
+   @Param({"bitmask", "atomic"})
+   public String implementation;
+
+   @Param({"0", "64", "120"})
+   public int pressure;
+
+   private MessageIds messageIds;
+
+   @Setup
+   public void setUp() {
+      messageIds = create(implementation, pressure);
+   }
+
+   /**
+    * Create message ids for the whole one-byte id range, with the given number of ids already reserved.
+    */
+   static MessageIds create(String implementation, int pressure) {
+      VariableLengthInteger startId = VariableLengthInteger.ZERO;
+      VariableLengthInteger endId = VariableLengthInteger.createLong(ID_COUNT - 1);
+      MessageIds messageIds = switch (implementation) {
+         case "bitmask" -> new BitMaskMessageIds(startId, endId);
+         case "atomic" -> new AtomicBitMaskMessageIds(startId, endId);
+         default -> throw new IllegalArgumentException("unknown message ids implementation "+implementation);
+      };
+      for (int i = 0; i < pressure; i++) {
+         messageIds.reserveId();
+      }
+      return messageIds;
+   }
+
+   @Benchmark
+   public VariableLengthInteger reserveAndRelease() {
+      VariableLengthInteger id = messageIds.reserveId();
+      messageIds.releaseId(id);
+      return id;
+   }
+}
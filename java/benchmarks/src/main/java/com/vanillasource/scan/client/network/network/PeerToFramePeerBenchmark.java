@@ -0,0 +1,99 @@
+package com.vanillasource.scan.client.network.network;
+
+import com.vanillasource.scan.client.network.Message;
+import com.vanillasource.scan.client.network.Peer;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reassembling chunked messages received on a logical connection. Each message is received in at
+ * least two frames. The given number of messages are kept open, which is the message id pressure
+ * the sender puts on the receiver, and ids start at the given id, so either the dense array or the sparse map
+ * of open messages is used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeerToFramePeerBenchmark {
+   @Param({"64", "1024", "32768"})
+   public int payloadSize;
+
+   @Param({"1", "64", "512"})
+   public int openMessages;
+
+   @Param({"0", "1000"})
+   public long firstId;
+
+   private final CountingMessage message = new CountingMessage();
+   private PeerToFramePeer framePeer;
+   private VariableLengthInteger messageId;
+   private ByteBuffer[] chunks;
+
+   @Setup
+   public void setUp() {
+      framePeer = new PeerToFramePeer(new Peer() {
+         @Override
+         public Message create() {
+            return message;
+         }
+
+         @Override
+         public void receive(ByteBuffer payload) {
+            message.endWith(payload);
+         }
+
+         @Override
+         public void close() {
+         }
+      }, openMessages);
+      ByteBuffer payload = ByteBuffer.allocate(payloadSize);
+      int chunkSize = Math.min(FramePeerToPeer.DEFAULT_MAX_CHUNK_SIZE, payloadSize / 2);
+      chunks = new ByteBuffer[(payloadSize + chunkSize - 1) / chunkSize];
+      for (int i = 0; i < chunks.length; i++) {
+         chunks[i] = payload.slice(i * chunkSize, Math.min(chunkSize, payloadSize - i * chunkSize));
+      }
+      messageId = VariableLengthInteger.createLong(firstId);
+      for (int i = 1; i < openMessages; i++) {
+         framePeer.messageIntermediateFrame(VariableLengthInteger.createLong(firstId + i), chunks[0]);
+      }
+   }
+
+   @Benchmark
+   public long receive() {
+      for (int i = 0; i < chunks.length - 1; i++) {
+         framePeer.messageIntermediateFrame(messageId, chunks[i]);
+      }
+      framePeer.messageLastFrame(messageId, chunks[chunks.length - 1]);
+      return message.bytes;
+   }
+
+   private static final class CountingMessage implements Message {
+      private long bytes = 0;
+
+      @Override
+      public void recieve(ByteBuffer buffer) {
+         bytes += buffer.remaining();
+      }
+
+      @Override
+      public void endWith(ByteBuffer buffer) {
+         bytes += buffer.remaining();
+      }
+   }
+}
@@ -0,0 +1,48 @@
+package com.vanillasource.scan.client.network.network;
+
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.util.TimeSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generating query ids from all benchmark threads. When exhausted, all ids of the window are used
+ * up right away, so every call takes the path of refusing an id until the window resets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryIdsBenchmark {
+   @Param({"false", "true"})
+   public boolean exhausted;
+
+   private QueryIds queryIds;
+
+   @Setup
+   public void setUp() {
+      queryIds = new QueryIds(TimeSource.SYSTEM, exhausted ? 0 : VariableLengthInteger.MAX_LONG_VALUE,
+            delayMillis -> CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS));
+      queryIds.tryNextQueryId();
+   }
+
+   @Benchmark
+   public Optional<VariableLengthInteger> tryNextQueryId() {
+      return queryIds.tryNextQueryId();
+   }
+}
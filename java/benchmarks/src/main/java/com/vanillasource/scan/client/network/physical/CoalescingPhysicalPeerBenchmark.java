@@ -0,0 +1,103 @@
+package com.vanillasource.scan.client.network.physical;
+
+import com.vanillasource.scan.client.network.frame.FrameScheduler;
+import com.vanillasource.util.Lock;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small frames of concurrent senders written through the scheduler into a loopback socket, with and
+ * without coalescing, wired like a physical connection of the frame network. Besides the latency of
+ * sending, the frames and the socket writes of each thread are counted, so the frames per write show how
+ * many system calls coalescing saves. Run with several threads, a single sender never coalesces.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoalescingPhysicalPeerBenchmark {
+   private static final int FRAME_LENGTH = 64;
+   private static final int FLUSH_THRESHOLD = 16*1024;
+
+   /**
+    * The latency budget of coalescing in microseconds, 0 to write every frame by itself.
+    */
+   @Param({"0", "100"})
+   public long latencyBudgetMicros;
+
+   private final ThreadLocal<Counters> counters = new ThreadLocal<>();
+   private PhysicalPeer socket;
+   private FrameScheduler scheduler;
+   private ByteBuffer frame;
+
+   @AuxCounters(AuxCounters.Type.EVENTS)
+   @State(Scope.Thread)
+   public static class Counters {
+      public long frames;
+      public long writes;
+
+      @Setup(Level.Iteration)
+      public void reset(CoalescingPhysicalPeerBenchmark benchmark) {
+         frames = 0;
+         writes = 0;
+         benchmark.counters.set(this);
+      }
+   }
+
+   @Setup
+   public void setUp() {
+      socket = new LoopbackSocketPeer();
+      PhysicalPeer counting = new PhysicalPeer() {
+         @Override
+         public void receive(ByteBuffer message) {
+            receive(new ByteBuffer[] { message });
+         }
+
+         @Override
+         public void receive(ByteBuffer[] messages) {
+            // Writes are done by the thread that holds the output lock
+            counters.get().writes++;
+            socket.receive(messages);
+         }
+
+         @Override
+         public void close() {
+            socket.close();
+         }
+      };
+      Lock outputLock = new Lock();
+      PhysicalPeer output = latencyBudgetMicros > 0
+            ? new CoalescingPhysicalPeer(counting, outputLock, () -> scheduler.hasWaitingFrames(), FLUSH_THRESHOLD, latencyBudgetMicros)
+            : counting;
+      scheduler = new FrameScheduler(output, outputLock);
+      frame = ByteBuffer.allocateDirect(FRAME_LENGTH);
+   }
+
+   @TearDown
+   public void tearDown() {
+      socket.close();
+   }
+
+   @Benchmark
+   public void send(Counters counters) {
+      scheduler.sendPriority(new ByteBuffer[] { frame.duplicate() });
+      counters.frames++;
+   }
+}
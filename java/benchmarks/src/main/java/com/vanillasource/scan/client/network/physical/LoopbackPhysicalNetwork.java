@@ -0,0 +1,57 @@
+package com.vanillasource.scan.client.network.physical;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/**
+ * An in-memory physical network between two endpoints. Everything sent is delivered to the other
+ * endpoint synchronously on the sending thread, so benchmarks measure the frame and message layers
+ * without any sockets.
+ */
+public final class LoopbackPhysicalNetwork implements PhysicalNetwork {
+   private final InetAddress address;
+   private LoopbackPhysicalNetwork remote;
+   private PhysicalNetworkListener listener;
+
+   private LoopbackPhysicalNetwork(InetAddress address) {
+      this.address = address;
+   }
+
+   /**
+    * Create two connected endpoints with the given addresses.
+    */
+   public static LoopbackPhysicalNetwork[] pair(InetAddress first, InetAddress second) {
+      LoopbackPhysicalNetwork[] networks = { new LoopbackPhysicalNetwork(first), new LoopbackPhysicalNetwork(second) };
+      networks[0].remote = networks[1];
+      networks[1].remote = networks[0];
+      return networks;
+   }
+
+   /**
+    * The factory to give to the layer above, which attaches its listener to this endpoint.
+    */
+   public Function<PhysicalNetworkListener, PhysicalNetwork> factory() {
+      return listener -> {
+         this.listener = listener;
+         return this;
+      };
+   }
+
+   @Override
+   public void sendMulticast(ByteBuffer packet) {
+      remote.listener.receiveMulticast(address, packet.duplicate());
+   }
+
+   @Override
+   public PhysicalPeer openConnection(InetAddress peer, PhysicalPeer initiator) {
+      if (!peer.equals(remote.address)) {
+         throw new IllegalArgumentException("no endpoint with address "+peer);
+      }
+      return remote.listener.receiveConnection(address, initiator);
+   }
+
+   @Override
+   public void close() {
+   }
+}
@@ -0,0 +1,78 @@
+package com.vanillasource.scan.client.network.physical;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A physical peer that writes into a loopback TCP connection, with a thread that reads and discards
+ * everything on the other end. Every call to receive is one gathering write, so benchmarks pay for the
+ * system calls a real connection would make.
+ */
+public final class LoopbackSocketPeer implements PhysicalPeer {
+   private final SocketChannel channel;
+   private final SocketChannel drained;
+   private final Thread drain;
+
+   public LoopbackSocketPeer() {
+      try (ServerSocketChannel server = ServerSocketChannel.open()) {
+         server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+         channel = SocketChannel.open(server.getLocalAddress());
+         channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+         drained = server.accept();
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      drain = new Thread(this::drain, "loopback-drain");
+      drain.setDaemon(true);
+      drain.start();
+   }
+
+   @Override
+   public void receive(ByteBuffer message) {
+      receive(new ByteBuffer[] { message });
+   }
+
+   @Override
+   public void receive(ByteBuffer[] messages) {
+      try {
+         channel.write(messages);
+         for (ByteBuffer message : messages) {
+            while (message.hasRemaining()) {
+               channel.write(message);
+            }
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   @Override
+   public void close() {
+      try {
+         channel.close();
+         drained.close();
+         drain.join();
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   private void drain() {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(256*1024);
+      try {
+         while (drained.read(buffer.clear()) >= 0) {
+            // Discard
+         }
+      } catch (IOException e) {
+         // Closed
+      }
+   }
+}
@@ -0,0 +1,214 @@
+package com.vanillasource.scan.client.network.physical;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips of small messages through a physical network that echoes everything it receives, while it
+ * holds the given number of open TCP connections, and fan-out of one message from a single sender to all
+ * connections. Shows how the selector loops and the virtual threads cope with many mostly idle connections.
+ * After each iteration the resident memory of the process is printed, with the part each connection added.
+ * Connections are keyed by remote address, so each client connects from its own address of 127.0.0.0/8,
+ * which needs Linux, and a file descriptor limit above twice the connection count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhysicalNetworkEchoBenchmark {
+   private static final int MESSAGE_LENGTH = 64;
+
+   @Param({"selector", "virtualThreads"})
+   public String implementation;
+
+   @Param({"100", "1000", "10000", "50000"})
+   public int connectionCount;
+
+   private long baselineKilobytes;
+   private PhysicalNetwork network;
+   private SocketChannel[] clients;
+   private BlockingQueue<SocketChannel> idleClients;
+   private final List<PhysicalPeer> connections = Collections.synchronizedList(new ArrayList<>());
+   private final ByteBuffer fanOutMessage = ByteBuffer.allocateDirect(MESSAGE_LENGTH);
+
+   @Setup
+   public void setUp() throws IOException {
+      System.gc();
+      baselineKilobytes = residentKilobytes();
+      PhysicalNetworkListener echo = new PhysicalNetworkListener() {
+         @Override
+         public void receiveMulticast(InetAddress sender, ByteBuffer packet) {
+         }
+
+         @Override
+         public PhysicalPeer receiveConnection(InetAddress address, PhysicalPeer initiator) {
+            connections.add(initiator);
+            return new PhysicalPeer() {
+               @Override
+               public void receive(ByteBuffer message) {
+                  initiator.receive(message);
+               }
+
+               @Override
+               public void close() {
+               }
+            };
+         }
+      };
+      InetSocketAddress serverAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+      int port;
+      switch (implementation) {
+         case "selector" -> {
+            SelectorPhysicalNetwork selector = new SelectorPhysicalNetwork(echo, Runtime.getRuntime().availableProcessors(),
+                  serverAddress, 0, null, null);
+            network = selector;
+            port = selector.localPort();
+         }
+         case "virtualThreads" -> {
+            VirtualThreadPhysicalNetwork virtualThreads = new VirtualThreadPhysicalNetwork(echo, Thread.ofVirtual().factory(),
+                  serverAddress, 0, null, null);
+            network = virtualThreads;
+            port = virtualThreads.localPort();
+         }
+         default -> throw new IllegalArgumentException("unknown implementation "+implementation);
+      }
+      clients = new SocketChannel[connectionCount];
+      idleClients = new ArrayBlockingQueue<>(connectionCount);
+      ByteBuffer message = ByteBuffer.allocateDirect(MESSAGE_LENGTH);
+      for (int i = 0; i < connectionCount; i++) {
+         clients[i] = SocketChannel.open();
+         clients[i].bind(new InetSocketAddress(clientAddress(i), 0));
+         clients[i].connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+         clients[i].setOption(StandardSocketOptions.TCP_NODELAY, true);
+         // Make sure the network serves the connection before measuring
+         echo(clients[i], message);
+         idleClients.add(clients[i]);
+      }
+   }
+
+   @TearDown(Level.Iteration)
+   public void reportMemory() {
+      long kilobytes = residentKilobytes();
+      System.out.printf("%n%s with %d connections: %d MB resident, %.1f KB per connection%n", implementation,
+            connectionCount, kilobytes/1024, (double) (kilobytes - baselineKilobytes)/connectionCount);
+   }
+
+   @TearDown
+   public void tearDown() throws IOException {
+      for (SocketChannel client : clients) {
+         if (client != null) {
+            client.close();
+         }
+      }
+      network.close();
+   }
+
+   @State(Scope.Thread)
+   public static class Message {
+      private final ByteBuffer buffer = ByteBuffer.allocateDirect(MESSAGE_LENGTH);
+   }
+
+   @Benchmark
+   public ByteBuffer roundTrip(Message message) throws IOException, InterruptedException {
+      SocketChannel client = idleClients.take();
+      try {
+         return echo(client, message.buffer);
+      } finally {
+         idleClients.add(client);
+      }
+   }
+
+   /**
+    * One sender writes the same message to every connection, then waits until all clients received it.
+    * Fan-outs are done one at a time, so run this with a single thread.
+    */
+   @Benchmark
+   public SocketChannel[] fanOut(Message message) throws IOException {
+      synchronized (connections) {
+         for (PhysicalPeer connection : connections) {
+            connection.receive(fanOutMessage.duplicate());
+         }
+         for (SocketChannel client : clients) {
+            read(client, message.buffer);
+         }
+         return clients;
+      }
+   }
+
+   private static ByteBuffer echo(SocketChannel client, ByteBuffer message) throws IOException {
+      message.clear();
+      while (message.hasRemaining()) {
+         client.write(message);
+      }
+      return read(client, message);
+   }
+
+   private static ByteBuffer read(SocketChannel client, ByteBuffer message) throws IOException {
+      message.clear();
+      while (message.hasRemaining()) {
+         if (client.read(message) < 0) {
+            throw new EOFException("network closed connection");
+         }
+      }
+      return message;
+   }
+
+   /**
+    * The resident memory of this process in kilobytes.
+    */
+   private static long residentKilobytes() {
+      try {
+         for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+            if (line.startsWith("VmRSS:")) {
+               return Long.parseLong(line.substring("VmRSS:".length()).trim().split("\\s+")[0]);
+            }
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      throw new IllegalStateException("no VmRSS in /proc/self/status");
+   }
+
+   /**
+    * A distinct loopback address for each client, skipping 127.0.0.0/16 and broadcast-like host bytes.
+    */
+   private static InetAddress clientAddress(int index) {
+      int network = index / 254;
+      try {
+         return InetAddress.getByAddress(new byte[] {
+               127, (byte) (network / 256 + 1), (byte) (network % 256), (byte) (index % 254 + 1) });
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+}
@@ -0,0 +1,78 @@
+package com.vanillasource.scan.client.types;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-checking all wirings of a large installation, for example after a device changed its capabilities.
+ * A cold checker has to canonicalize and check every type again, a warm one already saw all of them.
+ * Types of different devices are structurally the same in many cases, like they are in practice.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubsetCheckerBenchmark {
+   private static final int TYPE_COUNT = 1000;
+   private static final int WIRING_COUNT = 100_000;
+
+   @Param({"cold", "warm"})
+   public String checker;
+
+   private Type[] subsets;
+   private Type[] supersets;
+   private SubsetChecker warmChecker;
+
+   @Setup
+   public void setUp() {
+      StringBuilder source = new StringBuilder();
+      for (int i = 0; i < TYPE_COUNT; i++) {
+         source.append("T").append(i).append(" = Struct(")
+            .append("id: Byte {0 to ").append(i % 50 + 1).append("}, ")
+            .append("level: SignedInteger(").append(1 << i % 4).append("), ")
+            .append("readings: DynamicArray(Option(Double)), ")
+            .append("name: String)\n");
+      }
+      TypeDefinitions definitions = TypeDefinitions.parse(source.toString());
+      Random random = new Random(1);
+      subsets = new Type[WIRING_COUNT];
+      supersets = new Type[WIRING_COUNT];
+      for (int i = 0; i < WIRING_COUNT; i++) {
+         subsets[i] = definitions.type("T"+random.nextInt(TYPE_COUNT));
+         supersets[i] = definitions.type("T"+random.nextInt(TYPE_COUNT));
+      }
+      warmChecker = new SubsetChecker();
+      checkAll(warmChecker);
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(WIRING_COUNT)
+   public int recheck() {
+      return checkAll(checker.equals("cold") ? new SubsetChecker() : warmChecker);
+   }
+
+   private int checkAll(SubsetChecker subsetChecker) {
+      int compatible = 0;
+      for (int i = 0; i < WIRING_COUNT; i++) {
+         if (subsetChecker.isSubset(subsets[i], supersets[i])) {
+            compatible++;
+         }
+      }
+      return compatible;
+   }
+}
@@ -0,0 +1,96 @@
+package com.vanillasource.scan.client.types.codec;
+
+import com.vanillasource.scan.client.types.ArrayValue;
+import com.vanillasource.scan.client.types.FloatValue;
+import com.vanillasource.scan.client.types.IntegerValue;
+import com.vanillasource.scan.client.types.StructValue;
+import com.vanillasource.scan.client.types.Type;
+import com.vanillasource.scan.client.types.TypeDefinitions;
+import com.vanillasource.scan.client.types.UnionValue;
+import com.vanillasource.scan.client.types.UnitValue;
+import com.vanillasource.scan.client.types.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding values with the interpreting and the compiled codec, for a deeply
+ * nested recursive structure and for a large array of small structures.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueCodecBenchmark {
+   private static final int DEPTH = 64;
+   private static final int ITEM_COUNT = 1024;
+   private static final TypeDefinitions DEFINITIONS = TypeDefinitions.parse("""
+      Node = Struct(value: SignedInteger(4), next: Option(Node))
+      Reading = Struct(sensor: VariableLengthInteger(4), level: SignedInteger(2), value: Double)
+      Readings = DynamicArray(Reading)
+      """);
+
+   @Param({"interpreting", "compiled"})
+   public String implementation;
+
+   @Param({"deepStruct", "largeArray"})
+   public String shape;
+
+   private ValueCodec codec;
+   private Value value;
+   private ByteBuffer buffer;
+
+   @Setup
+   public void setUp() {
+      Type type = DEFINITIONS.type(shape.equals("deepStruct") ? "Node" : "Readings");
+      codec = switch (implementation) {
+         case "interpreting" -> new InterpretingValueCodec(type);
+         case "compiled" -> CompiledValueCodec.compile(type);
+         default -> throw new IllegalArgumentException("unknown implementation "+implementation);
+      };
+      value = shape.equals("deepStruct") ? deepStruct() : largeArray();
+      buffer = ByteBuffer.allocate(64*1024);
+      codec.encode(value, buffer);
+      buffer.flip();
+   }
+
+   @Benchmark
+   public ByteBuffer encode() {
+      codec.encode(value, buffer.clear());
+      return buffer;
+   }
+
+   @Benchmark
+   public Value decode() {
+      return codec.decode(buffer.rewind());
+   }
+
+   private static Value deepStruct() {
+      Value node = new StructValue(new IntegerValue(DEPTH), new UnionValue(0, UnitValue.INSTANCE));
+      for (int i = DEPTH - 1; i > 0; i--) {
+         node = new StructValue(new IntegerValue(i), new UnionValue(1, node));
+      }
+      return node;
+   }
+
+   private static Value largeArray() {
+      Value[] readings = new Value[ITEM_COUNT];
+      for (int i = 0; i < ITEM_COUNT; i++) {
+         readings[i] = new StructValue(new IntegerValue(i), new IntegerValue(i % 100 - 50), new FloatValue(i / 8.0));
+      }
+      return new ArrayValue(readings);
+   }
+}
@@ -0,0 +1,68 @@
+package com.vanillasource.scan.client.types.transform;
+
+import com.vanillasource.scan.client.types.FloatValue;
+import com.vanillasource.scan.client.types.IntegerValue;
+import com.vanillasource.scan.client.types.StructValue;
+import com.vanillasource.scan.client.types.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running transformations interpreted and compiled. The conversion program converts a field
+ * of a structure, like wiring a sensor to a display does, the loop program jumps backwards 40 times.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformationBenchmark {
+   @Param({"interpreted", "compiled"})
+   public String tier;
+
+   @Param({"conversion", "loop"})
+   public String program;
+
+   private Transformation transformation;
+   private Value[] inputs;
+
+   @Setup
+   public void setUp() {
+      ProgramWriter writer;
+      if (program.equals("conversion")) {
+         writer = new ProgramWriter(1)
+            .input(0).field(0)
+            .input(0).field(1).constant(1.8).multiply().constant(32.0).add()
+            .struct(2).returnValue();
+         inputs = new Value[] { new StructValue(new IntegerValue(7), new FloatValue(21.5)) };
+      } else {
+         ProgramWriter.Label loop = new ProgramWriter.Label();
+         ProgramWriter.Label end = new ProgramWriter.Label();
+         writer = new ProgramWriter(2).input(0)
+            .bind(loop).duplicate().input(1).less().jumpIfFalse(end)
+            .constant(2L).multiply().jump(loop)
+            .bind(end).returnValue();
+         inputs = new Value[] { new IntegerValue(1), new IntegerValue(1L << 40) };
+      }
+      Program parsed = Program.parse(ByteBuffer.wrap(writer.toByteArray()));
+      transformation = new Transformation(parsed, tier.equals("compiled") ? 0 : Integer.MAX_VALUE);
+   }
+
+   @Benchmark
+   public Value apply() {
+      return transformation.apply(inputs);
+   }
+}
@@ -0,0 +1,52 @@
+package com.vanillasource.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocating and releasing buffers from an allocator shared by all threads, pooled and unpooled.
+ * Run with the GC profiler to see the allocation rate the pools save.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteBufferAllocatorBenchmark {
+   @Param({"pooled", "unpooled"})
+   public String implementation;
+
+   @Param({"64", "1500", "32768"})
+   public int size;
+
+   private ByteBufferAllocator allocator;
+
+   @Setup
+   public void setUp() {
+      allocator = switch (implementation) {
+         case "pooled" -> new ByteBufferAllocator();
+         case "unpooled" -> ByteBufferAllocator.UNPOOLED;
+         default -> throw new IllegalArgumentException("unknown implementation "+implementation);
+      };
+   }
+
+   @Benchmark
+   public int allocateAndRelease() {
+      PooledByteBuffer buffer = allocator.allocate(size);
+      int capacity = buffer.buffer().capacity();
+      buffer.release();
+      return capacity;
+   }
+}
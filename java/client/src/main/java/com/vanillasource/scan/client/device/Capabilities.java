@@ -0,0 +1,128 @@
+package com.vanillasource.scan.client.device;
+
+import com.vanillasource.scan.client.types.ArrayValue;
+import com.vanillasource.scan.client.types.IntegerArrayValue;
+import com.vanillasource.scan.client.types.IntegerValue;
+import com.vanillasource.scan.client.types.StructValue;
+import com.vanillasource.scan.client.types.Type;
+import com.vanillasource.scan.client.types.TypeDefinitions;
+import com.vanillasource.scan.client.types.UnionValue;
+import com.vanillasource.scan.client.types.Value;
+import com.vanillasource.scan.client.types.codec.CompiledValueCodec;
+import com.vanillasource.scan.client.types.codec.ValueCodec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The capabilities an authoritative device sends unsolicited on every connection, with the type
+ * definitions parsed and the codecs of all modalities compiled.
+ */
+public record Capabilities(ProtocolVersion protocolVersion, DeviceDefinition deviceDefinition,
+      TypeDefinitions typeDefinitions, List<Modality> modalities) {
+   private static final TypeDefinitions MESSAGES = TypeDefinitions.parse("""
+      ProtocolVersion = Struct(major: Byte, minor: Byte)
+      Message = String
+      Duration = VariableLengthInteger(8) // Milliseconds
+      DeviceDefinition = Struct(deviceName: Message, deviceURI: String)
+      Modality = Struct(
+         name: Message,
+         modalityURI: String,
+         readable: Boolean,
+         writable: Boolean,
+         minimumSetWait: Duration,
+         stateType: String,
+         intentType: String
+      )
+      Capabilities = Struct(
+         protocolVersion: ProtocolVersion,
+         deviceDefinition: DeviceDefinition,
+         typesDefinitions: DynamicArray(Byte),
+         modalities: DynamicArray(Modality)
+      )
+      """);
+   private static final ValueCodec CODEC = CompiledValueCodec.compile(MESSAGES.type("Capabilities"));
+
+   public record ProtocolVersion(int major, int minor) {
+   }
+
+   public record DeviceDefinition(String deviceName, String deviceURI) {
+   }
+
+   /**
+    * A modality of the device, with its state and intent types resolved from the device's type definitions.
+    */
+   public record Modality(String name, String modalityURI, boolean readable, boolean writable, long minimumSetWaitMillis,
+         Type stateType, Type intentType, ValueCodec stateCodec, ValueCodec intentCodec) {
+   }
+
+   public Capabilities {
+      modalities = List.copyOf(modalities);
+   }
+
+   /**
+    * Parse the capabilities in the remaining bytes of the buffer. Since the binary representation of types
+    * is not defined yet, the type definitions are expected in the textual language, encoded in UTF-8.
+    * The position of the buffer is not changed.
+    * @throws IllegalArgumentException If the bytes are not valid capabilities.
+    */
+   public static Capabilities parse(ByteBuffer bytes) {
+      ByteBuffer buffer = bytes.duplicate();
+      StructValue capabilities;
+      try {
+         capabilities = (StructValue) CODEC.decode(buffer);
+      } catch (BufferUnderflowException e) {
+         throw new IllegalArgumentException("capabilities end unexpectedly", e);
+      }
+      if (buffer.hasRemaining()) {
+         throw new IllegalArgumentException("capabilities have "+buffer.remaining()+" trailing bytes");
+      }
+      StructValue version = (StructValue) capabilities.fields()[0];
+      StructValue device = (StructValue) capabilities.fields()[1];
+      TypeDefinitions typeDefinitions = TypeDefinitions.parse(string(capabilities.fields()[2]));
+      List<Modality> modalities = new ArrayList<>();
+      for (Value item : ((ArrayValue) capabilities.fields()[3]).items()) {
+         modalities.add(modality((StructValue) item, typeDefinitions));
+      }
+      return new Capabilities(
+            new ProtocolVersion((int) integer(version.fields()[0]), (int) integer(version.fields()[1])),
+            new DeviceDefinition(string(device.fields()[0]), string(device.fields()[1])),
+            typeDefinitions,
+            modalities);
+   }
+
+   private static Modality modality(StructValue modality, TypeDefinitions typeDefinitions) {
+      Type stateType = typeDefinitions.resolve(string(modality.fields()[5]));
+      Type intentType = typeDefinitions.resolve(string(modality.fields()[6]));
+      return new Modality(
+            string(modality.fields()[0]),
+            string(modality.fields()[1]),
+            bool(modality.fields()[2]),
+            bool(modality.fields()[3]),
+            integer(modality.fields()[4]),
+            stateType,
+            intentType,
+            CompiledValueCodec.compile(stateType),
+            CompiledValueCodec.compile(intentType));
+   }
+
+   private static String string(Value value) {
+      long[] items = ((IntegerArrayValue) value).items();
+      byte[] bytes = new byte[items.length];
+      for (int i = 0; i < items.length; i++) {
+         bytes[i] = (byte) items[i];
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   private static boolean bool(Value value) {
+      return ((UnionValue) value).alternative() == 1;
+   }
+
+   private static long integer(Value value) {
+      return ((IntegerValue) value).value();
+   }
+}
@@ -0,0 +1,133 @@
+package com.vanillasource.scan.client.device;
+
+import com.vanillasource.util.Lock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches parsed capabilities by the SHA-256 hash of the received bytes, so a device reconnecting
+ * with unchanged capabilities costs a hash and a lookup instead of parsing type definitions and
+ * compiling codecs. The least recently used capabilities are evicted above the maximum size.
+ * With a {@link CapabilitiesStore} all received capabilities are also stored, and
+ * {@link #warmUp()} parses them after a restart. Thread-safe.
+ */
+public final class CapabilitiesCache {
+   private static final Logger LOGGER = LoggerFactory.getLogger(CapabilitiesCache.class);
+   private final int maximumSize;
+   private final CapabilitiesStore store;
+   private final Lock lock = new Lock();
+   private final Map<String, Capabilities> capabilities;
+   private final LongAdder hits = new LongAdder();
+   private final LongAdder misses = new LongAdder();
+   private final LongAdder evictions = new LongAdder();
+
+   public CapabilitiesCache(int maximumSize) {
+      this(maximumSize, null);
+   }
+
+   /**
+    * @param store The store to keep received capabilities in, or null to only cache in memory.
+    */
+   public CapabilitiesCache(int maximumSize, CapabilitiesStore store) {
+      if (maximumSize <= 0) {
+         throw new IllegalArgumentException("maximum size must be positive, was "+maximumSize);
+      }
+      this.maximumSize = maximumSize;
+      this.store = store;
+      this.capabilities = new LinkedHashMap<>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, Capabilities> eldest) {
+            if (size() > CapabilitiesCache.this.maximumSize) {
+               evictions.increment();
+               return true;
+            }
+            return false;
+         }
+      };
+   }
+
+   /**
+    * Get the capabilities in the remaining bytes of the buffer, parsing them if they are not cached.
+    * The position of the buffer is not changed.
+    * @throws IllegalArgumentException If the capabilities are not valid.
+    */
+   public Capabilities get(ByteBuffer bytes) {
+      byte[] hash = hash(bytes);
+      String key = HexFormat.of().formatHex(hash);
+      Capabilities cached = lock.synchronize(() -> capabilities.get(key));
+      if (cached != null) {
+         hits.increment();
+         return cached;
+      }
+      misses.increment();
+      // Parsed outside the lock, if another thread parsed the same capabilities meanwhile, that one is kept
+      Capabilities parsed = Capabilities.parse(bytes);
+      if (store != null) {
+         store.store(hash, bytes);
+      }
+      return lock.synchronize(() -> capabilities.computeIfAbsent(key, k -> parsed));
+   }
+
+   /**
+    * Parse all capabilities in the store that are not cached yet, up to the maximum size. Invalid
+    * stored capabilities are skipped.
+    * @return The number of capabilities parsed.
+    */
+   public int warmUp() {
+      if (store == null) {
+         return 0;
+      }
+      int count = 0;
+      for (ByteBuffer bytes : store.capabilities()) {
+         if (count >= maximumSize) {
+            break;
+         }
+         String key = HexFormat.of().formatHex(hash(bytes));
+         if (lock.synchronize(() -> capabilities.containsKey(key))) {
+            continue;
+         }
+         try {
+            Capabilities parsed = Capabilities.parse(bytes);
+            lock.synchronize(() -> capabilities.putIfAbsent(key, parsed));
+            count++;
+         } catch (IllegalArgumentException e) {
+            LOGGER.warn("stored capabilities could not be parsed, skipping", e);
+         }
+      }
+      return count;
+   }
+
+   public int size() {
+      return lock.synchronize(capabilities::size);
+   }
+
+   public long hits() {
+      return hits.sum();
+   }
+
+   public long misses() {
+      return misses.sum();
+   }
+
+   public long evictions() {
+      return evictions.sum();
+   }
+
+   static byte[] hash(ByteBuffer bytes) {
+      try {
+         MessageDigest digest = MessageDigest.getInstance("SHA-256");
+         digest.update(bytes.duplicate());
+         return digest.digest();
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException("SHA-256 is not available", e);
+      }
+   }
+}
@@ -0,0 +1,179 @@
+package com.vanillasource.scan.client.device;
+
+import com.vanillasource.util.Lock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+/**
+ * An append-only store of received capabilities in a memory mapped file of fixed size, so a
+ * restarted process can parse them before devices reconnect. Each record is the length, the
+ * SHA-256 hash and the bytes of the capabilities. Records that are torn or do not match their hash
+ * end the store, they are overwritten by the next append. When the file is full, the oldest records
+ * are dropped, so the newest ones fill at most half of the file. Stored records are forced to disk
+ * shortly after storing, once for all records stored in the meantime.
+ */
+public final class CapabilitiesStore {
+   private static final Logger LOGGER = LoggerFactory.getLogger(CapabilitiesStore.class);
+   static final int HASH_LENGTH = 32;
+   static final long FLUSH_DELAY_MILLIS = 1000;
+   private static final int HEADER = Integer.BYTES + HASH_LENGTH;
+   private final MappedByteBuffer file;
+   private final LongFunction<Executor> delayedExecutor;
+   private final Lock lock = new Lock();
+   private final Set<ByteBuffer> hashes = new HashSet<>();
+   private final List<StoredRecord> records = new ArrayList<>();
+   private int writePosition = 0;
+   private boolean flushScheduled = false;
+
+   private record StoredRecord(ByteBuffer hash, int position, int length) {
+   }
+
+   private CapabilitiesStore(MappedByteBuffer file, LongFunction<Executor> delayedExecutor) {
+      this.file = file;
+      this.delayedExecutor = delayedExecutor;
+      load();
+   }
+
+   /**
+    * Open or create the store in the given file, mapping the given number of bytes.
+    */
+   public static CapabilitiesStore open(Path path, int capacity) {
+      return open(path, capacity, delayMillis -> CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS));
+   }
+
+   /**
+    * @param delayedExecutor Returns an executor that runs tasks after the given milliseconds, used to flush.
+    */
+   public static CapabilitiesStore open(Path path, int capacity, LongFunction<Executor> delayedExecutor) {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+         return new CapabilitiesStore(channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity), delayedExecutor);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /**
+    * All stored capabilities, copied, as records may be moved when the store is full.
+    */
+   public List<ByteBuffer> capabilities() {
+      return lock.synchronize(() -> {
+         List<ByteBuffer> result = new ArrayList<>();
+         for (StoredRecord record : records) {
+            ByteBuffer copy = ByteBuffer.allocate(record.length());
+            copy.put(0, file, record.position() + HEADER, record.length());
+            result.add(copy.asReadOnlyBuffer());
+         }
+         return result;
+      });
+   }
+
+   /**
+    * Store the capabilities with the given hash, if not yet stored and there is room.
+    * @return True if the capabilities are stored.
+    */
+   public boolean store(byte[] hash, ByteBuffer capabilities) {
+      if (hash.length != HASH_LENGTH) {
+         throw new IllegalArgumentException("hash must be "+HASH_LENGTH+" bytes, but was "+hash.length);
+      }
+      return lock.synchronize(() -> {
+         ByteBuffer key = ByteBuffer.wrap(hash.clone());
+         if (hashes.contains(key)) {
+            return true;
+         }
+         int length = capabilities.remaining();
+         if (writePosition + HEADER + length > file.capacity()) {
+            compact();
+         }
+         if (writePosition + HEADER + length > file.capacity()) {
+            LOGGER.warn("capabilities store is full, can not store {} bytes", length);
+            return false;
+         }
+         file.put(writePosition + Integer.BYTES, hash);
+         file.put(writePosition + HEADER, capabilities, capabilities.position(), length);
+         if (writePosition + HEADER + length + Integer.BYTES <= file.capacity()) {
+            file.putInt(writePosition + HEADER + length, 0);
+         }
+         // Length is written last, so a torn record is never mistaken for a complete one
+         file.putInt(writePosition, length);
+         add(key, writePosition, length);
+         if (!flushScheduled) {
+            flushScheduled = true;
+            delayedExecutor.apply(FLUSH_DELAY_MILLIS).execute(this::flush);
+         }
+         return true;
+      });
+   }
+
+   /**
+    * Force all stored records to disk now.
+    */
+   public void flush() {
+      lock.synchronize(() -> flushScheduled = false);
+      file.force();
+   }
+
+   /**
+    * Move the newest records that fit into half of the file to its start, dropping all others.
+    * If the process stops while moving, the records after the one being moved are lost.
+    */
+   private void compact() {
+      int first = records.size();
+      while (first > 0 && writePosition - records.get(first - 1).position() <= file.capacity() / 2) {
+         first--;
+      }
+      int start = first == records.size() ? writePosition : records.get(first).position();
+      byte[] kept = new byte[writePosition - start];
+      file.get(start, kept);
+      List<StoredRecord> keptRecords = List.copyOf(records.subList(first, records.size()));
+      LOGGER.info("capabilities store is full, keeping newest {} of {} records", keptRecords.size(), records.size());
+      hashes.clear();
+      records.clear();
+      file.put(0, kept);
+      if (kept.length + Integer.BYTES <= file.capacity()) {
+         file.putInt(kept.length, 0);
+      }
+      writePosition = 0;
+      for (StoredRecord record : keptRecords) {
+         add(record.hash(), record.position() - start, record.length());
+      }
+   }
+
+   private void load() {
+      while (writePosition + HEADER <= file.capacity()) {
+         int length = file.getInt(writePosition);
+         if (length <= 0 || writePosition + HEADER + length > file.capacity()) {
+            break;
+         }
+         byte[] hash = new byte[HASH_LENGTH];
+         file.get(writePosition + Integer.BYTES, hash);
+         if (!Arrays.equals(hash, CapabilitiesCache.hash(file.slice(writePosition + HEADER, length)))) {
+            LOGGER.warn("capabilities store record at {} does not match its hash, ignoring rest of store", writePosition);
+            break;
+         }
+         add(ByteBuffer.wrap(hash), writePosition, length);
+      }
+   }
+
+   private void add(ByteBuffer hash, int position, int length) {
+      hashes.add(hash);
+      records.add(new StoredRecord(hash, position, length));
+      writePosition = position + HEADER + length;
+   }
+}
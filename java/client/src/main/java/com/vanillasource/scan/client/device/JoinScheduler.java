@@ -0,0 +1,155 @@
+package com.vanillasource.scan.client.device;
+
+import com.vanillasource.util.Lock;
+import com.vanillasource.util.TimeSource;
+import com.vanillasource.util.TimingWheel;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Schedules sending state values of an authoritative device to all joined parties, honoring
+ * the minimum send wait of each join. Keys identify a single join, usually the connection and
+ * modality. Values produced before the next window opens replace each other, and the newest
+ * is sent exactly once when the window opens. A join with {@link #INFINITE_WAIT} sends the current
+ * value once, imitating a pull.
+ *
+ * The sender is called while holding an internal lock, so values for the same key are
+ * never sent in parallel. It must not block, use a {@link com.vanillasource.scan.client.network.LatestValueSender}
+ * for example. Deadlines are tracked in a {@link TimingWheel}, {@link #advance()} must be called
+ * at least every tick.
+ */
+public final class JoinScheduler<K, V> {
+   public static final long INFINITE_WAIT = Long.MAX_VALUE;
+   private static final long DEFAULT_TICK_MILLIS = 10;
+   private static final int DEFAULT_SLOT_COUNT = 1024;
+   private static final long NEVER = Long.MIN_VALUE;
+   private final TimeSource timeSource;
+   private final BiConsumer<K, V> sender;
+   private final TimingWheel<Join> wheel;
+   private final Map<K, Join> joins = new HashMap<>();
+   private final Lock lock = new Lock();
+
+   public JoinScheduler(TimeSource timeSource, BiConsumer<K, V> sender) {
+      this(timeSource, sender, DEFAULT_TICK_MILLIS, DEFAULT_SLOT_COUNT);
+   }
+
+   /**
+    * @param slotCount Number of slots in the timing wheel, must be a power of two.
+    */
+   public JoinScheduler(TimeSource timeSource, BiConsumer<K, V> sender, long tickMillis, int slotCount) {
+      this.timeSource = timeSource;
+      this.sender = sender;
+      this.wheel = new TimingWheel<>(timeSource, tickMillis, slotCount);
+   }
+
+   /**
+    * Join or re-join with the given wait. The current value, if there is one, is sent as soon
+    * as the new wait allows, which is immediately for a new join.
+    */
+   public void join(K key, long minimumSendWaitMillis) {
+      if (minimumSendWaitMillis < 0) {
+         throw new IllegalArgumentException("wait can not be negative, was "+minimumSendWaitMillis);
+      }
+      lock.synchronize(() -> {
+         Join join = joins.computeIfAbsent(key, Join::new);
+         join.minimumSendWait = minimumSendWaitMillis;
+         join.pullRequested = minimumSendWaitMillis == INFINITE_WAIT;
+         join.unsent = join.value != null;
+         reconsider(join, timeSource.currentTimeMillis());
+      });
+   }
+
+   /**
+    * Stop sending values for the given key.
+    */
+   public void leave(K key) {
+      lock.synchronize(() -> {
+         Join join = joins.remove(key);
+         if (join != null) {
+            wheel.cancel(join.timer);
+         }
+      });
+   }
+
+   /**
+    * Set the newest value for a join. It is sent immediately if the window is open,
+    * otherwise when it opens next, unless it is replaced by then. Values for keys that
+    * are not joined are ignored.
+    */
+   public void update(K key, V value) {
+      lock.synchronize(() -> {
+         Join join = joins.get(key);
+         if (join != null) {
+            join.value = value;
+            join.unsent = true;
+            reconsider(join, timeSource.currentTimeMillis());
+         }
+      });
+   }
+
+   /**
+    * Send all values whose window opened since the last call.
+    */
+   public void advance() {
+      lock.synchronize(() -> {
+         long now = timeSource.currentTimeMillis();
+         wheel.advance(join -> reconsider(join, now));
+      });
+   }
+
+   /**
+    * The number of active joins.
+    */
+   public int joinCount() {
+      return lock.synchronize(joins::size);
+   }
+
+   private void reconsider(Join join, long now) {
+      if (!join.unsent) {
+         wheel.cancel(join.timer);
+         return;
+      }
+      if (join.minimumSendWait == INFINITE_WAIT) {
+         if (join.pullRequested) {
+            send(join, now);
+         }
+         return;
+      }
+      long windowOpens = join.lastSendTime == NEVER ? now : saturatedAdd(join.lastSendTime, join.minimumSendWait);
+      if (windowOpens <= now) {
+         send(join, now);
+      } else {
+         wheel.schedule(join.timer, windowOpens);
+      }
+   }
+
+   private void send(Join join, long now) {
+      wheel.cancel(join.timer);
+      join.unsent = false;
+      join.pullRequested = false;
+      join.lastSendTime = now;
+      sender.accept(join.key, join.value);
+   }
+
+   private static long saturatedAdd(long a, long b) {
+      long result = a + b;
+      return ((a ^ result) & (b ^ result)) < 0 ? Long.MAX_VALUE : result;
+   }
+
+   private final class Join {
+      private final K key;
+      private final TimingWheel.Timer<Join> timer;
+      private long minimumSendWait;
+      private long lastSendTime = NEVER;
+      private V value;
+      private boolean unsent = false;
+      private boolean pullRequested = false;
+
+      private Join(K key) {
+         this.key = key;
+         this.timer = wheel.newTimer(this);
+      }
+   }
+}
@@ -0,0 +1,154 @@
+package com.vanillasource.scan.client.network;
+
+import com.vanillasource.util.ByteBufferAllocator;
+import com.vanillasource.util.PooledByteBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends messages to a peer keeping at most one pending message for each key, usually
+ * a modality. If a message is sent while an older one for the same key is still pending,
+ * the older one is obsolete and gets replaced, as required by the backpressure
+ * section of the specification. Pending messages are sent on the given executor
+ * in the order their keys became pending, so all keys get their turn.
+ *
+ * The sending thread waits while the peer is blocked by backpressure, meanwhile new
+ * messages only replace pending ones, so memory is bounded by the number of keys.
+ * Copies of pending messages are allocated from the given allocator, and released as soon
+ * as they are sent, replaced or dropped.
+ */
+public final class LatestValueSender<K> implements AutoCloseable {
+   private static final Logger LOGGER = LoggerFactory.getLogger(LatestValueSender.class);
+   private final Peer peer;
+   private final Executor executor;
+   private final ByteBufferAllocator allocator;
+   private final Map<K, PooledByteBuffer> pendingMessages = new ConcurrentHashMap<>();
+   private final Queue<K> pendingKeys = new ConcurrentLinkedQueue<>();
+   private final AtomicBoolean draining = new AtomicBoolean();
+   private final LongAdder sentCount = new LongAdder();
+   private final LongAdder replacedCount = new LongAdder();
+   private final LongAdder droppedCount = new LongAdder();
+   private volatile boolean closed = false;
+
+   public LatestValueSender(Peer peer, Executor executor) {
+      this(peer, executor, ByteBufferAllocator.UNPOOLED);
+   }
+
+   public LatestValueSender(Peer peer, Executor executor, ByteBufferAllocator allocator) {
+      this.peer = peer;
+      this.executor = executor;
+      this.allocator = allocator;
+   }
+
+   /**
+    * Send the given message, replacing the pending message with the same key if there
+    * is one. The message is copied, so the buffer can be reused after this returns.
+    */
+   public void send(K key, ByteBuffer message) {
+      if (closed) {
+         droppedCount.increment();
+         return;
+      }
+      PooledByteBuffer replaced = pendingMessages.put(key, allocator.copyOf(message));
+      if (replaced == null) {
+         pendingKeys.add(key);
+         scheduleDrain();
+      } else {
+         replaced.release();
+         replacedCount.increment();
+      }
+      if (closed) {
+         // Closed concurrently, the copy would never be sent or released
+         dropPending();
+      }
+   }
+
+   /**
+    * Discard all pending messages and stop sending. The peer is not closed.
+    */
+   @Override
+   public void close() {
+      closed = true;
+      dropPending();
+   }
+
+   private void dropPending() {
+      pendingKeys.clear();
+      pendingMessages.keySet().forEach(key -> {
+         PooledByteBuffer dropped = pendingMessages.remove(key);
+         if (dropped != null) {
+            dropped.release();
+            droppedCount.increment();
+         }
+      });
+   }
+
+   /**
+    * The number of messages currently waiting to be sent.
+    */
+   public int pendingCount() {
+      return pendingMessages.size();
+   }
+
+   /**
+    * The number of messages given to the peer.
+    */
+   public long sentCount() {
+      return sentCount.sum();
+   }
+
+   /**
+    * The number of obsolete messages replaced by newer ones before being sent.
+    */
+   public long replacedCount() {
+      return replacedCount.sum();
+   }
+
+   /**
+    * The number of messages dropped because this sender was closed or the peer failed.
+    */
+   public long droppedCount() {
+      return droppedCount.sum();
+   }
+
+   private void scheduleDrain() {
+      if (draining.compareAndSet(false, true)) {
+         executor.execute(this::drain);
+      }
+   }
+
+   private void drain() {
+      do {
+         K key;
+         while (!closed && (key = pendingKeys.poll()) != null) {
+            PooledByteBuffer message = pendingMessages.remove(key);
+            if (message != null) {
+               deliver(message);
+            }
+         }
+         draining.set(false);
+         // A key may have been added after the queue was found empty, but before the flag was cleared
+      } while (!closed && !pendingKeys.isEmpty() && draining.compareAndSet(false, true));
+   }
+
+   private void deliver(PooledByteBuffer message) {
+      try {
+         peer.receive(message.buffer());
+         sentCount.increment();
+      } catch (RuntimeException e) {
+         LOGGER.warn("dropping message, could not send", e);
+         droppedCount.increment();
+      } finally {
+         message.release();
+      }
+   }
+}
@@ -1,7 +1,14 @@
 package com.vanillasource.scan.client.network;
 
+import com.vanillasource.util.ByteBufferAllocator;
+
 import java.nio.ByteBuffer;
 
+/**
+ * A message being sent in parts. Buffers given to a message are only borrowed for the
+ * duration of the call, the caller may reuse or release them after the call returns.
+ * Implementations must copy anything they need later.
+ */
 public interface Message {
    /**
     * Receive the given bytes to this message.
@@ -20,7 +27,7 @@ public interface Message {
     * @return A future that completes when all pending bytes are processed.
     */
    default void end() {
-      endWith(ByteBuffer.wrap(new byte[] {}));
+      endWith(ByteBufferAllocator.EMPTY);
    }
 }
 
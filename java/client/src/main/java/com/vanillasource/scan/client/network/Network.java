@@ -1,15 +1,25 @@
 package com.vanillasource.scan.client.network;
 
+import java.util.concurrent.Flow;
+
 public interface Network extends AutoCloseable {
    /**
     * Query all devices on the network. Note that this device may not have
     * access to all the devices listed. Only devices that are currently on the
     * network can answer this query. Not all devices may be detected however
-    * due to network congestion or timeouts. This method may take several
-    * seconds to complete, but will immediately update the supplied listener
-    * each time a device answers.
+    * due to network congestion or timeouts. Nothing is sent by this method, the
+    * returned publisher is lazy: each subscription sends its own query, and receives
+    * each answering device once as it answers. The subscription completes when the
+    * query times out after several seconds, and can be cancelled earlier, which stops
+    * tracking answers immediately.
+    */
+   Flow.Publisher<PeerAddress> queryAll();
+
+   /**
+    * Query the given devices. The returned publisher completes as soon as all
+    * of them answered, or when the query times out.
     */
-   void queryAll();
+   Flow.Publisher<PeerAddress> query(PeerAddresses addresses);
 
    /**
     * Free up this network instance, including ports and other network resources 
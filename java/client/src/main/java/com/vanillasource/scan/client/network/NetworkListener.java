@@ -3,6 +3,13 @@ package com.vanillasource.scan.client.network;
 public interface NetworkListener {
    void receiveAnnouncement(PeerAddress address);
 
+   /**
+    * Called when a device comes online, or goes offline because it missed its announcements.
+    * Offline devices should not be sent anything.
+    */
+   default void receiveOnlineStatus(PeerAddress address, boolean online) {
+   }
+
    /**
     * Receive a connection from the given initiator.
     */
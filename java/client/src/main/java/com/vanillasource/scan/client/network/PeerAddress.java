@@ -1,4 +1,153 @@
 package com.vanillasource.scan.client.network;
 
-public final class PeerAddress {
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The public static key of a device, which identifies it on the network. The 32 bytes
+ * of the key are stored as four big-endian longs, and the hash is computed once, so
+ * comparisons and lookups don't touch any arrays. Ordering is the lexicographic order
+ * of the key bytes.
+ */
+public final class PeerAddress implements Comparable<PeerAddress> {
+   public static final int LENGTH = 32;
+   private final long key0;
+   private final long key1;
+   private final long key2;
+   private final long key3;
+   private final int hash;
+
+   private PeerAddress(long key0, long key1, long key2, long key3) {
+      this.key0 = key0;
+      this.key1 = key1;
+      this.key2 = key2;
+      this.key3 = key3;
+      this.hash = hash(key0, key1, key2, key3);
+   }
+
+   public static PeerAddress create(byte[] key) {
+      if (key.length != LENGTH) {
+         throw new IllegalArgumentException("peer address must be "+LENGTH+" bytes, was "+key.length);
+      }
+      return read(ByteBuffer.wrap(key), 0);
+   }
+
+   /**
+    * Create an address from the four longs of the key, most significant first.
+    */
+   public static PeerAddress create(long key0, long key1, long key2, long key3) {
+      return new PeerAddress(key0, key1, key2, key3);
+   }
+
+   /**
+    * Read an address from the current position of the buffer, advancing the position.
+    */
+   public static PeerAddress read(ByteBuffer buffer) {
+      PeerAddress address = read(buffer, buffer.position());
+      buffer.position(buffer.position() + LENGTH);
+      return address;
+   }
+
+   /**
+    * Read an address from the given index of the buffer, without changing its position.
+    */
+   public static PeerAddress read(ByteBuffer buffer, int index) {
+      return new PeerAddress(getLong(buffer, index), getLong(buffer, index + 8),
+              getLong(buffer, index + 16), getLong(buffer, index + 24));
+   }
+
+   /**
+    * Write this address to the current position of the buffer, advancing the position.
+    */
+   public void writeTo(ByteBuffer buffer) {
+      writeTo(buffer, buffer.position());
+      buffer.position(buffer.position() + LENGTH);
+   }
+
+   /**
+    * Write this address to the given index of the buffer, without changing its position.
+    */
+   public void writeTo(ByteBuffer buffer, int index) {
+      if (index + LENGTH > buffer.limit()) {
+         throw new IndexOutOfBoundsException("no room for address at "+index);
+      }
+      putLong(buffer, index, key0);
+      putLong(buffer, index + 8, key1);
+      putLong(buffer, index + 16, key2);
+      putLong(buffer, index + 24, key3);
+   }
+
+   /**
+    * Whether this address is stored at the given index of the buffer.
+    */
+   public boolean equalsAt(ByteBuffer buffer, int index) {
+      return key0 == getLong(buffer, index) && key1 == getLong(buffer, index + 8) &&
+             key2 == getLong(buffer, index + 16) && key3 == getLong(buffer, index + 24);
+   }
+
+   /**
+    * One of the four longs of the key, most significant first.
+    */
+   public long longAt(int index) {
+      return switch (index) {
+         case 0 -> key0;
+         case 1 -> key1;
+         case 2 -> key2;
+         case 3 -> key3;
+         default -> throw new IndexOutOfBoundsException("address has 4 longs, index was "+index);
+      };
+   }
+
+   @Override
+   public int compareTo(PeerAddress other) {
+      int result = Long.compareUnsigned(key0, other.key0);
+      if (result == 0) {
+         result = Long.compareUnsigned(key1, other.key1);
+      }
+      if (result == 0) {
+         result = Long.compareUnsigned(key2, other.key2);
+      }
+      if (result == 0) {
+         result = Long.compareUnsigned(key3, other.key3);
+      }
+      return result;
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      PeerAddress that = (PeerAddress) o;
+      return hash == that.hash && key0 == that.key0 && key1 == that.key1 && key2 == that.key2 && key3 == that.key3;
+   }
+
+   @Override
+   public int hashCode() {
+      return hash;
+   }
+
+   @Override
+   public String toString() {
+      return String.format("%016x%016x%016x%016x", key0, key1, key2, key3);
+   }
+
+   /**
+    * The hash of an address with the given longs, same as {@link #hashCode()}.
+    */
+   public static int hash(long key0, long key1, long key2, long key3) {
+      long hash = key0 * 0x9E3779B97F4A7C15L;
+      hash = (hash ^ key1) * 0x9E3779B97F4A7C15L;
+      hash = (hash ^ key2) * 0x9E3779B97F4A7C15L;
+      hash = (hash ^ key3) * 0x9E3779B97F4A7C15L;
+      return (int) (hash ^ (hash >>> 32));
+   }
+
+   private static long getLong(ByteBuffer buffer, int index) {
+      long value = buffer.getLong(index);
+      return buffer.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value);
+   }
+
+   private static void putLong(ByteBuffer buffer, int index, long value) {
+      buffer.putLong(index, buffer.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value));
+   }
 }
@@ -0,0 +1,30 @@
+package com.vanillasource.scan.client.network;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns peer addresses, so that components seeing the same identities over and over,
+ * like gateways, hold only a single instance of each. Addresses stay in the pool until
+ * they are explicitly forgotten.
+ */
+public final class PeerAddressPool {
+   private final Map<PeerAddress, PeerAddress> addresses = new ConcurrentHashMap<>();
+
+   /**
+    * The pooled instance equal to the given address. The given address is added to
+    * the pool if there is none.
+    */
+   public PeerAddress intern(PeerAddress address) {
+      PeerAddress existing = addresses.putIfAbsent(address, address);
+      return existing == null ? address : existing;
+   }
+
+   public void forget(PeerAddress address) {
+      addresses.remove(address);
+   }
+
+   public int size() {
+      return addresses.size();
+   }
+}
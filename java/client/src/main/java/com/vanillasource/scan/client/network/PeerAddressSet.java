@@ -0,0 +1,96 @@
+package com.vanillasource.scan.client.network;
+
+/**
+ * A set of peer addresses stored as packed longs in an open addressing table, without
+ * holding on to the address objects. Not thread-safe.
+ */
+public final class PeerAddressSet {
+   private static final int KEY_LONGS = PeerAddress.LENGTH / Long.BYTES;
+   private long[] keys;
+   private boolean[] used;
+   private int size = 0;
+
+   public PeerAddressSet() {
+      this(16);
+   }
+
+   public PeerAddressSet(int expectedSize) {
+      int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+      this.keys = new long[capacity*KEY_LONGS];
+      this.used = new boolean[capacity];
+   }
+
+   /**
+    * Add the address to the set.
+    * @return True if the address was not in the set before.
+    */
+   public boolean add(PeerAddress address) {
+      int slot = find(address);
+      if (used[slot]) {
+         return false;
+      }
+      if ((size + 1) * 2 > used.length) {
+         grow();
+         slot = find(address);
+      }
+      for (int i=0; i<KEY_LONGS; i++) {
+         keys[slot*KEY_LONGS + i] = address.longAt(i);
+      }
+      used[slot] = true;
+      size++;
+      return true;
+   }
+
+   public boolean contains(PeerAddress address) {
+      return used[find(address)];
+   }
+
+   public int size() {
+      return size;
+   }
+
+   /**
+    * @return The slot the address is in, or the empty slot where it should go.
+    */
+   private int find(PeerAddress address) {
+      int mask = used.length - 1;
+      int slot = address.hashCode() & mask;
+      while (used[slot] && !keyEquals(slot, address)) {
+         slot = (slot + 1) & mask;
+      }
+      return slot;
+   }
+
+   private boolean keyEquals(int slot, PeerAddress address) {
+      for (int i=0; i<KEY_LONGS; i++) {
+         if (keys[slot*KEY_LONGS + i] != address.longAt(i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private void grow() {
+      long[] oldKeys = keys;
+      boolean[] oldUsed = used;
+      keys = new long[oldKeys.length*2];
+      used = new boolean[oldUsed.length*2];
+      int mask = used.length - 1;
+      for (int old=0; old<oldUsed.length; old++) {
+         if (oldUsed[old]) {
+            int base = old*KEY_LONGS;
+            int slot = PeerAddress.hash(oldKeys[base], oldKeys[base + 1], oldKeys[base + 2], oldKeys[base + 3]) & mask;
+            while (used[slot]) {
+               slot = (slot + 1) & mask;
+            }
+            System.arraycopy(oldKeys, base, keys, slot*KEY_LONGS, KEY_LONGS);
+            used[slot] = true;
+         }
+      }
+   }
+
+   @Override
+   public String toString() {
+      return "PeerAddressSet[size="+size+", capacity="+used.length+"]";
+   }
+}
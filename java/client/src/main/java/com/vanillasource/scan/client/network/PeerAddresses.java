@@ -0,0 +1,133 @@
+package com.vanillasource.scan.client.network;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A list of peer addresses packed into a single buffer in their wire format. Addresses
+ * are only created when they are explicitly requested, and the list can be written to
+ * the network with a single bulk copy.
+ */
+public final class PeerAddresses implements Iterable<PeerAddress> {
+   public static final PeerAddresses EMPTY = new PeerAddresses(ByteBuffer.allocate(0));
+   private final ByteBuffer buffer;
+
+   private PeerAddresses(ByteBuffer buffer) {
+      this.buffer = buffer;
+   }
+
+   /**
+    * Use the remaining bytes of the buffer as packed addresses, without copying. The
+    * buffer must not be modified while the list is in use.
+    */
+   public static PeerAddresses wrap(ByteBuffer buffer) {
+      if (buffer.remaining() % PeerAddress.LENGTH != 0) {
+         throw new IllegalArgumentException("packed addresses must be a multiple of "+PeerAddress.LENGTH+" bytes, was "+buffer.remaining());
+      }
+      return new PeerAddresses(buffer.slice());
+   }
+
+   public static PeerAddresses of(PeerAddress... addresses) {
+      ByteBuffer buffer = ByteBuffer.allocate(addresses.length*PeerAddress.LENGTH);
+      for (PeerAddress address : addresses) {
+         address.writeTo(buffer);
+      }
+      return new PeerAddresses(buffer.flip());
+   }
+
+   public static PeerAddresses of(Collection<PeerAddress> addresses) {
+      return of(addresses.toArray(new PeerAddress[0]));
+   }
+
+   public int size() {
+      return buffer.remaining() / PeerAddress.LENGTH;
+   }
+
+   public boolean isEmpty() {
+      return !buffer.hasRemaining();
+   }
+
+   public PeerAddress get(int index) {
+      return PeerAddress.read(buffer, offset(index));
+   }
+
+   /**
+    * Whether the given address is in this list. Does not create any addresses.
+    */
+   public boolean contains(PeerAddress address) {
+      for (int i=0; i<size(); i++) {
+         if (address.equalsAt(buffer, i*PeerAddress.LENGTH)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * The addresses from the given index inclusive to the given index exclusive, sharing
+    * the same buffer.
+    */
+   public PeerAddresses subList(int from, int to) {
+      if (from < 0 || from > to || to > size()) {
+         throw new IndexOutOfBoundsException("invalid range "+from+" to "+to+" of "+size());
+      }
+      return new PeerAddresses(buffer.slice(from*PeerAddress.LENGTH, (to - from)*PeerAddress.LENGTH));
+   }
+
+   /**
+    * Write all addresses to the current position of the buffer, advancing the position.
+    */
+   public void writeTo(ByteBuffer target) {
+      target.put(buffer.duplicate());
+   }
+
+   @Override
+   public Iterator<PeerAddress> iterator() {
+      return new Iterator<>() {
+         private int next = 0;
+
+         @Override
+         public boolean hasNext() {
+            return next < size();
+         }
+
+         @Override
+         public PeerAddress next() {
+            if (!hasNext()) {
+               throw new NoSuchElementException();
+            }
+            return get(next++);
+         }
+      };
+   }
+
+   @Override
+   public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      return buffer.equals(((PeerAddresses) o).buffer);
+   }
+
+   @Override
+   public int hashCode() {
+      return buffer.hashCode();
+   }
+
+   @Override
+   public String toString() {
+      StringBuilder builder = new StringBuilder("[");
+      for (int i=0; i<size(); i++) {
+         builder.append(i == 0 ? "" : ", ").append(get(i));
+      }
+      return builder.append("]").toString();
+   }
+
+   private int offset(int index) {
+      if (index < 0 || index >= size()) {
+         throw new IndexOutOfBoundsException("index "+index+" out of "+size());
+      }
+      return index*PeerAddress.LENGTH;
+   }
+}
@@ -1,4 +1,8 @@
 package com.vanillasource.scan.client.network;
 
 public final class Role {
+   /**
+    * The role of a connection before the handshake determined which PSK the initiator used.
+    */
+   public static final Role UNKNOWN = new Role();
 }
@@ -0,0 +1,284 @@
+package com.vanillasource.scan.client.network;
+
+import com.vanillasource.util.BlockingSupplier;
+import com.vanillasource.util.Lock;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * A message that spools received chunks into a ring buffer, usually a memory mapped file,
+ * so a slow reader does not need to hold up the connection, and long streams do not use up the heap.
+ * The reader consumes chunks at its own pace, directly from the ring without copying.
+ *
+ * When the ring is full, the drop policy decides what happens: the connection is blocked until
+ * the reader catches up, the oldest chunks are dropped to make room, or the incoming chunk is dropped.
+ * Chunks are only ever dropped whole.
+ */
+public final class SpoolingMessage implements Message, AutoCloseable {
+   private static final int HEADER = Integer.BYTES;
+   private static final int PADDING = -1;
+   private static final ByteBuffer END = ByteBuffer.allocate(0);
+   private final ByteBuffer ring;
+   private final int capacity;
+   private final DropPolicy dropPolicy;
+   private final Lock lock = new Lock();
+   private final BlockingSupplier<ByteBuffer> nextChunk;
+   private final BlockingSupplier<Boolean> spaceAvailable;
+   private long readIndex = 0;
+   private long writeIndex = 0;
+   private int waitingRecordSize = 0;
+   private boolean held = false;
+   private boolean ended = false;
+   private boolean closed = false;
+   private long droppedChunkCount = 0;
+   private long droppedByteCount = 0;
+
+   public enum DropPolicy {
+      /**
+       * Block the connection until the reader consumed enough chunks.
+       */
+      BLOCK,
+      /**
+       * Drop the oldest chunks to make room. A chunk the reader is currently
+       * looking at is never dropped, if there is no room without it the incoming chunk is dropped.
+       */
+      DROP_OLDEST,
+      /**
+       * Drop the incoming chunk.
+       */
+      DROP_NEWEST
+   }
+
+   /**
+    * @param ring The buffer to spool chunks into, from position zero up to its capacity.
+    */
+   public SpoolingMessage(ByteBuffer ring, DropPolicy dropPolicy) {
+      this.ring = ring;
+      this.capacity = ring.capacity();
+      this.dropPolicy = dropPolicy;
+      this.nextChunk = lock.blockingSupplier(() -> {
+         ByteBuffer chunk = headChunk();
+         if (chunk != null) {
+            held = true;
+            return Optional.of(chunk);
+         }
+         return ended || closed ? Optional.of(END) : Optional.empty();
+      });
+      this.spaceAvailable = lock.blockingSupplier(() ->
+            closed || requiredSpace(waitingRecordSize) <= freeSpace() ? Optional.of(true) : Optional.empty());
+   }
+
+   /**
+    * Create a message spooling into a memory mapped file of the given size in the given directory.
+    * The file is deleted right away, only the mapping keeps it alive.
+    */
+   public static SpoolingMessage spoolTo(Path directory, int capacity, DropPolicy dropPolicy) {
+      try {
+         Path file = Files.createTempFile(directory, "scan-spool", ".ring");
+         try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+               StandardOpenOption.DELETE_ON_CLOSE)) {
+            return new SpoolingMessage(channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity), dropPolicy);
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /**
+    * Spool the given chunk.
+    * @throws IllegalArgumentException If the chunk could never fit into the ring.
+    * @throws IllegalStateException If the message already ended.
+    */
+   @Override
+   public void recieve(ByteBuffer buffer) {
+      lock.synchronize(() -> {
+         if (ended) {
+            throw new IllegalStateException("message already ended");
+         }
+         spool(buffer);
+      });
+   }
+
+   @Override
+   public void endWith(ByteBuffer buffer) {
+      lock.synchronize(() -> {
+         if (ended) {
+            throw new IllegalStateException("message already ended");
+         }
+         spool(buffer);
+         ended = true;
+         nextChunk.notifyTry();
+      });
+   }
+
+   /**
+    * Wait for the next chunk. The returned buffer is read-only and valid until it is consumed.
+    * Calling this again before consuming returns the same chunk.
+    * @return The chunk, or null if the message ended and all chunks were consumed.
+    */
+   public ByteBuffer next() {
+      ByteBuffer chunk = nextChunk.get();
+      return chunk == END ? null : chunk;
+   }
+
+   /**
+    * The next chunk if there is one, without waiting. Otherwise the same as {@link #next()}.
+    */
+   public ByteBuffer poll() {
+      return lock.synchronize(() -> {
+         ByteBuffer chunk = headChunk();
+         if (chunk != null) {
+            held = true;
+         }
+         return chunk;
+      });
+   }
+
+   /**
+    * Free the chunk returned by {@link #next()} or {@link #poll()}.
+    * @throws IllegalStateException If there is no such chunk.
+    */
+   public void consume() {
+      lock.synchronize(() -> {
+         if (!held) {
+            throw new IllegalStateException("no chunk to consume");
+         }
+         held = false;
+         dropHead();
+         spaceAvailable.notifyTry();
+      });
+   }
+
+   /**
+    * Whether the message ended and all chunks were consumed.
+    */
+   public boolean isFinished() {
+      return lock.synchronize(() -> ended && readIndex == writeIndex);
+   }
+
+   /**
+    * Stop spooling. A blocked connection is released, and further chunks are dropped.
+    */
+   @Override
+   public void close() {
+      lock.synchronize(() -> {
+         closed = true;
+         spaceAvailable.notifyTry();
+         nextChunk.notifyTry();
+      });
+   }
+
+   /**
+    * The number of bytes in the ring, including headers.
+    */
+   public long spooledBytes() {
+      return lock.synchronize(() -> writeIndex - readIndex);
+   }
+
+   public long droppedChunkCount() {
+      return lock.synchronize(() -> droppedChunkCount);
+   }
+
+   public long droppedByteCount() {
+      return lock.synchronize(() -> droppedByteCount);
+   }
+
+   private void spool(ByteBuffer chunk) {
+      int length = chunk.remaining();
+      if (length == 0) {
+         return;
+      }
+      int recordSize = HEADER + length;
+      if (recordSize > capacity) {
+         throw new IllegalArgumentException("chunk of "+length+" bytes does not fit into ring of "+capacity+" bytes");
+      }
+      if (requiredSpace(recordSize) > freeSpace()) {
+         switch (dropPolicy) {
+            case BLOCK -> {
+               waitingRecordSize = recordSize;
+               spaceAvailable.get();
+            }
+            case DROP_OLDEST -> {
+               while (requiredSpace(recordSize) > freeSpace() && readIndex != writeIndex && !held) {
+                  droppedByteCount += headLength();
+                  droppedChunkCount++;
+                  dropHead();
+               }
+            }
+            case DROP_NEWEST -> {
+            }
+         }
+      }
+      if (closed || requiredSpace(recordSize) > freeSpace()) {
+         droppedChunkCount++;
+         droppedByteCount += length;
+         return;
+      }
+      int position = physical(writeIndex);
+      if (capacity - position < recordSize) {
+         if (capacity - position >= HEADER) {
+            ring.putInt(position, PADDING);
+         }
+         writeIndex += capacity - position;
+         position = 0;
+      }
+      ring.putInt(position, length);
+      ring.put(position + HEADER, chunk, chunk.position(), length);
+      writeIndex += recordSize;
+      nextChunk.notifyTry();
+   }
+
+   /**
+    * The free space needed to write a record, including the padding to skip to
+    * the beginning of the ring if it does not fit at the end.
+    */
+   private int requiredSpace(int recordSize) {
+      if (readIndex == writeIndex) {
+         // Nothing in the ring, start from the beginning
+         readIndex = 0;
+         writeIndex = 0;
+      }
+      int endSpace = capacity - physical(writeIndex);
+      return endSpace < recordSize ? endSpace + recordSize : recordSize;
+   }
+
+   private long freeSpace() {
+      return capacity - (writeIndex - readIndex);
+   }
+
+   private ByteBuffer headChunk() {
+      if (readIndex == writeIndex) {
+         return null;
+      }
+      skipPadding();
+      int position = physical(readIndex);
+      return ring.slice(position + HEADER, ring.getInt(position)).asReadOnlyBuffer();
+   }
+
+   private int headLength() {
+      skipPadding();
+      return ring.getInt(physical(readIndex));
+   }
+
+   private void dropHead() {
+      readIndex += HEADER + headLength();
+   }
+
+   private void skipPadding() {
+      int position = physical(readIndex);
+      if (capacity - position < HEADER || ring.getInt(position) == PADDING) {
+         readIndex += capacity - position;
+      }
+   }
+
+   private int physical(long index) {
+      return (int) (index % capacity);
+   }
+}
@@ -0,0 +1,131 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * The cipher state of one direction of a connection, as defined by the Noise specification
+ * for the AESGCM cipher. Each payload is encrypted with the next nonce, so payloads must be
+ * decrypted in the same order they were encrypted. One {@link Cipher} instance is reused for
+ * all payloads, and all operations work directly on the given buffers, which may be direct.
+ *
+ * Not thread-safe, each direction of a connection must be used by one thread at a time.
+ */
+public final class CipherState {
+   public static final int KEY_LENGTH = 32;
+   public static final int MAC_LENGTH = 16;
+   private static final int NONCE_LENGTH = 12;
+   private SecretKeySpec key;
+   private final Cipher cipher;
+   private final byte[] nonceBytes = new byte[NONCE_LENGTH];
+   private long nonce = 0;
+
+   public CipherState(byte[] key) {
+      this.key = secretKey(key);
+      try {
+         this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      } catch (GeneralSecurityException e) {
+         throw new IllegalStateException("AES-GCM is not available", e);
+      }
+   }
+
+   /**
+    * Encrypt the remaining bytes of the plaintext into the ciphertext buffer, followed by the MAC.
+    * The buffers may be the same, if there is room for the MAC after the plaintext.
+    * Both buffers are advanced.
+    */
+   public void encrypt(ByteBuffer plaintext, ByteBuffer ciphertext) {
+      encrypt(null, plaintext, ciphertext);
+   }
+
+   /**
+    * Encrypt with the given associated data, see {@link #encrypt(ByteBuffer, ByteBuffer)}.
+    */
+   public void encrypt(byte[] associatedData, ByteBuffer plaintext, ByteBuffer ciphertext) {
+      try {
+         cipher.init(Cipher.ENCRYPT_MODE, key, nextNonce());
+         if (associatedData != null) {
+            cipher.updateAAD(associatedData);
+         }
+         cipher.doFinal(plaintext, ciphertext);
+      } catch (ShortBufferException e) {
+         throw new IllegalArgumentException("no room for the ciphertext", e);
+      } catch (GeneralSecurityException e) {
+         throw new IllegalStateException("could not encrypt", e);
+      }
+   }
+
+   /**
+    * Decrypt the remaining bytes of the ciphertext, including the trailing MAC, into the plaintext buffer.
+    * The buffers may be the same. Both buffers are advanced.
+    * @throws IllegalArgumentException If the ciphertext could not be authenticated.
+    */
+   public void decrypt(ByteBuffer ciphertext, ByteBuffer plaintext) {
+      decrypt(null, ciphertext, plaintext);
+   }
+
+   /**
+    * Decrypt with the given associated data, see {@link #decrypt(ByteBuffer, ByteBuffer)}.
+    */
+   public void decrypt(byte[] associatedData, ByteBuffer ciphertext, ByteBuffer plaintext) {
+      if (ciphertext.remaining() < MAC_LENGTH) {
+         throw new IllegalArgumentException("ciphertext must contain the mac, was "+ciphertext.remaining()+" bytes");
+      }
+      try {
+         cipher.init(Cipher.DECRYPT_MODE, key, nextNonce());
+         if (associatedData != null) {
+            cipher.updateAAD(associatedData);
+         }
+         cipher.doFinal(ciphertext, plaintext);
+      } catch (AEADBadTagException e) {
+         throw new IllegalArgumentException("ciphertext could not be authenticated", e);
+      } catch (ShortBufferException e) {
+         throw new IllegalArgumentException("no room for the plaintext", e);
+      } catch (GeneralSecurityException e) {
+         throw new IllegalStateException("could not decrypt", e);
+      }
+   }
+
+   /**
+    * Use the given key from now on, and start the nonce from zero again, reusing the {@link Cipher} instance.
+    */
+   public void initializeKey(byte[] key) {
+      this.key = secretKey(key);
+      this.nonce = 0;
+   }
+
+   /**
+    * The number of payloads processed so far.
+    */
+   public long nonce() {
+      return nonce;
+   }
+
+   private static SecretKeySpec secretKey(byte[] key) {
+      if (key.length != KEY_LENGTH) {
+         throw new IllegalArgumentException("key must be "+KEY_LENGTH+" bytes, was "+key.length);
+      }
+      return new SecretKeySpec(key, "AES");
+   }
+
+   /**
+    * The nonce is 32 bits of zeros followed by the big-endian counter.
+    */
+   private GCMParameterSpec nextNonce() {
+      if (nonce == -1L) {
+         // The maximum value is reserved by the Noise specification
+         throw new IllegalStateException("nonces are exhausted, the connection must be closed");
+      }
+      long value = nonce++;
+      for (int i=NONCE_LENGTH-1; i>=NONCE_LENGTH-Long.BYTES; i--) {
+         nonceBytes[i] = (byte) value;
+         value >>>= 8;
+      }
+      return new GCMParameterSpec(MAC_LENGTH*8, nonceBytes);
+   }
+}
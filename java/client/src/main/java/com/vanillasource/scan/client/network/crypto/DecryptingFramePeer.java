@@ -0,0 +1,191 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.network.frame.FramePeer;
+import com.vanillasource.util.ByteBufferAllocator;
+import com.vanillasource.util.PooledByteBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decrypts the payloads of received frames of one logical connection, and forwards the plaintext
+ * to the delegate without the MAC. If a payload can not be decrypted, the delegate's connection is
+ * closed and all further frames are dropped, as the specification requires.
+ *
+ * Without an executor payloads are decrypted in place, in the calling thread, so the received
+ * buffers are modified. With an executor payloads are copied and decrypted on the executor, one frame
+ * at a time, so the frames of a connection are still delivered in order, while frames of different
+ * connections are decrypted in parallel.
+ */
+public final class DecryptingFramePeer implements FramePeer {
+   private static final Logger LOGGER = LoggerFactory.getLogger(DecryptingFramePeer.class);
+   private final FramePeer delegate;
+   private final CipherState cipher;
+   private final Executor executor;
+   private final ByteBufferAllocator allocator;
+   private final Queue<Runnable> pendingFrames = new ConcurrentLinkedQueue<>();
+   private final AtomicBoolean draining = new AtomicBoolean();
+   private volatile boolean failed = false;
+
+   public DecryptingFramePeer(FramePeer delegate, CipherState cipher) {
+      this(delegate, cipher, null, null);
+   }
+
+   /**
+    * @param executor Runs decryption and delivery of frames.
+    * @param allocator Allocates the copies of received payloads.
+    */
+   public DecryptingFramePeer(FramePeer delegate, CipherState cipher, Executor executor, ByteBufferAllocator allocator) {
+      this.delegate = delegate;
+      this.cipher = cipher;
+      this.executor = executor;
+      this.allocator = allocator;
+   }
+
+   @Override
+   public void initiateHandshake(String protocolName, ByteBuffer handshake) {
+      PooledByteBuffer copy = copy(handshake);
+      deliver(() -> delegate.initiateHandshake(protocolName, buffer(copy, handshake)), copy);
+   }
+
+   @Override
+   public void continueHandshake(ByteBuffer handshake) {
+      PooledByteBuffer copy = copy(handshake);
+      deliver(() -> delegate.continueHandshake(buffer(copy, handshake)), copy);
+   }
+
+   @Override
+   public void closeConnection() {
+      deliver(delegate::closeConnection, null);
+   }
+
+   @Override
+   public void renegotiate() {
+      deliver(delegate::renegotiate, null);
+   }
+
+   @Override
+   public void ignoredFrame(int frameCode) {
+      deliver(() -> delegate.ignoredFrame(frameCode), null);
+   }
+
+   @Override
+   public void keepAlive() {
+      deliver(delegate::keepAlive, null);
+   }
+
+   @Override
+   public void messageIntermediateFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+      PooledByteBuffer copy = copy(payload);
+      deliver(() -> {
+         ByteBuffer plaintext = decrypt(buffer(copy, payload));
+         if (plaintext != null) {
+            delegate.messageIntermediateFrame(messageId, plaintext);
+         }
+      }, copy);
+   }
+
+   @Override
+   public void messageLastFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+      PooledByteBuffer copy = copy(payload);
+      deliver(() -> {
+         ByteBuffer plaintext = decrypt(buffer(copy, payload));
+         if (plaintext != null) {
+            delegate.messageLastFrame(messageId, plaintext);
+         }
+      }, copy);
+   }
+
+   @Override
+   public void messageSingleFrame(ByteBuffer payload) {
+      PooledByteBuffer copy = copy(payload);
+      deliver(() -> {
+         ByteBuffer plaintext = decrypt(buffer(copy, payload));
+         if (plaintext != null) {
+            delegate.messageSingleFrame(plaintext);
+         }
+      }, copy);
+   }
+
+   /**
+    * Whether a payload could not be decrypted, so the connection was closed.
+    */
+   public boolean isFailed() {
+      return failed;
+   }
+
+   /**
+    * Decrypt the payload in place.
+    * @return The plaintext without the MAC, or null if the payload could not be decrypted.
+    */
+   private ByteBuffer decrypt(ByteBuffer payload) {
+      ByteBuffer plaintext = payload.duplicate();
+      try {
+         cipher.decrypt(payload.duplicate(), plaintext);
+      } catch (IllegalArgumentException e) {
+         LOGGER.warn("closing connection, payload could not be decrypted", e);
+         failed = true;
+         delegate.closeConnection();
+         return null;
+      }
+      return plaintext.flip().position(payload.position());
+   }
+
+   /**
+    * Copy the buffer if it will be used after the call returns.
+    */
+   private PooledByteBuffer copy(ByteBuffer buffer) {
+      return executor == null ? null : allocator.copyOf(buffer);
+   }
+
+   private static ByteBuffer buffer(PooledByteBuffer copy, ByteBuffer original) {
+      return copy == null ? original : copy.buffer();
+   }
+
+   private void deliver(Runnable frame, PooledByteBuffer copy) {
+      Runnable delivery = () -> {
+         try {
+            if (!failed) {
+               frame.run();
+            }
+         } finally {
+            if (copy != null) {
+               copy.release();
+            }
+         }
+      };
+      if (executor == null) {
+         delivery.run();
+      } else {
+         pendingFrames.add(delivery);
+         scheduleDrain();
+      }
+   }
+
+   private void scheduleDrain() {
+      if (draining.compareAndSet(false, true)) {
+         executor.execute(this::drain);
+      }
+   }
+
+   private void drain() {
+      do {
+         Runnable frame;
+         while ((frame = pendingFrames.poll()) != null) {
+            try {
+               frame.run();
+            } catch (RuntimeException e) {
+               LOGGER.warn("frame could not be delivered", e);
+            }
+         }
+         draining.set(false);
+         // A frame may have been added after the queue was found empty, but before the flag was cleared
+      } while (!pendingFrames.isEmpty() && draining.compareAndSet(false, true));
+   }
+}
@@ -0,0 +1,193 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.frame.FrameEncoder;
+import com.vanillasource.util.Lock;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs handshakes of all logical connections of a device. Responding to handshakes, which includes the
+ * Diffie-Hellman operations and trying the PSKs, runs on the given workers, so many handshakes can be done
+ * in parallel without blocking the network, for example when lots of devices reconnect after a power outage.
+ * The number of pending handshakes is limited, further handshakes are rejected right away.
+ *
+ * The PSK that last succeeded for a source is tried first, so reconnecting devices usually need only one try.
+ * Only the most recently connected sources are remembered, so many sources can not use up the memory.
+ * Attempts of each source are throttled to prevent brute-forcing the PSKs.
+ */
+public final class HandshakeEngine {
+   public static final int DEFAULT_MAX_REMEMBERED_SOURCES = 16*1024;
+   private final byte[] localPrivateKey;
+   private final PeerAddress localAddress;
+   private final Supplier<List<byte[]>> psks;
+   private final Executor workers;
+   private final int maxPendingHandshakes;
+   private final HandshakeThrottle throttle;
+   private final Lock lastPsksLock = new Lock();
+   private final Map<PeerAddress, byte[]> lastPsks;
+   private final AtomicInteger pendingCount = new AtomicInteger();
+   private final LongAdder completedCount = new LongAdder();
+   private final LongAdder failedCount = new LongAdder();
+   private final LongAdder rejectedCount = new LongAdder();
+
+   /**
+    * @param psks Supplies the PSKs currently accepted from initiators.
+    * @param workers Runs the handshakes, usually a fixed size pool.
+    */
+   public HandshakeEngine(byte[] localPrivateKey, Supplier<List<byte[]>> psks, Executor workers, int maxPendingHandshakes, HandshakeThrottle throttle) {
+      this(localPrivateKey, psks, workers, maxPendingHandshakes, throttle, DEFAULT_MAX_REMEMBERED_SOURCES);
+   }
+
+   /**
+    * @param maxRememberedSources The number of sources to remember the last successful PSK of.
+    */
+   public HandshakeEngine(byte[] localPrivateKey, Supplier<List<byte[]>> psks, Executor workers, int maxPendingHandshakes, HandshakeThrottle throttle,
+                          int maxRememberedSources) {
+      if (maxRememberedSources <= 0) {
+         throw new IllegalArgumentException("maximum remembered sources must be positive, was "+maxRememberedSources);
+      }
+      this.lastPsks = new LinkedHashMap<>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<PeerAddress, byte[]> eldest) {
+            return size() > maxRememberedSources;
+         }
+      };
+      this.localPrivateKey = localPrivateKey.clone();
+      this.localAddress = PeerAddress.create(X25519.publicKey(localPrivateKey));
+      this.psks = psks;
+      this.workers = workers;
+      this.maxPendingHandshakes = maxPendingHandshakes;
+      this.throttle = throttle;
+   }
+
+   /**
+    * The address of this device, which is its public static key.
+    */
+   public PeerAddress localAddress() {
+      return localAddress;
+   }
+
+   /**
+    * Start a handshake with the given responder.
+    */
+   public KKpsk1Handshake.Initiator initiate(PeerAddress responder, byte[] psk) {
+      return KKpsk1Handshake.initiate(prologue(KKpsk1Handshake.PROTOCOL_NAME), localPrivateKey, localAddress, responder, psk);
+   }
+
+   /**
+    * Respond to the first handshake message of the given initiator on the workers. The message is copied,
+    * so the buffer can be reused after this returns.
+    * @return The session, or a failure if the handshake is not supported, was throttled or rejected,
+    * or failed.
+    */
+   public CompletableFuture<Session> respond(PeerAddress initiator, String protocolName, ByteBuffer initiation) {
+      if (!KKpsk1Handshake.PROTOCOL_NAME.equals(protocolName)) {
+         rejectedCount.increment();
+         return CompletableFuture.failedFuture(new IllegalArgumentException("unsupported protocol "+protocolName));
+      }
+      if (!throttle.tryAcquire(initiator)) {
+         rejectedCount.increment();
+         return CompletableFuture.failedFuture(new IllegalStateException("too many handshake attempts from "+initiator));
+      }
+      if (pendingCount.incrementAndGet() > maxPendingHandshakes) {
+         pendingCount.decrementAndGet();
+         rejectedCount.increment();
+         return CompletableFuture.failedFuture(new IllegalStateException("too many pending handshakes"));
+      }
+      ByteBuffer copy = ByteBuffer.allocate(initiation.remaining()).put(initiation.duplicate()).flip();
+      CompletableFuture<Session> result;
+      try {
+         result = CompletableFuture.supplyAsync(() -> respondNow(initiator, protocolName, copy), workers);
+      } catch (RuntimeException e) {
+         pendingCount.decrementAndGet();
+         throw e;
+      }
+      return result.whenComplete((session, error) -> {
+         pendingCount.decrementAndGet();
+         if (error == null) {
+            completedCount.increment();
+         } else {
+            failedCount.increment();
+         }
+      });
+   }
+
+   /**
+    * The number of handshakes waiting for or running on the workers.
+    */
+   public int pendingCount() {
+      return pendingCount.get();
+   }
+
+   public long completedCount() {
+      return completedCount.sum();
+   }
+
+   public long failedCount() {
+      return failedCount.sum();
+   }
+
+   /**
+    * The number of sources whose last successful PSK is remembered.
+    */
+   public int rememberedSourceCount() {
+      return lastPsksLock.synchronize(lastPsks::size);
+   }
+
+   /**
+    * The number of handshakes rejected without trying, because they were unsupported, throttled or too many.
+    */
+   public long rejectedCount() {
+      return rejectedCount.sum();
+   }
+
+   private Session respondNow(PeerAddress initiator, String protocolName, ByteBuffer initiation) {
+      Session session = KKpsk1Handshake.respond(prologue(protocolName), localPrivateKey, localAddress, initiator,
+            initiation, orderedPsks(initiator));
+      lastPsksLock.synchronize(() -> lastPsks.put(initiator, session.psk()));
+      return session;
+   }
+
+   /**
+    * The currently accepted PSKs, the one that last succeeded for the initiator first.
+    */
+   private List<byte[]> orderedPsks(PeerAddress initiator) {
+      List<byte[]> current = psks.get();
+      byte[] last = lastPsksLock.synchronize(() -> lastPsks.get(initiator));
+      if (last == null) {
+         return current;
+      }
+      List<byte[]> ordered = new ArrayList<>(current.size());
+      for (byte[] psk : current) {
+         if (Arrays.equals(psk, last)) {
+            ordered.add(0, psk);
+         } else {
+            ordered.add(psk);
+         }
+      }
+      return ordered;
+   }
+
+   /**
+    * The protocol name and versions of the logical layer, as they are in the initiate handshake frame.
+    */
+   private static byte[] prologue(String protocolName) {
+      byte[] name = protocolName.getBytes(StandardCharsets.UTF_8);
+      byte[] prologue = Arrays.copyOf(name, name.length + 2);
+      prologue[name.length] = (byte) FrameEncoder.PROTOCOL_MAJOR_VERSION;
+      prologue[name.length + 1] = (byte) FrameEncoder.PROTOCOL_MINOR_VERSION;
+      return prologue;
+   }
+}
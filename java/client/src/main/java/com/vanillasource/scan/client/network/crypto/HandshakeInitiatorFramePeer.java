@@ -0,0 +1,153 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.network.frame.FrameEncoder;
+import com.vanillasource.scan.client.network.frame.FramePeer;
+import com.vanillasource.util.ByteBufferAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the frames of a logical connection initiated by this device, and does the initiator side
+ * of the handshake with a {@link HandshakeEngine}. When the response of the responder completes the
+ * handshake, payloads sent through the encoder are encrypted, and received payloads are decrypted before
+ * they are given to the delegate. Nothing should be sent through the encoder before that. If the handshake
+ * fails, or payloads arrive before it is complete, the connection is closed.
+ */
+public final class HandshakeInitiatorFramePeer implements FramePeer {
+   private static final Logger LOGGER = LoggerFactory.getLogger(HandshakeInitiatorFramePeer.class);
+   private final HandshakeEngine engine;
+   private final PeerAddress responder;
+   private final FrameEncoder output;
+   private final FramePeer delegate;
+   private final ByteBufferAllocator allocator;
+   private volatile FramePeer receiver = null;
+   private volatile boolean closed = false;
+   private KKpsk1Handshake.Initiator handshake = null;
+
+   /**
+    * @param output The encoder of the connection to the responder.
+    * @param delegate Receives frames with decrypted payloads after the handshake.
+    * @param allocator Allocates buffers for encrypted payloads.
+    */
+   public HandshakeInitiatorFramePeer(HandshakeEngine engine, PeerAddress responder, FrameEncoder output, FramePeer delegate,
+                                      ByteBufferAllocator allocator) {
+      this.engine = engine;
+      this.responder = responder;
+      this.output = output;
+      this.delegate = delegate;
+      this.allocator = allocator;
+   }
+
+   /**
+    * Send the first handshake message to the responder, authenticated with the given PSK.
+    * @throws IllegalStateException If the handshake was already initiated.
+    */
+   public void initiate(byte[] psk) {
+      if (handshake != null) {
+         throw new IllegalStateException("handshake with "+responder+" was already initiated");
+      }
+      handshake = engine.initiate(responder, psk);
+      output.initiateHandshake(KKpsk1Handshake.PROTOCOL_NAME, handshake.initiation());
+   }
+
+   @Override
+   public void initiateHandshake(String protocolName, ByteBuffer handshake) {
+      fail("responder initiated a handshake");
+   }
+
+   @Override
+   public void continueHandshake(ByteBuffer response) {
+      if (handshake == null || receiver != null) {
+         fail("unexpected handshake message");
+         return;
+      }
+      Session session;
+      try {
+         session = handshake.complete(response);
+      } catch (IllegalArgumentException e) {
+         LOGGER.info("handshake with {} failed", responder, e);
+         fail("handshake failed");
+         return;
+      }
+      if (!closed) {
+         output.encryptWith(session.sendCipher(), allocator);
+         receiver = new DecryptingFramePeer(delegate, session.receiveCipher());
+      }
+   }
+
+   @Override
+   public void closeConnection() {
+      closed = true;
+      delegate.closeConnection();
+   }
+
+   @Override
+   public void renegotiate() {
+      delegate.renegotiate();
+   }
+
+   @Override
+   public void ignoredFrame(int frameCode) {
+      delegate.ignoredFrame(frameCode);
+   }
+
+   @Override
+   public void keepAlive() {
+      delegate.keepAlive();
+   }
+
+   @Override
+   public void messageIntermediateFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+      FramePeer receiver = established();
+      if (receiver != null) {
+         receiver.messageIntermediateFrame(messageId, payload);
+      }
+   }
+
+   @Override
+   public void messageLastFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+      FramePeer receiver = established();
+      if (receiver != null) {
+         receiver.messageLastFrame(messageId, payload);
+      }
+   }
+
+   @Override
+   public void messageSingleFrame(ByteBuffer payload) {
+      FramePeer receiver = established();
+      if (receiver != null) {
+         receiver.messageSingleFrame(payload);
+      }
+   }
+
+   /**
+    * Whether the handshake completed successfully.
+    */
+   public boolean isEstablished() {
+      return receiver != null && !closed;
+   }
+
+   /**
+    * @return The receiver of payloads, or null if the handshake is not complete and the connection was closed.
+    */
+   private FramePeer established() {
+      FramePeer receiver = this.receiver;
+      if (receiver == null && !closed) {
+         fail("payload before the handshake completed");
+      }
+      return closed ? null : receiver;
+   }
+
+   private void fail(String reason) {
+      if (!closed) {
+         LOGGER.debug("closing connection to {}, {}", responder, reason);
+         closed = true;
+         output.closeConnection();
+         delegate.closeConnection();
+      }
+   }
+}
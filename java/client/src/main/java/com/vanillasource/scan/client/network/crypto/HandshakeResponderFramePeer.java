@@ -0,0 +1,140 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.network.frame.FrameEncoder;
+import com.vanillasource.scan.client.network.frame.FramePeer;
+import com.vanillasource.util.ByteBufferAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the frames of a logical connection initiated by a remote device, and does the responder side
+ * of the handshake with a {@link HandshakeEngine}. When the handshake succeeds, the response is sent,
+ * payloads sent through the encoder are encrypted, and received payloads are decrypted before they are
+ * given to the delegate. If the handshake fails, or payloads arrive before it is complete, the connection
+ * is closed.
+ */
+public final class HandshakeResponderFramePeer implements FramePeer {
+   private static final Logger LOGGER = LoggerFactory.getLogger(HandshakeResponderFramePeer.class);
+   private final HandshakeEngine engine;
+   private final PeerAddress initiator;
+   private final FrameEncoder output;
+   private final FramePeer delegate;
+   private final ByteBufferAllocator allocator;
+   private volatile FramePeer receiver = null;
+   private volatile boolean closed = false;
+   private boolean initiated = false;
+
+   /**
+    * @param output The encoder of the connection to the initiator.
+    * @param delegate Receives frames with decrypted payloads after the handshake.
+    * @param allocator Allocates buffers for encrypted payloads.
+    */
+   public HandshakeResponderFramePeer(HandshakeEngine engine, PeerAddress initiator, FrameEncoder output, FramePeer delegate,
+                                      ByteBufferAllocator allocator) {
+      this.engine = engine;
+      this.initiator = initiator;
+      this.output = output;
+      this.delegate = delegate;
+      this.allocator = allocator;
+   }
+
+   @Override
+   public void initiateHandshake(String protocolName, ByteBuffer handshake) {
+      if (initiated) {
+         fail("handshake was initiated twice");
+         return;
+      }
+      initiated = true;
+      engine.respond(initiator, protocolName, handshake).whenComplete((session, error) -> {
+         if (error != null) {
+            LOGGER.info("handshake with {} failed", initiator, error);
+            fail("handshake failed");
+         } else if (!closed) {
+            receiver = new DecryptingFramePeer(delegate, session.receiveCipher());
+            output.encryptWith(session.sendCipher(), allocator);
+            output.continueHandshake(session.response());
+         }
+      });
+   }
+
+   @Override
+   public void continueHandshake(ByteBuffer handshake) {
+      fail("unexpected handshake message");
+   }
+
+   @Override
+   public void closeConnection() {
+      closed = true;
+      delegate.closeConnection();
+   }
+
+   @Override
+   public void renegotiate() {
+      delegate.renegotiate();
+   }
+
+   @Override
+   public void ignoredFrame(int frameCode) {
+      delegate.ignoredFrame(frameCode);
+   }
+
+   @Override
+   public void keepAlive() {
+      delegate.keepAlive();
+   }
+
+   @Override
+   public void messageIntermediateFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+      FramePeer receiver = established();
+      if (receiver != null) {
+         receiver.messageIntermediateFrame(messageId, payload);
+      }
+   }
+
+   @Override
+   public void messageLastFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+      FramePeer receiver = established();
+      if (receiver != null) {
+         receiver.messageLastFrame(messageId, payload);
+      }
+   }
+
+   @Override
+   public void messageSingleFrame(ByteBuffer payload) {
+      FramePeer receiver = established();
+      if (receiver != null) {
+         receiver.messageSingleFrame(payload);
+      }
+   }
+
+   /**
+    * Whether the handshake completed successfully.
+    */
+   public boolean isEstablished() {
+      return receiver != null && !closed;
+   }
+
+   /**
+    * @return The receiver of payloads, or null if the handshake is not complete and the connection was closed.
+    */
+   private FramePeer established() {
+      FramePeer receiver = this.receiver;
+      if (receiver == null && !closed) {
+         fail("payload before the handshake completed");
+      }
+      return closed ? null : receiver;
+   }
+
+   private void fail(String reason) {
+      if (!closed) {
+         LOGGER.debug("closing connection to {}, {}", initiator, reason);
+         closed = true;
+         output.closeConnection();
+         delegate.closeConnection();
+      }
+   }
+}
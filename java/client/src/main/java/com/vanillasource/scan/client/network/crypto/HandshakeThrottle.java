@@ -0,0 +1,103 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.util.TimeSource;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits handshake attempts from each source to prevent brute-forcing PSKs, with a token bucket
+ * for each source. A bucket is a single packed long, the time of the last refill in the high bits,
+ * and thousandths of tokens in the low bits, updated without locking.
+ *
+ * The number of tracked sources is limited. When the limit is reached, buckets that are full,
+ * so their sources were idle for a while, are forgotten. If all buckets are in use, new sources
+ * are rejected until some become idle. Finding idle buckets scans all of them, so it is done at
+ * most once per refill time, as buckets can not fill up faster than that anyway.
+ */
+public final class HandshakeThrottle {
+   private static final int TOKEN_BITS = 20;
+   private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+   private static final long MILLI_TOKENS = 1000;
+   private final TimeSource timeSource;
+   private final long epoch;
+   private final long capacity;
+   private final long refillMillis;
+   private final int maxSources;
+   private final Map<PeerAddress, AtomicLong> buckets = new ConcurrentHashMap<>();
+   private final AtomicLong lastSweep;
+
+   /**
+    * @param burst The number of attempts a source can make at once.
+    * @param refillMillis The time after which a source can make one more attempt.
+    * @param maxSources The maximum number of sources to track.
+    */
+   public HandshakeThrottle(TimeSource timeSource, int burst, long refillMillis, int maxSources) {
+      if (burst <= 0 || burst*MILLI_TOKENS > TOKEN_MASK) {
+         throw new IllegalArgumentException("burst must be between 1 and "+TOKEN_MASK/MILLI_TOKENS+", was "+burst);
+      }
+      if (refillMillis <= 0) {
+         throw new IllegalArgumentException("refill time must be positive, was "+refillMillis);
+      }
+      this.timeSource = timeSource;
+      this.epoch = timeSource.currentTimeMillis();
+      this.capacity = burst*MILLI_TOKENS;
+      this.refillMillis = refillMillis;
+      this.maxSources = maxSources;
+      this.lastSweep = new AtomicLong(-refillMillis);
+   }
+
+   /**
+    * Take one attempt from the given source's bucket.
+    * @return Whether the source may attempt a handshake now.
+    */
+   public boolean tryAcquire(PeerAddress source) {
+      long now = timeSource.currentTimeMillis() - epoch;
+      AtomicLong bucket = buckets.get(source);
+      if (bucket == null) {
+         if (buckets.size() >= maxSources && !forgetIdleSources(now)) {
+            return false;
+         }
+         bucket = buckets.computeIfAbsent(source, key -> new AtomicLong(pack(now, capacity)));
+      }
+      while (true) {
+         long state = bucket.get();
+         long tokens = tokens(state, now);
+         if (tokens < MILLI_TOKENS) {
+            return false;
+         }
+         if (bucket.compareAndSet(state, pack(Math.max(now, state >>> TOKEN_BITS), tokens - MILLI_TOKENS))) {
+            return true;
+         }
+      }
+   }
+
+   /**
+    * The number of sources currently tracked.
+    */
+   public int sourceCount() {
+      return buckets.size();
+   }
+
+   /**
+    * @return Whether there is room for new sources now.
+    */
+   private boolean forgetIdleSources(long now) {
+      long last = lastSweep.get();
+      if (now - last >= refillMillis && lastSweep.compareAndSet(last, now)) {
+         buckets.values().removeIf(bucket -> tokens(bucket.get(), now) >= capacity);
+      }
+      return buckets.size() < maxSources;
+   }
+
+   private long tokens(long state, long now) {
+      long elapsed = Math.max(0, now - (state >>> TOKEN_BITS));
+      return Math.min(capacity, (state & TOKEN_MASK) + elapsed*MILLI_TOKENS/refillMillis);
+   }
+
+   private static long pack(long time, long tokens) {
+      return (time << TOKEN_BITS) | tokens;
+   }
+}
@@ -0,0 +1,159 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The Noise_KKpsk1_25519_AESGCM_SHA256 handshake, with empty payloads. Both parties know the
+ * static key of the other from the frame addresses:
+ * <pre>
+ *   -&gt; s
+ *   &lt;- s
+ *   ...
+ *   -&gt; e, es, ss, psk
+ *   &lt;- e, ee, se
+ * </pre>
+ * The first message does not identify the PSK, so the responder tries its PSKs one after
+ * the other. Each try costs one key derivation and one MAC check, the Diffie-Hellman
+ * operations are done only once.
+ */
+public final class KKpsk1Handshake {
+   public static final String PROTOCOL_NAME = "Noise_KKpsk1_25519_AESGCM_SHA256";
+   private static final byte[] EMPTY = new byte[0];
+   public static final int INITIATION_LENGTH = X25519.KEY_LENGTH + CipherState.MAC_LENGTH;
+   public static final int RESPONSE_LENGTH = X25519.KEY_LENGTH + CipherState.MAC_LENGTH;
+   private final SymmetricState state = new SymmetricState(PROTOCOL_NAME);
+   private final byte[] localPrivateKey;
+   private byte[] ephemeralPrivateKey;
+
+   private KKpsk1Handshake(byte[] prologue, byte[] localPrivateKey, byte[] initiatorPublicKey, byte[] responderPublicKey) {
+      this.localPrivateKey = localPrivateKey;
+      state.mixHash(prologue);
+      state.mixHash(initiatorPublicKey);
+      state.mixHash(responderPublicKey);
+   }
+
+   /**
+    * Start a handshake as the initiator.
+    * @return The handshake to complete with the response, with its first message ready in {@link #initiation()}.
+    */
+   public static Initiator initiate(byte[] prologue, byte[] localPrivateKey, PeerAddress localAddress, PeerAddress remoteAddress, byte[] psk) {
+      byte[] remotePublicKey = bytes(remoteAddress);
+      KKpsk1Handshake handshake = new KKpsk1Handshake(prologue, localPrivateKey, bytes(localAddress), remotePublicKey);
+      ByteBuffer initiation = ByteBuffer.allocate(INITIATION_LENGTH);
+      handshake.writeEphemeral(initiation);
+      handshake.state.mixKey(X25519.dh(handshake.ephemeralPrivateKey, remotePublicKey));
+      handshake.state.mixKey(X25519.dh(localPrivateKey, remotePublicKey));
+      handshake.state.mixKeyAndHash(psk);
+      initiation.put(handshake.state.encryptAndHash(EMPTY));
+      return new Initiator(handshake, psk, initiation.flip());
+   }
+
+   /**
+    * Respond to the first message of a handshake, trying the given PSKs in order.
+    * @return The session, with the response to send to the initiator.
+    * @throws IllegalArgumentException If the message is malformed or none of the PSKs match.
+    */
+   public static Session respond(byte[] prologue, byte[] localPrivateKey, PeerAddress localAddress, PeerAddress remoteAddress,
+                                 ByteBuffer initiation, Iterable<byte[]> psks) {
+      if (initiation.remaining() != INITIATION_LENGTH) {
+         throw new IllegalArgumentException("initiation must be "+INITIATION_LENGTH+" bytes, was "+initiation.remaining());
+      }
+      byte[] remotePublicKey = bytes(remoteAddress);
+      KKpsk1Handshake handshake = new KKpsk1Handshake(prologue, localPrivateKey, remotePublicKey, bytes(localAddress));
+      byte[] remoteEphemeralKey = handshake.readEphemeral(initiation);
+      handshake.state.mixKey(X25519.dh(localPrivateKey, remoteEphemeralKey));
+      handshake.state.mixKey(X25519.dh(localPrivateKey, remotePublicKey));
+      byte[] payload = new byte[initiation.remaining()];
+      initiation.get(payload);
+      byte[] psk = handshake.tryPsks(psks, payload);
+      ByteBuffer response = ByteBuffer.allocate(RESPONSE_LENGTH);
+      handshake.writeEphemeral(response);
+      handshake.state.mixKey(X25519.dh(handshake.ephemeralPrivateKey, remoteEphemeralKey));
+      handshake.state.mixKey(X25519.dh(handshake.ephemeralPrivateKey, remotePublicKey));
+      response.put(handshake.state.encryptAndHash(EMPTY));
+      CipherState[] ciphers = handshake.state.split();
+      return new Session(ciphers[1], ciphers[0], psk, response.flip());
+   }
+
+   private byte[] tryPsks(Iterable<byte[]> psks, byte[] payload) {
+      SymmetricState trial = new SymmetricState(PROTOCOL_NAME);
+      for (byte[] psk : psks) {
+         trial.copyHashesFrom(state);
+         trial.mixKeyAndHash(psk);
+         try {
+            trial.decryptAndHash(payload);
+         } catch (IllegalArgumentException e) {
+            continue;
+         }
+         state.mixKeyAndHash(psk);
+         state.decryptAndHash(payload);
+         return psk;
+      }
+      throw new IllegalArgumentException("no pre-shared key matches the handshake");
+   }
+
+   private void writeEphemeral(ByteBuffer message) {
+      ephemeralPrivateKey = X25519.generatePrivateKey();
+      byte[] ephemeralPublicKey = X25519.publicKey(ephemeralPrivateKey);
+      message.put(ephemeralPublicKey);
+      state.mixHash(ephemeralPublicKey);
+      // Required for handshakes with a psk
+      state.mixKey(ephemeralPublicKey);
+   }
+
+   private byte[] readEphemeral(ByteBuffer message) {
+      byte[] ephemeralPublicKey = new byte[X25519.KEY_LENGTH];
+      message.get(ephemeralPublicKey);
+      state.mixHash(ephemeralPublicKey);
+      state.mixKey(ephemeralPublicKey);
+      return ephemeralPublicKey;
+   }
+
+   private static byte[] bytes(PeerAddress address) {
+      ByteBuffer bytes = ByteBuffer.allocate(PeerAddress.LENGTH);
+      address.writeTo(bytes);
+      return bytes.array();
+   }
+
+   /**
+    * The initiator side of a handshake, waiting for the response.
+    */
+   public static final class Initiator {
+      private final KKpsk1Handshake handshake;
+      private final byte[] psk;
+      private final ByteBuffer initiation;
+
+      private Initiator(KKpsk1Handshake handshake, byte[] psk, ByteBuffer initiation) {
+         this.handshake = handshake;
+         this.psk = psk;
+         this.initiation = initiation;
+      }
+
+      /**
+       * The first message to send to the responder.
+       */
+      public ByteBuffer initiation() {
+         return initiation.duplicate();
+      }
+
+      /**
+       * Complete the handshake with the response of the responder.
+       * @throws IllegalArgumentException If the response is malformed or can not be authenticated.
+       */
+      public Session complete(ByteBuffer response) {
+         if (response.remaining() != RESPONSE_LENGTH) {
+            throw new IllegalArgumentException("response must be "+RESPONSE_LENGTH+" bytes, was "+response.remaining());
+         }
+         byte[] remoteEphemeralKey = handshake.readEphemeral(response);
+         handshake.state.mixKey(X25519.dh(handshake.ephemeralPrivateKey, remoteEphemeralKey));
+         handshake.state.mixKey(X25519.dh(handshake.localPrivateKey, remoteEphemeralKey));
+         byte[] payload = new byte[response.remaining()];
+         response.get(payload);
+         handshake.state.decryptAndHash(payload);
+         CipherState[] ciphers = handshake.state.split();
+         return new Session(ciphers[0], ciphers[1], psk, null);
+      }
+   }
+}
@@ -0,0 +1,13 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The result of a successful handshake.
+ * @param sendCipher Encrypts payloads sent to the other party.
+ * @param receiveCipher Decrypts payloads received from the other party.
+ * @param psk The pre-shared key the connection was authenticated with.
+ * @param response The handshake message to send to the other party, or null if there is none.
+ */
+public record Session(CipherState sendCipher, CipherState receiveCipher, byte[] psk, ByteBuffer response) {
+}
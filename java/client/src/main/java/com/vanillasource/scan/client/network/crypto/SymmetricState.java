@@ -0,0 +1,132 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * The symmetric state of a Noise handshake with SHA256 and AESGCM. Not thread-safe.
+ */
+final class SymmetricState {
+   static final int HASH_LENGTH = 32;
+   private final MessageDigest digest;
+   private final Mac hmac;
+   private final CipherState cipher = new CipherState(new byte[CipherState.KEY_LENGTH]);
+   private byte[] chainingKey;
+   private byte[] hash;
+   private boolean hasKey = false;
+
+   SymmetricState(String protocolName) {
+      try {
+         this.digest = MessageDigest.getInstance("SHA-256");
+         this.hmac = Mac.getInstance("HmacSHA256");
+      } catch (GeneralSecurityException e) {
+         throw new IllegalStateException("SHA-256 is not available", e);
+      }
+      byte[] name = protocolName.getBytes(StandardCharsets.UTF_8);
+      this.hash = name.length <= HASH_LENGTH ? Arrays.copyOf(name, HASH_LENGTH) : digest.digest(name);
+      this.chainingKey = hash.clone();
+   }
+
+   /**
+    * Continue from the chaining key and hash of the given state, reusing the primitives of this one.
+    * The cipher key is not copied, a key must be mixed in before encrypting or decrypting.
+    */
+   void copyHashesFrom(SymmetricState other) {
+      chainingKey = other.chainingKey.clone();
+      hash = other.hash.clone();
+      hasKey = false;
+   }
+
+   void mixHash(byte[] data) {
+      digest.update(hash);
+      digest.update(data);
+      hash = digest.digest();
+   }
+
+   void mixKey(byte[] inputKeyMaterial) {
+      byte[][] outputs = hkdf(inputKeyMaterial, 2);
+      chainingKey = outputs[0];
+      initializeKey(outputs[1]);
+   }
+
+   void mixKeyAndHash(byte[] inputKeyMaterial) {
+      byte[][] outputs = hkdf(inputKeyMaterial, 3);
+      chainingKey = outputs[0];
+      mixHash(outputs[1]);
+      initializeKey(outputs[2]);
+   }
+
+   /**
+    * Encrypt the plaintext, if there is a key already, and mix the result into the hash.
+    */
+   byte[] encryptAndHash(byte[] plaintext) {
+      byte[] ciphertext;
+      if (hasKey) {
+         ciphertext = new byte[plaintext.length + CipherState.MAC_LENGTH];
+         cipher.encrypt(hash, ByteBuffer.wrap(plaintext), ByteBuffer.wrap(ciphertext));
+      } else {
+         ciphertext = plaintext.clone();
+      }
+      mixHash(ciphertext);
+      return ciphertext;
+   }
+
+   /**
+    * Decrypt the ciphertext, if there is a key already, and mix the ciphertext into the hash.
+    * @throws IllegalArgumentException If the ciphertext could not be authenticated.
+    */
+   byte[] decryptAndHash(byte[] ciphertext) {
+      byte[] plaintext;
+      if (hasKey) {
+         if (ciphertext.length < CipherState.MAC_LENGTH) {
+            throw new IllegalArgumentException("ciphertext must contain the mac");
+         }
+         plaintext = new byte[ciphertext.length - CipherState.MAC_LENGTH];
+         cipher.decrypt(hash, ByteBuffer.wrap(ciphertext), ByteBuffer.wrap(plaintext));
+      } else {
+         plaintext = ciphertext.clone();
+      }
+      mixHash(ciphertext);
+      return plaintext;
+   }
+
+   /**
+    * The cipher states for transport messages, the first one for messages sent by the initiator.
+    */
+   CipherState[] split() {
+      byte[][] outputs = hkdf(new byte[0], 2);
+      return new CipherState[] { new CipherState(outputs[0]), new CipherState(outputs[1]) };
+   }
+
+   private void initializeKey(byte[] key) {
+      cipher.initializeKey(key);
+      hasKey = true;
+   }
+
+   private byte[][] hkdf(byte[] inputKeyMaterial, int outputCount) {
+      byte[] tempKey = hmac(chainingKey, inputKeyMaterial);
+      byte[][] outputs = new byte[outputCount][];
+      byte[] previous = new byte[0];
+      for (int i=0; i<outputCount; i++) {
+         byte[] input = Arrays.copyOf(previous, previous.length + 1);
+         input[previous.length] = (byte) (i + 1);
+         outputs[i] = hmac(tempKey, input);
+         previous = outputs[i];
+      }
+      return outputs;
+   }
+
+   private byte[] hmac(byte[] key, byte[] data) {
+      try {
+         hmac.init(new SecretKeySpec(key, "HmacSHA256"));
+      } catch (GeneralSecurityException e) {
+         throw new IllegalStateException("invalid hmac key", e);
+      }
+      return hmac.doFinal(data);
+   }
+}
@@ -0,0 +1,80 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.XECPrivateKey;
+import java.security.interfaces.XECPublicKey;
+import java.security.spec.NamedParameterSpec;
+import java.security.spec.XECPrivateKeySpec;
+import java.security.spec.XECPublicKeySpec;
+import javax.crypto.KeyAgreement;
+
+/**
+ * Diffie-Hellman on Curve25519 with keys in their raw 32 byte little-endian encoding,
+ * as used by Noise and the peer addresses.
+ */
+public final class X25519 {
+   public static final int KEY_LENGTH = 32;
+   private static final byte[] BASE_POINT = new byte[KEY_LENGTH];
+
+   static {
+      BASE_POINT[0] = 9;
+   }
+
+   private X25519() {
+   }
+
+   /**
+    * Generate a new random private key.
+    */
+   public static byte[] generatePrivateKey() {
+      try {
+         XECPrivateKey privateKey = (XECPrivateKey) KeyPairGenerator.getInstance("X25519").generateKeyPair().getPrivate();
+         return privateKey.getScalar().orElseThrow();
+      } catch (GeneralSecurityException e) {
+         throw new IllegalStateException("X25519 is not available", e);
+      }
+   }
+
+   /**
+    * The public key of the given private key.
+    */
+   public static byte[] publicKey(byte[] privateKey) {
+      return dh(privateKey, BASE_POINT);
+   }
+
+   /**
+    * The shared secret of the given private and public key.
+    * @throws IllegalArgumentException If the public key is invalid, for example of low order.
+    */
+   public static byte[] dh(byte[] privateKey, byte[] publicKey) {
+      if (privateKey.length != KEY_LENGTH || publicKey.length != KEY_LENGTH) {
+         throw new IllegalArgumentException("keys must be "+KEY_LENGTH+" bytes");
+      }
+      try {
+         KeyFactory keyFactory = KeyFactory.getInstance("XDH");
+         KeyAgreement agreement = KeyAgreement.getInstance("X25519");
+         agreement.init(keyFactory.generatePrivate(new XECPrivateKeySpec(NamedParameterSpec.X25519, privateKey)));
+         agreement.doPhase(keyFactory.generatePublic(new XECPublicKeySpec(NamedParameterSpec.X25519, u(publicKey))), true);
+         return agreement.generateSecret();
+      } catch (java.security.InvalidKeyException e) {
+         throw new IllegalArgumentException("invalid public key", e);
+      } catch (GeneralSecurityException e) {
+         throw new IllegalStateException("X25519 is not available", e);
+      }
+   }
+
+   /**
+    * Decode the little-endian u coordinate, ignoring the highest bit.
+    */
+   private static BigInteger u(byte[] publicKey) {
+      byte[] bigEndian = new byte[KEY_LENGTH];
+      for (int i=0; i<KEY_LENGTH; i++) {
+         bigEndian[i] = publicKey[KEY_LENGTH - 1 - i];
+      }
+      bigEndian[0] &= 0x7F;
+      return new BigInteger(1, bigEndian);
+   }
+}
@@ -1,81 +1,320 @@
 package com.vanillasource.scan.client.network.data;
 
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.Optional;
 
+/**
+ * A variable length integer of at most 8 bytes. Values that fit the protocol range (57 bits) are
+ * stored as a primitive long, only values outside of that range fall back to a {@link BigInteger}.
+ * Instances for the one-byte range are cached, so arithmetic on small ids does not allocate.
+ *
+ * The wire format is big-endian, where on each byte except the last the highest bit indicates that
+ * another byte follows. The 8th byte, if present, uses all of its 8 bits. The static codec methods
+ * work directly on primitive longs and never allocate.
+ */
 public class VariableLengthInteger {
-   private static final BigInteger LONG_MAX_INTEGER = BigInteger.TWO.pow(7*7+8).subtract(BigInteger.ONE);
+   public static final int MAX_LENGTH = 8;
+   public static final long MAX_LONG_VALUE = (1L << (7*7+8)) - 1;
+   private static final BigInteger LONG_MAX_INTEGER = BigInteger.valueOf(MAX_LONG_VALUE);
+   private static final int CACHE_SIZE = 128;
+   private static final VariableLengthInteger[] CACHE = new VariableLengthInteger[CACHE_SIZE];
+   private static final Optional<?>[] OPTIONAL_CACHE = new Optional<?>[CACHE_SIZE];
+   static {
+      for (int i=0; i<CACHE_SIZE; i++) {
+         CACHE[i] = new VariableLengthInteger(i, null);
+         OPTIONAL_CACHE[i] = Optional.of(CACHE[i]);
+      }
+   }
    public static final VariableLengthInteger ZERO = createLong(0);
    public static final VariableLengthInteger LONG_MAX = createBigInteger(LONG_MAX_INTEGER);
 
-   private final BigInteger maxValue;
-   private final BigInteger value;
+   private final long value;
+   private final BigInteger bigValue;
 
-   private VariableLengthInteger(BigInteger maxValue, BigInteger value) {
-      this.maxValue = maxValue;
+   private VariableLengthInteger(long value, BigInteger bigValue) {
       this.value = value;
+      this.bigValue = bigValue;
    }
 
    public static VariableLengthInteger createLong(long value) {
-      return createBigInteger(BigInteger.valueOf(value));
+      if (value >= 0 && value < CACHE_SIZE) {
+         return CACHE[(int) value];
+      }
+      if (value >= 0 && value <= MAX_LONG_VALUE) {
+         return new VariableLengthInteger(value, null);
+      }
+      return new VariableLengthInteger(0, BigInteger.valueOf(value));
    }
 
    public static VariableLengthInteger createBigInteger(BigInteger value) {
-      return new VariableLengthInteger(LONG_MAX_INTEGER, value);
+      if (value.signum() >= 0 && value.compareTo(LONG_MAX_INTEGER) <= 0) {
+         return createLong(value.longValue());
+      }
+      return new VariableLengthInteger(0, value);
    }
 
    public Optional<VariableLengthInteger> increase() {
-      if (value.equals(maxValue)) {
+      if (bigValue != null) {
+         return Optional.of(createBigInteger(bigValue.add(BigInteger.ONE)));
+      } else if (value == MAX_LONG_VALUE) {
          return Optional.empty();
       } else {
-         return Optional.of(new VariableLengthInteger(maxValue, value.add(BigInteger.ONE)));
+         return optionalOf(value + 1);
       }
    }
 
    public Optional<VariableLengthInteger> decrease() {
-      if (value.equals(BigInteger.ZERO)) {
+      if (bigValue != null) {
+         return Optional.of(createBigInteger(bigValue.subtract(BigInteger.ONE)));
+      } else if (value == 0) {
          return Optional.empty();
       } else {
-         return Optional.of(new VariableLengthInteger(maxValue, value.subtract(BigInteger.ONE)));
+         return optionalOf(value - 1);
       }
    }
 
    public Optional<VariableLengthInteger> subtract(VariableLengthInteger other) {
-      if (this.value.compareTo(other.value) < 0) {
+      if (bigValue != null || other.bigValue != null) {
+         if (bigIntegerValue().compareTo(other.bigIntegerValue()) < 0) {
+            return Optional.empty();
+         }
+         return Optional.of(createBigInteger(bigIntegerValue().subtract(other.bigIntegerValue())));
+      } else if (value < other.value) {
+         return Optional.empty();
+      } else {
+         return optionalOf(value - other.value);
+      }
+   }
+
+   public Optional<VariableLengthInteger> add(VariableLengthInteger other) {
+      if (bigValue != null || other.bigValue != null) {
+         BigInteger newValue = bigIntegerValue().add(other.bigIntegerValue());
+         if (newValue.compareTo(LONG_MAX_INTEGER) > 0) {
+            return Optional.empty();
+         }
+         return Optional.of(createBigInteger(newValue));
+      }
+      // Both values are at most 57 bits, so this can not overflow
+      long newValue = value + other.value;
+      if (newValue > MAX_LONG_VALUE) {
          return Optional.empty();
       } else {
-         return Optional.of(new VariableLengthInteger(maxValue, this.value.subtract(other.value)));
+         return optionalOf(newValue);
       }
    }
 
    public Optional<Integer> intValue() {
-      if (this.value.compareTo(BigInteger.valueOf(Integer.MAX_VALUE)) > 0) {
+      if (bigValue != null) {
+         if (bigValue.compareTo(BigInteger.valueOf(Integer.MAX_VALUE)) > 0) {
+            return Optional.empty();
+         }
+         return Optional.of(bigValue.intValue());
+      } else if (value > Integer.MAX_VALUE) {
          return Optional.empty();
       } else {
-         return Optional.of(this.value.intValue());
+         return Optional.of((int) value);
+      }
+   }
+
+   /**
+    * Whether this value is in the protocol range, i.e. it can be accessed as a primitive long.
+    */
+   public boolean isLong() {
+      return bigValue == null;
+   }
+
+   /**
+    * Get the value as a primitive long.
+    * @throws ArithmeticException If the value is outside the protocol range.
+    */
+   public long longValueExact() {
+      if (bigValue != null) {
+         throw new ArithmeticException("variable length integer out of long range: "+bigValue);
+      }
+      return value;
+   }
+
+   /**
+    * Get the value as a primitive int.
+    * @throws ArithmeticException If the value does not fit into an int.
+    */
+   public int intValueExact() {
+      if (bigValue != null || value > Integer.MAX_VALUE) {
+         throw new ArithmeticException("variable length integer out of int range: "+this);
+      }
+      return (int) value;
+   }
+
+   public BigInteger bigIntegerValue() {
+      if (bigValue != null) {
+         return bigValue;
+      }
+      return BigInteger.valueOf(value);
+   }
+
+   /**
+    * Read a value from the current position of the buffer, advancing the position.
+    */
+   public static VariableLengthInteger read(ByteBuffer buffer) {
+      return createLong(decode(buffer));
+   }
+
+   /**
+    * Write this value to the current position of the buffer, advancing the position.
+    */
+   public void writeTo(ByteBuffer buffer) {
+      encode(longValueExact(), buffer);
+   }
+
+   /**
+    * The number of bytes the given value needs on the wire.
+    */
+   public static int encodedLength(long value) {
+      checkEncodable(value);
+      int bits = Long.SIZE - Long.numberOfLeadingZeros(value);
+      if (bits <= 7*(MAX_LENGTH-1)) {
+         return Math.max(1, (bits + 6) / 7);
+      }
+      return MAX_LENGTH;
+   }
+
+   /**
+    * Determine the length of an encoded value that starts at the given index.
+    * @return The length of the value, or -1 if the value is not completely
+    * contained before the limit of the buffer.
+    */
+   public static int encodedLength(ByteBuffer buffer, int index) {
+      int available = Math.min(MAX_LENGTH, buffer.limit() - index);
+      for (int i=0; i<available; i++) {
+         if (i == MAX_LENGTH-1 || buffer.get(index+i) >= 0) {
+            return i+1;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Encode the value to the current position of the buffer, advancing the position.
+    */
+   public static void encode(long value, ByteBuffer buffer) {
+      buffer.position(buffer.position() + encode(value, buffer, buffer.position()));
+   }
+
+   /**
+    * Encode the value at the given index of the buffer, without changing its position.
+    * @return The number of bytes written.
+    */
+   public static int encode(long value, ByteBuffer buffer, int index) {
+      int length = encodedLength(value);
+      if (index < 0 || index + length > buffer.limit()) {
+         throw new BufferOverflowException();
+      }
+      long rest = value;
+      if (length == MAX_LENGTH) {
+         buffer.put(index + MAX_LENGTH - 1, (byte) rest);
+         rest >>>= 8;
+      } else {
+         buffer.put(index + length - 1, (byte) (rest & 0x7F));
+         rest >>>= 7;
+      }
+      for (int i=length-2; i>=0; i--) {
+         buffer.put(index + i, (byte) (0x80 | (rest & 0x7F)));
+         rest >>>= 7;
+      }
+      return length;
+   }
+
+   /**
+    * Decode a value from the current position of the buffer, advancing the position.
+    * @throws java.nio.BufferUnderflowException If the value is not completely in the buffer.
+    */
+   public static long decode(ByteBuffer buffer) {
+      long value = 0;
+      for (int i=0; i<MAX_LENGTH-1; i++) {
+         byte b = buffer.get();
+         value = (value << 7) | (b & 0x7F);
+         if (b >= 0) {
+            return value;
+         }
+      }
+      return (value << 8) | (buffer.get() & 0xFF);
+   }
+
+   /**
+    * Decode a value at the given index of the buffer, without changing its position.
+    * Use {@link #encodedLength(ByteBuffer, int)} to get the length of the value.
+    */
+   public static long decode(ByteBuffer buffer, int index) {
+      long value = 0;
+      for (int i=0; i<MAX_LENGTH-1; i++) {
+         byte b = buffer.get(index + i);
+         value = (value << 7) | (b & 0x7F);
+         if (b >= 0) {
+            return value;
+         }
+      }
+      return (value << 8) | (buffer.get(index + MAX_LENGTH - 1) & 0xFF);
+   }
+
+   /**
+    * Encode a batch of values to the current position of the buffer, advancing the position.
+    */
+   public static void encode(long[] values, int offset, int count, ByteBuffer buffer) {
+      int position = buffer.position();
+      for (int i=offset; i<offset+count; i++) {
+         position += encode(values[i], buffer, position);
+      }
+      buffer.position(position);
+   }
+
+   /**
+    * Decode a batch of values from the current position of the buffer into the given array,
+    * advancing the position.
+    */
+   public static void decode(ByteBuffer buffer, long[] values, int offset, int count) {
+      for (int i=offset; i<offset+count; i++) {
+         values[i] = decode(buffer);
+      }
+   }
+
+   private static void checkEncodable(long value) {
+      if (value < 0 || value > MAX_LONG_VALUE) {
+         throw new IllegalArgumentException("value can not be encoded as a variable length integer: "+value);
       }
    }
 
+   @SuppressWarnings("unchecked")
+   private static Optional<VariableLengthInteger> optionalOf(long value) {
+      if (value < CACHE_SIZE) {
+         return (Optional<VariableLengthInteger>) OPTIONAL_CACHE[(int) value];
+      }
+      return Optional.of(new VariableLengthInteger(value, null));
+   }
+
    @Override
    public boolean equals(Object o) {
       if (this == o) return true;
       if (o == null || getClass() != o.getClass()) return false;
       VariableLengthInteger that = (VariableLengthInteger) o;
-      return Objects.equals(value, that.value);
+      return value == that.value && Objects.equals(bigValue, that.bigValue);
    }
 
    @Override
    public int hashCode() {
-      return Objects.hash(value);
+      if (bigValue != null) {
+         return bigValue.hashCode();
+      }
+      return Long.hashCode(value);
    }
 
-   public Optional<VariableLengthInteger> add(VariableLengthInteger other) {
-      BigInteger newValue = value.add(other.value);
-      if (newValue.compareTo(LONG_MAX_INTEGER) > 0) {
-         return Optional.empty();
-      } else {
-         return Optional.of(new VariableLengthInteger(maxValue, newValue));
+   @Override
+   public String toString() {
+      if (bigValue != null) {
+         return bigValue.toString();
       }
+      return Long.toString(value);
    }
 }
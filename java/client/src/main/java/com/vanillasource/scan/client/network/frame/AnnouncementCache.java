@@ -0,0 +1,278 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.util.Lock;
+import com.vanillasource.util.TimeSource;
+import com.vanillasource.util.TimingWheel;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+
+/**
+ * Maps peer addresses to IP addresses based on announcements, and tracks whether
+ * devices are online. A device is offline if it misses 3 announcements.
+ *
+ * Keys are stored packed in a long array with open addressing, so there are no objects
+ * per key. Refreshing an entry only records the time, the timer of an entry is only
+ * rescheduled when it fires, which is at most once per timeout. Expired timers are processed
+ * whenever the cache is used, or with {@link #expire()}. Devices that went offline are
+ * removed, their entries are reused for new devices.
+ */
+public final class AnnouncementCache {
+   public static final long ANNOUNCEMENT_PERIOD_MILLIS = 1000;
+   public static final long OFFLINE_TIMEOUT_MILLIS = 3*ANNOUNCEMENT_PERIOD_MILLIS + ANNOUNCEMENT_PERIOD_MILLIS/2;
+   private static final int KEY_LONGS = PeerAddress.LENGTH / Long.BYTES;
+   private static final int INITIAL_CAPACITY = 64;
+   private final TimeSource timeSource;
+   private final Listener listener;
+   private final long offlineTimeoutMillis;
+   private final long tickMillis;
+   private final TimingWheel<Integer> wheel;
+   private final Lock lock = new Lock();
+   private int[] table = new int[INITIAL_CAPACITY*2];
+   private long[] keys = new long[INITIAL_CAPACITY*KEY_LONGS];
+   private InetAddress[] ips = new InetAddress[INITIAL_CAPACITY];
+   private long[] lastSeen = new long[INITIAL_CAPACITY];
+   @SuppressWarnings("unchecked")
+   private TimingWheel.Timer<Integer>[] timers = new TimingWheel.Timer[INITIAL_CAPACITY];
+   private int[] freeEntries = new int[INITIAL_CAPACITY];
+   private int freeCount = 0;
+   private int usedEntries = 0;
+   private int size = 0;
+   private final Queue<StatusChange> changes = new ArrayDeque<>();
+   private boolean notifying = false;
+
+   public AnnouncementCache(TimeSource timeSource, Listener listener) {
+      this(timeSource, listener, OFFLINE_TIMEOUT_MILLIS);
+   }
+
+   public AnnouncementCache(TimeSource timeSource, Listener listener, long offlineTimeoutMillis) {
+      this.timeSource = timeSource;
+      this.listener = listener;
+      this.offlineTimeoutMillis = offlineTimeoutMillis;
+      this.tickMillis = Math.max(1, offlineTimeoutMillis/16);
+      this.wheel = new TimingWheel<>(timeSource, tickMillis, 64);
+   }
+
+   /**
+    * Record an announcement of the given address from the given IP.
+    */
+   public void announce(PeerAddress address, InetAddress ip) {
+      lock.synchronize(() -> {
+         long now = timeSource.currentTimeMillis();
+         wheel.advance(this::timeout);
+         int entry = find(address);
+         if (entry < 0) {
+            entry = insert(address);
+            wheel.schedule(timers[entry], now + offlineTimeoutMillis);
+            changes.add(new StatusChange(address, true));
+         }
+         ips[entry] = ip;
+         lastSeen[entry] = now;
+      });
+      notifyListener();
+   }
+
+   /**
+    * The IP address of the given peer, or null if it is not known or is offline.
+    */
+   public InetAddress resolve(PeerAddress address) {
+      InetAddress ip = lock.synchronize(() -> {
+         wheel.advance(this::timeout);
+         int entry = find(address);
+         return entry < 0 ? null : ips[entry];
+      });
+      notifyListener();
+      return ip;
+   }
+
+   public boolean isOnline(PeerAddress address) {
+      return resolve(address) != null;
+   }
+
+   /**
+    * Process devices that have gone offline since the cache was last used. Should be
+    * called every {@link #tickMillis()}, so offline devices are noticed even without traffic.
+    */
+   public void expire() {
+      lock.synchronize(() -> wheel.advance(this::timeout));
+      notifyListener();
+   }
+
+   /**
+    * The granularity of offline detection.
+    */
+   public long tickMillis() {
+      return tickMillis;
+   }
+
+   /**
+    * The number of devices online.
+    */
+   public int size() {
+      return lock.synchronize(() -> size);
+   }
+
+   private void timeout(int entry) {
+      long now = timeSource.currentTimeMillis();
+      if (now - lastSeen[entry] < offlineTimeoutMillis) {
+         // Refreshed since the timer was scheduled
+         wheel.schedule(timers[entry], lastSeen[entry] + offlineTimeoutMillis);
+      } else {
+         changes.add(new StatusChange(addressOf(entry), false));
+         remove(entry);
+      }
+   }
+
+   /**
+    * Deliver the queued status changes, unless another thread is already doing it. Changes are
+    * queued while holding the lock, so the listener gets them in order, but without the lock.
+    */
+   private void notifyListener() {
+      boolean notifier = lock.synchronize(() -> {
+         if (notifying || changes.isEmpty()) {
+            return false;
+         }
+         notifying = true;
+         return true;
+      });
+      if (!notifier) {
+         return;
+      }
+      try {
+         for (StatusChange change = lock.synchronize(this::nextChange); change != null; change = lock.synchronize(this::nextChange)) {
+            listener.onlineStatusChanged(change.address(), change.online());
+         }
+      } catch (RuntimeException e) {
+         lock.synchronize(() -> {
+            notifying = false;
+         });
+         throw e;
+      }
+   }
+
+   private StatusChange nextChange() {
+      StatusChange change = changes.poll();
+      if (change == null) {
+         notifying = false;
+      }
+      return change;
+   }
+
+   private int find(PeerAddress address) {
+      int mask = table.length - 1;
+      for (int slot = address.hashCode() & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+         int entry = table[slot] - 1;
+         if (keyEquals(entry, address)) {
+            return entry;
+         }
+      }
+      return -1;
+   }
+
+   private int insert(PeerAddress address) {
+      int entry;
+      if (freeCount > 0) {
+         entry = freeEntries[--freeCount];
+      } else {
+         if (usedEntries == ips.length) {
+            grow();
+         }
+         entry = usedEntries++;
+         timers[entry] = wheel.newTimer(entry);
+      }
+      for (int i=0; i<KEY_LONGS; i++) {
+         keys[entry*KEY_LONGS + i] = address.longAt(i);
+      }
+      insertIntoTable(entry, address.hashCode());
+      size++;
+      return entry;
+   }
+
+   /**
+    * Remove the entry of an offline device. Its timer is kept for the next device using the entry.
+    */
+   private void remove(int entry) {
+      removeFromTable(entry);
+      ips[entry] = null;
+      freeEntries[freeCount++] = entry;
+      size--;
+   }
+
+   /**
+    * Only called when there are no free entries, so all used entries are in the table.
+    */
+   private void grow() {
+      int capacity = ips.length * 2;
+      keys = Arrays.copyOf(keys, capacity*KEY_LONGS);
+      ips = Arrays.copyOf(ips, capacity);
+      lastSeen = Arrays.copyOf(lastSeen, capacity);
+      timers = Arrays.copyOf(timers, capacity);
+      freeEntries = new int[capacity];
+      table = new int[capacity*2];
+      for (int entry=0; entry<usedEntries; entry++) {
+         insertIntoTable(entry, hash(entry));
+      }
+   }
+
+   private void insertIntoTable(int entry, int hash) {
+      int mask = table.length - 1;
+      int slot = hash & mask;
+      while (table[slot] != 0) {
+         slot = (slot + 1) & mask;
+      }
+      table[slot] = entry + 1;
+   }
+
+   /**
+    * Remove the entry from its slot, and move later entries of the same probe sequence back,
+    * so lookups do not stop early at the emptied slot.
+    */
+   private void removeFromTable(int entry) {
+      int mask = table.length - 1;
+      int hole = hash(entry) & mask;
+      while (table[hole] != entry + 1) {
+         hole = (hole + 1) & mask;
+      }
+      for (int slot = (hole + 1) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+         int home = hash(table[slot] - 1) & mask;
+         if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+            table[hole] = table[slot];
+            hole = slot;
+         }
+      }
+      table[hole] = 0;
+   }
+
+   private boolean keyEquals(int entry, PeerAddress address) {
+      for (int i=0; i<KEY_LONGS; i++) {
+         if (keys[entry*KEY_LONGS + i] != address.longAt(i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private int hash(int entry) {
+      int base = entry*KEY_LONGS;
+      return PeerAddress.hash(keys[base], keys[base + 1], keys[base + 2], keys[base + 3]);
+   }
+
+   private PeerAddress addressOf(int entry) {
+      int base = entry*KEY_LONGS;
+      return PeerAddress.create(keys[base], keys[base + 1], keys[base + 2], keys[base + 3]);
+   }
+
+   public interface Listener {
+      /**
+       * Called when a device comes online or goes offline. Called without holding the lock
+       * of the cache, for one change at a time, in the order the changes happened.
+       */
+      void onlineStatusChanged(PeerAddress address, boolean online);
+   }
+
+   private record StatusChange(PeerAddress address, boolean online) {
+   }
+}
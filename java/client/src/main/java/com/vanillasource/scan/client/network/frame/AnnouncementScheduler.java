@@ -0,0 +1,184 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.util.Lock;
+import com.vanillasource.util.TimeSource;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Periodically announces a set of identities, for example all devices behind a gateway.
+ * Identities are packed into advertisements of at most 16 addresses, and these packets are
+ * sent evenly spread over the period with some jitter, instead of in one burst. Encoded packets
+ * are reused until their identities change. Adding or removing an identity only touches
+ * the one packet it is in.
+ *
+ * The scheduler does not have its own thread, {@link #sendDue()} has to be called, at the
+ * latest at the time it returns.
+ */
+public final class AnnouncementScheduler {
+   private static final double JITTER_FRACTION = 0.5;
+   private final TimeSource timeSource;
+   private final Consumer<ByteBuffer> sender;
+   private final long periodMillis;
+   private final Random random;
+   private final Lock lock = new Lock();
+   private final List<Packet> packets = new ArrayList<>();
+   private final Map<PeerAddress, Packet> packetsByAddress = new HashMap<>();
+   private long cycleStart;
+   private int nextIndex = 0;
+   private long nextSendTime;
+   private long sentPacketCount = 0;
+   private int peakBurstSize = 0;
+
+   /**
+    * @param sender Sends a datagram to the multicast group, usually {@code PhysicalNetwork::sendMulticast}.
+    */
+   public AnnouncementScheduler(TimeSource timeSource, Consumer<ByteBuffer> sender, long periodMillis, Random random) {
+      this.timeSource = timeSource;
+      this.sender = sender;
+      this.periodMillis = periodMillis;
+      this.random = random;
+      this.cycleStart = timeSource.currentTimeMillis();
+      this.nextSendTime = cycleStart;
+   }
+
+   public AnnouncementScheduler(TimeSource timeSource, Consumer<ByteBuffer> sender) {
+      this(timeSource, sender, AnnouncementCache.ANNOUNCEMENT_PERIOD_MILLIS, new Random());
+   }
+
+   /**
+    * Start announcing the given identity. It is announced in the current or the next period.
+    */
+   public void add(PeerAddress address) {
+      lock.synchronize(() -> {
+         if (packetsByAddress.containsKey(address)) {
+            return;
+         }
+         Packet packet = packetWithSpace();
+         packet.addresses.add(address);
+         packet.encoded = null;
+         packetsByAddress.put(address, packet);
+      });
+   }
+
+   /**
+    * Stop announcing the given identity.
+    */
+   public void remove(PeerAddress address) {
+      lock.synchronize(() -> {
+         Packet packet = packetsByAddress.remove(address);
+         if (packet == null) {
+            return;
+         }
+         packet.addresses.remove(address);
+         packet.encoded = null;
+         if (packet.addresses.isEmpty()) {
+            int index = packets.indexOf(packet);
+            packets.remove(index);
+            if (index < nextIndex) {
+               nextIndex--;
+            }
+         }
+      });
+   }
+
+   /**
+    * Send all packets that are due.
+    * @return The time when this method should be called next.
+    */
+   public long sendDue() {
+      return lock.synchronize(() -> {
+         long now = timeSource.currentTimeMillis();
+         if (packets.isEmpty()) {
+            cycleStart = now;
+            nextIndex = 0;
+            return now + periodMillis;
+         }
+         if (now - nextSendTime > periodMillis) {
+            // Fell behind, start a new cycle instead of catching up in a burst
+            cycleStart = now;
+            nextIndex = 0;
+            nextSendTime = now;
+         }
+         int burst = 0;
+         while (nextSendTime <= now) {
+            if (nextIndex >= packets.size()) {
+               nextIndex = 0;
+               cycleStart += periodMillis;
+            } else {
+               sender.accept(packets.get(nextIndex).encoded().duplicate());
+               nextIndex++;
+               burst++;
+            }
+            nextSendTime = scheduledTime(nextIndex);
+         }
+         sentPacketCount += burst;
+         peakBurstSize = Math.max(peakBurstSize, burst);
+         return nextSendTime;
+      });
+   }
+
+   /**
+    * The number of packets sent in each period.
+    */
+   public int packetCount() {
+      return lock.synchronize(packets::size);
+   }
+
+   /**
+    * The number of packets per second sent when the scheduler is kept up to date.
+    */
+   public double packetsPerSecond() {
+      return packetCount() * 1000.0 / periodMillis;
+   }
+
+   public long sentPacketCount() {
+      return lock.synchronize(() -> sentPacketCount);
+   }
+
+   /**
+    * The most packets that were sent by a single call to {@link #sendDue()}.
+    */
+   public int peakBurstSize() {
+      return lock.synchronize(() -> peakBurstSize);
+   }
+
+   private long scheduledTime(int index) {
+      if (index >= packets.size()) {
+         return cycleStart + periodMillis;
+      }
+      double spacing = (double) periodMillis / packets.size();
+      return cycleStart + (long) (index*spacing + random.nextDouble()*spacing*JITTER_FRACTION);
+   }
+
+   private Packet packetWithSpace() {
+      for (int i=packets.size()-1; i>=0; i--) {
+         if (packets.get(i).addresses.size() < Frames.MAX_ADDRESSES) {
+            return packets.get(i);
+         }
+      }
+      Packet packet = new Packet();
+      packets.add(packet);
+      return packet;
+   }
+
+   private static final class Packet {
+      private final List<PeerAddress> addresses = new ArrayList<>(Frames.MAX_ADDRESSES);
+      private ByteBuffer encoded;
+
+      private ByteBuffer encoded() {
+         if (encoded == null) {
+            encoded = FrameEncoder.encodeAdvertisement(PeerAddresses.of(addresses));
+         }
+         return encoded;
+      }
+   }
+}
@@ -0,0 +1,220 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddressPool;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.network.physical.PhysicalPeer;
+import com.vanillasource.util.ByteBufferAllocator;
+import com.vanillasource.util.PooledByteBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static com.vanillasource.scan.client.network.frame.Frames.*;
+
+/**
+ * Decodes a stream of frames arriving in arbitrary segments. Frames that are completely
+ * contained in a received buffer are delivered as slices of that buffer without copying.
+ * Only frames that straddle two received buffers are copied into a buffer from the allocator,
+ * which is released as soon as the frame is delivered, so idle connections hold no buffer.
+ * Buffers given to the receiver are only valid during the callback. Frames on a connection
+ * usually repeat the same source and destination, so the last decoded addresses are reused
+ * if they match. A handshake with an unsupported major protocol version closes only its
+ * logical connection, the stream is decoded further.
+ */
+public final class FrameDecoder implements PhysicalPeer {
+   private final FrameReceiver receiver;
+   private final PeerAddressPool addressPool;
+   private final ByteBufferAllocator allocator;
+   private PooledByteBuffer pendingBuffer = null;
+   private ByteBuffer pending = null;
+   private int pendingFrameLength = -1;
+   private PeerAddress lastSource = null;
+   private PeerAddress lastDestination = null;
+
+   public FrameDecoder(FrameReceiver receiver) {
+      this(receiver, null);
+   }
+
+   /**
+    * @param addressPool Pool to intern decoded addresses with, or null to not intern them.
+    */
+   public FrameDecoder(FrameReceiver receiver, PeerAddressPool addressPool) {
+      this(receiver, addressPool, ByteBufferAllocator.UNPOOLED);
+   }
+
+   /**
+    * @param addressPool Pool to intern decoded addresses with, or null to not intern them.
+    * @param allocator Allocates the buffers of frames straddling received buffers.
+    */
+   public FrameDecoder(FrameReceiver receiver, PeerAddressPool addressPool, ByteBufferAllocator allocator) {
+      this.receiver = receiver;
+      this.addressPool = addressPool;
+      this.allocator = allocator;
+   }
+
+   /**
+    * Decode the next part of the stream.
+    * @throws IllegalArgumentException If the stream contains a malformed frame. The stream
+    * can not be decoded further after this.
+    */
+   @Override
+   public void receive(ByteBuffer buffer) {
+      if (pending != null) {
+         continuePendingFrame(buffer);
+      }
+      while (buffer.hasRemaining()) {
+         int length = frameLength(buffer, buffer.position());
+         if (length < 0 || length > buffer.remaining()) {
+            startPendingFrame(buffer);
+            return;
+         }
+         dispatch(buffer.slice(buffer.position(), length));
+         buffer.position(buffer.position() + length);
+      }
+   }
+
+   /**
+    * Decode a datagram, which must consist of complete frames.
+    */
+   public void receiveDatagram(ByteBuffer packet) {
+      while (packet.hasRemaining()) {
+         int length = frameLength(packet, packet.position());
+         if (length < 0 || length > packet.remaining()) {
+            throw new IllegalArgumentException("datagram contains incomplete frame");
+         }
+         dispatch(packet.slice(packet.position(), length));
+         packet.position(packet.position() + length);
+      }
+   }
+
+   @Override
+   public void close() {
+      releasePending();
+   }
+
+   private void startPendingFrame(ByteBuffer buffer) {
+      pendingBuffer = allocator.allocate(MAX_FRAME_LENGTH);
+      pending = pendingBuffer.buffer();
+      pendingFrameLength = -1;
+      continuePendingFrame(buffer);
+   }
+
+   private void continuePendingFrame(ByteBuffer buffer) {
+      // Copy byte-by-byte only until the length of the frame is known
+      while (pendingFrameLength < 0 && buffer.hasRemaining()) {
+         pending.put(buffer.get());
+         pendingFrameLength = frameLength(pending.duplicate().flip(), 0);
+      }
+      if (pendingFrameLength < 0) {
+         return;
+      }
+      int missing = Math.min(pendingFrameLength - pending.position(), buffer.remaining());
+      pending.put(pending.position(), buffer, buffer.position(), missing);
+      pending.position(pending.position() + missing);
+      buffer.position(buffer.position() + missing);
+      if (pending.position() == pendingFrameLength) {
+         try {
+            dispatch(pending.flip());
+         } finally {
+            releasePending();
+         }
+      }
+   }
+
+   private void releasePending() {
+      if (pendingBuffer != null) {
+         pendingBuffer.release();
+         pendingBuffer = null;
+         pending = null;
+         pendingFrameLength = -1;
+      }
+   }
+
+   private void dispatch(ByteBuffer frame) {
+      int header = frame.get() & 0xFF;
+      PeerAddress source = null;
+      PeerAddress destination = null;
+      if ((header & SOURCE_PRESENT) != 0) {
+         source = lastSource = readAddress(frame, lastSource);
+      }
+      if ((header & DESTINATION_PRESENT) != 0) {
+         destination = lastDestination = readAddress(frame, lastDestination);
+      }
+      int code = header & CODE_MASK;
+      if (code == ADVERTISEMENT) {
+         receiver.advertisement(readAddresses(frame));
+         return;
+      }
+      if (code == IDENTITY_QUERY) {
+         VariableLengthInteger queryId = VariableLengthInteger.read(frame);
+         receiver.identityQuery(queryId, readAddresses(frame));
+         return;
+      }
+      FramePeer peer = receiver.logicalConnection(source, destination, code == INITIATE_HANDSHAKE);
+      if (peer == null) {
+         return;
+      }
+      switch (code) {
+         case INITIATE_HANDSHAKE -> {
+            String protocolName = readString(frame);
+            int majorVersion = frame.get() & 0xFF;
+            frame.get(); // Minor versions are backwards compatible
+            ByteBuffer handshake = readBytes(frame, 0);
+            if (majorVersion != PROTOCOL_MAJOR_VERSION) {
+               // Only this logical connection is rejected, others on the stream are unaffected
+               peer.closeConnection();
+            } else {
+               peer.initiateHandshake(protocolName, handshake);
+            }
+         }
+         case CONTINUE_HANDSHAKE -> peer.continueHandshake(readBytes(frame, 0));
+         case CLOSE_CONNECTION -> {
+            readString(frame);
+            peer.closeConnection();
+         }
+         case INTERMEDIATE_PAYLOAD_CHUNK -> {
+            VariableLengthInteger messageId = VariableLengthInteger.read(frame);
+            peer.messageIntermediateFrame(messageId, readBytes(frame, MAC_LENGTH));
+         }
+         case LAST_PAYLOAD_CHUNK -> {
+            VariableLengthInteger messageId = VariableLengthInteger.read(frame);
+            peer.messageLastFrame(messageId, readBytes(frame, MAC_LENGTH));
+         }
+         case SINGLE_CHUNK_PAYLOAD -> peer.messageSingleFrame(readBytes(frame, MAC_LENGTH));
+         default -> peer.ignoredFrame(code);
+      }
+   }
+
+   private PeerAddress readAddress(ByteBuffer frame, PeerAddress last) {
+      PeerAddress address;
+      if (last != null && last.equalsAt(frame, frame.position())) {
+         address = last;
+      } else if (addressPool != null) {
+         address = addressPool.intern(PeerAddress.read(frame, frame.position()));
+      } else {
+         address = PeerAddress.read(frame, frame.position());
+      }
+      frame.position(frame.position() + PeerAddress.LENGTH);
+      return address;
+   }
+
+   private static PeerAddresses readAddresses(ByteBuffer frame) {
+      int length = (int) VariableLengthInteger.decode(frame) * PeerAddress.LENGTH;
+      PeerAddresses addresses = PeerAddresses.wrap(frame.slice(frame.position(), length));
+      frame.position(frame.position() + length);
+      return addresses;
+   }
+
+   private static String readString(ByteBuffer frame) {
+      return StandardCharsets.UTF_8.decode(readBytes(frame, 0)).toString();
+   }
+
+   private static ByteBuffer readBytes(ByteBuffer frame, int trailerLength) {
+      int length = (int) VariableLengthInteger.decode(frame) + trailerLength;
+      ByteBuffer bytes = frame.slice(frame.position(), length);
+      frame.position(frame.position() + length);
+      return bytes;
+   }
+}
@@ -0,0 +1,242 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.network.crypto.CipherState;
+import com.vanillasource.scan.client.network.physical.PhysicalPeer;
+import com.vanillasource.util.ByteBufferAllocator;
+import com.vanillasource.util.ByteBufferPool;
+import com.vanillasource.util.PooledByteBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import static com.vanillasource.scan.client.network.frame.Frames.*;
+
+/**
+ * Encodes frames of a single logical connection into a physical connection. Headers are
+ * written into pooled buffers and payloads are passed to the physical connection
+ * as they are, without copying. Each frame is one call to {@link PhysicalPeer#receive(ByteBuffer[])},
+ * in the order decided by the {@link FrameScheduler} of the physical connection. Payload chunks of
+ * multi-chunk messages are bulk frames, one stream per message, all other frames are priority frames.
+ * Payloads must already contain the trailing MAC, unless the encoder is set to encrypt payloads,
+ * in which case payloads are encrypted into pooled buffers right before the frame is written,
+ * because the nonces must follow the order frames are written in. If writing an encrypted frame
+ * fails, the nonces of the two sides are out of sync, so the logical connection is closed.
+ */
+public final class FrameEncoder implements FramePeer {
+   public static final int HEADER_BUFFER_SIZE = 256;
+   public static final int PROTOCOL_MAJOR_VERSION = Frames.PROTOCOL_MAJOR_VERSION;
+   public static final int PROTOCOL_MINOR_VERSION = Frames.PROTOCOL_MINOR_VERSION;
+   private final FrameScheduler scheduler;
+   private final ByteBufferPool headers;
+   private final PeerAddress source;
+   private final PeerAddress destination;
+   private final Runnable onClose;
+   private volatile Encryption encryption = null;
+   private volatile boolean closed = false;
+
+   /**
+    * @param scheduler The scheduler shared by all encoders writing to the same physical connection.
+    * @param headers Pool of buffers of at least {@link #HEADER_BUFFER_SIZE} bytes.
+    */
+   public FrameEncoder(FrameScheduler scheduler, ByteBufferPool headers, PeerAddress source, PeerAddress destination) {
+      this(scheduler, headers, source, destination, () -> {});
+   }
+
+   /**
+    * @param onClose Called when the encoder closes the logical connection by itself, because
+    *                an encrypted frame could not be written.
+    */
+   public FrameEncoder(FrameScheduler scheduler, ByteBufferPool headers, PeerAddress source, PeerAddress destination,
+         Runnable onClose) {
+      this.scheduler = scheduler;
+      this.headers = headers;
+      this.source = source;
+      this.destination = destination;
+      this.onClose = onClose;
+   }
+
+   /**
+    * Encrypt all following payloads with the given cipher state, usually after the handshake completed.
+    * Payloads given to this encoder must not contain the MAC after this call.
+    * @param allocator Allocates the buffers for the encrypted payloads.
+    */
+   public void encryptWith(CipherState cipher, ByteBufferAllocator allocator) {
+      encryption = new Encryption(cipher, allocator);
+   }
+
+   @Override
+   public void initiateHandshake(String protocolName, ByteBuffer handshake) {
+      byte[] name = protocolName.getBytes(StandardCharsets.UTF_8);
+      send(INITIATE_HANDSHAKE, header -> {
+         VariableLengthInteger.encode(name.length, header);
+         header.put(name);
+         header.put((byte) PROTOCOL_MAJOR_VERSION);
+         header.put((byte) PROTOCOL_MINOR_VERSION);
+         VariableLengthInteger.encode(handshake.remaining(), header);
+      }, handshake);
+   }
+
+   @Override
+   public void continueHandshake(ByteBuffer handshake) {
+      send(CONTINUE_HANDSHAKE, header -> VariableLengthInteger.encode(handshake.remaining(), header), handshake);
+   }
+
+   @Override
+   public void closeConnection() {
+      send(CLOSE_CONNECTION, header -> VariableLengthInteger.encode(0, header), null);
+   }
+
+   @Override
+   public void renegotiate() {
+      // There is no frame for this in the protocol
+   }
+
+   @Override
+   public void ignoredFrame(int frameCode) {
+      // There is no frame for this in the protocol
+   }
+
+   @Override
+   public void keepAlive() {
+      // Advertisements double as keep-alive, there is no frame for this
+   }
+
+   @Override
+   public void messageIntermediateFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+      sendPayload(INTERMEDIATE_PAYLOAD_CHUNK, messageId, payload, new Stream(destination, messageId));
+   }
+
+   @Override
+   public void messageLastFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+      sendPayload(LAST_PAYLOAD_CHUNK, messageId, payload, new Stream(destination, messageId));
+   }
+
+   @Override
+   public void messageSingleFrame(ByteBuffer payload) {
+      sendPayload(SINGLE_CHUNK_PAYLOAD, null, payload, null);
+   }
+
+   private void sendPayload(int code, VariableLengthInteger messageId, ByteBuffer payload, Stream stream) {
+      Encryption encryption = this.encryption;
+      if (encryption == null) {
+         if (payload.remaining() < MAC_LENGTH) {
+            throw new IllegalArgumentException("payload must contain the mac");
+         }
+         sendPayload(code, messageId, payload, stream, null);
+         return;
+      }
+      PooledByteBuffer encrypted = encryption.allocator.allocate(payload.remaining() + MAC_LENGTH);
+      boolean[] nonceUsed = { false };
+      try {
+         ByteBuffer ciphertext = encrypted.buffer();
+         sendPayload(code, messageId, ciphertext, stream, () -> {
+            nonceUsed[0] = true;
+            encryption.cipher.encrypt(payload.duplicate(), ciphertext.duplicate());
+         });
+      } catch (RuntimeException e) {
+         if (nonceUsed[0]) {
+            closeAfterFailedWrite(e);
+         }
+         throw e;
+      } finally {
+         encrypted.release();
+      }
+   }
+
+   /**
+    * The receiver will expect the nonce that was used for the frame it did not get, so it
+    * could not decrypt any further frames.
+    */
+   private void closeAfterFailedWrite(RuntimeException cause) {
+      closed = true;
+      try {
+         send(CLOSE_CONNECTION, header -> VariableLengthInteger.encode(0, header), null, null, null);
+      } catch (RuntimeException e) {
+         cause.addSuppressed(e);
+      }
+      onClose.run();
+   }
+
+   private void sendPayload(int code, VariableLengthInteger messageId, ByteBuffer payload, Stream stream, Runnable prepare) {
+      send(code, header -> {
+         if (messageId != null) {
+            messageId.writeTo(header);
+         }
+         VariableLengthInteger.encode(payload.remaining() - MAC_LENGTH, header);
+      }, payload, stream, prepare);
+   }
+
+   private void send(int code, Consumer<ByteBuffer> contentHeader, ByteBuffer payload) {
+      send(code, contentHeader, payload, null, null);
+   }
+
+   /**
+    * @param stream The stream of a bulk frame, or null for a priority frame.
+    * @param prepare Fills the payload right before it is written, or null if the payload is ready.
+    */
+   private void send(int code, Consumer<ByteBuffer> contentHeader, ByteBuffer payload, Stream stream, Runnable prepare) {
+      if (closed && code != CLOSE_CONNECTION) {
+         throw new IllegalStateException("connection to "+destination+" was closed after a failed write");
+      }
+      ByteBuffer header = headers.acquire();
+      try {
+         header.put((byte) (code | SOURCE_PRESENT | DESTINATION_PRESENT));
+         source.writeTo(header);
+         destination.writeTo(header);
+         int contentStart = header.position();
+         contentHeader.accept(header);
+         int contentLength = header.position() - contentStart + (payload == null ? 0 : payload.remaining());
+         if (contentLength > MAX_CONTENT_LENGTH) {
+            throw new IllegalArgumentException("frame content is over the maximum length: "+contentLength);
+         }
+         header.flip();
+         // The whole frame is given to the output at once, so it can be sent with one gathering write
+         ByteBuffer[] frame = payload == null ? new ByteBuffer[] { header } : new ByteBuffer[] { header, payload };
+         if (stream == null) {
+            scheduler.sendPriority(frame, prepare);
+         } else {
+            scheduler.sendBulk(stream, frame, prepare);
+         }
+      } finally {
+         headers.release(header);
+      }
+   }
+
+   /**
+    * Encode an advertisement frame to be sent as a datagram.
+    */
+   public static ByteBuffer encodeAdvertisement(PeerAddresses addresses) {
+      return encodeAddresses(ADVERTISEMENT, null, addresses);
+   }
+
+   /**
+    * Encode an identity query frame to be sent as a datagram.
+    */
+   public static ByteBuffer encodeIdentityQuery(VariableLengthInteger queryId, PeerAddresses addresses) {
+      return encodeAddresses(IDENTITY_QUERY, queryId, addresses);
+   }
+
+   private static ByteBuffer encodeAddresses(int code, VariableLengthInteger queryId, PeerAddresses addresses) {
+      if (addresses.size() > MAX_ADDRESSES) {
+         throw new IllegalArgumentException("at most "+MAX_ADDRESSES+" addresses fit in a frame, was "+addresses.size());
+      }
+      ByteBuffer frame = ByteBuffer.allocate(1 + 2*VariableLengthInteger.MAX_LENGTH + addresses.size()*PeerAddress.LENGTH);
+      frame.put((byte) code);
+      if (queryId != null) {
+         queryId.writeTo(frame);
+      }
+      VariableLengthInteger.encode(addresses.size(), frame);
+      addresses.writeTo(frame);
+      return frame.flip();
+   }
+
+   private record Encryption(CipherState cipher, ByteBufferAllocator allocator) {
+   }
+
+   private record Stream(PeerAddress destination, VariableLengthInteger messageId) {
+   }
+}
@@ -1,15 +1,14 @@
 package com.vanillasource.scan.client.network.frame;
 
 import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddresses;
 import com.vanillasource.scan.client.network.Role;
 import com.vanillasource.scan.client.network.data.VariableLengthInteger;
 
-import java.util.Collection;
-
 public interface FrameNetwork {
-   void identityQuery(VariableLengthInteger queryId, Collection<PeerAddress> addresses);
+   void identityQuery(VariableLengthInteger queryId, PeerAddresses addresses);
 
-   void identityAnnouncement(PeerAddress[] addresses);
+   void identityAnnouncement(PeerAddresses addresses);
 
    void close();
 
@@ -6,6 +6,9 @@ import com.vanillasource.scan.client.network.Role;
 public interface FrameNetworkListener {
    void receiveAnnouncement(PeerAddress address);
 
+   default void receiveOnlineStatus(PeerAddress address, boolean online) {
+   }
+
    FramePeer receiveConnection(PeerAddress address, Role role, FramePeer initiator);
 }
 
@@ -4,6 +4,10 @@ import com.vanillasource.scan.client.network.data.VariableLengthInteger;
 
 import java.nio.ByteBuffer;
 
+/**
+ * Receives frames of a logical connection. Payload and handshake buffers are only borrowed
+ * for the duration of the call, the caller may reuse or release them after the call returns.
+ */
 public interface FramePeer {
    void initiateHandshake(String protocolName, ByteBuffer handshake);
 
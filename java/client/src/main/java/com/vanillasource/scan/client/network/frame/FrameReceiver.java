@@ -0,0 +1,29 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+
+/**
+ * Receives decoded frames from a {@link FrameDecoder}.
+ */
+public interface FrameReceiver {
+   /**
+    * Find the logical connection a frame belongs to.
+    * @param source The source of the frame, or null if it was omitted.
+    * @param destination The destination of the frame, or null if it was omitted.
+    * @param initiating Whether the frame initiates a new logical connection.
+    * @return The peer to deliver the frame to, or null if the frame should be dropped.
+    */
+   FramePeer logicalConnection(PeerAddress source, PeerAddress destination, boolean initiating);
+
+   /**
+    * @param addresses Addresses backed by the received buffer, only valid during the call.
+    */
+   void advertisement(PeerAddresses addresses);
+
+   /**
+    * @param addresses Addresses backed by the received buffer, only valid during the call.
+    */
+   void identityQuery(VariableLengthInteger queryId, PeerAddresses addresses);
+}
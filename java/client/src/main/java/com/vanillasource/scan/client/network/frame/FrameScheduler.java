@@ -0,0 +1,251 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.physical.PhysicalPeer;
+import com.vanillasource.util.BlockingSupplier;
+import com.vanillasource.util.Lock;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Decides the order in which frames of all logical connections are written to one physical
+ * connection, so small messages can be interjected while large messages are being streamed.
+ * Frames in the priority lane, control frames and single chunk messages, are always written
+ * before bulk frames. Bulk frames are grouped into streams, usually one stream per message, and
+ * streams are interleaved with deficit round-robin, so each stream gets about the same bandwidth
+ * regardless of its frame sizes.
+ *
+ * Frames are not copied. The sending thread waits until its frame is scheduled, then writes it
+ * itself, so at most one frame is written at a time and a priority frame waits for at most one
+ * bulk frame. Only the sender of the scheduled frame is woken up.
+ */
+public final class FrameScheduler {
+   public static final int DEFAULT_QUANTUM = Frames.MAX_FRAME_LENGTH;
+   private final PhysicalPeer output;
+   private final Lock outputLock;
+   private final int quantum;
+   private final Lock lock = new Lock();
+   private final ArrayDeque<Frame> priorityFrames = new ArrayDeque<>();
+   private final Map<Object, Stream> streams = new HashMap<>();
+   private final ArrayDeque<Stream> activeStreams = new ArrayDeque<>();
+   private final BlockingSupplier<Frame> turn;
+   private Frame granted = null;
+   private int bulkFrameCount = 0;
+   private long priorityFramesSent = 0;
+   private long bulkFramesSent = 0;
+
+   public FrameScheduler(PhysicalPeer output, Lock outputLock) {
+      this(output, outputLock, DEFAULT_QUANTUM);
+   }
+
+   /**
+    * @param outputLock The lock to hold while writing to the output.
+    * @param quantum The number of bytes a stream may send in one round.
+    */
+   public FrameScheduler(PhysicalPeer output, Lock outputLock, int quantum) {
+      if (quantum <= 0) {
+         throw new IllegalArgumentException("quantum must be positive, was "+quantum);
+      }
+      this.output = output;
+      this.outputLock = outputLock;
+      this.quantum = quantum;
+      this.turn = lock.blockingSupplier(() ->
+            granted != null && granted.owner == Thread.currentThread() ? Optional.of(granted) : Optional.empty());
+   }
+
+   /**
+    * Send a frame ahead of all bulk frames. Returns when the frame is written.
+    */
+   public void sendPriority(ByteBuffer[] frame) {
+      sendPriority(frame, null);
+   }
+
+   /**
+    * Send a frame ahead of all bulk frames. Returns when the frame is written.
+    * @param prepare Run right before the frame is written, for example to encrypt the
+    *                payload, when its content depends on the order frames are written in.
+    *                If the write fails after this ran, the sender must not send further frames
+    *                that depend on it, see {@link FrameEncoder}.
+    */
+   public void sendPriority(ByteBuffer[] frame, Runnable prepare) {
+      send(null, frame, prepare);
+   }
+
+   /**
+    * Send a frame of the given stream, interleaved with the frames of other streams.
+    * Frames of the same stream are written in order. Returns when the frame is written.
+    * @param stream The key of the stream, streams are equal if their keys are equal.
+    */
+   public void sendBulk(Object stream, ByteBuffer[] frame) {
+      sendBulk(stream, frame, null);
+   }
+
+   /**
+    * Send a frame of the given stream, see {@link #sendBulk(Object, ByteBuffer[])}.
+    * @param prepare Run right before the frame is written, see {@link #sendPriority(ByteBuffer[], Runnable)}.
+    */
+   public void sendBulk(Object stream, ByteBuffer[] frame, Runnable prepare) {
+      if (stream == null) {
+         throw new IllegalArgumentException("stream can not be null");
+      }
+      send(stream, frame, prepare);
+   }
+
+   /**
+    * The number of priority frames waiting to be written.
+    */
+   public int priorityQueueDepth() {
+      return lock.synchronize(priorityFrames::size);
+   }
+
+   /**
+    * The number of bulk frames waiting to be written.
+    */
+   public int bulkQueueDepth() {
+      return lock.synchronize(() -> bulkFrameCount);
+   }
+
+   /**
+    * Whether any frame is waiting to be written, not counting the one being written.
+    */
+   public boolean hasWaitingFrames() {
+      return lock.synchronize(() -> !priorityFrames.isEmpty() || bulkFrameCount > 0);
+   }
+
+   /**
+    * The number of streams with frames waiting to be written.
+    */
+   public int activeStreamCount() {
+      return lock.synchronize(activeStreams::size);
+   }
+
+   public long priorityFramesSent() {
+      return lock.synchronize(() -> priorityFramesSent);
+   }
+
+   public long bulkFramesSent() {
+      return lock.synchronize(() -> bulkFramesSent);
+   }
+
+   private void send(Object streamKey, ByteBuffer[] buffers, Runnable prepare) {
+      Frame frame = new Frame(buffers, streamKey == null);
+      lock.synchronize(() -> {
+         if (streamKey == null) {
+            priorityFrames.addLast(frame);
+         } else {
+            Stream stream = streams.computeIfAbsent(streamKey, Stream::new);
+            if (stream.frames.isEmpty()) {
+               activeStreams.addLast(stream);
+            }
+            stream.frames.addLast(frame);
+            bulkFrameCount++;
+         }
+         grantNext();
+      });
+      try {
+         turn.get();
+      } catch (RuntimeException e) {
+         lock.synchronize(() -> withdraw(streamKey, frame));
+         throw e;
+      }
+      try {
+         if (prepare != null) {
+            prepare.run();
+         }
+         outputLock.synchronize(() -> output.receive(buffers));
+      } finally {
+         lock.synchronize(() -> {
+            if (frame.priority) {
+               priorityFramesSent++;
+            } else {
+               bulkFramesSent++;
+            }
+            granted = null;
+            grantNext();
+         });
+      }
+   }
+
+   /**
+    * Remove a frame that will not be written, because its sender gave up waiting.
+    */
+   private void withdraw(Object streamKey, Frame frame) {
+      if (granted == frame) {
+         granted = null;
+      } else if (streamKey == null) {
+         priorityFrames.remove(frame);
+      } else {
+         Stream stream = streams.get(streamKey);
+         if (stream != null && stream.frames.remove(frame)) {
+            bulkFrameCount--;
+            if (stream.frames.isEmpty()) {
+               activeStreams.remove(stream);
+               streams.remove(streamKey);
+            }
+         }
+      }
+      grantNext();
+   }
+
+   private void grantNext() {
+      if (granted == null) {
+         granted = nextFrame();
+         if (granted != null) {
+            turn.notifyTry(granted.owner);
+         }
+      }
+   }
+
+   private Frame nextFrame() {
+      Frame frame = priorityFrames.pollFirst();
+      if (frame != null) {
+         return frame;
+      }
+      while (!activeStreams.isEmpty()) {
+         Stream stream = activeStreams.peekFirst();
+         Frame head = stream.frames.peekFirst();
+         if (head.length <= stream.deficit) {
+            stream.frames.pollFirst();
+            stream.deficit -= head.length;
+            bulkFrameCount--;
+            if (stream.frames.isEmpty()) {
+               // Idle streams do not keep their deficit
+               activeStreams.pollFirst();
+               streams.remove(stream.key);
+            }
+            return head;
+         }
+         stream.deficit += quantum;
+         activeStreams.addLast(activeStreams.pollFirst());
+      }
+      return null;
+   }
+
+   private static final class Frame {
+      private final Thread owner = Thread.currentThread();
+      private final int length;
+      private final boolean priority;
+
+      private Frame(ByteBuffer[] buffers, boolean priority) {
+         int length = 0;
+         for (ByteBuffer buffer : buffers) {
+            length += buffer.remaining();
+         }
+         this.length = length;
+         this.priority = priority;
+      }
+   }
+
+   private static final class Stream {
+      private final Object key;
+      private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+      private int deficit = 0;
+
+      private Stream(Object key) {
+         this.key = key;
+      }
+   }
+}
@@ -0,0 +1,106 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The wire format of frames. A frame starts with a header byte, where the highest bit
+ * indicates a source address and the next bit a destination address following the
+ * header. The rest of the header byte is the flattened code of the content union.
+ * Dynamic arrays and strings are prefixed with their length as a variable length
+ * integer.
+ */
+final class Frames {
+   static final int SOURCE_PRESENT = 0x80;
+   static final int DESTINATION_PRESENT = 0x40;
+   static final int CODE_MASK = 0x3F;
+
+   static final int INITIATE_HANDSHAKE = 0;
+   static final int CONTINUE_HANDSHAKE = 1;
+   static final int CLOSE_CONNECTION = 2;
+   static final int INTERMEDIATE_PAYLOAD_CHUNK = 3;
+   static final int LAST_PAYLOAD_CHUNK = 4;
+   static final int SINGLE_CHUNK_PAYLOAD = 5;
+   static final int ADVERTISEMENT = 6;
+   // Not part of the frame union in the specification, carries FrameNetwork.identityQuery()
+   static final int IDENTITY_QUERY = 7;
+
+   static final int PROTOCOL_MAJOR_VERSION = 1;
+   static final int PROTOCOL_MINOR_VERSION = 1;
+   static final int MAC_LENGTH = 16;
+   static final int MAX_ADDRESSES = 16;
+   static final int MAX_CONTENT_LENGTH = 32767;
+   static final int MAX_HEADER_LENGTH = 1 + 2*PeerAddress.LENGTH;
+   static final int MAX_FRAME_LENGTH = MAX_HEADER_LENGTH + MAX_CONTENT_LENGTH;
+
+   private Frames() {
+   }
+
+   /**
+    * Determine the length of the frame starting at the given index.
+    * @return The length of the whole frame, which may extend beyond the limit of the buffer,
+    * or -1 if not enough bytes are available to determine the length.
+    * @throws IllegalArgumentException If the frame is malformed or too large.
+    */
+   static int frameLength(ByteBuffer buffer, int index) {
+      if (index >= buffer.limit()) {
+         return -1;
+      }
+      int header = buffer.get(index) & 0xFF;
+      int contentStart = index + 1 +
+              ((header & SOURCE_PRESENT) != 0 ? PeerAddress.LENGTH : 0) +
+              ((header & DESTINATION_PRESENT) != 0 ? PeerAddress.LENGTH : 0);
+      int position = switch (header & CODE_MASK) {
+         case INITIATE_HANDSHAKE -> skipDynamicArray(buffer, plus(skipDynamicArray(buffer, contentStart, 1), 2), 1);
+         case CONTINUE_HANDSHAKE, CLOSE_CONNECTION -> skipDynamicArray(buffer, contentStart, 1);
+         case INTERMEDIATE_PAYLOAD_CHUNK, LAST_PAYLOAD_CHUNK -> plus(skipDynamicArray(buffer, skipVariableLengthInteger(buffer, contentStart), 1), MAC_LENGTH);
+         case SINGLE_CHUNK_PAYLOAD -> plus(skipDynamicArray(buffer, contentStart, 1), MAC_LENGTH);
+         case ADVERTISEMENT -> skipAddresses(buffer, contentStart);
+         case IDENTITY_QUERY -> skipAddresses(buffer, skipVariableLengthInteger(buffer, contentStart));
+         default -> throw new IllegalArgumentException("unknown frame code "+(header & CODE_MASK));
+      };
+      if (position < 0) {
+         return -1;
+      }
+      if (position - contentStart > MAX_CONTENT_LENGTH) {
+         throw new IllegalArgumentException("frame content is over the maximum length: "+(position - contentStart));
+      }
+      return position - index;
+   }
+
+   private static int skipAddresses(ByteBuffer buffer, int position) {
+      int afterCount = skipVariableLengthInteger(buffer, position);
+      if (afterCount >= 0 && VariableLengthInteger.decode(buffer, position) > MAX_ADDRESSES) {
+         throw new IllegalArgumentException("too many addresses in frame");
+      }
+      return skipDynamicArray(buffer, position, PeerAddress.LENGTH);
+   }
+
+   private static int skipVariableLengthInteger(ByteBuffer buffer, int position) {
+      return plus(position, position < 0 ? 0 : VariableLengthInteger.encodedLength(buffer, position));
+   }
+
+   private static int skipDynamicArray(ByteBuffer buffer, int position, int itemLength) {
+      if (position < 0) {
+         return -1;
+      }
+      int length = VariableLengthInteger.encodedLength(buffer, position);
+      if (length < 0) {
+         return -1;
+      }
+      long count = VariableLengthInteger.decode(buffer, position);
+      if (count * itemLength > MAX_CONTENT_LENGTH) {
+         throw new IllegalArgumentException("dynamic array in frame is over the maximum length: "+count);
+      }
+      return position + length + (int) count * itemLength;
+   }
+
+   private static int plus(int position, int length) {
+      if (position < 0 || length < 0) {
+         return -1;
+      }
+      return position + length;
+   }
+}
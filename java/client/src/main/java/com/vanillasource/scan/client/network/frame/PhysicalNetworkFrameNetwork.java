@@ -0,0 +1,373 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.Role;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.network.physical.CoalescingPhysicalPeer;
+import com.vanillasource.scan.client.network.physical.PhysicalNetwork;
+import com.vanillasource.scan.client.network.physical.PhysicalNetworkListener;
+import com.vanillasource.scan.client.network.physical.PhysicalPeer;
+import com.vanillasource.util.ByteBufferAllocator;
+import com.vanillasource.util.ByteBufferPool;
+import com.vanillasource.util.Lock;
+import com.vanillasource.util.TimeSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * A {@link FrameNetwork} that encodes and decodes frames to and from a {@link PhysicalNetwork}.
+ * Logical connections to the same IP address share one physical connection. Addresses are
+ * resolved from the advertisements received, devices that miss their advertisements are
+ * considered offline and can not be connected to. Offline devices are detected periodically,
+ * until the network is closed.
+ */
+public final class PhysicalNetworkFrameNetwork implements FrameNetwork, PhysicalNetworkListener {
+   private static final Logger LOGGER = LoggerFactory.getLogger(PhysicalNetworkFrameNetwork.class);
+   private final PhysicalNetwork delegate;
+   private final FrameNetworkListener listener;
+   private final PeerAddress localAddress;
+   private static final int COALESCING_THRESHOLD = 16*1024;
+   private final ByteBufferPool headers = new ByteBufferPool(FrameEncoder.HEADER_BUFFER_SIZE);
+   private final AnnouncementCache announcements;
+   private final Map<InetAddress, CompletableFuture<Connection>> connections = new ConcurrentHashMap<>();
+   private final long latencyBudgetMicros;
+   private final LongFunction<Executor> delayedExecutor;
+   private final ByteBufferAllocator allocator;
+   private volatile boolean closed = false;
+
+   public PhysicalNetworkFrameNetwork(PeerAddress localAddress, FrameNetworkListener listener, Function<PhysicalNetworkListener, PhysicalNetwork> delegateFactory) {
+      this(localAddress, listener, delegateFactory, 0);
+   }
+
+   /**
+    * @param latencyBudgetMicros If positive, frames sent concurrently to the same physical connection
+    *                            are coalesced into single writes, delaying them at most this long.
+    */
+   public PhysicalNetworkFrameNetwork(PeerAddress localAddress, FrameNetworkListener listener, Function<PhysicalNetworkListener, PhysicalNetwork> delegateFactory,
+                                      long latencyBudgetMicros) {
+      this(localAddress, listener, delegateFactory, latencyBudgetMicros, TimeSource.SYSTEM,
+            delayMillis -> CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS));
+   }
+
+   /**
+    * @param delayedExecutor Supplies an executor that runs tasks after the given milliseconds.
+    */
+   public PhysicalNetworkFrameNetwork(PeerAddress localAddress, FrameNetworkListener listener, Function<PhysicalNetworkListener, PhysicalNetwork> delegateFactory,
+                                      long latencyBudgetMicros, TimeSource timeSource, LongFunction<Executor> delayedExecutor) {
+      this(localAddress, listener, delegateFactory, latencyBudgetMicros, timeSource, delayedExecutor, new ByteBufferAllocator());
+   }
+
+   /**
+    * @param allocator Allocates the buffers of received frames that straddle reads.
+    */
+   public PhysicalNetworkFrameNetwork(PeerAddress localAddress, FrameNetworkListener listener, Function<PhysicalNetworkListener, PhysicalNetwork> delegateFactory,
+                                      long latencyBudgetMicros, TimeSource timeSource, LongFunction<Executor> delayedExecutor,
+                                      ByteBufferAllocator allocator) {
+      this.localAddress = localAddress;
+      this.listener = listener;
+      this.latencyBudgetMicros = latencyBudgetMicros;
+      this.delayedExecutor = delayedExecutor;
+      this.allocator = allocator;
+      this.announcements = new AnnouncementCache(timeSource, listener::receiveOnlineStatus);
+      this.delegate = delegateFactory.apply(this);
+      scheduleExpiry();
+   }
+
+   @Override
+   public void identityQuery(VariableLengthInteger queryId, PeerAddresses addresses) {
+      delegate.sendMulticast(FrameEncoder.encodeIdentityQuery(queryId, addresses));
+   }
+
+   @Override
+   public void identityAnnouncement(PeerAddresses addresses) {
+      for (int i=0; i<addresses.size(); i+=Frames.MAX_ADDRESSES) {
+         PeerAddresses packet = addresses.subList(i, Math.min(addresses.size(), i+Frames.MAX_ADDRESSES));
+         delegate.sendMulticast(FrameEncoder.encodeAdvertisement(packet));
+      }
+   }
+
+   @Override
+   public void close() {
+      closed = true;
+      connections.values().forEach(connection -> connection.thenAccept(established -> established.output.close()));
+      connections.clear();
+      delegate.close();
+   }
+
+   @Override
+   public FramePeer connect(PeerAddress address, Role role, FramePeer initiator) {
+      InetAddress ip = announcements.resolve(address);
+      if (ip == null) {
+         throw new IllegalStateException("address could not be resolved, no announcement received or device is offline");
+      }
+      Connection connection = connection(ip);
+      connection.register(address, initiator);
+      return connection.encoder(address);
+   }
+
+   /**
+    * The physical connection to the given IP, connecting if there is none yet. Connecting blocks,
+    * so it is done outside of the map, concurrent callers wait for the same connection.
+    */
+   private Connection connection(InetAddress ip) {
+      CompletableFuture<Connection> pending = new CompletableFuture<>();
+      CompletableFuture<Connection> existing = connections.putIfAbsent(ip, pending);
+      if (existing != null) {
+         try {
+            return existing.join();
+         } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+         }
+      }
+      Connection connection = new Connection(ip);
+      try {
+         connection.connectTo(delegate.openConnection(ip, connection));
+      } catch (RuntimeException e) {
+         connections.remove(ip, pending);
+         pending.completeExceptionally(e);
+         throw e;
+      }
+      pending.complete(connection);
+      return connection;
+   }
+
+   @Override
+   public void receiveMulticast(InetAddress sender, ByteBuffer packet) {
+      try {
+         new FrameDecoder(new MulticastReceiver(sender)).receiveDatagram(packet);
+      } catch (RuntimeException e) {
+         LOGGER.warn("dropping malformed datagram from {}", sender, e);
+      }
+   }
+
+   @Override
+   public PhysicalPeer receiveConnection(InetAddress address, PhysicalPeer initiator) {
+      Connection connection = new Connection(address);
+      connection.connectTo(initiator);
+      CompletableFuture<Connection> previous = connections.put(address, CompletableFuture.completedFuture(connection));
+      if (previous != null) {
+         // At most one physical connection is allowed between two peers
+         previous.thenAccept(established -> established.output.close());
+      }
+      return connection;
+   }
+
+   /**
+    * Expire the announcements every tick, so devices going silent are reported offline
+    * even if nothing else touches the cache.
+    */
+   private void scheduleExpiry() {
+      delayedExecutor.apply(announcements.tickMillis()).execute(() -> {
+         if (closed) {
+            return;
+         }
+         try {
+            announcements.expire();
+         } catch (RuntimeException e) {
+            LOGGER.warn("could not expire announcements", e);
+         }
+         scheduleExpiry();
+      });
+   }
+
+   private void receiveAnnouncement(InetAddress ip, PeerAddress address) {
+      announcements.announce(address, ip);
+      listener.receiveAnnouncement(address);
+   }
+
+   private void answerQuery(PeerAddresses addresses, Consumer<ByteBuffer> sender) {
+      if (addresses.isEmpty() || addresses.contains(localAddress)) {
+         sender.accept(FrameEncoder.encodeAdvertisement(PeerAddresses.of(localAddress)));
+      }
+   }
+
+   private final class MulticastReceiver implements FrameReceiver {
+      private final InetAddress sender;
+
+      private MulticastReceiver(InetAddress sender) {
+         this.sender = sender;
+      }
+
+      @Override
+      public FramePeer logicalConnection(PeerAddress source, PeerAddress destination, boolean initiating) {
+         throw new IllegalArgumentException("logical connection frames are not allowed in datagrams");
+      }
+
+      @Override
+      public void advertisement(PeerAddresses addresses) {
+         addresses.forEach(address -> receiveAnnouncement(sender, address));
+      }
+
+      @Override
+      public void identityQuery(VariableLengthInteger queryId, PeerAddresses addresses) {
+         answerQuery(addresses, delegate::sendMulticast);
+      }
+   }
+
+   /**
+    * One physical connection with all the logical connections tunneled through it.
+    */
+   private final class Connection implements PhysicalPeer, FrameReceiver {
+      private final InetAddress address;
+      private final Lock outputLock = new Lock();
+      private final Map<PeerAddress, FramePeer> logicalConnections = new ConcurrentHashMap<>();
+      private final FrameDecoder decoder = new FrameDecoder(this, null, allocator);
+      private volatile PhysicalPeer output = PhysicalPeer.UNCONNECTED;
+      private volatile FrameScheduler scheduler;
+
+      private Connection(InetAddress address) {
+         this.address = address;
+      }
+
+      private void connectTo(PhysicalPeer physicalPeer) {
+         if (latencyBudgetMicros > 0) {
+            // Senders wait in the scheduler, not on the output lock
+            output = new CoalescingPhysicalPeer(physicalPeer, outputLock, () -> scheduler.hasWaitingFrames(),
+                  COALESCING_THRESHOLD, latencyBudgetMicros);
+         } else {
+            output = physicalPeer;
+         }
+         scheduler = new FrameScheduler(output, outputLock);
+      }
+
+      private void register(PeerAddress remoteAddress, FramePeer localPeer) {
+         logicalConnections.put(remoteAddress, new ClosingFramePeer(remoteAddress, localPeer));
+      }
+
+      private FramePeer encoder(PeerAddress remoteAddress) {
+         return new FrameEncoder(scheduler, headers, localAddress, remoteAddress, () -> {
+            FramePeer localPeer = logicalConnections.get(remoteAddress);
+            if (localPeer != null) {
+               localPeer.closeConnection();
+            }
+         });
+      }
+
+      @Override
+      public void receive(ByteBuffer message) {
+         try {
+            decoder.receive(message);
+         } catch (RuntimeException e) {
+            LOGGER.warn("closing connection to {} due to malformed frame", address, e);
+            output.close();
+            close();
+         }
+      }
+
+      @Override
+      public void close() {
+         decoder.close();
+         connections.computeIfPresent(address, (key, current) -> current.state() == Future.State.SUCCESS && current.resultNow() == this ? null : current);
+         logicalConnections.values().forEach(FramePeer::closeConnection);
+         logicalConnections.clear();
+      }
+
+      @Override
+      public FramePeer logicalConnection(PeerAddress source, PeerAddress destination, boolean initiating) {
+         if (destination != null && !destination.equals(localAddress)) {
+            return null;
+         }
+         if (source == null) {
+            if (logicalConnections.size() != 1) {
+               throw new IllegalArgumentException("frame without source on a connection with "+logicalConnections.size()+" logical connections");
+            }
+            return logicalConnections.values().iterator().next();
+         }
+         FramePeer existing = logicalConnections.get(source);
+         if (existing != null && !initiating) {
+            return existing;
+         }
+         if (!initiating) {
+            // Unsolicited frame, the sender has to establish a new connection
+            encoder(source).closeConnection();
+            return null;
+         }
+         register(source, listener.receiveConnection(source, Role.UNKNOWN, encoder(source)));
+         return logicalConnections.get(source);
+      }
+
+      @Override
+      public void advertisement(PeerAddresses addresses) {
+         // Gateways may send advertisements through the connection
+         addresses.forEach(peerAddress -> receiveAnnouncement(address, peerAddress));
+      }
+
+      @Override
+      public void identityQuery(VariableLengthInteger queryId, PeerAddresses addresses) {
+         answerQuery(addresses, advertisement -> scheduler.sendPriority(new ByteBuffer[] { advertisement }));
+      }
+
+      /**
+       * Forgets the logical connection when it is closed by the remote party.
+       */
+      private final class ClosingFramePeer implements FramePeer {
+         private final PeerAddress remoteAddress;
+         private final FramePeer delegate;
+
+         private ClosingFramePeer(PeerAddress remoteAddress, FramePeer delegate) {
+            this.remoteAddress = remoteAddress;
+            this.delegate = delegate;
+         }
+
+         @Override
+         public void initiateHandshake(String protocolName, ByteBuffer handshake) {
+            delegate.initiateHandshake(protocolName, handshake);
+         }
+
+         @Override
+         public void continueHandshake(ByteBuffer handshake) {
+            delegate.continueHandshake(handshake);
+         }
+
+         @Override
+         public void closeConnection() {
+            logicalConnections.remove(remoteAddress, this);
+            delegate.closeConnection();
+         }
+
+         @Override
+         public void renegotiate() {
+            delegate.renegotiate();
+         }
+
+         @Override
+         public void ignoredFrame(int frameCode) {
+            delegate.ignoredFrame(frameCode);
+         }
+
+         @Override
+         public void keepAlive() {
+            delegate.keepAlive();
+         }
+
+         @Override
+         public void messageIntermediateFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+            delegate.messageIntermediateFrame(messageId, payload);
+         }
+
+         @Override
+         public void messageLastFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+            delegate.messageLastFrame(messageId, payload);
+         }
+
+         @Override
+         public void messageSingleFrame(ByteBuffer payload) {
+            delegate.messageSingleFrame(payload);
+         }
+      }
+   }
+}
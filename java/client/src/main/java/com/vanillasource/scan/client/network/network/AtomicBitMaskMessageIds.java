@@ -0,0 +1,118 @@
+package com.vanillasource.scan.client.network.network;
+
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Tracks ids with a lock-free bitmask. Ids are claimed with a CAS on the
+ * lowest word that has a free bit, so ids stay as low as possible. Threads
+ * that collide on the same word rotate their own search hint inside the word,
+ * so they don't keep fighting for the same bit. The hint is reset once a bit is
+ * claimed, so the next reservation starts from the lowest id again. If no ids are available,
+ * reservers park in arrival order and each release wakes only the first one.
+ */
+public final class AtomicBitMaskMessageIds implements MessageIds {
+   private static final int HINT_STRIDE = 37;
+   private static final ThreadLocal<int[]> HINT = ThreadLocal.withInitial(() -> new int[1]);
+   private final AtomicLongArray words;
+   private final long startId;
+   private final int size;
+   private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+   public AtomicBitMaskMessageIds(VariableLengthInteger startId, VariableLengthInteger endId) {
+      this.startId = startId.longValueExact();
+      this.size = endId.subtract(startId)
+              .flatMap(VariableLengthInteger::intValue)
+              .filter(range -> range < Integer.MAX_VALUE)
+              .orElseThrow(() -> new IllegalArgumentException("Not a valid message id range for a bitmask: "+startId+" - "+endId)) + 1;
+      this.words = new AtomicLongArray((size + Long.SIZE - 1) / Long.SIZE);
+   }
+
+   @Override
+   public VariableLengthInteger reserveId() {
+      if (waiters.isEmpty()) {
+         int bit = tryReserve();
+         if (bit >= 0) {
+            return toId(bit);
+         }
+      }
+      Thread current = Thread.currentThread();
+      waiters.add(current);
+      try {
+         while (true) {
+            if (waiters.peek() == current) {
+               int bit = tryReserve();
+               if (bit >= 0) {
+                  return toId(bit);
+               }
+            }
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+               throw new RuntimeException(new InterruptedException());
+            }
+         }
+      } finally {
+         waiters.remove(current);
+         wakeFirstWaiter();
+      }
+   }
+
+   @Override
+   public void releaseId(VariableLengthInteger id) {
+      long bit = id.longValueExact() - startId;
+      if (bit < 0 || bit >= size) {
+         throw new IllegalArgumentException("Message id "+id+" is not in the range of this bitmask");
+      }
+      long mask = 1L << bit;
+      long previous = words.getAndAccumulate((int) (bit / Long.SIZE), ~mask, (word, clear) -> word & clear);
+      if ((previous & mask) == 0) {
+         throw new IllegalStateException("Message id "+id+" was not reserved");
+      }
+      wakeFirstWaiter();
+   }
+
+   private void wakeFirstWaiter() {
+      Thread first = waiters.peek();
+      if (first != null) {
+         LockSupport.unpark(first);
+      }
+   }
+
+   private int tryReserve() {
+      int[] hint = HINT.get();
+      for (int index=0; index<words.length(); index++) {
+         long validBits = validBits(index);
+         long word = words.get(index);
+         long free = ~word & validBits;
+         while (free != 0) {
+            long preferred = free & (-1L << hint[0]);
+            int bit = Long.numberOfTrailingZeros(preferred != 0 ? preferred : free);
+            long witness = words.compareAndExchange(index, word, word | (1L << bit));
+            if (witness == word) {
+               hint[0] = 0;
+               return index * Long.SIZE + bit;
+            }
+            hint[0] = (hint[0] + HINT_STRIDE) % Long.SIZE;
+            word = witness;
+            free = ~word & validBits;
+         }
+      }
+      return -1;
+   }
+
+   private long validBits(int index) {
+      int bitsInWord = size - index * Long.SIZE;
+      if (bitsInWord >= Long.SIZE) {
+         return -1L;
+      }
+      return (1L << bitsInWord) - 1;
+   }
+
+   private VariableLengthInteger toId(int bit) {
+      return VariableLengthInteger.createLong(startId + bit);
+   }
+}
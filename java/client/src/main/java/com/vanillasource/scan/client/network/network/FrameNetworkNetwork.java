@@ -5,7 +5,8 @@ import com.vanillasource.scan.client.network.frame.FrameNetwork;
 import com.vanillasource.scan.client.network.frame.FrameNetworkListener;
 import com.vanillasource.scan.client.network.frame.FramePeer;
 
-import java.util.Collections;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -19,6 +20,7 @@ public final class FrameNetworkNetwork implements Network, FrameNetworkListener
    private final NetworkListener listener;
    private final QueryIds queryIds;
    private final Supplier<MessageIds> messageIdsFactory;
+   private final OutstandingQueries<Consumer<PeerAddress>> outstandingQueries = new OutstandingQueries<>();
 
    public FrameNetworkNetwork(QueryIds queryIds, Supplier<MessageIds> messageIdsFactory, NetworkListener listener, Function<FrameNetworkListener, FrameNetwork> delegateFactory) {
       this.listener = listener;
@@ -28,8 +30,13 @@ public final class FrameNetworkNetwork implements Network, FrameNetworkListener
    }
 
    @Override
-   public void queryAll() {
-      delegate.identityQuery(queryIds.nextQueryId(), Collections.emptyList());
+   public Flow.Publisher<PeerAddress> queryAll() {
+      return query(PeerAddresses.EMPTY);
+   }
+
+   @Override
+   public Flow.Publisher<PeerAddress> query(PeerAddresses addresses) {
+      return new QueryPublisher(queryIds, outstandingQueries, delegate::identityQuery, addresses);
    }
 
    @Override
@@ -46,6 +53,12 @@ public final class FrameNetworkNetwork implements Network, FrameNetworkListener
    @Override
    public void receiveAnnouncement(PeerAddress address) {
       listener.receiveAnnouncement(address);
+      outstandingQueries.all().forEach(query -> query.accept(address));
+   }
+
+   @Override
+   public void receiveOnlineStatus(PeerAddress address, boolean online) {
+      listener.receiveOnlineStatus(address, online);
    }
 
    @Override
@@ -2,18 +2,41 @@ package com.vanillasource.scan.client.network.network;
 
 import com.vanillasource.scan.client.network.Message;
 import com.vanillasource.scan.client.network.Peer;
+import com.vanillasource.scan.client.network.crypto.CipherState;
 import com.vanillasource.scan.client.network.data.VariableLengthInteger;
 import com.vanillasource.scan.client.network.frame.FramePeer;
 
 import java.nio.ByteBuffer;
 
+/**
+ * Sends messages as frames. Parts of a message larger than the maximum chunk size are split
+ * into multiple chunks, so a large message can not hold up other messages for long. Splitting
+ * never produces a chunk smaller than the minimum chunk size, a smaller remainder is sent
+ * together with the chunk before it.
+ */
 public final class FramePeerToPeer implements Peer {
+   public static final int DEFAULT_MAX_CHUNK_SIZE = 4*1024;
+   /**
+    * Unencrypted payload frames still have to contain room for the MAC.
+    */
+   public static final int DEFAULT_MIN_CHUNK_SIZE = CipherState.MAC_LENGTH;
    private final FramePeer framePeer;
    private final MessageIds messageIds;
+   private final int maxChunkSize;
+   private final int minChunkSize;
 
    public FramePeerToPeer(MessageIds messageIds, FramePeer framePeer) {
+      this(messageIds, framePeer, DEFAULT_MAX_CHUNK_SIZE, DEFAULT_MIN_CHUNK_SIZE);
+   }
+
+   public FramePeerToPeer(MessageIds messageIds, FramePeer framePeer, int maxChunkSize, int minChunkSize) {
+      if (minChunkSize <= 0 || maxChunkSize < minChunkSize) {
+         throw new IllegalArgumentException("chunk sizes must be positive, and min must not be over max, was "+minChunkSize+" and "+maxChunkSize);
+      }
       this.messageIds = messageIds;
       this.framePeer = framePeer;
+      this.maxChunkSize = maxChunkSize;
+      this.minChunkSize = minChunkSize;
    }
 
    @Override
@@ -26,18 +49,38 @@ public final class FramePeerToPeer implements Peer {
             if (messageId == null) {
                messageId = messageIds.reserveId();
             }
-            framePeer.messageIntermediateFrame(messageId, buffer);
+            sendIntermediateChunks(buffer, buffer.limit());
          }
 
          @Override
          public void endWith(ByteBuffer buffer) {
-            if (messageId == null) {
+            if (messageId == null && buffer.remaining() < maxChunkSize + minChunkSize) {
                framePeer.messageSingleFrame(buffer);
-            } else {
-               framePeer.messageLastFrame(messageId, buffer);
+               return;
+            }
+            if (messageId == null) {
+               messageId = messageIds.reserveId();
+            }
+            try {
+               int lastChunkStart = buffer.position() + Math.max(0, buffer.remaining() - 1) / maxChunkSize * maxChunkSize;
+               if (buffer.limit() - lastChunkStart < minChunkSize && lastChunkStart > buffer.position()) {
+                  lastChunkStart -= maxChunkSize;
+               }
+               sendIntermediateChunks(buffer, lastChunkStart);
+               framePeer.messageLastFrame(messageId, buffer.slice(lastChunkStart, buffer.limit() - lastChunkStart));
+            } finally {
                messageIds.releaseId(messageId);
             }
          }
+
+         private void sendIntermediateChunks(ByteBuffer buffer, int end) {
+            int start = buffer.position();
+            while (start < end) {
+               int chunkEnd = end - start < maxChunkSize + minChunkSize ? end : start + maxChunkSize;
+               framePeer.messageIntermediateFrame(messageId, buffer.slice(start, chunkEnd - start));
+               start = chunkEnd;
+            }
+         }
       };
    }
 
@@ -46,4 +89,3 @@ public final class FramePeerToPeer implements Peer {
       framePeer.closeConnection();
    }
 }
-
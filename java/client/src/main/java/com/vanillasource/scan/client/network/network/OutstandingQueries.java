@@ -0,0 +1,45 @@
+package com.vanillasource.scan.client.network.network;
+
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks queries that were sent and may still receive answers. Answers are plain advertisements
+ * without a query id, so they can not be matched to a single query, every outstanding query is
+ * offered every answer. The query id only identifies the registration.
+ */
+public final class OutstandingQueries<Q> {
+   private final Map<VariableLengthInteger, Q> queries = new ConcurrentHashMap<>();
+
+   /**
+    * Start tracking a query.
+    * @throws IllegalStateException If a query with the same id is already outstanding.
+    */
+   public void register(VariableLengthInteger queryId, Q query) {
+      if (queries.putIfAbsent(queryId, query) != null) {
+         throw new IllegalStateException("query "+queryId+" is already outstanding");
+      }
+   }
+
+   /**
+    * Stop tracking the given query, if it is still the one registered with the id.
+    */
+   public void complete(VariableLengthInteger queryId, Q query) {
+      queries.remove(queryId, query);
+   }
+
+   /**
+    * All outstanding queries, unmodifiable and weakly consistent.
+    */
+   public Collection<Q> all() {
+      return Collections.unmodifiableCollection(queries.values());
+   }
+
+   public int size() {
+      return queries.size();
+   }
+}
@@ -9,12 +9,28 @@ import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Reassembles chunked messages for a {@link Peer}. Messages with ids in the one-byte range,
+ * which should be the vast majority, are tracked in an array indexed by the id directly,
+ * only larger ids fall back to a map. The number of simultaneously open messages is limited,
+ * so a peer can not make this grow without bounds.
+ */
 public final class PeerToFramePeer implements FramePeer {
+   public static final int DEFAULT_MAX_OPEN_MESSAGES = 1024;
+   private static final int DENSE_IDS = 128;
    private final Peer peer;
-   private final Map<VariableLengthInteger, Message> messages = new HashMap<>();
+   private final int maxOpenMessages;
+   private final Message[] denseMessages = new Message[DENSE_IDS];
+   private final Map<VariableLengthInteger, Message> sparseMessages = new HashMap<>();
+   private int openMessages = 0;
 
    public PeerToFramePeer(Peer peer) {
+      this(peer, DEFAULT_MAX_OPEN_MESSAGES);
+   }
+
+   public PeerToFramePeer(Peer peer, int maxOpenMessages) {
       this.peer = peer;
+      this.maxOpenMessages = maxOpenMessages;
    }
 
    @Override
@@ -47,27 +63,55 @@ public final class PeerToFramePeer implements FramePeer {
       // User is not interested in this callback
    }
 
+   /**
+    * @throws IllegalStateException If this would open more messages than allowed.
+    */
    @Override
    public void messageIntermediateFrame(VariableLengthInteger messageId, ByteBuffer payload) {
-      messages
-              .computeIfAbsent(messageId, id -> peer.create())
-              .recieve(payload);
+      int index = denseIndex(messageId);
+      Message message = index >= 0 ? denseMessages[index] : sparseMessages.get(messageId);
+      if (message == null) {
+         if (openMessages >= maxOpenMessages) {
+            throw new IllegalStateException("peer tried to open more than "+maxOpenMessages+" messages simultaneously");
+         }
+         message = peer.create();
+         if (index >= 0) {
+            denseMessages[index] = message;
+         } else {
+            sparseMessages.put(messageId, message);
+         }
+         openMessages++;
+      }
+      message.recieve(payload);
    }
 
    @Override
    public void messageLastFrame(VariableLengthInteger messageId, ByteBuffer payload) {
-      messages.compute(messageId, (id, message) -> {
-         if (message == null) {
-            peer.receive(payload);
-         } else {
-            message.endWith(payload);
-         }
-         return null;
-      });
+      int index = denseIndex(messageId);
+      Message message;
+      if (index >= 0) {
+         message = denseMessages[index];
+         denseMessages[index] = null;
+      } else {
+         message = sparseMessages.remove(messageId);
+      }
+      if (message == null) {
+         peer.receive(payload);
+      } else {
+         openMessages--;
+         message.endWith(payload);
+      }
    }
 
    @Override
    public void messageSingleFrame(ByteBuffer payload) {
       peer.receive(payload);
    }
+
+   private static int denseIndex(VariableLengthInteger messageId) {
+      if (messageId.isLong() && messageId.longValueExact() < DENSE_IDS) {
+         return (int) messageId.longValueExact();
+      }
+      return -1;
+   }
 }
@@ -1,32 +1,132 @@
 package com.vanillasource.scan.client.network.network;
 
 import com.vanillasource.scan.client.network.data.VariableLengthInteger;
-import com.vanillasource.util.Lock;
 import com.vanillasource.util.TimeSource;
 
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongFunction;
+
+/**
+ * Generates query ids. Ids start from zero again if no id was generated for 20 seconds.
+ * If all ids are used up before that, new ids are only available after the 20 seconds have
+ * passed. This class never blocks, callers either get an id immediately, or
+ * get a future that completes when ids are available again.
+ */
 public final class QueryIds {
    private static final long RESET_TIME_MILLIS = 20L*1000L;
+   private static final long CLOSED = Long.MIN_VALUE;
    private final TimeSource timeSource;
-   private VariableLengthInteger nextId = VariableLengthInteger.createLong(0);
-   private final Lock lock = new Lock();
-   private long lastIdTime = 0;
+   private final long maxId;
+   private final LongFunction<Executor> delayedExecutor;
+   private final AtomicReference<Window> window;
 
    public QueryIds(TimeSource timeSource) {
+      this(timeSource, VariableLengthInteger.MAX_LONG_VALUE,
+              delayMillis -> CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS));
+   }
+
+   /**
+    * @param maxId The largest id to generate before waiting for a reset.
+    * @param delayedExecutor Supplies an executor that runs tasks after the given milliseconds.
+    */
+   public QueryIds(TimeSource timeSource, long maxId, LongFunction<Executor> delayedExecutor) {
       this.timeSource = timeSource;
+      this.maxId = maxId;
+      this.delayedExecutor = delayedExecutor;
+      this.window = new AtomicReference<>(new Window(CLOSED));
    }
 
+   /**
+    * Get the next query id.
+    * @throws IllegalStateException If all ids are used up, and the reset did not happen yet.
+    */
    public VariableLengthInteger nextQueryId() {
-      return lock.synchronize(() -> {
-         if (lastIdTime + RESET_TIME_MILLIS <= timeSource.currentTimeMillis()) {
-            nextId = VariableLengthInteger.createLong(1);
-         } else {
-            nextId = nextId.increase().orElseGet(() -> {
-               timeSource.sleep(RESET_TIME_MILLIS);
-               return VariableLengthInteger.createLong(1);
-            });
+      return tryNextQueryId().orElseThrow(() -> new IllegalStateException("query ids are used up, wait for reset"));
+   }
+
+   /**
+    * Get the next query id, or nothing if all ids are used up and the reset did not happen yet.
+    */
+   public Optional<VariableLengthInteger> tryNextQueryId() {
+      long id = nextId(timeSource.currentTimeMillis());
+      return id < 0 ? Optional.empty() : Optional.of(VariableLengthInteger.createLong(id));
+   }
+
+   /**
+    * Get the next query id as soon as one is available. Completes immediately if
+    * ids are not used up.
+    */
+   public CompletableFuture<VariableLengthInteger> nextQueryIdAsync() {
+      CompletableFuture<VariableLengthInteger> result = new CompletableFuture<>();
+      completeWhenAvailable(result);
+      return result;
+   }
+
+   private void completeWhenAvailable(CompletableFuture<VariableLengthInteger> result) {
+      long now = timeSource.currentTimeMillis();
+      long id = nextId(now);
+      if (id >= 0) {
+         result.complete(VariableLengthInteger.createLong(id));
+      } else {
+         long delay = Math.max(1, window.get().lastIdTime.get() + RESET_TIME_MILLIS - now);
+         try {
+            delayedExecutor.apply(delay).execute(() -> completeWhenAvailable(result));
+         } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+         }
+      }
+   }
+
+   /**
+    * @return The next id, or -1 if there are no ids left in the current window.
+    */
+   private long nextId(long now) {
+      while (true) {
+         Window current = window.get();
+         long lastIdTime = current.lastIdTime.get();
+         if (lastIdTime == CLOSED || lastIdTime + RESET_TIME_MILLIS <= now) {
+            // Close the window first, so no other thread can take ids from it anymore
+            if (lastIdTime == CLOSED || current.lastIdTime.compareAndSet(lastIdTime, CLOSED)) {
+               window.compareAndSet(current, new Window(now));
+            }
+            continue;
+         }
+         long id = current.nextId.getAndIncrement();
+         if (id > maxId) {
+            return -1;
+         }
+         if (current.touch(now)) {
+            return id;
+         }
+      }
+   }
+
+   private static final class Window {
+      private final AtomicLong nextId = new AtomicLong();
+      private final AtomicLong lastIdTime;
+
+      private Window(long lastIdTime) {
+         this.lastIdTime = new AtomicLong(lastIdTime);
+      }
+
+      /**
+       * Record that an id was given out, unless the window was closed in the meantime.
+       */
+      private boolean touch(long now) {
+         while (true) {
+            long lastIdTime = this.lastIdTime.get();
+            if (lastIdTime == CLOSED) {
+               return false;
+            }
+            if (lastIdTime >= now || this.lastIdTime.compareAndSet(lastIdTime, now)) {
+               return true;
+            }
          }
-         lastIdTime = timeSource.currentTimeMillis();
-         return nextId.decrease().orElse(VariableLengthInteger.createLong(0));
-      });
+      }
    }
 }
@@ -0,0 +1,226 @@
+package com.vanillasource.scan.client.network.network;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddressSet;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.util.Lock;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Publishes the addresses of devices answering an identity query. The query is sent
+ * separately for each subscriber when it subscribes. Each address is published at most once.
+ * If the query targets specific addresses, only those are published, and the query completes
+ * as soon as all of them answered. Otherwise it completes when the timeout expires.
+ * Cancelling the subscription stops tracking answers immediately.
+ */
+public final class QueryPublisher implements Flow.Publisher<PeerAddress> {
+   public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+   private final QueryIds queryIds;
+   private final OutstandingQueries<Consumer<PeerAddress>> outstandingQueries;
+   private final BiConsumer<VariableLengthInteger, PeerAddresses> sender;
+   private final PeerAddresses targets;
+   private final long timeoutMillis;
+   private final LongFunction<Executor> delayedExecutor;
+
+   public QueryPublisher(QueryIds queryIds, OutstandingQueries<Consumer<PeerAddress>> outstandingQueries,
+                         BiConsumer<VariableLengthInteger, PeerAddresses> sender, PeerAddresses targets) {
+      this(queryIds, outstandingQueries, sender, targets, DEFAULT_TIMEOUT_MILLIS,
+              delayMillis -> CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS));
+   }
+
+   /**
+    * @param outstandingQueries All queries that answers should be offered to.
+    * @param sender Sends the identity query to the network.
+    * @param targets The addresses to query, or empty to query all devices.
+    * @param delayedExecutor Supplies an executor that runs tasks after the given milliseconds.
+    */
+   public QueryPublisher(QueryIds queryIds, OutstandingQueries<Consumer<PeerAddress>> outstandingQueries,
+                         BiConsumer<VariableLengthInteger, PeerAddresses> sender, PeerAddresses targets,
+                         long timeoutMillis, LongFunction<Executor> delayedExecutor) {
+      this.queryIds = queryIds;
+      this.outstandingQueries = outstandingQueries;
+      this.sender = sender;
+      this.targets = targets;
+      this.timeoutMillis = timeoutMillis;
+      this.delayedExecutor = delayedExecutor;
+   }
+
+   @Override
+   public void subscribe(Flow.Subscriber<? super PeerAddress> subscriber) {
+      Objects.requireNonNull(subscriber, "subscriber");
+      QuerySubscription subscription = new QuerySubscription(subscriber);
+      subscriber.onSubscribe(subscription);
+      queryIds.nextQueryIdAsync().whenComplete((queryId, failure) -> {
+         if (failure != null) {
+            subscription.fail(failure);
+         } else {
+            subscription.send(queryId);
+         }
+      });
+   }
+
+   /**
+    * State is only changed while holding the lock, but the subscriber is only called without it.
+    * One thread at a time delivers signals, others only leave their changes for that thread.
+    */
+   private final class QuerySubscription implements Flow.Subscription {
+      private final Lock lock = new Lock();
+      private final Flow.Subscriber<? super PeerAddress> subscriber;
+      private final Consumer<PeerAddress> answers = this::answer;
+      private final PeerAddressSet targetSet;
+      private final PeerAddressSet seen = new PeerAddressSet();
+      private final Queue<PeerAddress> pending = new ArrayDeque<>();
+      private VariableLengthInteger queryId;
+      private long demand = 0;
+      private boolean completing = false;
+      private Throwable error;
+      private boolean done = false;
+      private boolean draining = false;
+
+      private QuerySubscription(Flow.Subscriber<? super PeerAddress> subscriber) {
+         this.subscriber = subscriber;
+         if (targets.isEmpty()) {
+            this.targetSet = null;
+         } else {
+            this.targetSet = new PeerAddressSet(targets.size());
+            targets.forEach(targetSet::add);
+         }
+      }
+
+      private void send(VariableLengthInteger queryId) {
+         try {
+            boolean started = lock.synchronize(() -> {
+               if (done) {
+                  return false;
+               }
+               outstandingQueries.register(queryId, answers);
+               this.queryId = queryId;
+               return true;
+            });
+            if (started) {
+               // Schedule first, so the query completes even if sending fails half way
+               delayedExecutor.apply(timeoutMillis).execute(this::timeout);
+               sender.accept(queryId, targets);
+            }
+         } catch (RuntimeException e) {
+            fail(e);
+         }
+      }
+
+      private void answer(PeerAddress address) {
+         lock.synchronize(() -> {
+            if (done || completing) {
+               return;
+            }
+            if (targetSet != null && !targetSet.contains(address)) {
+               return;
+            }
+            if (!seen.add(address)) {
+               return;
+            }
+            pending.add(address);
+            if (targetSet != null && seen.size() == targetSet.size()) {
+               completing = true;
+            }
+         });
+         drain();
+      }
+
+      private void timeout() {
+         lock.synchronize(() -> {
+            completing = true;
+         });
+         drain();
+      }
+
+      private void fail(Throwable failure) {
+         lock.synchronize(() -> {
+            if (error == null) {
+               error = failure;
+            }
+         });
+         drain();
+      }
+
+      @Override
+      public void request(long n) {
+         if (n <= 0) {
+            fail(new IllegalArgumentException("requested "+n+" items, must be positive"));
+            return;
+         }
+         lock.synchronize(() -> {
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+         });
+         drain();
+      }
+
+      @Override
+      public void cancel() {
+         lock.synchronize(this::terminate);
+      }
+
+      /**
+       * Deliver signals until there is nothing to deliver, unless another thread is already doing it.
+       */
+      private void drain() {
+         boolean drainer = lock.synchronize(() -> {
+            if (draining) {
+               return false;
+            }
+            draining = true;
+            return true;
+         });
+         if (!drainer) {
+            return;
+         }
+         for (Runnable signal = lock.synchronize(this::nextSignal); signal != null; signal = lock.synchronize(this::nextSignal)) {
+            signal.run();
+         }
+      }
+
+      /**
+       * The next call to the subscriber, or null if there is none and draining stopped.
+       */
+      private Runnable nextSignal() {
+         if (done) {
+            draining = false;
+            return null;
+         }
+         if (error != null) {
+            Throwable failure = error;
+            terminate();
+            return () -> subscriber.onError(failure);
+         }
+         if (demand > 0 && !pending.isEmpty()) {
+            demand--;
+            PeerAddress address = pending.poll();
+            return () -> subscriber.onNext(address);
+         }
+         if (completing && pending.isEmpty()) {
+            terminate();
+            return subscriber::onComplete;
+         }
+         draining = false;
+         return null;
+      }
+
+      private void terminate() {
+         done = true;
+         pending.clear();
+         if (queryId != null) {
+            outstandingQueries.complete(queryId, answers);
+         }
+      }
+   }
+}
@@ -0,0 +1,142 @@
+package com.vanillasource.scan.client.network.physical;
+
+import com.vanillasource.util.Lock;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * An output stage that batches frames of many producers into single gathering writes
+ * of the delegate. All producers must send through the given lock, one frame per call.
+ * If no other producer is waiting, the frame is written immediately without
+ * copying, so a single sender sees no additional latency. Otherwise the frame is copied
+ * into a batch, which is written when the next frame does not fit, when the latency budget
+ * is used up, or when producers go idle.
+ */
+public final class CoalescingPhysicalPeer implements PhysicalPeer {
+   private final PhysicalPeer delegate;
+   private final Lock producerLock;
+   private final BooleanSupplier producersWaiting;
+   private final long latencyBudgetNanos;
+   private final ByteBuffer batch;
+   private long batchStart;
+   private int batchedFrames;
+   private volatile long frameCount;
+   private volatile long writeCount;
+
+   /**
+    * Batch while other producers are waiting for the producer lock.
+    * @param producerLock The lock all producers hold while sending to this peer.
+    * @param flushThreshold The maximum number of bytes to batch.
+    * @param latencyBudgetMicros The maximum time a frame may wait in the batch.
+    */
+   public CoalescingPhysicalPeer(PhysicalPeer delegate, Lock producerLock, int flushThreshold, long latencyBudgetMicros) {
+      this(delegate, producerLock, producerLock::isContended, flushThreshold, latencyBudgetMicros);
+   }
+
+   /**
+    * @param producersWaiting Tells whether other producers have frames waiting to be sent,
+    *                         for producers that do not wait on the producer lock itself.
+    */
+   public CoalescingPhysicalPeer(PhysicalPeer delegate, Lock producerLock, BooleanSupplier producersWaiting,
+         int flushThreshold, long latencyBudgetMicros) {
+      this.delegate = delegate;
+      this.producerLock = producerLock;
+      this.producersWaiting = producersWaiting;
+      this.latencyBudgetNanos = TimeUnit.MICROSECONDS.toNanos(latencyBudgetMicros);
+      this.batch = ByteBuffer.allocateDirect(flushThreshold);
+   }
+
+   @Override
+   public void receive(ByteBuffer message) {
+      receive(new ByteBuffer[] { message });
+   }
+
+   /**
+    * Send one frame. Must be called while holding the producer lock.
+    */
+   @Override
+   public void receive(ByteBuffer[] frame) {
+      int length = 0;
+      for (ByteBuffer buffer : frame) {
+         length += buffer.remaining();
+      }
+      frameCount++;
+      boolean idle = !producersWaiting.getAsBoolean();
+      if ((batchedFrames == 0 && idle) || length > batch.remaining()) {
+         // Nothing to wait for, or it does not fit anyway
+         write(frame);
+         return;
+      }
+      if (batchedFrames == 0) {
+         batchStart = System.nanoTime();
+      }
+      for (ByteBuffer buffer : frame) {
+         batch.put(buffer);
+      }
+      batchedFrames++;
+      if (idle || System.nanoTime() - batchStart >= latencyBudgetNanos) {
+         flush();
+      }
+   }
+
+   /**
+    * Write all batched frames immediately.
+    */
+   public void flush() {
+      producerLock.synchronize(() -> {
+         if (batchedFrames > 0) {
+            write(new ByteBuffer[0]);
+         }
+      });
+   }
+
+   /**
+    * Flush and close the delegate.
+    */
+   @Override
+   public void close() {
+      flush();
+      delegate.close();
+   }
+
+   /**
+    * The number of frames received.
+    */
+   public long frameCount() {
+      return frameCount;
+   }
+
+   /**
+    * The number of writes issued to the delegate.
+    */
+   public long writeCount() {
+      return writeCount;
+   }
+
+   /**
+    * The average number of frames sent with one write.
+    */
+   public double framesPerWrite() {
+      long writes = writeCount;
+      return writes == 0 ? 0 : (double) frameCount / writes;
+   }
+
+   private void write(ByteBuffer[] frame) {
+      writeCount++;
+      if (batchedFrames == 0) {
+         delegate.receive(frame);
+         return;
+      }
+      ByteBuffer[] buffers = new ByteBuffer[frame.length + 1];
+      buffers[0] = batch.flip();
+      System.arraycopy(frame, 0, buffers, 1, frame.length);
+      try {
+         delegate.receive(buffers);
+      } finally {
+         batch.clear();
+         batchedFrames = 0;
+      }
+   }
+}
@@ -5,6 +5,8 @@ import java.util.function.Consumer;
 
 /**
  * A peer that is connected through a logical connection and can send any number of bytes.
+ * Buffers given to it are only borrowed for the duration of the call, the caller may reuse or
+ * release them after the call returns. Implementations must copy anything they need later.
  */
 public interface PhysicalPeer extends AutoCloseable {
    /**
@@ -13,6 +15,16 @@ public interface PhysicalPeer extends AutoCloseable {
     */
    void receive(ByteBuffer message);
 
+   /**
+    * Send all the given buffers in order. Implementations may send them with a single
+    * gathering write.
+    */
+   default void receive(ByteBuffer[] messages) {
+      for (ByteBuffer message : messages) {
+         receive(message);
+      }
+   }
+
    /**
     * Close this logical connection.
     * @return A future that completes when all pending data is sent
@@ -28,6 +40,11 @@ public interface PhysicalPeer extends AutoCloseable {
             self.receive(message);
          }
 
+         @Override
+         public void receive(ByteBuffer[] messages) {
+            self.receive(messages);
+         }
+
          @Override
          public void close() {
             self.close();
@@ -0,0 +1,426 @@
+package com.vanillasource.scan.client.network.physical;
+
+import com.vanillasource.util.ByteBufferAllocator;
+import com.vanillasource.util.Lock;
+import com.vanillasource.util.PooledByteBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A {@link PhysicalNetwork} that runs all connections on a small fixed set of selector
+ * event loops. Connections are distributed among the loops round-robin. Each loop has
+ * a single direct buffer for reading, which is shared by all of its connections, so buffers given
+ * to {@link PhysicalPeer#receive(ByteBuffer)} of listeners are only valid during the call.
+ * Sending writes directly into the socket if possible, only the bytes that could not be
+ * written are copied into pooled buffers and queued.
+ */
+public final class SelectorPhysicalNetwork implements PhysicalNetwork {
+   private static final Logger LOGGER = LoggerFactory.getLogger(SelectorPhysicalNetwork.class);
+   public static final int PORT = 11372;
+   public static final InetSocketAddress MULTICAST_GROUP = new InetSocketAddress("239.255.255.244", PORT);
+   private static final int READ_BUFFER_SIZE = 64*1024;
+   private final PhysicalNetworkListener listener;
+   private final int remotePort;
+   private final InetSocketAddress multicastGroup;
+   private final EventLoop[] loops;
+   private final AtomicInteger nextLoop = new AtomicInteger();
+   private final Map<InetAddress, Connection> connections = new ConcurrentHashMap<>();
+   private final ServerSocketChannel server;
+   private final DatagramChannel multicast;
+   private final ByteBufferAllocator allocator;
+
+   /**
+    * @param tcpAddress The local address to accept connections on.
+    * @param remotePort The port to connect to on remote peers.
+    * @param multicastInterface The interface to send and receive multicast on, or null to disable multicast.
+    */
+   public SelectorPhysicalNetwork(PhysicalNetworkListener listener, int eventLoopCount, InetSocketAddress tcpAddress, int remotePort,
+                                  InetSocketAddress multicastGroup, NetworkInterface multicastInterface) {
+      this(listener, eventLoopCount, tcpAddress, remotePort, multicastGroup, multicastInterface, new ByteBufferAllocator());
+   }
+
+   /**
+    * @param allocator Allocates copies of bytes that could not be written immediately.
+    */
+   public SelectorPhysicalNetwork(PhysicalNetworkListener listener, int eventLoopCount, InetSocketAddress tcpAddress, int remotePort,
+                                  InetSocketAddress multicastGroup, NetworkInterface multicastInterface, ByteBufferAllocator allocator) {
+      this.listener = listener;
+      this.allocator = allocator;
+      this.remotePort = remotePort;
+      this.multicastGroup = multicastGroup;
+      try {
+         this.loops = new EventLoop[eventLoopCount];
+         for (int i=0; i<eventLoopCount; i++) {
+            loops[i] = new EventLoop("scan-selector-"+i);
+         }
+         this.server = ServerSocketChannel.open();
+         server.bind(tcpAddress);
+         server.configureBlocking(false);
+         loops[0].register(server, SelectionKey.OP_ACCEPT, key -> accept());
+         if (multicastInterface == null) {
+            this.multicast = null;
+         } else {
+            this.multicast = DatagramChannel.open(StandardProtocolFamily.INET)
+                    .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                    .bind(new InetSocketAddress(multicastGroup.getPort()))
+                    .setOption(StandardSocketOptions.IP_MULTICAST_IF, multicastInterface);
+            multicast.join(multicastGroup.getAddress(), multicastInterface);
+            multicast.configureBlocking(false);
+            loops[0].register(multicast, SelectionKey.OP_READ, key -> receiveMulticast(loops[0].readBuffer));
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      for (EventLoop loop : loops) {
+         loop.thread.start();
+      }
+   }
+
+   /**
+    * Creates networks for the local network configuration of the specification.
+    */
+   public static Function<PhysicalNetworkListener, PhysicalNetwork> local(NetworkInterface networkInterface) {
+      return listener -> new SelectorPhysicalNetwork(listener, Runtime.getRuntime().availableProcessors(),
+              new InetSocketAddress(PORT), PORT, MULTICAST_GROUP, networkInterface);
+   }
+
+   /**
+    * The port this network accepts connections on.
+    */
+   public int localPort() {
+      return server.socket().getLocalPort();
+   }
+
+   @Override
+   public void sendMulticast(ByteBuffer packet) {
+      if (multicast == null) {
+         throw new IllegalStateException("multicast is not enabled");
+      }
+      try {
+         // Non-blocking, so the packet is dropped if the send buffer is full
+         multicast.send(packet, multicastGroup);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   @Override
+   public PhysicalPeer openConnection(InetAddress peer, PhysicalPeer initiator) {
+      try {
+         SocketChannel channel = SocketChannel.open();
+         channel.configureBlocking(false);
+         channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+         Connection connection = new Connection(peer, channel, nextLoop(), initiator);
+         if (connections.putIfAbsent(peer, connection) != null) {
+            channel.close();
+            throw new IllegalStateException("there is already a connection to "+peer);
+         }
+         if (channel.connect(new InetSocketAddress(peer, remotePort))) {
+            connection.connected();
+         } else {
+            connection.loop.register(channel, SelectionKey.OP_CONNECT, connection);
+         }
+         return connection;
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   @Override
+   public void close() {
+      for (EventLoop loop : loops) {
+         loop.stop();
+      }
+      connections.values().forEach(Connection::closeChannel);
+      connections.clear();
+      closeQuietly(server);
+      closeQuietly(multicast);
+   }
+
+   private EventLoop nextLoop() {
+      return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+   }
+
+   private void accept() throws IOException {
+      SocketChannel channel;
+      while ((channel = server.accept()) != null) {
+         channel.configureBlocking(false);
+         channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+         InetAddress address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+         Connection connection = new Connection(address, channel, nextLoop(), PhysicalPeer.UNCONNECTED);
+         Connection previous = connections.put(address, connection);
+         if (previous != null) {
+            // At most one connection between two peers, the newer one wins
+            previous.closeFromNetwork();
+         }
+         connection.receiver = listener.receiveConnection(address, connection);
+         connection.connected();
+      }
+   }
+
+   private void receiveMulticast(ByteBuffer readBuffer) throws IOException {
+      SocketAddress sender;
+      while ((sender = multicast.receive(readBuffer.clear())) != null) {
+         listener.receiveMulticast(((InetSocketAddress) sender).getAddress(), readBuffer.flip());
+      }
+   }
+
+   private static void closeQuietly(Channel channel) {
+      if (channel != null) {
+         try {
+            channel.close();
+         } catch (IOException e) {
+            LOGGER.debug("could not close channel", e);
+         }
+      }
+   }
+
+   private interface Handler {
+      void handle(SelectionKey key) throws IOException;
+   }
+
+   private final class EventLoop implements Runnable {
+      private final Selector selector;
+      private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+      private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+      private final Thread thread;
+      private volatile boolean running = true;
+
+      private EventLoop(String name) throws IOException {
+         this.selector = Selector.open();
+         this.thread = new Thread(this, name);
+         thread.setDaemon(true);
+      }
+
+      private void execute(Runnable task) {
+         tasks.add(task);
+         selector.wakeup();
+      }
+
+      private void register(SelectableChannel channel, int interestOps, Handler handler) {
+         execute(() -> {
+            try {
+               channel.register(selector, interestOps, handler);
+            } catch (ClosedChannelException e) {
+               LOGGER.debug("channel closed before registration", e);
+            }
+         });
+      }
+
+      private void stop() {
+         running = false;
+         selector.wakeup();
+      }
+
+      @Override
+      public void run() {
+         try {
+            while (running) {
+               selector.select();
+               Runnable task;
+               while ((task = tasks.poll()) != null) {
+                  task.run();
+               }
+               for (SelectionKey key : selector.selectedKeys()) {
+                  handle(key);
+               }
+               selector.selectedKeys().clear();
+            }
+         } catch (IOException e) {
+            LOGGER.error("event loop failed", e);
+         } finally {
+            try {
+               selector.close();
+            } catch (IOException e) {
+               LOGGER.debug("could not close selector", e);
+            }
+         }
+      }
+
+      private void handle(SelectionKey key) {
+         Handler handler = (Handler) key.attachment();
+         try {
+            if (key.isValid()) {
+               handler.handle(key);
+            }
+         } catch (IOException | RuntimeException e) {
+            LOGGER.warn("closing channel because of error", e);
+            if (handler instanceof Connection connection) {
+               connection.closeFromNetwork();
+            }
+         }
+      }
+   }
+
+   private final class Connection implements PhysicalPeer, Handler {
+      private final InetAddress address;
+      private final SocketChannel channel;
+      private final EventLoop loop;
+      private final Lock lock = new Lock();
+      private final Deque<PooledByteBuffer> pendingWrites = new ArrayDeque<>();
+      private volatile PhysicalPeer receiver;
+      private boolean connected = false;
+      private boolean closing = false;
+      private boolean closed = false;
+
+      private Connection(InetAddress address, SocketChannel channel, EventLoop loop, PhysicalPeer receiver) {
+         this.address = address;
+         this.channel = channel;
+         this.loop = loop;
+         this.receiver = receiver;
+      }
+
+      /**
+       * Send bytes. The buffer can be reused by the caller after this returns.
+       */
+      @Override
+      public void receive(ByteBuffer message) {
+         receive(new ByteBuffer[] { message });
+      }
+
+      /**
+       * Send all buffers with one gathering write if possible. The buffers can be reused
+       * by the caller after this returns.
+       */
+      @Override
+      public void receive(ByteBuffer[] messages) {
+         lock.synchronize(() -> {
+            if (closing || closed) {
+               throw new IllegalStateException("connection to "+address+" is closed");
+            }
+            boolean nothingPending = pendingWrites.isEmpty();
+            if (connected && nothingPending) {
+               write(messages);
+            }
+            for (ByteBuffer message : messages) {
+               if (message.hasRemaining()) {
+                  pendingWrites.add(allocator.copyOf(message));
+                  message.position(message.limit());
+               }
+            }
+            if (connected && nothingPending && !pendingWrites.isEmpty()) {
+               loop.execute(() -> setInterest(SelectionKey.OP_READ | SelectionKey.OP_WRITE));
+            }
+         });
+      }
+
+      /**
+       * Close after all pending bytes are sent.
+       */
+      @Override
+      public void close() {
+         lock.synchronize(() -> {
+            closing = true;
+            if (pendingWrites.isEmpty()) {
+               closeChannel();
+            }
+         });
+      }
+
+      @Override
+      public void handle(SelectionKey key) throws IOException {
+         if (key.isConnectable()) {
+            channel.finishConnect();
+            lock.synchronize(() -> {
+               connected = true;
+               key.interestOps(SelectionKey.OP_READ | (pendingWrites.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+            });
+            return;
+         }
+         if (key.isWritable()) {
+            lock.synchronize(this::flush);
+         }
+         if (key.isValid() && key.isReadable()) {
+            ByteBuffer readBuffer = loop.readBuffer.clear();
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+               closeFromNetwork();
+            } else if (count > 0) {
+               receiver.receive(readBuffer.flip());
+            }
+         }
+      }
+
+      private void connected() {
+         lock.synchronize(() -> {
+            connected = true;
+            loop.execute(() -> {
+               try {
+                  channel.register(loop.selector, SelectionKey.OP_READ | (pendingWrites.isEmpty() ? 0 : SelectionKey.OP_WRITE), this);
+               } catch (ClosedChannelException e) {
+                  LOGGER.debug("channel closed before registration", e);
+               }
+            });
+         });
+      }
+
+      private void flush() {
+         while (!pendingWrites.isEmpty()) {
+            ByteBuffer pending = pendingWrites.peek().buffer();
+            write(pending);
+            if (pending.hasRemaining()) {
+               return;
+            }
+            pendingWrites.poll().release();
+         }
+         if (closing) {
+            closeChannel();
+         } else {
+            setInterest(SelectionKey.OP_READ);
+         }
+      }
+
+      private void write(ByteBuffer... buffers) {
+         try {
+            channel.write(buffers);
+         } catch (IOException e) {
+            LOGGER.warn("closing connection to {} because write failed", address, e);
+            for (ByteBuffer buffer : buffers) {
+               buffer.position(buffer.limit());
+            }
+            loop.execute(this::closeFromNetwork);
+         }
+      }
+
+      private void setInterest(int interestOps) {
+         SelectionKey key = channel.keyFor(loop.selector);
+         if (key != null && key.isValid()) {
+            key.interestOps(interestOps);
+         }
+      }
+
+      private void closeFromNetwork() {
+         if (closeChannel()) {
+            receiver.close();
+         }
+      }
+
+      private boolean closeChannel() {
+         return lock.synchronize(() -> {
+            if (closed) {
+               return false;
+            }
+            closed = true;
+            pendingWrites.forEach(PooledByteBuffer::release);
+            pendingWrites.clear();
+            connections.remove(address, this);
+            closeQuietly(channel);
+            return true;
+         });
+      }
+   }
+}
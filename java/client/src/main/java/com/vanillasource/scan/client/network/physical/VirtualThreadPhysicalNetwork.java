@@ -0,0 +1,272 @@
+package com.vanillasource.scan.client.network.physical;
+
+import com.vanillasource.util.Lock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * A {@link PhysicalNetwork} that runs one thread per connection with blocking reads and writes,
+ * intended to be used with virtual threads. Sending blocks until all bytes are written, so
+ * backpressure propagates directly to the sender. To avoid pinning virtual threads, this
+ * implementation does not use monitors, only {@link Lock}.
+ */
+public final class VirtualThreadPhysicalNetwork implements PhysicalNetwork {
+   private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadPhysicalNetwork.class);
+   private static final int READ_BUFFER_SIZE = 16*1024;
+   private final PhysicalNetworkListener listener;
+   private final ThreadFactory threadFactory;
+   private final int remotePort;
+   private final InetSocketAddress multicastGroup;
+   private final Map<InetAddress, Connection> connections = new ConcurrentHashMap<>();
+   private final ServerSocketChannel server;
+   private final DatagramChannel multicast;
+   private final AtomicBoolean closed = new AtomicBoolean();
+
+   /**
+    * @param tcpAddress The local address to accept connections on.
+    * @param remotePort The port to connect to on remote peers.
+    * @param multicastInterface The interface to send and receive multicast on, or null to disable multicast.
+    */
+   public VirtualThreadPhysicalNetwork(PhysicalNetworkListener listener, ThreadFactory threadFactory, InetSocketAddress tcpAddress, int remotePort,
+                                       InetSocketAddress multicastGroup, NetworkInterface multicastInterface) {
+      this.listener = listener;
+      this.threadFactory = threadFactory;
+      this.remotePort = remotePort;
+      this.multicastGroup = multicastGroup;
+      try {
+         this.server = ServerSocketChannel.open().bind(tcpAddress);
+         if (multicastInterface == null) {
+            this.multicast = null;
+         } else {
+            this.multicast = DatagramChannel.open(StandardProtocolFamily.INET)
+                    .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                    .bind(new InetSocketAddress(multicastGroup.getPort()))
+                    .setOption(StandardSocketOptions.IP_MULTICAST_IF, multicastInterface);
+            multicast.join(multicastGroup.getAddress(), multicastInterface);
+            threadFactory.newThread(this::receiveMulticasts).start();
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      threadFactory.newThread(this::acceptConnections).start();
+   }
+
+   /**
+    * Creates networks for the local network configuration of the specification, running
+    * on virtual threads.
+    */
+   public static Function<PhysicalNetworkListener, PhysicalNetwork> local(NetworkInterface networkInterface) {
+      return listener -> new VirtualThreadPhysicalNetwork(listener, Thread.ofVirtual().name("scan-physical-", 0).factory(),
+              new InetSocketAddress(SelectorPhysicalNetwork.PORT), SelectorPhysicalNetwork.PORT, SelectorPhysicalNetwork.MULTICAST_GROUP, networkInterface);
+   }
+
+   /**
+    * The port this network accepts connections on.
+    */
+   public int localPort() {
+      return server.socket().getLocalPort();
+   }
+
+   @Override
+   public void sendMulticast(ByteBuffer packet) {
+      if (multicast == null) {
+         throw new IllegalStateException("multicast is not enabled");
+      }
+      try {
+         multicast.send(packet, multicastGroup);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   @Override
+   public PhysicalPeer openConnection(InetAddress peer, PhysicalPeer initiator) {
+      try {
+         SocketChannel channel = SocketChannel.open();
+         Connection connection = new Connection(peer, channel, initiator);
+         if (connections.putIfAbsent(peer, connection) != null) {
+            channel.close();
+            throw new IllegalStateException("there is already a connection to "+peer);
+         }
+         try {
+            channel.connect(new InetSocketAddress(peer, remotePort));
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+         } catch (IOException e) {
+            connection.closeChannel();
+            throw e;
+         }
+         connection.start();
+         return connection;
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   @Override
+   public void close() {
+      if (closed.compareAndSet(false, true)) {
+         closeQuietly(server);
+         if (multicast != null) {
+            closeQuietly(multicast);
+         }
+         connections.values().forEach(Connection::closeChannel);
+         connections.clear();
+      }
+   }
+
+   private void acceptConnections() {
+      try {
+         while (!closed.get()) {
+            SocketChannel channel = server.accept();
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            InetAddress address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+            Connection connection = new Connection(address, channel, PhysicalPeer.UNCONNECTED);
+            Connection previous = connections.put(address, connection);
+            if (previous != null) {
+               // At most one connection between two peers, the newer one wins
+               previous.closeFromNetwork();
+            }
+            connection.receiver = listener.receiveConnection(address, connection);
+            connection.start();
+         }
+      } catch (ClosedChannelException e) {
+         LOGGER.debug("server channel closed");
+      } catch (IOException e) {
+         LOGGER.error("accepting connections failed", e);
+      }
+   }
+
+   private void receiveMulticasts() {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(64*1024);
+      try {
+         while (!closed.get()) {
+            SocketAddress sender = multicast.receive(buffer.clear());
+            listener.receiveMulticast(((InetSocketAddress) sender).getAddress(), buffer.flip());
+         }
+      } catch (ClosedChannelException e) {
+         LOGGER.debug("multicast channel closed");
+      } catch (IOException e) {
+         LOGGER.error("receiving multicast failed", e);
+      }
+   }
+
+   private static void closeQuietly(Channel channel) {
+      try {
+         channel.close();
+      } catch (IOException e) {
+         LOGGER.debug("could not close channel", e);
+      }
+   }
+
+   private final class Connection implements PhysicalPeer {
+      private final InetAddress address;
+      private final SocketChannel channel;
+      private final Lock writeLock = new Lock();
+      private final AtomicBoolean closed = new AtomicBoolean();
+      private volatile PhysicalPeer receiver;
+
+      private Connection(InetAddress address, SocketChannel channel, PhysicalPeer receiver) {
+         this.address = address;
+         this.channel = channel;
+         this.receiver = receiver;
+      }
+
+      private void start() {
+         threadFactory.newThread(this::readLoop).start();
+      }
+
+      /**
+       * Send bytes, blocks until all bytes are written.
+       */
+      @Override
+      public void receive(ByteBuffer message) {
+         writeLock.synchronize(() -> {
+            try {
+               while (message.hasRemaining()) {
+                  channel.write(message);
+               }
+            } catch (IOException e) {
+               closeFromNetwork();
+               throw new UncheckedIOException(e);
+            }
+         });
+      }
+
+      /**
+       * Send all buffers with gathering writes, blocks until all bytes are written.
+       */
+      @Override
+      public void receive(ByteBuffer[] messages) {
+         writeLock.synchronize(() -> {
+            try {
+               while (hasRemaining(messages)) {
+                  channel.write(messages);
+               }
+            } catch (IOException e) {
+               closeFromNetwork();
+               throw new UncheckedIOException(e);
+            }
+         });
+      }
+
+      private static boolean hasRemaining(ByteBuffer[] buffers) {
+         for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+               return true;
+            }
+         }
+         return false;
+      }
+
+      @Override
+      public void close() {
+         // Writes are blocking, so there are no pending bytes at this point
+         closeChannel();
+      }
+
+      private void readLoop() {
+         ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+         try {
+            while (channel.read(buffer.clear()) >= 0) {
+               receiver.receive(buffer.flip());
+            }
+         } catch (IOException | RuntimeException e) {
+            if (!closed.get()) {
+               LOGGER.warn("closing connection to {} because of error", address, e);
+            }
+         } finally {
+            closeFromNetwork();
+         }
+      }
+
+      private void closeFromNetwork() {
+         if (closeChannel()) {
+            receiver.close();
+         }
+      }
+
+      private boolean closeChannel() {
+         if (!closed.compareAndSet(false, true)) {
+            return false;
+         }
+         connections.remove(address, this);
+         closeQuietly(channel);
+         return true;
+      }
+   }
+}
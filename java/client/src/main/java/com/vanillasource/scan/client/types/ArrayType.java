@@ -0,0 +1,20 @@
+package com.vanillasource.scan.client.types;
+
+import java.util.Objects;
+
+/**
+ * A fixed number of items, the count is not encoded.
+ */
+public record ArrayType(int length, Type itemType) implements Type {
+   public ArrayType {
+      Objects.requireNonNull(itemType);
+      if (length < 0) {
+         throw new IllegalArgumentException("array length can not be negative, was "+length);
+      }
+   }
+
+   @Override
+   public String toString() {
+      return "Array("+length+", "+itemType+")";
+   }
+}
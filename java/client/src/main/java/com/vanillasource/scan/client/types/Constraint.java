@@ -0,0 +1,52 @@
+package com.vanillasource.scan.client.types;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The values a number type is constrained to, as a list of closed ranges.
+ */
+public record Constraint(List<Range> ranges) {
+   public static final Constraint NONE = new Constraint(List.of(new Range(null, null)));
+
+   /**
+    * A closed range of values, where a null bound means the range is unbounded in that direction.
+    */
+   public record Range(BigDecimal min, BigDecimal max) {
+      public Range {
+         if (min != null && max != null && min.compareTo(max) > 0) {
+            throw new IllegalArgumentException("range minimum "+min+" is larger than maximum "+max);
+         }
+      }
+
+      @Override
+      public String toString() {
+         if (min != null && min.equals(max)) {
+            return min.toPlainString();
+         }
+         if (min != null && max != null) {
+            return min.toPlainString()+" to "+max.toPlainString();
+         }
+         return (min == null ? "" : "min "+min.toPlainString()) +
+            (min != null && max != null ? ", " : "") +
+            (max == null ? "" : "max "+max.toPlainString());
+      }
+   }
+
+   public Constraint {
+      ranges = List.copyOf(ranges);
+      if (ranges.isEmpty()) {
+         throw new IllegalArgumentException("constraint must allow at least one range of values");
+      }
+   }
+
+   public boolean isNone() {
+      return ranges.size() == 1 && ranges.get(0).min() == null && ranges.get(0).max() == null;
+   }
+
+   @Override
+   public String toString() {
+      return ranges.stream().map(Range::toString).collect(Collectors.joining(", ", "{", "}"));
+   }
+}
@@ -0,0 +1,17 @@
+package com.vanillasource.scan.client.types;
+
+import java.util.Objects;
+
+/**
+ * Any number of items, the count is encoded before the items.
+ */
+public record DynamicArrayType(Type itemType) implements Type {
+   public DynamicArrayType {
+      Objects.requireNonNull(itemType);
+   }
+
+   @Override
+   public String toString() {
+      return "DynamicArray("+itemType+")";
+   }
+}
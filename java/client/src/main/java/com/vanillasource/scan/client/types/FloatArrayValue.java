@@ -0,0 +1,23 @@
+package com.vanillasource.scan.client.types;
+
+import java.util.Arrays;
+
+/**
+ * Items of an array or stream of floating point numbers.
+ */
+public record FloatArrayValue(double[] items) implements Value {
+   @Override
+   public boolean equals(Object o) {
+      return o instanceof FloatArrayValue other && Arrays.equals(items, other.items);
+   }
+
+   @Override
+   public int hashCode() {
+      return Arrays.hashCode(items);
+   }
+
+   @Override
+   public String toString() {
+      return Arrays.toString(items);
+   }
+}
@@ -0,0 +1,11 @@
+package com.vanillasource.scan.client.types;
+
+/**
+ * A value of a floating point type.
+ */
+public record FloatValue(double value) implements Value {
+   @Override
+   public String toString() {
+      return Double.toString(value);
+   }
+}
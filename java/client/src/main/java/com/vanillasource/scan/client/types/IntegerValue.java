@@ -0,0 +1,11 @@
+package com.vanillasource.scan.client.types;
+
+/**
+ * A value of any integer type. Unsigned 8 byte values above {@link Long#MAX_VALUE} are negative.
+ */
+public record IntegerValue(long value) implements Value {
+   @Override
+   public String toString() {
+      return Long.toString(value);
+   }
+}
@@ -0,0 +1,69 @@
+package com.vanillasource.scan.client.types;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A type defined by name, with the arguments it was instantiated with. The definition is set
+ * after the instance is created, so definitions may refer to themselves. Named types compare
+ * by identity.
+ */
+public final class NamedType implements Type {
+   private final String name;
+   private final List<Object> arguments;
+   private volatile Type definition;
+
+   public NamedType(String name, List<?> arguments) {
+      this.name = name;
+      this.arguments = List.copyOf(arguments);
+   }
+
+   public NamedType(String name, List<?> arguments, Type definition) {
+      this(name, arguments);
+      define(definition);
+   }
+
+   public String name() {
+      return name;
+   }
+
+   /**
+    * The arguments, which are either types, or values as {@link java.math.BigDecimal} or {@link String}.
+    */
+   public List<Object> arguments() {
+      return arguments;
+   }
+
+   public Type definition() {
+      Type result = definition;
+      if (result == null) {
+         throw new IllegalStateException("type "+this+" is not defined yet");
+      }
+      return result;
+   }
+
+   Type definitionOrNull() {
+      return definition;
+   }
+
+   void define(Type definition) {
+      if (this.definition != null) {
+         throw new IllegalStateException("type "+this+" is already defined");
+      }
+      this.definition = definition;
+   }
+
+   @Override
+   public Type structure() {
+      Type type = this;
+      while (type instanceof NamedType named) {
+         type = named.definition();
+      }
+      return type;
+   }
+
+   @Override
+   public String toString() {
+      return arguments.isEmpty() ? name : arguments.stream().map(String::valueOf).collect(Collectors.joining(", ", name+"(", ")"));
+   }
+}
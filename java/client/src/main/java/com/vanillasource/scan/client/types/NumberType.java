@@ -0,0 +1,55 @@
+package com.vanillasource.scan.client.types;
+
+import java.util.Objects;
+
+/**
+ * One of the built-in number types, optionally constrained to some values.
+ */
+public record NumberType(Encoding encoding, int size, Constraint constraint) implements Type {
+   public enum Encoding {
+      UNSIGNED_INTEGER("UnsignedInteger"),
+      SIGNED_INTEGER("SignedInteger"),
+      FLOATING_POINT("FloatingPoint"),
+      VARIABLE_LENGTH_INTEGER("VariableLengthInteger");
+
+      private final String typeName;
+
+      Encoding(String typeName) {
+         this.typeName = typeName;
+      }
+
+      public String typeName() {
+         return typeName;
+      }
+   }
+
+   public NumberType {
+      Objects.requireNonNull(encoding);
+      Objects.requireNonNull(constraint);
+      boolean validSize = switch (encoding) {
+         case UNSIGNED_INTEGER, SIGNED_INTEGER -> size == 1 || size == 2 || size == 4 || size == 8;
+         case FLOATING_POINT -> size == 4 || size == 8;
+         case VARIABLE_LENGTH_INTEGER -> size >= 1 && size <= 8;
+      };
+      if (!validSize) {
+         throw new IllegalArgumentException("invalid size for "+encoding.typeName()+": "+size);
+      }
+   }
+
+   public NumberType(Encoding encoding, int size) {
+      this(encoding, size, Constraint.NONE);
+   }
+
+   public boolean isFloatingPoint() {
+      return encoding == Encoding.FLOATING_POINT;
+   }
+
+   public NumberType constrainedTo(Constraint constraint) {
+      return new NumberType(encoding, size, constraint);
+   }
+
+   @Override
+   public String toString() {
+      return encoding.typeName()+"("+size+")"+(constraint.isNone() ? "" : " "+constraint);
+   }
+}
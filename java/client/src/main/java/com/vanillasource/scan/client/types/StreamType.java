@@ -0,0 +1,17 @@
+package com.vanillasource.scan.client.types;
+
+import java.util.Objects;
+
+/**
+ * A potentially infinite number of items, which are always the last part of a message.
+ */
+public record StreamType(Type itemType) implements Type {
+   public StreamType {
+      Objects.requireNonNull(itemType);
+   }
+
+   @Override
+   public String toString() {
+      return "Stream("+itemType+")";
+   }
+}
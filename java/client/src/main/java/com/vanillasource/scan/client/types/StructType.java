@@ -0,0 +1,35 @@
+package com.vanillasource.scan.client.types;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Named fields, encoded in the order of definition.
+ */
+public record StructType(List<Field> fields) implements Type {
+   public record Field(String name, Type type) {
+      public Field {
+         Objects.requireNonNull(name);
+         Objects.requireNonNull(type);
+      }
+
+      @Override
+      public String toString() {
+         return name+": "+type;
+      }
+   }
+
+   public StructType {
+      fields = List.copyOf(fields);
+      if (fields.stream().map(Field::name).collect(Collectors.toCollection(HashSet::new)).size() != fields.size()) {
+         throw new IllegalArgumentException("struct has duplicate field names: "+fields);
+      }
+   }
+
+   @Override
+   public String toString() {
+      return fields.stream().map(Field::toString).collect(Collectors.joining(", ", "Struct(", ")"));
+   }
+}
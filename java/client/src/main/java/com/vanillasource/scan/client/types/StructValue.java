@@ -0,0 +1,27 @@
+package com.vanillasource.scan.client.types;
+
+import java.util.Arrays;
+
+/**
+ * Values of the fields of a struct, in the order of definition.
+ */
+public record StructValue(Value... fields) implements Value {
+   @Override
+   public boolean equals(Object o) {
+      return o instanceof StructValue other && Arrays.equals(fields, other.fields);
+   }
+
+   @Override
+   public int hashCode() {
+      return Arrays.hashCode(fields);
+   }
+
+   @Override
+   public String toString() {
+      StringBuilder builder = new StringBuilder("{");
+      for (int i=0; i<fields.length; i++) {
+         builder.append(i == 0 ? "" : ", ").append(fields[i]);
+      }
+      return builder.append("}").toString();
+   }
+}
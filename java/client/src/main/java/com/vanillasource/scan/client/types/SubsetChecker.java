@@ -0,0 +1,417 @@
+package com.vanillasource.scan.client.types;
+
+import com.vanillasource.util.Lock;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Determines whether all values of one type are also values of another type. Types are first
+ * canonicalized into hash-consed nodes, so structurally equal types, even if defined separately by different devices,
+ * share the same node id. Recursive types share a node if their definitions are structurally equal, types that are
+ * only equal after unrolling get different nodes, but are still compared correctly. Results are memoized on the
+ * pair of node ids, so repeated checks of the same types cost a map lookup. Nodes and results are dropped when
+ * they grow over a maximum size. Thread-safe.
+ *
+ * <p>The rules are:</p>
+ * <ul>
+ *    <li>Names are ignored, only the structure of types is compared.</li>
+ *    <li>A number type is a subset of another if both are integers or both are floating points,
+ *    and all values allowed by its size and constraint are allowed by the other's. Floating points must
+ *    also not be wider.</li>
+ *    <li>An array is a subset of an array of the same length, or of a dynamic array, if its items are.</li>
+ *    <li>Dynamic arrays and streams are subsets of the same kind if their items are.</li>
+ *    <li>A struct is a subset of a struct with the same field names in the same order, if all fields are.</li>
+ *    <li>A union is a subset of a union with at least as many alternatives, if all its alternatives
+ *    are subsets of the alternative with the same index.</li>
+ *    <li>Recursive types are subsets if no contradiction is found while unrolling them.</li>
+ * </ul>
+ */
+public final class SubsetChecker {
+   public static final int DEFAULT_MAXIMUM_SIZE = 100_000;
+   private final int maximumSize;
+   private final Lock lock = new Lock();
+   private final LongAdder hits = new LongAdder();
+   private final LongAdder misses = new LongAdder();
+   private final LongAdder resets = new LongAdder();
+   private volatile Generation generation = new Generation();
+
+   private enum Kind {
+      UNIT, NUMBER, ARRAY, DYNAMIC_ARRAY, STREAM, STRUCT, UNION, RECURSIVE
+   }
+
+   /**
+    * The hash-consing key of a node, the children are compared by identity.
+    */
+   private record Shape(Kind kind, Object attribute, List<Node> children) {
+   }
+
+   private static final class Node {
+      private final int id;
+      private final Shape shape;
+      private volatile Node target;
+
+      private Node(int id, Shape shape) {
+         this.id = id;
+         this.shape = shape;
+      }
+
+      /**
+       * Skip the indirection of recursive types.
+       */
+      private Node resolve() {
+         return shape.kind() == Kind.RECURSIVE ? target : this;
+      }
+
+      private Node child(int index) {
+         return shape.children().get(index);
+      }
+
+      private int childCount() {
+         return shape.children().size();
+      }
+   }
+
+   /**
+    * All nodes, canonicalized types and results, which are dropped together when they grow too large.
+    * Checks that started before keep using their own generation.
+    */
+   private static final class Generation {
+      private final Map<Shape, Node> nodes = new HashMap<>();
+      private final Map<Type, Node> canonicalTypes = new ConcurrentHashMap<>();
+      private final Map<Long, Boolean> results = new ConcurrentHashMap<>();
+      private int nextId = 0;
+   }
+
+   public SubsetChecker() {
+      this(DEFAULT_MAXIMUM_SIZE);
+   }
+
+   /**
+    * @param maximumSize The number of nodes and of canonicalized types to keep, all are dropped
+    *                    when either grows over this.
+    */
+   public SubsetChecker(int maximumSize) {
+      if (maximumSize <= 0) {
+         throw new IllegalArgumentException("maximum size must be positive, was "+maximumSize);
+      }
+      this.maximumSize = maximumSize;
+   }
+
+   /**
+    * Returns true if all values of the subset type are also values of the superset type.
+    */
+   public boolean isSubset(Type subset, Type superset) {
+      Generation generation = this.generation;
+      Node sub = canonical(generation, subset).resolve();
+      Node sup = canonical(generation, superset).resolve();
+      long key = key(sub, sup);
+      Boolean known = generation.results.get(key);
+      if (known != null) {
+         hits.increment();
+         return known;
+      }
+      misses.increment();
+      Set<Long> visited = new HashSet<>();
+      boolean result = check(generation.results, sub, sup, visited);
+      if (result) {
+         // All rules are conjunctive, so every pair assumed during a successful check is proven
+         visited.forEach(pair -> generation.results.put(pair, true));
+      }
+      generation.results.put(key, result);
+      return result;
+   }
+
+   public long hits() {
+      return hits.sum();
+   }
+
+   public long misses() {
+      return misses.sum();
+   }
+
+   /**
+    * The number of times all cached nodes and results were dropped because they grew too large.
+    */
+   public long resets() {
+      return resets.sum();
+   }
+
+   private boolean check(Map<Long, Boolean> results, Node sub, Node sup, Set<Long> visited) {
+      sub = sub.resolve();
+      sup = sup.resolve();
+      if (sub == sup) {
+         return true;
+      }
+      long key = key(sub, sup);
+      Boolean known = results.get(key);
+      if (known != null) {
+         return known;
+      }
+      if (!visited.add(key)) {
+         return true;
+      }
+      boolean result = checkShapes(results, sub, sup, visited);
+      if (!result) {
+         results.put(key, false);
+      }
+      return result;
+   }
+
+   private boolean checkShapes(Map<Long, Boolean> results, Node sub, Node sup, Set<Long> visited) {
+      Shape subShape = sub.shape;
+      Shape supShape = sup.shape;
+      return switch (subShape.kind()) {
+         case UNIT -> supShape.kind() == Kind.UNIT;
+         case NUMBER -> supShape.kind() == Kind.NUMBER &&
+            isSubset((NumberType) subShape.attribute(), (NumberType) supShape.attribute());
+         case ARRAY -> (supShape.kind() == Kind.DYNAMIC_ARRAY ||
+               (supShape.kind() == Kind.ARRAY && subShape.attribute().equals(supShape.attribute()))) &&
+            check(results, sub.child(0), sup.child(0), visited);
+         case DYNAMIC_ARRAY, STREAM -> supShape.kind() == subShape.kind() &&
+            check(results, sub.child(0), sup.child(0), visited);
+         case STRUCT -> supShape.kind() == Kind.STRUCT && subShape.attribute().equals(supShape.attribute()) &&
+            checkChildren(results, sub, sup, visited);
+         case UNION -> supShape.kind() == Kind.UNION && sub.childCount() <= sup.childCount() &&
+            checkChildren(results, sub, sup, visited);
+         case RECURSIVE -> throw new IllegalStateException("recursive node was not resolved");
+      };
+   }
+
+   private boolean checkChildren(Map<Long, Boolean> results, Node sub, Node sup, Set<Long> visited) {
+      for (int i = 0; i < sub.childCount(); i++) {
+         if (!check(results, sub.child(i), sup.child(i), visited)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static long key(Node sub, Node sup) {
+      return ((long) sub.id << 32) | (sup.id & 0xFFFFFFFFL);
+   }
+
+   private Node canonical(Generation generation, Type type) {
+      Node node = generation.canonicalTypes.get(type);
+      if (node != null) {
+         return node;
+      }
+      return lock.synchronize(() -> {
+         Map<NamedType, Node> recursions = new HashMap<>();
+         Node result = canonical(generation, type, new HashSet<>(), recursions);
+         generation.canonicalTypes.put(type, result);
+         if (this.generation == generation &&
+               (generation.nextId > maximumSize || generation.canonicalTypes.size() > maximumSize)) {
+            this.generation = new Generation();
+            resets.increment();
+         }
+         return result;
+      });
+   }
+
+   /**
+    * Canonicalize a type with names removed. Named types that refer to themselves get a recursive node
+    * pointing to their definition, which is keyed by the structure of the named type, so the same
+    * recursive type defined by different devices gets the same node.
+    */
+   private Node canonical(Generation generation, Type type, Set<NamedType> inProgress, Map<NamedType, Node> recursions) {
+      return switch (type) {
+         case UnitType unit -> intern(generation, Kind.UNIT, null, List.of());
+         case NumberType number -> intern(generation, Kind.NUMBER, number, List.of());
+         case ArrayType array -> intern(generation, Kind.ARRAY, array.length(),
+               List.of(canonical(generation, array.itemType(), inProgress, recursions)));
+         case DynamicArrayType array -> intern(generation, Kind.DYNAMIC_ARRAY, null,
+               List.of(canonical(generation, array.itemType(), inProgress, recursions)));
+         case StreamType stream -> intern(generation, Kind.STREAM, null,
+               List.of(canonical(generation, stream.itemType(), inProgress, recursions)));
+         case StructType struct -> {
+            List<String> names = new ArrayList<>();
+            List<Node> fields = new ArrayList<>();
+            for (StructType.Field field : struct.fields()) {
+               names.add(field.name());
+               fields.add(canonical(generation, field.type(), inProgress, recursions));
+            }
+            yield intern(generation, Kind.STRUCT, List.copyOf(names), fields);
+         }
+         case UnionType union -> {
+            List<Node> alternatives = new ArrayList<>();
+            for (Type alternative : union.alternatives()) {
+               alternatives.add(canonical(generation, alternative, inProgress, recursions));
+            }
+            yield intern(generation, Kind.UNION, null, alternatives);
+         }
+         case NamedType named -> {
+            Node known = generation.canonicalTypes.get(named);
+            if (known != null) {
+               yield known;
+            }
+            if (inProgress.contains(named)) {
+               yield recursions.computeIfAbsent(named, key ->
+                     intern(generation, Kind.RECURSIVE, structure(key, new ArrayList<>()), List.of()));
+            }
+            inProgress.add(named);
+            Node definition = canonical(generation, named.definition(), inProgress, recursions);
+            inProgress.remove(named);
+            Node recursion = recursions.get(named);
+            if (recursion == null) {
+               yield definition;
+            }
+            recursion.target = definition.resolve();
+            yield recursion;
+         }
+      };
+   }
+
+   /**
+    * The structure of a type without names, as nested lists. Named types are binders, and references
+    * to enclosing named types are replaced by their distance from the reference, so the structure of
+    * a recursive type is finite and does not depend on names.
+    */
+   private static Object structure(Type type, List<NamedType> enclosing) {
+      return switch (type) {
+         case UnitType unit -> List.of(Kind.UNIT);
+         case NumberType number -> List.of(Kind.NUMBER, number);
+         case ArrayType array -> List.of(Kind.ARRAY, array.length(), structure(array.itemType(), enclosing));
+         case DynamicArrayType array -> List.of(Kind.DYNAMIC_ARRAY, structure(array.itemType(), enclosing));
+         case StreamType stream -> List.of(Kind.STREAM, structure(stream.itemType(), enclosing));
+         case StructType struct -> {
+            List<Object> result = new ArrayList<>(List.of(Kind.STRUCT));
+            for (StructType.Field field : struct.fields()) {
+               result.add(field.name());
+               result.add(structure(field.type(), enclosing));
+            }
+            yield result;
+         }
+         case UnionType union -> {
+            List<Object> result = new ArrayList<>(List.of(Kind.UNION));
+            for (Type alternative : union.alternatives()) {
+               result.add(structure(alternative, enclosing));
+            }
+            yield result;
+         }
+         case NamedType named -> {
+            int index = enclosing.lastIndexOf(named);
+            if (index >= 0) {
+               yield List.of(Kind.RECURSIVE, enclosing.size() - 1 - index);
+            }
+            enclosing.add(named);
+            Object definition = structure(named.definition(), enclosing);
+            enclosing.remove(enclosing.size() - 1);
+            yield List.of(Kind.RECURSIVE, definition);
+         }
+      };
+   }
+
+   private static Node intern(Generation generation, Kind kind, Object attribute, List<Node> children) {
+      Shape shape = new Shape(kind, attribute, List.copyOf(children));
+      return generation.nodes.computeIfAbsent(shape, key -> new Node(generation.nextId++, key));
+   }
+
+   private static boolean isSubset(NumberType sub, NumberType sup) {
+      if (sub.isFloatingPoint() != sup.isFloatingPoint()) {
+         return false;
+      }
+      if (sub.isFloatingPoint() && sub.size() > sup.size()) {
+         return false;
+      }
+      boolean integer = !sub.isFloatingPoint();
+      List<Constraint.Range> supRanges = merge(ranges(sup), integer);
+      for (Constraint.Range range : ranges(sub)) {
+         if (supRanges.stream().noneMatch(supRange -> contains(supRange, range))) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * The ranges of values allowed by both the constraint and the size of the type, sorted by minimum.
+    */
+   private static List<Constraint.Range> ranges(NumberType type) {
+      Constraint.Range domain = domain(type);
+      List<Constraint.Range> result = new ArrayList<>();
+      for (Constraint.Range range : type.constraint().ranges()) {
+         BigDecimal min = larger(type.isFloatingPoint() || range.min() == null ? range.min() : range.min().setScale(0, RoundingMode.CEILING), domain.min());
+         BigDecimal max = smaller(type.isFloatingPoint() || range.max() == null ? range.max() : range.max().setScale(0, RoundingMode.FLOOR), domain.max());
+         if (min == null || max == null || min.compareTo(max) <= 0) {
+            result.add(new Constraint.Range(min, max));
+         }
+      }
+      result.sort(Comparator.comparing(Constraint.Range::min, Comparator.nullsFirst(Comparator.naturalOrder())));
+      return result;
+   }
+
+   private static Constraint.Range domain(NumberType type) {
+      return switch (type.encoding()) {
+         case UNSIGNED_INTEGER -> new Constraint.Range(BigDecimal.ZERO, powerOfTwoMinusOne(8*type.size()));
+         case SIGNED_INTEGER -> new Constraint.Range(powerOfTwoMinusOne(8*type.size()-1).add(BigDecimal.ONE).negate(),
+               powerOfTwoMinusOne(8*type.size()-1));
+         case VARIABLE_LENGTH_INTEGER -> new Constraint.Range(BigDecimal.ZERO, powerOfTwoMinusOne(7*(type.size()-1)+8));
+         case FLOATING_POINT -> new Constraint.Range(null, null);
+      };
+   }
+
+   private static BigDecimal powerOfTwoMinusOne(int bits) {
+      return new BigDecimal(BigInteger.ONE.shiftLeft(bits).subtract(BigInteger.ONE));
+   }
+
+   /**
+    * Merge overlapping ranges of sorted ranges. Integer ranges are also merged if they are adjacent.
+    */
+   private static List<Constraint.Range> merge(List<Constraint.Range> ranges, boolean integer) {
+      List<Constraint.Range> result = new ArrayList<>();
+      Constraint.Range current = null;
+      for (Constraint.Range range : ranges) {
+         if (current == null) {
+            current = range;
+         } else if (current.max() == null) {
+            break;
+         } else if (range.min().compareTo(integer ? current.max().add(BigDecimal.ONE) : current.max()) <= 0) {
+            current = new Constraint.Range(current.min(), range.max() == null ? null : larger(current.max(), range.max()));
+         } else {
+            result.add(current);
+            current = range;
+         }
+      }
+      if (current != null) {
+         result.add(current);
+      }
+      return result;
+   }
+
+   private static boolean contains(Constraint.Range outer, Constraint.Range inner) {
+      boolean minContained = outer.min() == null || (inner.min() != null && outer.min().compareTo(inner.min()) <= 0);
+      boolean maxContained = outer.max() == null || (inner.max() != null && outer.max().compareTo(inner.max()) >= 0);
+      return minContained && maxContained;
+   }
+
+   /**
+    * The larger of two lower bounds, where null is unbounded.
+    */
+   private static BigDecimal larger(BigDecimal a, BigDecimal b) {
+      if (a == null || b == null) {
+         return a == null ? b : a;
+      }
+      return a.max(b);
+   }
+
+   /**
+    * The smaller of two upper bounds, where null is unbounded.
+    */
+   private static BigDecimal smaller(BigDecimal a, BigDecimal b) {
+      if (a == null || b == null) {
+         return a == null ? b : a;
+      }
+      return a.min(b);
+   }
+}
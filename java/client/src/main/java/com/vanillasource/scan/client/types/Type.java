@@ -0,0 +1,14 @@
+package com.vanillasource.scan.client.types;
+
+/**
+ * A type of the SCAN type system. Types are immutable and compare structurally, except
+ * named types, which compare by identity, so recursive types can be represented as cycles.
+ */
+public sealed interface Type permits UnitType, NumberType, ArrayType, DynamicArrayType, StructType, UnionType, StreamType, NamedType {
+   /**
+    * The type this type is defined as, skipping any names.
+    */
+   default Type structure() {
+      return this;
+   }
+}
@@ -0,0 +1,508 @@
+package com.vanillasource.scan.client.types;
+
+import com.vanillasource.util.Lock;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Type definitions parsed from the textual language. Definitions are instantiated lazily, once
+ * for each combination of arguments, so the same name with the same arguments always results in
+ * the same {@link NamedType}. Definitions may refer to each other, or themselves, in any order.
+ * The standard library is available to all definitions. Thread-safe.
+ */
+public final class TypeDefinitions {
+   private static final String STANDARD_LIBRARY = """
+      Byte = UnsignedInteger(1)
+      Long = UnsignedInteger(8)
+      SignedLong = SignedInteger(8)
+      Float = FloatingPoint(4)
+      Double = FloatingPoint(8)
+      False = Unit
+      True = Unit
+      Boolean = Union(False, True)
+      Option(contentType: Type) = Unit | contentType
+      String = DynamicArray(Byte) // UTF-8
+      """;
+   private static final Set<String> BUILT_IN_NAMES = Set.of("Unit", "FloatingPoint", "UnsignedInteger", "SignedInteger",
+         "VariableLengthInteger", "Array", "DynamicArray", "Struct", "Union", "Stream");
+   public static final TypeDefinitions STANDARD = new TypeDefinitions(null, new Parser(STANDARD_LIBRARY).definitions());
+
+   private final TypeDefinitions parent;
+   private final Map<String, Definition> definitions;
+   private final Map<Instance, NamedType> instances = new HashMap<>();
+   private final List<Instance> instantiating = new ArrayList<>();
+   private final Lock lock = new Lock();
+
+   private TypeDefinitions(TypeDefinitions parent, Map<String, Definition> definitions) {
+      this.parent = parent;
+      this.definitions = definitions;
+   }
+
+   /**
+    * Parse definitions in the form of {@code <name> = <type definition>}.
+    * @throws IllegalArgumentException If the source is not syntactically correct.
+    */
+   public static TypeDefinitions parse(String source) {
+      Map<String, Definition> definitions = new Parser(source).definitions();
+      for (String name : definitions.keySet()) {
+         if (STANDARD.definitions.containsKey(name)) {
+            throw new IllegalArgumentException("type "+name+" is already defined in the standard library");
+         }
+      }
+      return new TypeDefinitions(STANDARD, definitions);
+   }
+
+   /**
+    * The names of types defined here, without the standard library.
+    */
+   public Set<String> names() {
+      return Collections.unmodifiableSet(definitions.keySet());
+   }
+
+   /**
+    * Get the named type instantiated with the given arguments.
+    * @param arguments Types, or values as {@link BigDecimal} or {@link String}.
+    * @throws IllegalArgumentException If the type is not defined, the arguments do not match
+    * its parameters, or its definition is not valid.
+    */
+   public NamedType type(String name, Object... arguments) {
+      return instantiate(name, Arrays.stream(arguments).map(TypeDefinitions::normalize).toList());
+   }
+
+   /**
+    * Evaluate a type definition, like {@code Array(24, Byte)}, in the context of these definitions.
+    */
+   public Type resolve(String expression) {
+      Parser parser = new Parser(expression);
+      Expression parsed = parser.expression();
+      parser.expectEnd();
+      return asType(evaluate(parsed, Map.of()), parsed);
+   }
+
+   private NamedType instantiate(String name, List<Object> arguments) {
+      Definition definition = definitions.get(name);
+      if (definition == null) {
+         if (parent == null) {
+            throw new IllegalArgumentException("type "+name+" is not defined");
+         }
+         return parent.instantiate(name, arguments);
+      }
+      if (definition.parameters().size() != arguments.size()) {
+         throw new IllegalArgumentException("type "+name+" needs "+definition.parameters().size()+" arguments, but got "+arguments.size());
+      }
+      Map<String, Object> environment = new HashMap<>();
+      for (int i=0; i<arguments.size(); i++) {
+         Parameter parameter = definition.parameters().get(i);
+         if (parameter.isType() != (arguments.get(i) instanceof Type)) {
+            throw new IllegalArgumentException("argument "+parameter.name()+" of "+name+" must be "+
+                  (parameter.isType() ? "a type" : "a value")+", but was "+arguments.get(i));
+         }
+         environment.put(parameter.name(), arguments.get(i));
+      }
+      return lock.synchronize(() -> {
+         Instance instance = new Instance(name, arguments);
+         NamedType type = instances.get(instance);
+         if (type == null) {
+            type = new NamedType(name, arguments);
+            instances.put(instance, type);
+            boolean outermost = instantiating.isEmpty();
+            instantiating.add(instance);
+            try {
+               type.define(asType(evaluate(definition.body(), environment), definition.body()));
+               checkNotOnlyDefinedAsItself(type);
+            } catch (RuntimeException e) {
+               // Types instantiated in the meantime may refer to this one, so none of them are usable
+               instantiating.forEach(instances::remove);
+               throw e;
+            } finally {
+               if (outermost) {
+                  instantiating.clear();
+               }
+            }
+         }
+         return type;
+      });
+   }
+
+   private static void checkNotOnlyDefinedAsItself(NamedType type) {
+      Type current = type.definitionOrNull();
+      while (current instanceof NamedType named) {
+         if (named == type) {
+            throw new IllegalArgumentException("type "+type+" is only defined as itself");
+         }
+         current = named.definitionOrNull();
+      }
+   }
+
+   private Object evaluate(Expression expression, Map<String, Object> environment) {
+      return switch (expression) {
+         case Literal literal -> literal.value();
+         case Alternatives alternatives -> new UnionType(alternatives.alternatives().stream()
+               .map(alternative -> asType(evaluate(alternative, environment), alternative))
+               .toList());
+         case Constrained constrained -> {
+            Type type = asType(evaluate(constrained.expression(), environment), constrained.expression());
+            if (!(type.structure() instanceof NumberType number)) {
+               throw new IllegalArgumentException("only number types can be constrained, but was "+type+" at "+constrained.position());
+            }
+            yield number.constrainedTo(constrained.constraint());
+         }
+         case Reference reference -> {
+            if (environment.containsKey(reference.name())) {
+               if (!reference.arguments().isEmpty()) {
+                  throw new IllegalArgumentException("parameter "+reference.name()+" can not have arguments at "+reference.position());
+               }
+               yield environment.get(reference.name());
+            }
+            if (BUILT_IN_NAMES.contains(reference.name())) {
+               yield builtIn(reference, environment);
+            }
+            for (Argument argument : reference.arguments()) {
+               if (argument.name() != null) {
+                  throw new IllegalArgumentException("type "+reference.name()+" has no named arguments at "+reference.position());
+               }
+            }
+            yield instantiate(reference.name(), reference.arguments().stream()
+                  .map(argument -> evaluate(argument.value(), environment))
+                  .toList());
+         }
+      };
+   }
+
+   private Type builtIn(Reference reference, Map<String, Object> environment) {
+      List<Argument> arguments = reference.arguments();
+      return switch (reference.name()) {
+         case "Unit" -> {
+            checkArgumentCount(reference, 0);
+            yield UnitType.INSTANCE;
+         }
+         case "Array" -> {
+            checkArgumentCount(reference, 2);
+            yield new ArrayType(asCount(evaluate(arguments.get(0).value(), environment), reference),
+                  asType(evaluate(arguments.get(1).value(), environment), reference));
+         }
+         case "DynamicArray" -> {
+            checkArgumentCount(reference, 1);
+            yield new DynamicArrayType(asType(evaluate(arguments.get(0).value(), environment), reference));
+         }
+         case "Stream" -> {
+            checkArgumentCount(reference, 1);
+            yield new StreamType(asType(evaluate(arguments.get(0).value(), environment), reference));
+         }
+         case "Union" -> new UnionType(arguments.stream()
+               .map(argument -> asType(evaluate(argument.value(), environment), reference))
+               .toList());
+         case "Struct" -> {
+            List<StructType.Field> fields = new ArrayList<>();
+            for (Argument argument : arguments) {
+               if (argument.name() == null) {
+                  throw new IllegalArgumentException("struct fields must be named at "+reference.position());
+               }
+               fields.add(new StructType.Field(argument.name(), asType(evaluate(argument.value(), environment), reference)));
+            }
+            yield new StructType(fields);
+         }
+         default -> {
+            checkArgumentCount(reference, 1);
+            NumberType.Encoding encoding = switch (reference.name()) {
+               case "FloatingPoint" -> NumberType.Encoding.FLOATING_POINT;
+               case "UnsignedInteger" -> NumberType.Encoding.UNSIGNED_INTEGER;
+               case "SignedInteger" -> NumberType.Encoding.SIGNED_INTEGER;
+               default -> NumberType.Encoding.VARIABLE_LENGTH_INTEGER;
+            };
+            yield new NumberType(encoding, asCount(evaluate(arguments.get(0).value(), environment), reference));
+         }
+      };
+   }
+
+   private static void checkArgumentCount(Reference reference, int count) {
+      if (reference.arguments().size() != count) {
+         throw new IllegalArgumentException(reference.name()+" needs "+count+" arguments at "+reference.position());
+      }
+      for (Argument argument : reference.arguments()) {
+         if (argument.name() != null) {
+            throw new IllegalArgumentException(reference.name()+" has no named arguments at "+reference.position());
+         }
+      }
+   }
+
+   private static Type asType(Object value, Object location) {
+      if (value instanceof Type type) {
+         return type;
+      }
+      throw new IllegalArgumentException("expected a type, but was "+value+" in "+location);
+   }
+
+   private static int asCount(Object value, Reference reference) {
+      try {
+         if (value instanceof BigDecimal number) {
+            return number.intValueExact();
+         }
+      } catch (ArithmeticException e) {
+         // Falls through to the exception below
+      }
+      throw new IllegalArgumentException(reference.name()+" needs an integer argument, but was "+value+" at "+reference.position());
+   }
+
+   private static Object normalize(Object value) {
+      if (value instanceof BigDecimal number) {
+         return normalize(number);
+      }
+      if (value instanceof Number number) {
+         return normalize(new BigDecimal(number.toString()));
+      }
+      return value;
+   }
+
+   private static BigDecimal normalize(BigDecimal number) {
+      BigDecimal stripped = number.stripTrailingZeros();
+      return stripped.scale() < 0 ? stripped.setScale(0) : stripped;
+   }
+
+   private record Instance(String name, List<Object> arguments) {
+   }
+
+   private record Definition(String name, List<Parameter> parameters, Expression body) {
+   }
+
+   private record Parameter(String name, boolean isType) {
+   }
+
+   private sealed interface Expression permits Reference, Literal, Alternatives, Constrained {
+   }
+
+   private record Reference(String name, List<Argument> arguments, int position) implements Expression {
+   }
+
+   private record Argument(String name, Expression value) {
+   }
+
+   private record Literal(Object value) implements Expression {
+   }
+
+   private record Alternatives(List<Expression> alternatives) implements Expression {
+   }
+
+   private record Constrained(Expression expression, Constraint constraint, int position) implements Expression {
+   }
+
+   /**
+    * Recursive descent parser. A definition ends where the next one starts, which is always
+    * at a name that can not continue the previous definition.
+    */
+   private static final class Parser {
+      private final String source;
+      private int position = 0;
+
+      private Parser(String source) {
+         this.source = source;
+         skipWhitespace();
+      }
+
+      private Map<String, Definition> definitions() {
+         Map<String, Definition> definitions = new LinkedHashMap<>();
+         while (position < source.length()) {
+            int start = position;
+            Definition definition = definition();
+            if (BUILT_IN_NAMES.contains(definition.name())) {
+               throw new IllegalArgumentException("built-in type "+definition.name()+" can not be redefined at "+start);
+            }
+            if (definitions.put(definition.name(), definition) != null) {
+               throw new IllegalArgumentException("type "+definition.name()+" is defined twice at "+start);
+            }
+         }
+         return definitions;
+      }
+
+      private Definition definition() {
+         String name = identifier();
+         List<Parameter> parameters = new ArrayList<>();
+         if (accept('(')) {
+            do {
+               String parameterName = identifier();
+               expect(':');
+               parameters.add(new Parameter(parameterName, identifier().equals("Type")));
+            } while (accept(','));
+            expect(')');
+         }
+         expect('=');
+         return new Definition(name, parameters, expression());
+      }
+
+      private Expression expression() {
+         List<Expression> alternatives = new ArrayList<>();
+         do {
+            alternatives.add(constrained());
+         } while (accept('|'));
+         return alternatives.size() == 1 ? alternatives.get(0) : new Alternatives(alternatives);
+      }
+
+      private Expression constrained() {
+         Expression expression = primary();
+         int start = position;
+         if (accept('{')) {
+            return new Constrained(expression, constraint(), start);
+         }
+         return expression;
+      }
+
+      private Constraint constraint() {
+         List<Constraint.Range> ranges = new ArrayList<>();
+         BigDecimal min = null;
+         BigDecimal max = null;
+         do {
+            if (peekWord("min")) {
+               identifier();
+               min = number();
+            } else if (peekWord("max")) {
+               identifier();
+               max = number();
+            } else {
+               BigDecimal from = number();
+               BigDecimal to = from;
+               if (peekWord("to")) {
+                  identifier();
+                  to = number();
+               }
+               ranges.add(new Constraint.Range(from, to));
+            }
+         } while (accept(','));
+         expect('}');
+         if (min != null || max != null) {
+            ranges.add(new Constraint.Range(min, max));
+         }
+         return new Constraint(ranges);
+      }
+
+      private Expression primary() {
+         int start = position;
+         if (peek() == '"') {
+            return new Literal(string());
+         }
+         if (peek() == '-' || Character.isDigit(peek())) {
+            return new Literal(number());
+         }
+         String name = identifier();
+         List<Argument> arguments = new ArrayList<>();
+         if (accept('(')) {
+            if (!accept(')')) {
+               do {
+                  arguments.add(argument());
+               } while (accept(','));
+               expect(')');
+            }
+         }
+         return new Reference(name, arguments, start);
+      }
+
+      private Argument argument() {
+         int start = position;
+         if (Character.isJavaIdentifierStart(peek())) {
+            String name = identifier();
+            if (accept(':')) {
+               return new Argument(name, expression());
+            }
+            position = start;
+         }
+         return new Argument(null, expression());
+      }
+
+      private String identifier() {
+         int start = position;
+         if (!Character.isJavaIdentifierStart(peek())) {
+            throw error("expected a name");
+         }
+         while (position < source.length() && Character.isJavaIdentifierPart(source.charAt(position))) {
+            position++;
+         }
+         String identifier = source.substring(start, position);
+         skipWhitespace();
+         return identifier;
+      }
+
+      private BigDecimal number() {
+         int start = position;
+         if (peek() == '-') {
+            position++;
+         }
+         while (position < source.length() && (Character.isDigit(source.charAt(position)) || source.charAt(position) == '.')) {
+            position++;
+         }
+         try {
+            BigDecimal number = normalize(new BigDecimal(source.substring(start, position)));
+            skipWhitespace();
+            return number;
+         } catch (NumberFormatException e) {
+            position = start;
+            throw error("expected a number");
+         }
+      }
+
+      private String string() {
+         int end = source.indexOf('"', position + 1);
+         if (end < 0) {
+            throw error("unterminated string");
+         }
+         String string = source.substring(position + 1, end);
+         position = end + 1;
+         skipWhitespace();
+         return string;
+      }
+
+      private boolean peekWord(String word) {
+         int end = position + word.length();
+         return source.startsWith(word, position) &&
+            (end >= source.length() || !Character.isJavaIdentifierPart(source.charAt(end)));
+      }
+
+      private char peek() {
+         return position < source.length() ? source.charAt(position) : 0;
+      }
+
+      private boolean accept(char c) {
+         if (peek() == c) {
+            position++;
+            skipWhitespace();
+            return true;
+         }
+         return false;
+      }
+
+      private void expect(char c) {
+         if (!accept(c)) {
+            throw error("expected '"+c+"'");
+         }
+      }
+
+      private void expectEnd() {
+         if (position < source.length()) {
+            throw error("unexpected input");
+         }
+      }
+
+      private void skipWhitespace() {
+         while (position < source.length()) {
+            if (Character.isWhitespace(source.charAt(position))) {
+               position++;
+            } else if (source.startsWith("//", position)) {
+               int end = source.indexOf('\n', position);
+               position = end < 0 ? source.length() : end;
+            } else {
+               return;
+            }
+         }
+      }
+
+      private IllegalArgumentException error(String message) {
+         return new IllegalArgumentException(message+" at "+position+" of type definitions");
+      }
+   }
+}
@@ -0,0 +1,21 @@
+package com.vanillasource.scan.client.types;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A value of exactly one of the alternatives, encoded with the index of the alternative.
+ */
+public record UnionType(List<Type> alternatives) implements Type {
+   public UnionType {
+      alternatives = List.copyOf(alternatives);
+      if (alternatives.isEmpty()) {
+         throw new IllegalArgumentException("union must have at least one alternative");
+      }
+   }
+
+   @Override
+   public String toString() {
+      return alternatives.stream().map(Type::toString).collect(Collectors.joining(", ", "Union(", ")"));
+   }
+}
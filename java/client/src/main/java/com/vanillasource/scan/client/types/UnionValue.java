@@ -0,0 +1,20 @@
+package com.vanillasource.scan.client.types;
+
+import java.util.Objects;
+
+/**
+ * A value of one alternative of a union type, identified by its index.
+ */
+public record UnionValue(int alternative, Value value) implements Value {
+   public UnionValue {
+      Objects.requireNonNull(value);
+      if (alternative < 0) {
+         throw new IllegalArgumentException("alternative can not be negative, was "+alternative);
+      }
+   }
+
+   @Override
+   public String toString() {
+      return alternative+":"+value;
+   }
+}
@@ -0,0 +1,13 @@
+package com.vanillasource.scan.client.types;
+
+/**
+ * The type with only one value, which needs no bytes to encode.
+ */
+public record UnitType() implements Type {
+   public static final UnitType INSTANCE = new UnitType();
+
+   @Override
+   public String toString() {
+      return "Unit";
+   }
+}
@@ -0,0 +1,13 @@
+package com.vanillasource.scan.client.types;
+
+/**
+ * The only value of the unit type.
+ */
+public record UnitValue() implements Value {
+   public static final UnitValue INSTANCE = new UnitValue();
+
+   @Override
+   public String toString() {
+      return "()";
+   }
+}
@@ -0,0 +1,9 @@
+package com.vanillasource.scan.client.types;
+
+/**
+ * A runtime value of some type. Numbers are kept in primitive fields, and arrays of numbers
+ * in primitive arrays. Values holding arrays do not copy them, so those arrays must not be
+ * modified after the value is created.
+ */
+public sealed interface Value permits UnitValue, IntegerValue, FloatValue, IntegerArrayValue, FloatArrayValue, ArrayValue, StructValue, UnionValue {
+}
@@ -0,0 +1,445 @@
+package com.vanillasource.scan.client.types.codec;
+
+import com.vanillasource.scan.client.types.ArrayType;
+import com.vanillasource.scan.client.types.ArrayValue;
+import com.vanillasource.scan.client.types.DynamicArrayType;
+import com.vanillasource.scan.client.types.FloatArrayValue;
+import com.vanillasource.scan.client.types.FloatValue;
+import com.vanillasource.scan.client.types.IntegerArrayValue;
+import com.vanillasource.scan.client.types.IntegerValue;
+import com.vanillasource.scan.client.types.NamedType;
+import com.vanillasource.scan.client.types.NumberType;
+import com.vanillasource.scan.client.types.StreamType;
+import com.vanillasource.scan.client.types.StructType;
+import com.vanillasource.scan.client.types.StructValue;
+import com.vanillasource.scan.client.types.Type;
+import com.vanillasource.scan.client.types.UnionType;
+import com.vanillasource.scan.client.types.UnionValue;
+import com.vanillasource.scan.client.types.UnitType;
+import com.vanillasource.scan.client.types.UnitValue;
+import com.vanillasource.scan.client.types.Value;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Compiles a type once into a tree of method handles for encoding and decoding, so the type
+ * is not looked at again for each value. The structure of values is fixed into the tree: fields
+ * are read in order directly into the value, numbers are read by the handle for their exact
+ * encoding, and arrays of numbers are read with loops specialized for the encoding. Recursive
+ * types are compiled with call sites that refer back to the handle of the type. Thread-safe.
+ */
+public final class CompiledValueCodec implements ValueCodec {
+   private static final MethodType DECODER = methodType(Value.class, ByteBuffer.class);
+   private static final MethodType ENCODER = methodType(void.class, ByteBuffer.class, Value.class);
+   private static final MethodHandle INTEGER_VALUE;
+   private static final MethodHandle FLOAT_VALUE;
+   private static final MethodHandle STRUCT_VALUE;
+   private static final MethodHandle UNION_VALUE;
+   private static final MethodHandle DECODE_VARIABLE_LENGTH;
+   private static final MethodHandle DECODE_COUNT;
+   private static final MethodHandle STREAM_COUNT;
+   private static final MethodHandle DECODE_ALTERNATIVE;
+   private static final MethodHandle DECODE_INTEGER_ARRAY;
+   private static final MethodHandle DECODE_FLOAT_ARRAY;
+   private static final MethodHandle DECODE_ARRAY;
+   private static final MethodHandle DECODE_INTEGER_STREAM;
+   private static final MethodHandle DECODE_STREAM;
+   private static final MethodHandle NO_ALTERNATIVE_DECODER;
+   private static final MethodHandle INTEGER;
+   private static final MethodHandle FLOATING_POINT;
+   private static final MethodHandle ENCODE_UNIT;
+   private static final MethodHandle ENCODE_UNSIGNED;
+   private static final MethodHandle ENCODE_SIGNED;
+   private static final MethodHandle ENCODE_VARIABLE_LENGTH;
+   private static final MethodHandle ENCODE_INTEGER_ARRAY;
+   private static final MethodHandle ENCODE_FLOAT_ARRAY;
+   private static final MethodHandle ENCODE_ARRAY;
+   private static final MethodHandle CHECK_STRUCT;
+   private static final MethodHandle FIELD;
+   private static final MethodHandle ENCODE_ALTERNATIVE;
+   private static final MethodHandle ALTERNATIVE_VALUE;
+   private static final MethodHandle NO_ALTERNATIVE_ENCODER;
+   static {
+      try {
+         MethodHandles.Lookup lookup = MethodHandles.lookup();
+         INTEGER_VALUE = lookup.findConstructor(IntegerValue.class, methodType(void.class, long.class)).asType(methodType(Value.class, long.class));
+         FLOAT_VALUE = lookup.findConstructor(FloatValue.class, methodType(void.class, double.class)).asType(methodType(Value.class, double.class));
+         STRUCT_VALUE = lookup.findConstructor(StructValue.class, methodType(void.class, Value[].class)).asType(methodType(Value.class, Value[].class));
+         UNION_VALUE = lookup.findConstructor(UnionValue.class, methodType(void.class, int.class, Value.class)).asType(methodType(Value.class, int.class, Value.class));
+         DECODE_VARIABLE_LENGTH = lookup.findStatic(Encodings.class, "decodeVariableLength", methodType(long.class, ByteBuffer.class, int.class));
+         DECODE_COUNT = lookup.findStatic(Encodings.class, "decodeCount", methodType(int.class, ByteBuffer.class, int.class));
+         STREAM_COUNT = lookup.findStatic(Encodings.class, "streamCount", methodType(int.class, ByteBuffer.class, int.class));
+         DECODE_ALTERNATIVE = lookup.findStatic(Encodings.class, "decodeAlternative", methodType(int.class, ByteBuffer.class, int.class));
+         DECODE_INTEGER_ARRAY = lookup.findStatic(CompiledValueCodec.class, "decodeIntegerArray",
+               methodType(Value.class, NumberType.Encoding.class, int.class, int.class, ByteBuffer.class));
+         DECODE_FLOAT_ARRAY = lookup.findStatic(CompiledValueCodec.class, "decodeFloatArray", methodType(Value.class, int.class, int.class, ByteBuffer.class));
+         DECODE_ARRAY = lookup.findStatic(CompiledValueCodec.class, "decodeArray", methodType(Value.class, MethodHandle.class, int.class, ByteBuffer.class));
+         DECODE_INTEGER_STREAM = lookup.findStatic(CompiledValueCodec.class, "decodeIntegerStream", methodType(Value.class, int.class, ByteBuffer.class));
+         DECODE_STREAM = lookup.findStatic(CompiledValueCodec.class, "decodeStream", methodType(Value.class, MethodHandle.class, ByteBuffer.class));
+         NO_ALTERNATIVE_DECODER = lookup.findStatic(CompiledValueCodec.class, "noAlternative", methodType(Value.class, int.class, ByteBuffer.class));
+         INTEGER = lookup.findStatic(Encodings.class, "integer", methodType(long.class, Value.class));
+         FLOATING_POINT = lookup.findStatic(Encodings.class, "floatingPoint", methodType(double.class, Value.class));
+         ENCODE_UNIT = lookup.findStatic(CompiledValueCodec.class, "encodeUnit", ENCODER);
+         ENCODE_UNSIGNED = lookup.findStatic(Encodings.class, "encodeUnsigned", methodType(void.class, ByteBuffer.class, long.class, int.class));
+         ENCODE_SIGNED = lookup.findStatic(Encodings.class, "encodeSigned", methodType(void.class, ByteBuffer.class, long.class, int.class));
+         ENCODE_VARIABLE_LENGTH = lookup.findStatic(Encodings.class, "encodeVariableLength", methodType(void.class, ByteBuffer.class, long.class, int.class));
+         ENCODE_INTEGER_ARRAY = lookup.findStatic(CompiledValueCodec.class, "encodeIntegerArray",
+               methodType(void.class, NumberType.Encoding.class, int.class, int.class, boolean.class, ByteBuffer.class, Value.class));
+         ENCODE_FLOAT_ARRAY = lookup.findStatic(CompiledValueCodec.class, "encodeFloatArray",
+               methodType(void.class, int.class, int.class, boolean.class, ByteBuffer.class, Value.class));
+         ENCODE_ARRAY = lookup.findStatic(CompiledValueCodec.class, "encodeArray",
+               methodType(void.class, MethodHandle.class, int.class, boolean.class, ByteBuffer.class, Value.class));
+         CHECK_STRUCT = lookup.findStatic(CompiledValueCodec.class, "checkStruct", methodType(void.class, int.class, ByteBuffer.class, Value.class));
+         FIELD = lookup.findStatic(CompiledValueCodec.class, "field", methodType(Value.class, Value.class, int.class));
+         ENCODE_ALTERNATIVE = lookup.findStatic(CompiledValueCodec.class, "encodeAlternative", methodType(int.class, ByteBuffer.class, Value.class, int.class));
+         ALTERNATIVE_VALUE = lookup.findStatic(CompiledValueCodec.class, "alternativeValue", methodType(Value.class, Value.class));
+         NO_ALTERNATIVE_ENCODER = lookup.findStatic(CompiledValueCodec.class, "noAlternative", methodType(void.class, int.class, ByteBuffer.class, Value.class));
+      } catch (ReflectiveOperationException e) {
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+
+   private final Type type;
+   private final MethodHandle decoder;
+   private final MethodHandle encoder;
+
+   private CompiledValueCodec(Type type, MethodHandle decoder, MethodHandle encoder) {
+      this.type = type;
+      this.decoder = decoder;
+      this.encoder = encoder;
+   }
+
+   /**
+    * Compile the codec for the given type. All named types it refers to must be defined.
+    */
+   public static CompiledValueCodec compile(Type type) {
+      Compiler compiler = new Compiler();
+      MethodHandle decoder = compiler.decoder(type);
+      MethodHandle encoder = compiler.encoder(type);
+      compiler.publish();
+      return new CompiledValueCodec(type, decoder, encoder);
+   }
+
+   public Type type() {
+      return type;
+   }
+
+   @Override
+   public void encode(Value value, ByteBuffer buffer) {
+      Encodings.checkOrder(buffer);
+      try {
+         encoder.invokeExact(buffer, value);
+      } catch (Throwable e) {
+         throw rethrow(e);
+      }
+   }
+
+   @Override
+   public Value decode(ByteBuffer buffer) {
+      Encodings.checkOrder(buffer);
+      try {
+         return (Value) decoder.invokeExact(buffer);
+      } catch (Throwable e) {
+         throw rethrow(e);
+      }
+   }
+
+   private static RuntimeException rethrow(Throwable e) {
+      if (e instanceof RuntimeException runtimeException) {
+         throw runtimeException;
+      }
+      if (e instanceof Error error) {
+         throw error;
+      }
+      throw new IllegalStateException("codec threw checked exception", e);
+   }
+
+   private static final class Compiler {
+      private final Map<NamedType, MutableCallSite> decoderSites = new HashMap<>();
+      private final Map<NamedType, MethodHandle> decoders = new HashMap<>();
+      private final Map<NamedType, MutableCallSite> encoderSites = new HashMap<>();
+      private final Map<NamedType, MethodHandle> encoders = new HashMap<>();
+
+      /**
+       * Compile a handle of type {@code (ByteBuffer)Value}.
+       */
+      private MethodHandle decoder(Type type) {
+         return switch (type) {
+            case UnitType unit -> MethodHandles.dropArguments(MethodHandles.constant(Value.class, UnitValue.INSTANCE), 0, ByteBuffer.class);
+            case NumberType number -> number.isFloatingPoint() ?
+               MethodHandles.filterReturnValue(floatDecoder(number), FLOAT_VALUE) :
+               MethodHandles.filterReturnValue(integerDecoder(number), INTEGER_VALUE);
+            case ArrayType array -> MethodHandles.insertArguments(itemsDecoder(array.itemType()), 0, array.length());
+            case DynamicArrayType array -> MethodHandles.foldArguments(itemsDecoder(array.itemType()),
+                  MethodHandles.insertArguments(DECODE_COUNT, 1, Encodings.minimumSize(array.itemType())));
+            case StreamType stream -> streamDecoder(stream.itemType());
+            case StructType struct -> structDecoder(struct);
+            case UnionType union -> {
+               MethodHandle[] alternatives = new MethodHandle[union.alternatives().size()];
+               for (int i=0; i<alternatives.length; i++) {
+                  alternatives[i] = MethodHandles.dropArguments(MethodHandles.filterReturnValue(decoder(union.alternatives().get(i)),
+                        MethodHandles.insertArguments(UNION_VALUE, 0, i)), 0, int.class);
+               }
+               yield MethodHandles.foldArguments(MethodHandles.tableSwitch(NO_ALTERNATIVE_DECODER, alternatives),
+                     MethodHandles.insertArguments(DECODE_ALTERNATIVE, 1, alternatives.length));
+            }
+            case NamedType named -> named(named, decoderSites, decoders, DECODER, () -> decoder(named.definition()));
+         };
+      }
+
+      private static MethodHandle integerDecoder(NumberType number) {
+         String name = switch (number.encoding()) {
+            case UNSIGNED_INTEGER -> number.size() == 8 ? "decode8" : "decodeUnsigned"+number.size();
+            case SIGNED_INTEGER -> number.size() == 8 ? "decode8" : "decodeSigned"+number.size();
+            default -> null;
+         };
+         if (name == null) {
+            return MethodHandles.insertArguments(DECODE_VARIABLE_LENGTH, 1, number.size());
+         }
+         return findEncoding(name, methodType(long.class, ByteBuffer.class));
+      }
+
+      private static MethodHandle floatDecoder(NumberType number) {
+         return findEncoding("decodeFloat"+number.size(), methodType(double.class, ByteBuffer.class));
+      }
+
+      /**
+       * Compile a handle of type {@code (int, ByteBuffer)Value}, that decodes the given number of items.
+       */
+      private MethodHandle itemsDecoder(Type itemType) {
+         NumberType number = Encodings.primitiveItemType(itemType);
+         if (number == null) {
+            return MethodHandles.insertArguments(DECODE_ARRAY, 0, decoder(itemType));
+         }
+         if (number.isFloatingPoint()) {
+            return MethodHandles.insertArguments(DECODE_FLOAT_ARRAY, 0, number.size());
+         }
+         return MethodHandles.insertArguments(DECODE_INTEGER_ARRAY, 0, number.encoding(), number.size());
+      }
+
+      private MethodHandle streamDecoder(Type itemType) {
+         NumberType number = Encodings.primitiveItemType(itemType);
+         if (number == null) {
+            return MethodHandles.insertArguments(DECODE_STREAM, 0, decoder(itemType));
+         }
+         if (number.encoding() == NumberType.Encoding.VARIABLE_LENGTH_INTEGER) {
+            return MethodHandles.insertArguments(DECODE_INTEGER_STREAM, 0, number.size());
+         }
+         return MethodHandles.foldArguments(itemsDecoder(itemType), MethodHandles.insertArguments(STREAM_COUNT, 1, number.size()));
+      }
+
+      /**
+       * Decode fields in order, each result becoming the next argument of the struct constructor.
+       */
+      private MethodHandle structDecoder(StructType struct) {
+         int count = struct.fields().size();
+         MethodHandle decoder = MethodHandles.dropArguments(STRUCT_VALUE.asCollector(Value[].class, count), count, ByteBuffer.class);
+         for (int i=count-1; i>=0; i--) {
+            decoder = MethodHandles.foldArguments(decoder, i, decoder(struct.fields().get(i).type()));
+         }
+         return decoder;
+      }
+
+      /**
+       * Compile a handle of type {@code (ByteBuffer, Value)void}.
+       */
+      private MethodHandle encoder(Type type) {
+         return switch (type) {
+            case UnitType unit -> ENCODE_UNIT;
+            case NumberType number -> number.isFloatingPoint() ?
+               MethodHandles.filterArguments(findEncoding("encodeFloat"+number.size(), methodType(void.class, ByteBuffer.class, double.class)), 1, FLOATING_POINT) :
+               MethodHandles.filterArguments(integerEncoder(number), 1, INTEGER);
+            case ArrayType array -> itemsEncoder(array.itemType(), array.length(), false);
+            case DynamicArrayType array -> itemsEncoder(array.itemType(), -1, true);
+            case StreamType stream -> itemsEncoder(stream.itemType(), -1, false);
+            case StructType struct -> {
+               int count = struct.fields().size();
+               MethodHandle encoder = MethodHandles.empty(ENCODER);
+               for (int i=count-1; i>=0; i--) {
+                  MethodHandle field = MethodHandles.filterArguments(encoder(struct.fields().get(i).type()), 1,
+                        MethodHandles.insertArguments(FIELD, 1, i));
+                  encoder = MethodHandles.foldArguments(encoder, field);
+               }
+               yield MethodHandles.foldArguments(encoder, MethodHandles.insertArguments(CHECK_STRUCT, 0, count));
+            }
+            case UnionType union -> {
+               MethodHandle[] alternatives = new MethodHandle[union.alternatives().size()];
+               for (int i=0; i<alternatives.length; i++) {
+                  alternatives[i] = MethodHandles.dropArguments(MethodHandles.filterArguments(encoder(union.alternatives().get(i)), 1, ALTERNATIVE_VALUE), 0, int.class);
+               }
+               yield MethodHandles.foldArguments(MethodHandles.tableSwitch(NO_ALTERNATIVE_ENCODER, alternatives),
+                     MethodHandles.insertArguments(ENCODE_ALTERNATIVE, 2, alternatives.length));
+            }
+            case NamedType named -> named(named, encoderSites, encoders, ENCODER, () -> encoder(named.definition()));
+         };
+      }
+
+      private static MethodHandle integerEncoder(NumberType number) {
+         MethodHandle encoder = switch (number.encoding()) {
+            case UNSIGNED_INTEGER -> ENCODE_UNSIGNED;
+            case SIGNED_INTEGER -> ENCODE_SIGNED;
+            default -> ENCODE_VARIABLE_LENGTH;
+         };
+         return MethodHandles.insertArguments(encoder, 2, number.size());
+      }
+
+      private MethodHandle itemsEncoder(Type itemType, int length, boolean withCount) {
+         NumberType number = Encodings.primitiveItemType(itemType);
+         if (number == null) {
+            return MethodHandles.insertArguments(ENCODE_ARRAY, 0, encoder(itemType), length, withCount);
+         }
+         if (number.isFloatingPoint()) {
+            return MethodHandles.insertArguments(ENCODE_FLOAT_ARRAY, 0, number.size(), length, withCount);
+         }
+         return MethodHandles.insertArguments(ENCODE_INTEGER_ARRAY, 0, number.encoding(), number.size(), length, withCount);
+      }
+
+      /**
+       * Compile a named type once. References to it while it is being compiled go through a
+       * call site, which is set to the compiled handle when done.
+       */
+      private static MethodHandle named(NamedType named, Map<NamedType, MutableCallSite> sites, Map<NamedType, MethodHandle> compiled,
+                                        MethodType type, Supplier<MethodHandle> compiler) {
+         MethodHandle handle = compiled.get(named);
+         if (handle != null) {
+            return handle;
+         }
+         MutableCallSite site = sites.get(named);
+         if (site != null) {
+            return site.dynamicInvoker();
+         }
+         site = new MutableCallSite(type);
+         sites.put(named, site);
+         handle = compiler.get();
+         site.setTarget(handle);
+         compiled.put(named, handle);
+         return handle;
+      }
+
+      private void publish() {
+         List<MutableCallSite> sites = new ArrayList<>(decoderSites.values());
+         sites.addAll(encoderSites.values());
+         MutableCallSite.syncAll(sites.toArray(MutableCallSite[]::new));
+      }
+
+      private static MethodHandle findEncoding(String name, MethodType type) {
+         try {
+            return MethodHandles.lookup().findStatic(Encodings.class, name, type);
+         } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("no encoding method "+name, e);
+         }
+      }
+   }
+
+   private static Value decodeIntegerArray(NumberType.Encoding encoding, int size, int count, ByteBuffer buffer) {
+      long[] items = new long[count];
+      Encodings.decodeIntegers(buffer, items, encoding, size);
+      return new IntegerArrayValue(items);
+   }
+
+   private static Value decodeFloatArray(int size, int count, ByteBuffer buffer) {
+      double[] items = new double[count];
+      Encodings.decodeFloats(buffer, items, size);
+      return new FloatArrayValue(items);
+   }
+
+   private static Value decodeArray(MethodHandle itemDecoder, int count, ByteBuffer buffer) throws Throwable {
+      Value[] items = new Value[count];
+      for (int i=0; i<count; i++) {
+         items[i] = (Value) itemDecoder.invokeExact(buffer);
+      }
+      return new ArrayValue(items);
+   }
+
+   private static Value decodeIntegerStream(int size, ByteBuffer buffer) {
+      long[] items = new long[Math.min(16, buffer.remaining())];
+      int count = 0;
+      while (buffer.hasRemaining()) {
+         if (count == items.length) {
+            items = Arrays.copyOf(items, count*2);
+         }
+         items[count++] = Encodings.decodeVariableLength(buffer, size);
+      }
+      return new IntegerArrayValue(Arrays.copyOf(items, count));
+   }
+
+   private static Value decodeStream(MethodHandle itemDecoder, ByteBuffer buffer) throws Throwable {
+      List<Value> items = new ArrayList<>();
+      while (buffer.hasRemaining()) {
+         int position = buffer.position();
+         items.add((Value) itemDecoder.invokeExact(buffer));
+         Encodings.checkStreamProgress(buffer, position);
+      }
+      return new ArrayValue(items.toArray(Value[]::new));
+   }
+
+   private static Value noAlternative(int alternative, ByteBuffer buffer) {
+      throw new IllegalArgumentException("no alternative "+alternative);
+   }
+
+   private static void encodeUnit(ByteBuffer buffer, Value value) {
+      if (!(value instanceof UnitValue)) {
+         throw new IllegalArgumentException("expected unit, but was "+value);
+      }
+   }
+
+   private static void encodeIntegerArray(NumberType.Encoding encoding, int size, int length, boolean withCount, ByteBuffer buffer, Value value) {
+      long[] items = Encodings.integers(value, length);
+      if (withCount) {
+         Encodings.encodeCount(buffer, items.length);
+      }
+      Encodings.encodeIntegers(buffer, items, encoding, size);
+   }
+
+   private static void encodeFloatArray(int size, int length, boolean withCount, ByteBuffer buffer, Value value) {
+      double[] items = Encodings.floatingPoints(value, length);
+      if (withCount) {
+         Encodings.encodeCount(buffer, items.length);
+      }
+      Encodings.encodeFloats(buffer, items, size);
+   }
+
+   private static void encodeArray(MethodHandle itemEncoder, int length, boolean withCount, ByteBuffer buffer, Value value) throws Throwable {
+      Value[] items = Encodings.items(value, length);
+      if (withCount) {
+         Encodings.encodeCount(buffer, items.length);
+      }
+      for (Value item : items) {
+         itemEncoder.invokeExact(buffer, item);
+      }
+   }
+
+   private static void checkStruct(int count, ByteBuffer buffer, Value value) {
+      Encodings.fields(value, count);
+   }
+
+   private static Value field(Value value, int index) {
+      return ((StructValue) value).fields()[index];
+   }
+
+   private static int encodeAlternative(ByteBuffer buffer, Value value, int alternativeCount) {
+      int alternative = Encodings.union(value, alternativeCount).alternative();
+      Encodings.encodeAlternative(buffer, alternative);
+      return alternative;
+   }
+
+   private static Value alternativeValue(Value value) {
+      return ((UnionValue) value).value();
+   }
+
+   private static void noAlternative(int alternative, ByteBuffer buffer, Value value) {
+      throw new IllegalArgumentException("no alternative "+alternative);
+   }
+}
@@ -0,0 +1,408 @@
+package com.vanillasource.scan.client.types.codec;
+
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.types.ArrayType;
+import com.vanillasource.scan.client.types.ArrayValue;
+import com.vanillasource.scan.client.types.DynamicArrayType;
+import com.vanillasource.scan.client.types.FloatArrayValue;
+import com.vanillasource.scan.client.types.FloatValue;
+import com.vanillasource.scan.client.types.IntegerArrayValue;
+import com.vanillasource.scan.client.types.IntegerValue;
+import com.vanillasource.scan.client.types.NamedType;
+import com.vanillasource.scan.client.types.NumberType;
+import com.vanillasource.scan.client.types.StreamType;
+import com.vanillasource.scan.client.types.StructType;
+import com.vanillasource.scan.client.types.StructValue;
+import com.vanillasource.scan.client.types.Type;
+import com.vanillasource.scan.client.types.UnionType;
+import com.vanillasource.scan.client.types.UnionValue;
+import com.vanillasource.scan.client.types.UnitType;
+import com.vanillasource.scan.client.types.Value;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encoding of primitive values and the parts of aggregate values, shared by all codecs.
+ */
+final class Encodings {
+   private Encodings() {
+   }
+
+   static void checkOrder(ByteBuffer buffer) {
+      if (buffer.order() != ByteOrder.BIG_ENDIAN) {
+         throw new IllegalArgumentException("values are big-endian, but buffer is "+buffer.order());
+      }
+   }
+
+   static long decodeInteger(ByteBuffer buffer, NumberType.Encoding encoding, int size) {
+      return switch (encoding) {
+         case UNSIGNED_INTEGER -> switch (size) {
+            case 1 -> decodeUnsigned1(buffer);
+            case 2 -> decodeUnsigned2(buffer);
+            case 4 -> decodeUnsigned4(buffer);
+            default -> decode8(buffer);
+         };
+         case SIGNED_INTEGER -> switch (size) {
+            case 1 -> decodeSigned1(buffer);
+            case 2 -> decodeSigned2(buffer);
+            case 4 -> decodeSigned4(buffer);
+            default -> decode8(buffer);
+         };
+         case VARIABLE_LENGTH_INTEGER -> decodeVariableLength(buffer, size);
+         case FLOATING_POINT -> throw new IllegalArgumentException("floating point is not an integer encoding");
+      };
+   }
+
+   static void encodeInteger(ByteBuffer buffer, long value, NumberType.Encoding encoding, int size) {
+      switch (encoding) {
+         case UNSIGNED_INTEGER -> encodeUnsigned(buffer, value, size);
+         case SIGNED_INTEGER -> encodeSigned(buffer, value, size);
+         case VARIABLE_LENGTH_INTEGER -> encodeVariableLength(buffer, value, size);
+         case FLOATING_POINT -> throw new IllegalArgumentException("floating point is not an integer encoding");
+      }
+   }
+
+   static double decodeFloat(ByteBuffer buffer, int size) {
+      return size == 4 ? decodeFloat4(buffer) : decodeFloat8(buffer);
+   }
+
+   static void encodeFloat(ByteBuffer buffer, double value, int size) {
+      if (size == 4) {
+         encodeFloat4(buffer, value);
+      } else {
+         encodeFloat8(buffer, value);
+      }
+   }
+
+   static long decodeUnsigned1(ByteBuffer buffer) {
+      return buffer.get() & 0xFFL;
+   }
+
+   static long decodeUnsigned2(ByteBuffer buffer) {
+      return buffer.getShort() & 0xFFFFL;
+   }
+
+   static long decodeUnsigned4(ByteBuffer buffer) {
+      return buffer.getInt() & 0xFFFFFFFFL;
+   }
+
+   static long decodeSigned1(ByteBuffer buffer) {
+      return buffer.get();
+   }
+
+   static long decodeSigned2(ByteBuffer buffer) {
+      return buffer.getShort();
+   }
+
+   static long decodeSigned4(ByteBuffer buffer) {
+      return buffer.getInt();
+   }
+
+   static long decode8(ByteBuffer buffer) {
+      return buffer.getLong();
+   }
+
+   static long decodeVariableLength(ByteBuffer buffer, int size) {
+      int length = VariableLengthInteger.encodedLength(buffer, buffer.position());
+      if (length > size) {
+         throw new IllegalArgumentException("variable length integer is longer than "+size+" bytes");
+      }
+      return VariableLengthInteger.decode(buffer);
+   }
+
+   static double decodeFloat4(ByteBuffer buffer) {
+      return buffer.getFloat();
+   }
+
+   static double decodeFloat8(ByteBuffer buffer) {
+      return buffer.getDouble();
+   }
+
+   static void encodeUnsigned(ByteBuffer buffer, long value, int size) {
+      checkUnsigned(value, size);
+      encodeFixed(buffer, value, size);
+   }
+
+   static void encodeSigned(ByteBuffer buffer, long value, int size) {
+      checkSigned(value, size);
+      encodeFixed(buffer, value, size);
+   }
+
+   static void encodeVariableLength(ByteBuffer buffer, long value, int size) {
+      if (VariableLengthInteger.encodedLength(value) > size) {
+         throw new IllegalArgumentException("value "+value+" does not fit a variable length integer of "+size+" bytes");
+      }
+      VariableLengthInteger.encode(value, buffer);
+   }
+
+   static void encodeFloat4(ByteBuffer buffer, double value) {
+      buffer.putFloat((float) value);
+   }
+
+   static void encodeFloat8(ByteBuffer buffer, double value) {
+      buffer.putDouble(value);
+   }
+
+   private static void encodeFixed(ByteBuffer buffer, long value, int size) {
+      switch (size) {
+         case 1 -> buffer.put((byte) value);
+         case 2 -> buffer.putShort((short) value);
+         case 4 -> buffer.putInt((int) value);
+         default -> buffer.putLong(value);
+      }
+   }
+
+   private static void checkUnsigned(long value, int size) {
+      if (size < 8 && (value >>> (size*8)) != 0) {
+         throw new IllegalArgumentException("value "+value+" does not fit an unsigned integer of "+size+" bytes");
+      }
+   }
+
+   private static void checkSigned(long value, int size) {
+      long rest = value >> (size*8 - 1);
+      if (size < 8 && rest != 0 && rest != -1) {
+         throw new IllegalArgumentException("value "+value+" does not fit a signed integer of "+size+" bytes");
+      }
+   }
+
+   /**
+    * Decode integers with the loop specialized for the encoding.
+    */
+   static void decodeIntegers(ByteBuffer buffer, long[] values, NumberType.Encoding encoding, int size) {
+      switch (encoding) {
+         case UNSIGNED_INTEGER -> {
+            switch (size) {
+               case 1 -> {
+                  for (int i=0; i<values.length; i++) {
+                     values[i] = buffer.get() & 0xFFL;
+                  }
+               }
+               case 2 -> {
+                  for (int i=0; i<values.length; i++) {
+                     values[i] = buffer.getShort() & 0xFFFFL;
+                  }
+               }
+               case 4 -> {
+                  for (int i=0; i<values.length; i++) {
+                     values[i] = buffer.getInt() & 0xFFFFFFFFL;
+                  }
+               }
+               default -> buffer.asLongBuffer().get(values);
+            }
+         }
+         case SIGNED_INTEGER -> {
+            switch (size) {
+               case 1 -> {
+                  for (int i=0; i<values.length; i++) {
+                     values[i] = buffer.get();
+                  }
+               }
+               case 2 -> {
+                  for (int i=0; i<values.length; i++) {
+                     values[i] = buffer.getShort();
+                  }
+               }
+               case 4 -> {
+                  for (int i=0; i<values.length; i++) {
+                     values[i] = buffer.getInt();
+                  }
+               }
+               default -> buffer.asLongBuffer().get(values);
+            }
+         }
+         case VARIABLE_LENGTH_INTEGER -> {
+            for (int i=0; i<values.length; i++) {
+               values[i] = decodeVariableLength(buffer, size);
+            }
+         }
+         case FLOATING_POINT -> throw new IllegalArgumentException("floating point is not an integer encoding");
+      }
+      if (size == 8 && encoding != NumberType.Encoding.VARIABLE_LENGTH_INTEGER) {
+         buffer.position(buffer.position() + values.length*8);
+      }
+   }
+
+   static void encodeIntegers(ByteBuffer buffer, long[] values, NumberType.Encoding encoding, int size) {
+      if (size == 8 && encoding != NumberType.Encoding.VARIABLE_LENGTH_INTEGER) {
+         buffer.asLongBuffer().put(values);
+         buffer.position(buffer.position() + values.length*8);
+         return;
+      }
+      for (long value : values) {
+         encodeInteger(buffer, value, encoding, size);
+      }
+   }
+
+   static void decodeFloats(ByteBuffer buffer, double[] values, int size) {
+      if (size == 4) {
+         for (int i=0; i<values.length; i++) {
+            values[i] = buffer.getFloat();
+         }
+      } else {
+         buffer.asDoubleBuffer().get(values);
+         buffer.position(buffer.position() + values.length*8);
+      }
+   }
+
+   static void encodeFloats(ByteBuffer buffer, double[] values, int size) {
+      if (size == 4) {
+         for (double value : values) {
+            buffer.putFloat((float) value);
+         }
+      } else {
+         buffer.asDoubleBuffer().put(values);
+         buffer.position(buffer.position() + values.length*8);
+      }
+   }
+
+   /**
+    * Decode the item count of a dynamic array. The count can not be more than what the rest of
+    * the buffer can hold, so a corrupt count does not allocate more than the size of the message.
+    */
+   static int decodeCount(ByteBuffer buffer, int minimumItemSize) {
+      long count = VariableLengthInteger.decode(buffer);
+      if (count > buffer.remaining() / Math.max(1, minimumItemSize)) {
+         throw new IllegalArgumentException("array of "+count+" items does not fit the remaining "+buffer.remaining()+" bytes");
+      }
+      return (int) count;
+   }
+
+   static void encodeCount(ByteBuffer buffer, int count) {
+      VariableLengthInteger.encode(count, buffer);
+   }
+
+   /**
+    * The number of items a stream of fixed size items has in the rest of the buffer.
+    */
+   static int streamCount(ByteBuffer buffer, int itemSize) {
+      if (buffer.remaining() % itemSize != 0) {
+         throw new IllegalArgumentException("stream of "+itemSize+" byte items can not end with "+buffer.remaining()+" bytes");
+      }
+      return buffer.remaining() / itemSize;
+   }
+
+   /**
+    * Make sure a stream item was not empty, otherwise the stream would never end.
+    */
+   static void checkStreamProgress(ByteBuffer buffer, int itemStart) {
+      if (buffer.position() == itemStart) {
+         throw new IllegalArgumentException("stream items can not be empty");
+      }
+   }
+
+   static int decodeAlternative(ByteBuffer buffer, int alternativeCount) {
+      long alternative = VariableLengthInteger.decode(buffer);
+      if (alternative >= alternativeCount) {
+         throw new IllegalArgumentException("union has "+alternativeCount+" alternatives, but value is of alternative "+alternative);
+      }
+      return (int) alternative;
+   }
+
+   static void encodeAlternative(ByteBuffer buffer, int alternative) {
+      VariableLengthInteger.encode(alternative, buffer);
+   }
+
+   static long integer(Value value) {
+      if (value instanceof IntegerValue integer) {
+         return integer.value();
+      }
+      throw mismatch("an integer", value);
+   }
+
+   static double floatingPoint(Value value) {
+      if (value instanceof FloatValue floatingPoint) {
+         return floatingPoint.value();
+      }
+      throw mismatch("a floating point number", value);
+   }
+
+   static long[] integers(Value value, int length) {
+      if (value instanceof IntegerArrayValue array && (length < 0 || array.items().length == length)) {
+         return array.items();
+      }
+      throw mismatch(length < 0 ? "integers" : length+" integers", value);
+   }
+
+   static double[] floatingPoints(Value value, int length) {
+      if (value instanceof FloatArrayValue array && (length < 0 || array.items().length == length)) {
+         return array.items();
+      }
+      throw mismatch(length < 0 ? "floating point numbers" : length+" floating point numbers", value);
+   }
+
+   static Value[] items(Value value, int length) {
+      if (value instanceof ArrayValue array && (length < 0 || array.items().length == length)) {
+         return array.items();
+      }
+      throw mismatch(length < 0 ? "an array" : "an array of "+length, value);
+   }
+
+   static Value[] fields(Value value, int count) {
+      if (value instanceof StructValue struct && struct.fields().length == count) {
+         return struct.fields();
+      }
+      throw mismatch("a struct of "+count+" fields", value);
+   }
+
+   static UnionValue union(Value value, int alternativeCount) {
+      if (value instanceof UnionValue union && union.alternative() < alternativeCount) {
+         return union;
+      }
+      throw mismatch("a union of "+alternativeCount+" alternatives", value);
+   }
+
+   private static IllegalArgumentException mismatch(String expected, Value value) {
+      return new IllegalArgumentException("expected "+expected+", but was "+value);
+   }
+
+   /**
+    * The number type of items if they can be stored in a primitive array, or null.
+    */
+   static NumberType primitiveItemType(Type itemType) {
+      return itemType.structure() instanceof NumberType number ? number : null;
+   }
+
+   /**
+    * The size of all values of the type if they all have the same size, or -1.
+    */
+   static int fixedSize(Type type) {
+      return switch (type.structure()) {
+         case NumberType number -> number.encoding() == NumberType.Encoding.VARIABLE_LENGTH_INTEGER ? -1 : number.size();
+         case UnitType unit -> 0;
+         default -> -1;
+      };
+   }
+
+   /**
+    * The least number of bytes a value of the type is encoded in.
+    */
+   static int minimumSize(Type type) {
+      return minimumSize(type, new HashMap<>());
+   }
+
+   private static int minimumSize(Type type, Map<NamedType, Integer> named) {
+      return switch (type) {
+         case UnitType unit -> 0;
+         case NumberType number -> number.encoding() == NumberType.Encoding.VARIABLE_LENGTH_INTEGER ? 1 : number.size();
+         case ArrayType array -> (int) Math.min(Integer.MAX_VALUE, (long) array.length() * minimumSize(array.itemType(), named));
+         case DynamicArrayType array -> 1;
+         case StreamType stream -> 0;
+         case StructType struct -> (int) Math.min(Integer.MAX_VALUE,
+               struct.fields().stream().mapToLong(field -> minimumSize(field.type(), named)).sum());
+         case UnionType union -> 1 + union.alternatives().stream().mapToInt(alternative -> minimumSize(alternative, named)).min().orElse(0);
+         case NamedType name -> {
+            Integer size = named.get(name);
+            if (size == null) {
+               // A recursive reference can not make the value smaller than what the rest of the definition needs
+               named.put(name, 0);
+               size = minimumSize(name.definition(), named);
+               named.put(name, size);
+            }
+            yield size;
+         }
+      };
+   }
+}
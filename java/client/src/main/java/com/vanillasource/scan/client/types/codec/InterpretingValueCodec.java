@@ -0,0 +1,173 @@
+package com.vanillasource.scan.client.types.codec;
+
+import com.vanillasource.scan.client.types.ArrayType;
+import com.vanillasource.scan.client.types.ArrayValue;
+import com.vanillasource.scan.client.types.DynamicArrayType;
+import com.vanillasource.scan.client.types.FloatArrayValue;
+import com.vanillasource.scan.client.types.FloatValue;
+import com.vanillasource.scan.client.types.IntegerArrayValue;
+import com.vanillasource.scan.client.types.IntegerValue;
+import com.vanillasource.scan.client.types.NamedType;
+import com.vanillasource.scan.client.types.NumberType;
+import com.vanillasource.scan.client.types.StreamType;
+import com.vanillasource.scan.client.types.StructType;
+import com.vanillasource.scan.client.types.StructValue;
+import com.vanillasource.scan.client.types.Type;
+import com.vanillasource.scan.client.types.UnionType;
+import com.vanillasource.scan.client.types.UnionValue;
+import com.vanillasource.scan.client.types.UnitType;
+import com.vanillasource.scan.client.types.UnitValue;
+import com.vanillasource.scan.client.types.Value;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Walks the type for every value. Needs no preparation, so it is useful for types that are
+ * used only a few times, and as a reference for {@link CompiledValueCodec}.
+ */
+public final class InterpretingValueCodec implements ValueCodec {
+   private final Type type;
+
+   public InterpretingValueCodec(Type type) {
+      this.type = type;
+   }
+
+   @Override
+   public void encode(Value value, ByteBuffer buffer) {
+      Encodings.checkOrder(buffer);
+      encode(type, value, buffer);
+   }
+
+   @Override
+   public Value decode(ByteBuffer buffer) {
+      Encodings.checkOrder(buffer);
+      return decode(type, buffer);
+   }
+
+   private static void encode(Type type, Value value, ByteBuffer buffer) {
+      switch (type) {
+         case UnitType unit -> {
+            if (!(value instanceof UnitValue)) {
+               throw new IllegalArgumentException("expected unit, but was "+value);
+            }
+         }
+         case NumberType number -> {
+            if (number.isFloatingPoint()) {
+               Encodings.encodeFloat(buffer, Encodings.floatingPoint(value), number.size());
+            } else {
+               Encodings.encodeInteger(buffer, Encodings.integer(value), number.encoding(), number.size());
+            }
+         }
+         case ArrayType array -> encodeItems(array.itemType(), value, array.length(), buffer);
+         case DynamicArrayType array -> {
+            Encodings.encodeCount(buffer, itemCount(array.itemType(), value));
+            encodeItems(array.itemType(), value, -1, buffer);
+         }
+         case StreamType stream -> encodeItems(stream.itemType(), value, -1, buffer);
+         case StructType struct -> {
+            Value[] fields = Encodings.fields(value, struct.fields().size());
+            for (int i=0; i<fields.length; i++) {
+               encode(struct.fields().get(i).type(), fields[i], buffer);
+            }
+         }
+         case UnionType union -> {
+            UnionValue alternative = Encodings.union(value, union.alternatives().size());
+            Encodings.encodeAlternative(buffer, alternative.alternative());
+            encode(union.alternatives().get(alternative.alternative()), alternative.value(), buffer);
+         }
+         case NamedType named -> encode(named.definition(), value, buffer);
+      }
+   }
+
+   private static int itemCount(Type itemType, Value value) {
+      NumberType number = Encodings.primitiveItemType(itemType);
+      if (number == null) {
+         return Encodings.items(value, -1).length;
+      }
+      return number.isFloatingPoint() ? Encodings.floatingPoints(value, -1).length : Encodings.integers(value, -1).length;
+   }
+
+   private static void encodeItems(Type itemType, Value value, int length, ByteBuffer buffer) {
+      NumberType number = Encodings.primitiveItemType(itemType);
+      if (number == null) {
+         for (Value item : Encodings.items(value, length)) {
+            encode(itemType, item, buffer);
+         }
+      } else if (number.isFloatingPoint()) {
+         for (double item : Encodings.floatingPoints(value, length)) {
+            Encodings.encodeFloat(buffer, item, number.size());
+         }
+      } else {
+         for (long item : Encodings.integers(value, length)) {
+            Encodings.encodeInteger(buffer, item, number.encoding(), number.size());
+         }
+      }
+   }
+
+   private static Value decode(Type type, ByteBuffer buffer) {
+      return switch (type) {
+         case UnitType unit -> UnitValue.INSTANCE;
+         case NumberType number -> number.isFloatingPoint() ?
+            new FloatValue(Encodings.decodeFloat(buffer, number.size())) :
+            new IntegerValue(Encodings.decodeInteger(buffer, number.encoding(), number.size()));
+         case ArrayType array -> decodeItems(array.itemType(), array.length(), buffer);
+         case DynamicArrayType array -> decodeItems(array.itemType(),
+               Encodings.decodeCount(buffer, Encodings.minimumSize(array.itemType())), buffer);
+         case StreamType stream -> decodeStream(stream.itemType(), buffer);
+         case StructType struct -> {
+            Value[] fields = new Value[struct.fields().size()];
+            for (int i=0; i<fields.length; i++) {
+               fields[i] = decode(struct.fields().get(i).type(), buffer);
+            }
+            yield new StructValue(fields);
+         }
+         case UnionType union -> {
+            int alternative = Encodings.decodeAlternative(buffer, union.alternatives().size());
+            yield new UnionValue(alternative, decode(union.alternatives().get(alternative), buffer));
+         }
+         case NamedType named -> decode(named.definition(), buffer);
+      };
+   }
+
+   private static Value decodeItems(Type itemType, int count, ByteBuffer buffer) {
+      NumberType number = Encodings.primitiveItemType(itemType);
+      if (number == null) {
+         Value[] items = new Value[count];
+         for (int i=0; i<count; i++) {
+            items[i] = decode(itemType, buffer);
+         }
+         return new ArrayValue(items);
+      }
+      if (number.isFloatingPoint()) {
+         double[] items = new double[count];
+         for (int i=0; i<count; i++) {
+            items[i] = Encodings.decodeFloat(buffer, number.size());
+         }
+         return new FloatArrayValue(items);
+      }
+      long[] items = new long[count];
+      for (int i=0; i<count; i++) {
+         items[i] = Encodings.decodeInteger(buffer, number.encoding(), number.size());
+      }
+      return new IntegerArrayValue(items);
+   }
+
+   private static Value decodeStream(Type itemType, ByteBuffer buffer) {
+      List<Value> items = new ArrayList<>();
+      while (buffer.hasRemaining()) {
+         int position = buffer.position();
+         items.add(decode(itemType, buffer));
+         Encodings.checkStreamProgress(buffer, position);
+      }
+      NumberType number = Encodings.primitiveItemType(itemType);
+      if (number == null) {
+         return new ArrayValue(items.toArray(Value[]::new));
+      }
+      if (number.isFloatingPoint()) {
+         return new FloatArrayValue(items.stream().mapToDouble(Encodings::floatingPoint).toArray());
+      }
+      return new IntegerArrayValue(items.stream().mapToLong(Encodings::integer).toArray());
+   }
+}
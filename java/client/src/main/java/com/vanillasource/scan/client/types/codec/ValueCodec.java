@@ -0,0 +1,35 @@
+package com.vanillasource.scan.client.types.codec;
+
+import com.vanillasource.scan.client.types.Value;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes values of one type. Buffers must be big-endian. Values are encoded as:
+ * <ul>
+ *    <li>Unit: no bytes.</li>
+ *    <li>Numbers: in the given size, variable length integers as {@link com.vanillasource.scan.client.network.data.VariableLengthInteger}.</li>
+ *    <li>Array: the items.</li>
+ *    <li>DynamicArray: the item count as a variable length integer, then the items.</li>
+ *    <li>Stream: the items until the end of the buffer.</li>
+ *    <li>Struct: the fields in the order of definition.</li>
+ *    <li>Union: the index of the alternative as a variable length integer, then the value.</li>
+ * </ul>
+ * Arrays and streams of numbers are decoded into primitive arrays, see {@link com.vanillasource.scan.client.types.IntegerArrayValue}
+ * and {@link com.vanillasource.scan.client.types.FloatArrayValue}. Constraints are not checked.
+ */
+public interface ValueCodec {
+   /**
+    * Encode the value to the current position of the buffer, advancing the position.
+    * @throws IllegalArgumentException If the value is not of the type of this codec.
+    * @throws java.nio.BufferOverflowException If the value does not fit the buffer.
+    */
+   void encode(Value value, ByteBuffer buffer);
+
+   /**
+    * Decode a value from the current position of the buffer, advancing the position.
+    * @throws IllegalArgumentException If the bytes are not a valid value of the type of this codec.
+    * @throws java.nio.BufferUnderflowException If the value is not completely in the buffer.
+    */
+   Value decode(ByteBuffer buffer);
+}
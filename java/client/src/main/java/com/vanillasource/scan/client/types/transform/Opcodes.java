@@ -0,0 +1,61 @@
+package com.vanillasource.scan.client.types.transform;
+
+/**
+ * The instructions of transformation programs. Instructions work on a stack of values. Indices
+ * and counts following an opcode are variable length integers, jump offsets are 2 byte signed
+ * big-endian numbers relative to the next instruction. Conditions are integers, where zero is false.
+ */
+final class Opcodes {
+   /** Pop the result and return it. */
+   static final int RETURN = 0x00;
+   /** Push the input with the following index. */
+   static final int INPUT = 0x01;
+   /** Push the constant with the following index. */
+   static final int CONSTANT = 0x02;
+   /** Push the unit value. */
+   static final int UNIT = 0x03;
+   /** Pop a struct, push its field with the following index. */
+   static final int FIELD = 0x04;
+   /** Pop an index and an array, push the item of the array. */
+   static final int ITEM = 0x05;
+   /** Pop an array, push its length. */
+   static final int LENGTH = 0x06;
+   /** Pop a union value, push the index of its alternative. */
+   static final int ALTERNATIVE = 0x07;
+   /** Pop a union value, push its content. */
+   static final int CONTENT = 0x08;
+   /** Pop the following number of fields, push a struct of them. */
+   static final int STRUCT = 0x09;
+   /** Pop a value, push it as the alternative of a union with the following index. */
+   static final int UNION = 0x0A;
+
+   static final int ADD = 0x10;
+   static final int SUBTRACT = 0x11;
+   static final int MULTIPLY = 0x12;
+   static final int DIVIDE = 0x13;
+   static final int REMAINDER = 0x14;
+   static final int NEGATE = 0x15;
+   static final int MIN = 0x16;
+   static final int MAX = 0x17;
+   static final int TO_INTEGER = 0x18;
+   static final int TO_FLOAT = 0x19;
+
+   static final int EQUAL = 0x20;
+   static final int LESS = 0x21;
+   static final int LESS_OR_EQUAL = 0x22;
+   static final int NOT = 0x23;
+   static final int AND = 0x24;
+   static final int OR = 0x25;
+
+   static final int JUMP = 0x30;
+   /** Pop a condition, jump if it is false. */
+   static final int JUMP_IF_FALSE = 0x31;
+   static final int DUPLICATE = 0x32;
+   static final int POP = 0x33;
+
+   static final int CONSTANT_INTEGER = 0;
+   static final int CONSTANT_FLOAT = 1;
+
+   private Opcodes() {
+   }
+}
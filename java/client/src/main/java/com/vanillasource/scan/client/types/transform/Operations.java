@@ -0,0 +1,221 @@
+package com.vanillasource.scan.client.types.transform;
+
+import com.vanillasource.scan.client.types.ArrayValue;
+import com.vanillasource.scan.client.types.FloatArrayValue;
+import com.vanillasource.scan.client.types.FloatValue;
+import com.vanillasource.scan.client.types.IntegerArrayValue;
+import com.vanillasource.scan.client.types.IntegerValue;
+import com.vanillasource.scan.client.types.StructValue;
+import com.vanillasource.scan.client.types.UnionValue;
+import com.vanillasource.scan.client.types.UnitValue;
+import com.vanillasource.scan.client.types.Value;
+
+/**
+ * The semantics of instructions, shared by the interpreter and compiled programs. Arithmetic on
+ * two integers is integer arithmetic, otherwise both operands are converted to floating point.
+ * All operations throw {@link IllegalArgumentException} if the operands are not of the right kind.
+ */
+final class Operations {
+   private static final IntegerValue FALSE = new IntegerValue(0);
+   private static final IntegerValue TRUE = new IntegerValue(1);
+
+   private Operations() {
+   }
+
+   static Value unit() {
+      return UnitValue.INSTANCE;
+   }
+
+   static Value field(Value struct, int index) {
+      if (struct instanceof StructValue value && index < value.fields().length) {
+         return value.fields()[index];
+      }
+      throw new IllegalArgumentException("no field "+index+" in "+struct);
+   }
+
+   static Value item(Value array, Value index) {
+      long i = integer(index);
+      int length = arrayLength(array);
+      if (i < 0 || i >= length) {
+         throw new IllegalArgumentException("index "+i+" is out of bounds of array of "+length);
+      }
+      return switch (array) {
+         case IntegerArrayValue integers -> new IntegerValue(integers.items()[(int) i]);
+         case FloatArrayValue floats -> new FloatValue(floats.items()[(int) i]);
+         default -> ((ArrayValue) array).items()[(int) i];
+      };
+   }
+
+   static Value length(Value array) {
+      return new IntegerValue(arrayLength(array));
+   }
+
+   private static int arrayLength(Value array) {
+      return switch (array) {
+         case IntegerArrayValue integers -> integers.items().length;
+         case FloatArrayValue floats -> floats.items().length;
+         case ArrayValue values -> values.items().length;
+         default -> throw new IllegalArgumentException("expected an array, but was "+array);
+      };
+   }
+
+   static Value alternative(Value union) {
+      return new IntegerValue(union(union).alternative());
+   }
+
+   static Value content(Value union) {
+      return union(union).value();
+   }
+
+   private static UnionValue union(Value union) {
+      if (union instanceof UnionValue value) {
+         return value;
+      }
+      throw new IllegalArgumentException("expected a union, but was "+union);
+   }
+
+   static void put(Value[] fields, Value field, int index) {
+      fields[index] = field;
+   }
+
+   static Value struct(Value[] fields) {
+      return new StructValue(fields);
+   }
+
+   static Value union(Value value, int alternative) {
+      return new UnionValue(alternative, value);
+   }
+
+   static Value add(Value a, Value b) {
+      if (a instanceof IntegerValue x && b instanceof IntegerValue y) {
+         return new IntegerValue(x.value() + y.value());
+      }
+      return new FloatValue(floatingPoint(a) + floatingPoint(b));
+   }
+
+   static Value subtract(Value a, Value b) {
+      if (a instanceof IntegerValue x && b instanceof IntegerValue y) {
+         return new IntegerValue(x.value() - y.value());
+      }
+      return new FloatValue(floatingPoint(a) - floatingPoint(b));
+   }
+
+   static Value multiply(Value a, Value b) {
+      if (a instanceof IntegerValue x && b instanceof IntegerValue y) {
+         return new IntegerValue(x.value() * y.value());
+      }
+      return new FloatValue(floatingPoint(a) * floatingPoint(b));
+   }
+
+   static Value divide(Value a, Value b) {
+      if (a instanceof IntegerValue x && b instanceof IntegerValue y) {
+         return new IntegerValue(x.value() / nonZero(y.value()));
+      }
+      return new FloatValue(floatingPoint(a) / floatingPoint(b));
+   }
+
+   static Value remainder(Value a, Value b) {
+      if (a instanceof IntegerValue x && b instanceof IntegerValue y) {
+         return new IntegerValue(x.value() % nonZero(y.value()));
+      }
+      return new FloatValue(floatingPoint(a) % floatingPoint(b));
+   }
+
+   private static long nonZero(long divisor) {
+      if (divisor == 0) {
+         throw new IllegalArgumentException("integer division by zero");
+      }
+      return divisor;
+   }
+
+   static Value negate(Value a) {
+      if (a instanceof IntegerValue x) {
+         return new IntegerValue(-x.value());
+      }
+      return new FloatValue(-floatingPoint(a));
+   }
+
+   static Value min(Value a, Value b) {
+      return isTrue(lessOrEqual(a, b)) ? a : b;
+   }
+
+   static Value max(Value a, Value b) {
+      return isTrue(lessOrEqual(a, b)) ? b : a;
+   }
+
+   static Value toInteger(Value a) {
+      if (a instanceof IntegerValue) {
+         return a;
+      }
+      return new IntegerValue((long) floatingPoint(a));
+   }
+
+   static Value toFloat(Value a) {
+      if (a instanceof FloatValue) {
+         return a;
+      }
+      return new FloatValue(floatingPoint(a));
+   }
+
+   /**
+    * Any two values can be compared for equality, numbers are equal if they have the same numeric value.
+    */
+   static Value equal(Value a, Value b) {
+      if (a instanceof IntegerValue x && b instanceof IntegerValue y) {
+         return bool(x.value() == y.value());
+      }
+      if ((a instanceof IntegerValue || a instanceof FloatValue) && (b instanceof IntegerValue || b instanceof FloatValue)) {
+         return bool(floatingPoint(a) == floatingPoint(b));
+      }
+      return bool(a.equals(b));
+   }
+
+   static Value less(Value a, Value b) {
+      if (a instanceof IntegerValue x && b instanceof IntegerValue y) {
+         return bool(x.value() < y.value());
+      }
+      return bool(floatingPoint(a) < floatingPoint(b));
+   }
+
+   static Value lessOrEqual(Value a, Value b) {
+      if (a instanceof IntegerValue x && b instanceof IntegerValue y) {
+         return bool(x.value() <= y.value());
+      }
+      return bool(floatingPoint(a) <= floatingPoint(b));
+   }
+
+   static Value not(Value a) {
+      return bool(!isTrue(a));
+   }
+
+   static Value and(Value a, Value b) {
+      return bool(isTrue(a) && isTrue(b));
+   }
+
+   static Value or(Value a, Value b) {
+      return bool(isTrue(a) || isTrue(b));
+   }
+
+   static boolean isTrue(Value condition) {
+      return integer(condition) != 0;
+   }
+
+   private static Value bool(boolean value) {
+      return value ? TRUE : FALSE;
+   }
+
+   private static long integer(Value value) {
+      if (value instanceof IntegerValue integer) {
+         return integer.value();
+      }
+      throw new IllegalArgumentException("expected an integer, but was "+value);
+   }
+
+   private static double floatingPoint(Value value) {
+      return switch (value) {
+         case IntegerValue integer -> integer.value();
+         case FloatValue floatingPoint -> floatingPoint.value();
+         default -> throw new IllegalArgumentException("expected a number, but was "+value);
+      };
+   }
+}
@@ -0,0 +1,307 @@
+package com.vanillasource.scan.client.types.transform;
+
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.types.FloatValue;
+import com.vanillasource.scan.client.types.IntegerValue;
+import com.vanillasource.scan.client.types.Value;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A verified transformation program. The binary representation is:
+ * <pre>
+ * Program  = inputCount: VLI, constantCount: VLI, Constant*, codeLength: VLI, code
+ * Constant = tag: Byte, value: SignedLong | Double
+ * </pre>
+ * See {@link Opcodes} for the instructions. A program is verified when parsed: every instruction
+ * must be reachable, jumps must land on instructions, the stack depth at each instruction must be
+ * the same on all paths, and all paths must end with a return. Programs are immutable.
+ */
+public final class Program {
+   private static final int MAX_STRUCT_FIELDS = Short.MAX_VALUE;
+   private static final int CONSTANT_LENGTH = 9;
+   private final int inputCount;
+   private final Value[] constants;
+   private final int[] opcodes;
+   private final int[] operands;
+   private final int[] depths;
+   private final int maxDepth;
+
+   private Program(int inputCount, Value[] constants, int[] opcodes, int[] operands, int[] depths, int maxDepth) {
+      this.inputCount = inputCount;
+      this.constants = constants;
+      this.opcodes = opcodes;
+      this.operands = operands;
+      this.depths = depths;
+      this.maxDepth = maxDepth;
+   }
+
+   /**
+    * Parse and verify a program from the remaining bytes of the buffer, without changing its position.
+    * @throws IllegalArgumentException If the program is not valid.
+    */
+   public static Program parse(ByteBuffer bytes) {
+      ByteBuffer buffer = bytes.duplicate();
+      try {
+         int inputCount = count(buffer, "input count", Integer.MAX_VALUE);
+         Value[] constants = new Value[count(buffer, "constant count", buffer.remaining() / CONSTANT_LENGTH)];
+         for (int i=0; i<constants.length; i++) {
+            int tag = buffer.get();
+            constants[i] = switch (tag) {
+               case Opcodes.CONSTANT_INTEGER -> new IntegerValue(buffer.getLong());
+               case Opcodes.CONSTANT_FLOAT -> new FloatValue(buffer.getDouble());
+               default -> throw new IllegalArgumentException("unknown constant tag "+tag);
+            };
+         }
+         int codeLength = count(buffer, "code length", buffer.remaining());
+         if (codeLength != buffer.remaining()) {
+            throw new IllegalArgumentException("code length "+codeLength+" does not match remaining "+buffer.remaining()+" bytes");
+         }
+         return decode(inputCount, constants, buffer.slice());
+      } catch (BufferUnderflowException e) {
+         throw new IllegalArgumentException("program ends unexpectedly", e);
+      }
+   }
+
+   private static int count(ByteBuffer buffer, String name, int limit) {
+      long count = VariableLengthInteger.decode(buffer);
+      if (count > limit) {
+         throw new IllegalArgumentException(name+" "+count+" is too large");
+      }
+      return (int) count;
+   }
+
+   /**
+    * Decode instructions, resolving jump offsets to instruction indices, then verify.
+    */
+   private static Program decode(int inputCount, Value[] constants, ByteBuffer code) {
+      int[] indices = new int[code.remaining() + 1];
+      Arrays.fill(indices, -1);
+      int[] opcodes = new int[code.remaining()];
+      int[] operands = new int[code.remaining()];
+      int count = 0;
+      while (code.hasRemaining()) {
+         indices[code.position()] = count;
+         int opcode = code.get() & 0xFF;
+         opcodes[count] = opcode;
+         switch (opcode) {
+            case Opcodes.INPUT, Opcodes.CONSTANT, Opcodes.FIELD, Opcodes.STRUCT, Opcodes.UNION ->
+               operands[count] = index(code, opcode, switch (opcode) {
+                  case Opcodes.INPUT -> inputCount;
+                  case Opcodes.CONSTANT -> constants.length;
+                  case Opcodes.STRUCT -> MAX_STRUCT_FIELDS + 1;
+                  default -> Integer.MAX_VALUE;
+               });
+            case Opcodes.JUMP, Opcodes.JUMP_IF_FALSE -> {
+               short offset = code.getShort();
+               operands[count] = code.position() + offset;
+            }
+            case Opcodes.RETURN, Opcodes.UNIT, Opcodes.ITEM, Opcodes.LENGTH, Opcodes.ALTERNATIVE, Opcodes.CONTENT,
+                 Opcodes.ADD, Opcodes.SUBTRACT, Opcodes.MULTIPLY, Opcodes.DIVIDE, Opcodes.REMAINDER, Opcodes.NEGATE,
+                 Opcodes.MIN, Opcodes.MAX, Opcodes.TO_INTEGER, Opcodes.TO_FLOAT, Opcodes.EQUAL, Opcodes.LESS,
+                 Opcodes.LESS_OR_EQUAL, Opcodes.NOT, Opcodes.AND, Opcodes.OR, Opcodes.DUPLICATE, Opcodes.POP -> {
+            }
+            default -> throw new IllegalArgumentException("unknown opcode "+opcode+" at "+(code.position()-1));
+         }
+         count++;
+      }
+      for (int i=0; i<count; i++) {
+         if (opcodes[i] == Opcodes.JUMP || opcodes[i] == Opcodes.JUMP_IF_FALSE) {
+            int target = operands[i];
+            if (target < 0 || target >= indices.length - 1 || indices[target] < 0) {
+               throw new IllegalArgumentException("jump of instruction "+i+" does not land on an instruction");
+            }
+            operands[i] = indices[target];
+         }
+      }
+      return verify(inputCount, constants, Arrays.copyOf(opcodes, count), Arrays.copyOf(operands, count));
+   }
+
+   private static int index(ByteBuffer code, int opcode, int limit) {
+      long index = VariableLengthInteger.decode(code);
+      if (index >= limit) {
+         throw new IllegalArgumentException("operand "+index+" of opcode "+opcode+" must be less than "+limit);
+      }
+      return (int) index;
+   }
+
+   private static Program verify(int inputCount, Value[] constants, int[] opcodes, int[] operands) {
+      if (opcodes.length == 0) {
+         throw new IllegalArgumentException("program has no instructions");
+      }
+      int[] depths = new int[opcodes.length];
+      Arrays.fill(depths, -1);
+      depths[0] = 0;
+      int maxDepth = 0;
+      Deque<Integer> pending = new ArrayDeque<>();
+      pending.add(0);
+      while (!pending.isEmpty()) {
+         int instruction = pending.poll();
+         int opcode = opcodes[instruction];
+         int depth = depths[instruction];
+         int pops = pops(opcode, operands[instruction]);
+         if (depth < pops) {
+            throw new IllegalArgumentException("instruction "+instruction+" needs "+pops+" values, but stack has "+depth);
+         }
+         int next = depth - pops + pushes(opcode);
+         maxDepth = Math.max(maxDepth, next);
+         if (opcode == Opcodes.JUMP || opcode == Opcodes.JUMP_IF_FALSE) {
+            flow(depths, pending, operands[instruction], next);
+         }
+         if (opcode != Opcodes.JUMP && opcode != Opcodes.RETURN) {
+            if (instruction + 1 == opcodes.length) {
+               throw new IllegalArgumentException("program does not end with a return");
+            }
+            flow(depths, pending, instruction + 1, next);
+         }
+      }
+      for (int i=0; i<depths.length; i++) {
+         if (depths[i] < 0) {
+            throw new IllegalArgumentException("instruction "+i+" is not reachable");
+         }
+      }
+      return new Program(inputCount, constants, opcodes, operands, depths, maxDepth);
+   }
+
+   private static void flow(int[] depths, Deque<Integer> pending, int instruction, int depth) {
+      if (depths[instruction] < 0) {
+         depths[instruction] = depth;
+         pending.add(instruction);
+      } else if (depths[instruction] != depth) {
+         throw new IllegalArgumentException("stack depth at instruction "+instruction+" is both "+depths[instruction]+" and "+depth);
+      }
+   }
+
+   private static int pops(int opcode, int operand) {
+      return switch (opcode) {
+         case Opcodes.INPUT, Opcodes.CONSTANT, Opcodes.UNIT, Opcodes.JUMP -> 0;
+         case Opcodes.STRUCT -> operand;
+         case Opcodes.ITEM, Opcodes.ADD, Opcodes.SUBTRACT, Opcodes.MULTIPLY, Opcodes.DIVIDE, Opcodes.REMAINDER,
+              Opcodes.MIN, Opcodes.MAX, Opcodes.EQUAL, Opcodes.LESS, Opcodes.LESS_OR_EQUAL, Opcodes.AND, Opcodes.OR -> 2;
+         default -> 1;
+      };
+   }
+
+   private static int pushes(int opcode) {
+      return switch (opcode) {
+         case Opcodes.RETURN, Opcodes.JUMP, Opcodes.JUMP_IF_FALSE, Opcodes.POP -> 0;
+         case Opcodes.DUPLICATE -> 2;
+         default -> 1;
+      };
+   }
+
+   public int inputCount() {
+      return inputCount;
+   }
+
+   int instructionCount() {
+      return opcodes.length;
+   }
+
+   int opcode(int instruction) {
+      return opcodes[instruction];
+   }
+
+   /**
+    * The index operand, or the target instruction of jumps.
+    */
+   int operand(int instruction) {
+      return operands[instruction];
+   }
+
+   /**
+    * The stack depth before the instruction runs.
+    */
+   int depth(int instruction) {
+      return depths[instruction];
+   }
+
+   int maxDepth() {
+      return maxDepth;
+   }
+
+   Value[] constants() {
+      return constants;
+   }
+
+   /**
+    * Run the program with the reference interpreter.
+    * @throws IllegalArgumentException If the inputs do not match the program, or an operation fails.
+    */
+   public Value interpret(Value... inputs) {
+      checkInputs(inputs);
+      Value[] stack = new Value[maxDepth];
+      int top = 0;
+      int instruction = 0;
+      while (true) {
+         int operand = operands[instruction];
+         switch (opcodes[instruction]) {
+            case Opcodes.RETURN -> {
+               return stack[top-1];
+            }
+            case Opcodes.INPUT -> stack[top++] = inputs[operand];
+            case Opcodes.CONSTANT -> stack[top++] = constants[operand];
+            case Opcodes.UNIT -> stack[top++] = Operations.unit();
+            case Opcodes.FIELD -> stack[top-1] = Operations.field(stack[top-1], operand);
+            case Opcodes.ITEM -> stack[--top-1] = Operations.item(stack[top-1], stack[top]);
+            case Opcodes.LENGTH -> stack[top-1] = Operations.length(stack[top-1]);
+            case Opcodes.ALTERNATIVE -> stack[top-1] = Operations.alternative(stack[top-1]);
+            case Opcodes.CONTENT -> stack[top-1] = Operations.content(stack[top-1]);
+            case Opcodes.STRUCT -> {
+               top -= operand;
+               stack[top] = Operations.struct(Arrays.copyOfRange(stack, top, top + operand));
+               top++;
+            }
+            case Opcodes.UNION -> stack[top-1] = Operations.union(stack[top-1], operand);
+            case Opcodes.ADD -> stack[--top-1] = Operations.add(stack[top-1], stack[top]);
+            case Opcodes.SUBTRACT -> stack[--top-1] = Operations.subtract(stack[top-1], stack[top]);
+            case Opcodes.MULTIPLY -> stack[--top-1] = Operations.multiply(stack[top-1], stack[top]);
+            case Opcodes.DIVIDE -> stack[--top-1] = Operations.divide(stack[top-1], stack[top]);
+            case Opcodes.REMAINDER -> stack[--top-1] = Operations.remainder(stack[top-1], stack[top]);
+            case Opcodes.NEGATE -> stack[top-1] = Operations.negate(stack[top-1]);
+            case Opcodes.MIN -> stack[--top-1] = Operations.min(stack[top-1], stack[top]);
+            case Opcodes.MAX -> stack[--top-1] = Operations.max(stack[top-1], stack[top]);
+            case Opcodes.TO_INTEGER -> stack[top-1] = Operations.toInteger(stack[top-1]);
+            case Opcodes.TO_FLOAT -> stack[top-1] = Operations.toFloat(stack[top-1]);
+            case Opcodes.EQUAL -> stack[--top-1] = Operations.equal(stack[top-1], stack[top]);
+            case Opcodes.LESS -> stack[--top-1] = Operations.less(stack[top-1], stack[top]);
+            case Opcodes.LESS_OR_EQUAL -> stack[--top-1] = Operations.lessOrEqual(stack[top-1], stack[top]);
+            case Opcodes.NOT -> stack[top-1] = Operations.not(stack[top-1]);
+            case Opcodes.AND -> stack[--top-1] = Operations.and(stack[top-1], stack[top]);
+            case Opcodes.OR -> stack[--top-1] = Operations.or(stack[top-1], stack[top]);
+            case Opcodes.JUMP -> {
+               instruction = operand;
+               continue;
+            }
+            case Opcodes.JUMP_IF_FALSE -> {
+               if (!Operations.isTrue(stack[--top])) {
+                  instruction = operand;
+                  continue;
+               }
+            }
+            case Opcodes.DUPLICATE -> {
+               stack[top] = stack[top-1];
+               top++;
+            }
+            case Opcodes.POP -> top--;
+            default -> throw new IllegalStateException("unknown opcode "+opcodes[instruction]);
+         }
+         instruction++;
+      }
+   }
+
+   void checkInputs(Value[] inputs) {
+      if (inputs.length != inputCount) {
+         throw new IllegalArgumentException("program needs "+inputCount+" inputs, but got "+inputs.length);
+      }
+      for (Value input : inputs) {
+         if (input == null) {
+            throw new IllegalArgumentException("inputs can not be null");
+         }
+      }
+   }
+}
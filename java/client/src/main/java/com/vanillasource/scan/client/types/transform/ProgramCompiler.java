@@ -0,0 +1,339 @@
+package com.vanillasource.scan.client.types.transform;
+
+import com.vanillasource.scan.client.types.Value;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Translates a program into a JVM class with one static method, where each instruction becomes
+ * the equivalent JVM stack operation or a call to {@link Operations}. The class is defined as a
+ * hidden class, so it is unloaded when the returned handle is no longer referenced.
+ */
+final class ProgramCompiler {
+   private static final String VALUE = Value.class.getName().replace('.', '/');
+   private static final String VALUE_ARRAY = "[L"+VALUE+";";
+   private static final String OPERATIONS = Operations.class.getName().replace('.', '/');
+   private static final String CLASS_NAME = ProgramCompiler.class.getPackageName().replace('.', '/')+"/CompiledProgram";
+   private static final String UNARY = "(L"+VALUE+";)L"+VALUE+";";
+   private static final String BINARY = "(L"+VALUE+";L"+VALUE+";)L"+VALUE+";";
+   private static final String WITH_INDEX = "(L"+VALUE+";I)L"+VALUE+";";
+   private static final int MAX_CODE_LENGTH = Short.MAX_VALUE;
+
+   private static final int ALOAD_0 = 0x2A;
+   private static final int ALOAD_1 = 0x2B;
+   private static final int AALOAD = 0x32;
+   private static final int POP = 0x57;
+   private static final int DUP = 0x59;
+   private static final int DUP_X1 = 0x5A;
+   private static final int SWAP = 0x5F;
+   private static final int BIPUSH = 0x10;
+   private static final int SIPUSH = 0x11;
+   private static final int ICONST_0 = 0x03;
+   private static final int IFEQ = 0x99;
+   private static final int GOTO = 0xA7;
+   private static final int ARETURN = 0xB0;
+   private static final int INVOKESTATIC = 0xB8;
+   private static final int ANEWARRAY = 0xBD;
+
+   private ProgramCompiler() {
+   }
+
+   /**
+    * Compile the program into a handle of type {@code (Value[])Value}, which takes the inputs.
+    * @throws IllegalArgumentException If the program is too large to be compiled.
+    */
+   static MethodHandle compile(Program program) {
+      byte[] classBytes = new ClassFile(program).toByteArray();
+      try {
+         MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+         MethodHandle run = lookup.findStatic(lookup.lookupClass(), "run", methodType(Value.class, Value[].class, Value[].class));
+         return MethodHandles.insertArguments(run, 1, (Object) program.constants());
+      } catch (IllegalAccessException | NoSuchMethodException e) {
+         throw new IllegalStateException("compiled program can not be accessed", e);
+      }
+   }
+
+   private static final class ClassFile {
+      private final Program program;
+      private final ConstantPool pool = new ConstantPool();
+      private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+      private final int[] offsets;
+      private final List<Integer> frames = new ArrayList<>();
+
+      private ClassFile(Program program) {
+         this.program = program;
+         this.offsets = new int[program.instructionCount()];
+      }
+
+      private byte[] toByteArray() {
+         // The first pass only determines the offsets of instructions, so jumps can be emitted in the second
+         emitCode();
+         code.reset();
+         emitCode();
+         if (code.size() > MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("program is too large to compile, "+code.size()+" bytes");
+         }
+         for (int i=0; i<program.instructionCount(); i++) {
+            int opcode = program.opcode(i);
+            if (opcode == Opcodes.JUMP || opcode == Opcodes.JUMP_IF_FALSE) {
+               if (!frames.contains(program.operand(i))) {
+                  frames.add(program.operand(i));
+               }
+            }
+         }
+         frames.sort(Integer::compare);
+         try {
+            return write();
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+      }
+
+      private void emitCode() {
+         for (int i=0; i<program.instructionCount(); i++) {
+            offsets[i] = code.size();
+            int operand = program.operand(i);
+            switch (program.opcode(i)) {
+               case Opcodes.RETURN -> code.write(ARETURN);
+               case Opcodes.INPUT -> {
+                  code.write(ALOAD_0);
+                  pushInt(operand);
+                  code.write(AALOAD);
+               }
+               case Opcodes.CONSTANT -> {
+                  code.write(ALOAD_1);
+                  pushInt(operand);
+                  code.write(AALOAD);
+               }
+               case Opcodes.UNIT -> invoke("unit", "()L"+VALUE+";");
+               case Opcodes.FIELD -> {
+                  pushInt(operand);
+                  invoke("field", WITH_INDEX);
+               }
+               case Opcodes.ITEM -> invoke("item", BINARY);
+               case Opcodes.LENGTH -> invoke("length", UNARY);
+               case Opcodes.ALTERNATIVE -> invoke("alternative", UNARY);
+               case Opcodes.CONTENT -> invoke("content", UNARY);
+               case Opcodes.STRUCT -> {
+                  pushInt(operand);
+                  code.write(ANEWARRAY);
+                  u2(pool.classInfo(VALUE));
+                  // Move the values below the array into it, last one first
+                  for (int field=operand-1; field>=0; field--) {
+                     code.write(DUP_X1);
+                     code.write(SWAP);
+                     pushInt(field);
+                     invoke("put", "("+VALUE_ARRAY+"L"+VALUE+";I)V");
+                  }
+                  invoke("struct", "("+VALUE_ARRAY+")L"+VALUE+";");
+               }
+               case Opcodes.UNION -> {
+                  pushInt(operand);
+                  invoke("union", WITH_INDEX);
+               }
+               case Opcodes.ADD -> invoke("add", BINARY);
+               case Opcodes.SUBTRACT -> invoke("subtract", BINARY);
+               case Opcodes.MULTIPLY -> invoke("multiply", BINARY);
+               case Opcodes.DIVIDE -> invoke("divide", BINARY);
+               case Opcodes.REMAINDER -> invoke("remainder", BINARY);
+               case Opcodes.NEGATE -> invoke("negate", UNARY);
+               case Opcodes.MIN -> invoke("min", BINARY);
+               case Opcodes.MAX -> invoke("max", BINARY);
+               case Opcodes.TO_INTEGER -> invoke("toInteger", UNARY);
+               case Opcodes.TO_FLOAT -> invoke("toFloat", UNARY);
+               case Opcodes.EQUAL -> invoke("equal", BINARY);
+               case Opcodes.LESS -> invoke("less", BINARY);
+               case Opcodes.LESS_OR_EQUAL -> invoke("lessOrEqual", BINARY);
+               case Opcodes.NOT -> invoke("not", UNARY);
+               case Opcodes.AND -> invoke("and", BINARY);
+               case Opcodes.OR -> invoke("or", BINARY);
+               case Opcodes.JUMP -> jump(GOTO, operand);
+               case Opcodes.JUMP_IF_FALSE -> {
+                  invoke("isTrue", "(L"+VALUE+";)Z");
+                  jump(IFEQ, operand);
+               }
+               case Opcodes.DUPLICATE -> code.write(DUP);
+               case Opcodes.POP -> code.write(POP);
+               default -> throw new IllegalStateException("unknown opcode "+program.opcode(i));
+            }
+         }
+      }
+
+      private void jump(int opcode, int target) {
+         int offset = offsets[target] - code.size();
+         code.write(opcode);
+         u2(offset);
+      }
+
+      private void invoke(String name, String descriptor) {
+         code.write(INVOKESTATIC);
+         u2(pool.methodReference(OPERATIONS, name, descriptor));
+      }
+
+      private void pushInt(int value) {
+         if (value <= 5) {
+            code.write(ICONST_0 + value);
+         } else if (value <= Byte.MAX_VALUE) {
+            code.write(BIPUSH);
+            code.write(value);
+         } else if (value <= Short.MAX_VALUE) {
+            code.write(SIPUSH);
+            u2(value);
+         } else {
+            throw new IllegalArgumentException("operand "+value+" is too large to compile");
+         }
+      }
+
+      private void u2(int value) {
+         code.write(value >>> 8);
+         code.write(value);
+      }
+
+      private byte[] write() throws IOException {
+         int thisClass = pool.classInfo(CLASS_NAME);
+         int superClass = pool.classInfo("java/lang/Object");
+         int methodName = pool.utf8("run");
+         int methodDescriptor = pool.utf8("("+VALUE_ARRAY+VALUE_ARRAY+")L"+VALUE+";");
+         int codeAttribute = pool.utf8("Code");
+         int stackMapAttribute = pool.utf8("StackMapTable");
+         int valueArrayClass = pool.classInfo(VALUE_ARRAY);
+         int valueClass = pool.classInfo(VALUE);
+         byte[] stackMap = stackMapTable(valueArrayClass, valueClass);
+
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         DataOutputStream out = new DataOutputStream(bytes);
+         out.writeInt(0xCAFEBABE);
+         out.writeShort(0);
+         out.writeShort(52);
+         pool.write(out);
+         out.writeShort(0x0031); // public final super
+         out.writeShort(thisClass);
+         out.writeShort(superClass);
+         out.writeShort(0); // interfaces
+         out.writeShort(0); // fields
+         out.writeShort(1); // methods
+         out.writeShort(0x0009); // public static
+         out.writeShort(methodName);
+         out.writeShort(methodDescriptor);
+         out.writeShort(1);
+         out.writeShort(codeAttribute);
+         out.writeInt(12 + code.size() + (frames.isEmpty() ? 0 : 6 + stackMap.length));
+         // The sequence for structs needs up to 4 more slots than the values on the stack
+         out.writeShort(program.maxDepth() + 4);
+         out.writeShort(2); // locals: inputs and constants
+         out.writeInt(code.size());
+         code.writeTo(out);
+         out.writeShort(0); // exception table
+         if (frames.isEmpty()) {
+            out.writeShort(0);
+         } else {
+            out.writeShort(1);
+            out.writeShort(stackMapAttribute);
+            out.writeInt(stackMap.length);
+            out.write(stackMap);
+         }
+         out.writeShort(0); // class attributes
+         return bytes.toByteArray();
+      }
+
+      /**
+       * Full frames for each jump target. Locals are always the inputs and the constants, and
+       * everything on the stack is a value.
+       */
+      private byte[] stackMapTable(int valueArrayClass, int valueClass) throws IOException {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         DataOutputStream out = new DataOutputStream(bytes);
+         out.writeShort(frames.size());
+         int previous = -1;
+         for (int instruction : frames) {
+            int offset = offsets[instruction];
+            out.writeByte(255);
+            out.writeShort(offset - previous - 1);
+            previous = offset;
+            out.writeShort(2);
+            for (int i=0; i<2; i++) {
+               out.writeByte(7);
+               out.writeShort(valueArrayClass);
+            }
+            out.writeShort(program.depth(instruction));
+            for (int i=0; i<program.depth(instruction); i++) {
+               out.writeByte(7);
+               out.writeShort(valueClass);
+            }
+         }
+         return bytes.toByteArray();
+      }
+   }
+
+   private static final class ConstantPool {
+      private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      private final DataOutputStream out = new DataOutputStream(bytes);
+      private final Map<String, Integer> entries = new HashMap<>();
+      private int count = 1;
+
+      private int utf8(String value) {
+         return entry("U"+value, () -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+         });
+      }
+
+      private int classInfo(String name) {
+         int nameIndex = utf8(name);
+         return entry("C"+name, () -> {
+            out.writeByte(7);
+            out.writeShort(nameIndex);
+         });
+      }
+
+      private int methodReference(String owner, String name, String descriptor) {
+         int ownerIndex = classInfo(owner);
+         int nameIndex = utf8(name);
+         int descriptorIndex = utf8(descriptor);
+         int nameAndType = entry("N"+name+descriptor, () -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+         });
+         return entry("M"+owner+"."+name+descriptor, () -> {
+            out.writeByte(10);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+         });
+      }
+
+      private int entry(String key, Entry entry) {
+         Integer index = entries.get(key);
+         if (index == null) {
+            try {
+               entry.write();
+            } catch (IOException e) {
+               throw new UncheckedIOException(e);
+            }
+            index = count++;
+            entries.put(key, index);
+         }
+         return index;
+      }
+
+      private void write(DataOutputStream target) throws IOException {
+         target.writeShort(count);
+         bytes.writeTo(target);
+      }
+
+      private interface Entry {
+         void write() throws IOException;
+      }
+   }
+}
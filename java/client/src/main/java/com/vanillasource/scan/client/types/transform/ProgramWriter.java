@@ -0,0 +1,219 @@
+package com.vanillasource.scan.client.types.transform;
+
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the binary representation of a program one instruction at a time. Jumps refer to
+ * labels, which are bound to the position of the next instruction. Not thread-safe.
+ */
+public final class ProgramWriter {
+   private final int inputCount;
+   private final ByteArrayOutputStream constants = new ByteArrayOutputStream();
+   private int constantCount = 0;
+   private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+   private final List<Jump> jumps = new ArrayList<>();
+
+   public ProgramWriter(int inputCount) {
+      this.inputCount = inputCount;
+   }
+
+   public static final class Label {
+      private int position = -1;
+   }
+
+   private record Jump(int offsetPosition, Label label) {
+   }
+
+   public ProgramWriter input(int index) {
+      return instruction(Opcodes.INPUT, index);
+   }
+
+   public ProgramWriter constant(long value) {
+      constants.write(Opcodes.CONSTANT_INTEGER);
+      constants.writeBytes(ByteBuffer.allocate(8).putLong(value).array());
+      return instruction(Opcodes.CONSTANT, constantCount++);
+   }
+
+   public ProgramWriter constant(double value) {
+      constants.write(Opcodes.CONSTANT_FLOAT);
+      constants.writeBytes(ByteBuffer.allocate(8).putDouble(value).array());
+      return instruction(Opcodes.CONSTANT, constantCount++);
+   }
+
+   public ProgramWriter unit() {
+      return instruction(Opcodes.UNIT);
+   }
+
+   public ProgramWriter field(int index) {
+      return instruction(Opcodes.FIELD, index);
+   }
+
+   public ProgramWriter item() {
+      return instruction(Opcodes.ITEM);
+   }
+
+   public ProgramWriter length() {
+      return instruction(Opcodes.LENGTH);
+   }
+
+   public ProgramWriter alternative() {
+      return instruction(Opcodes.ALTERNATIVE);
+   }
+
+   public ProgramWriter content() {
+      return instruction(Opcodes.CONTENT);
+   }
+
+   public ProgramWriter struct(int fieldCount) {
+      return instruction(Opcodes.STRUCT, fieldCount);
+   }
+
+   public ProgramWriter union(int alternative) {
+      return instruction(Opcodes.UNION, alternative);
+   }
+
+   public ProgramWriter add() {
+      return instruction(Opcodes.ADD);
+   }
+
+   public ProgramWriter subtract() {
+      return instruction(Opcodes.SUBTRACT);
+   }
+
+   public ProgramWriter multiply() {
+      return instruction(Opcodes.MULTIPLY);
+   }
+
+   public ProgramWriter divide() {
+      return instruction(Opcodes.DIVIDE);
+   }
+
+   public ProgramWriter remainder() {
+      return instruction(Opcodes.REMAINDER);
+   }
+
+   public ProgramWriter negate() {
+      return instruction(Opcodes.NEGATE);
+   }
+
+   public ProgramWriter min() {
+      return instruction(Opcodes.MIN);
+   }
+
+   public ProgramWriter max() {
+      return instruction(Opcodes.MAX);
+   }
+
+   public ProgramWriter toInteger() {
+      return instruction(Opcodes.TO_INTEGER);
+   }
+
+   public ProgramWriter toFloat() {
+      return instruction(Opcodes.TO_FLOAT);
+   }
+
+   public ProgramWriter equal() {
+      return instruction(Opcodes.EQUAL);
+   }
+
+   public ProgramWriter less() {
+      return instruction(Opcodes.LESS);
+   }
+
+   public ProgramWriter lessOrEqual() {
+      return instruction(Opcodes.LESS_OR_EQUAL);
+   }
+
+   public ProgramWriter not() {
+      return instruction(Opcodes.NOT);
+   }
+
+   public ProgramWriter and() {
+      return instruction(Opcodes.AND);
+   }
+
+   public ProgramWriter or() {
+      return instruction(Opcodes.OR);
+   }
+
+   public ProgramWriter duplicate() {
+      return instruction(Opcodes.DUPLICATE);
+   }
+
+   public ProgramWriter pop() {
+      return instruction(Opcodes.POP);
+   }
+
+   public ProgramWriter jump(Label label) {
+      return jump(Opcodes.JUMP, label);
+   }
+
+   public ProgramWriter jumpIfFalse(Label label) {
+      return jump(Opcodes.JUMP_IF_FALSE, label);
+   }
+
+   public ProgramWriter returnValue() {
+      return instruction(Opcodes.RETURN);
+   }
+
+   /**
+    * Bind the label to the position of the next instruction.
+    */
+   public ProgramWriter bind(Label label) {
+      if (label.position >= 0) {
+         throw new IllegalStateException("label is already bound");
+      }
+      label.position = code.size();
+      return this;
+   }
+
+   public byte[] toByteArray() {
+      byte[] codeBytes = code.toByteArray();
+      for (Jump jump : jumps) {
+         if (jump.label().position < 0) {
+            throw new IllegalStateException("label is not bound");
+         }
+         int offset = jump.label().position - (jump.offsetPosition() + 2);
+         if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+            throw new IllegalStateException("jump is too far: "+offset);
+         }
+         codeBytes[jump.offsetPosition()] = (byte) (offset >> 8);
+         codeBytes[jump.offsetPosition() + 1] = (byte) offset;
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(3*VariableLengthInteger.MAX_LENGTH + constants.size() + codeBytes.length);
+      VariableLengthInteger.encode(inputCount, buffer);
+      VariableLengthInteger.encode(constantCount, buffer);
+      buffer.put(constants.toByteArray());
+      VariableLengthInteger.encode(codeBytes.length, buffer);
+      buffer.put(codeBytes);
+      byte[] result = new byte[buffer.position()];
+      buffer.flip().get(result);
+      return result;
+   }
+
+   private ProgramWriter jump(int opcode, Label label) {
+      code.write(opcode);
+      jumps.add(new Jump(code.size(), label));
+      code.write(0);
+      code.write(0);
+      return this;
+   }
+
+   private ProgramWriter instruction(int opcode) {
+      code.write(opcode);
+      return this;
+   }
+
+   private ProgramWriter instruction(int opcode, int operand) {
+      code.write(opcode);
+      ByteBuffer buffer = ByteBuffer.allocate(VariableLengthInteger.MAX_LENGTH);
+      VariableLengthInteger.encode(operand, buffer);
+      code.write(buffer.array(), 0, buffer.position());
+      return this;
+   }
+}
@@ -0,0 +1,74 @@
+package com.vanillasource.scan.client.types.transform;
+
+import com.vanillasource.scan.client.types.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A program that is interpreted until it is invoked a given number of times, after which it is
+ * compiled to JVM bytecode by the invoking thread. If compilation fails the program stays interpreted.
+ * Thread-safe.
+ */
+public final class Transformation {
+   private static final Logger LOGGER = LoggerFactory.getLogger(Transformation.class);
+   private final Program program;
+   private final int compileThreshold;
+   private final AtomicInteger invocations = new AtomicInteger();
+   private volatile MethodHandle compiled;
+
+   /**
+    * @param compileThreshold The number of interpreted invocations before the program is compiled,
+    *                         zero compiles it immediately.
+    */
+   public Transformation(Program program, int compileThreshold) {
+      if (compileThreshold < 0) {
+         throw new IllegalArgumentException("compile threshold can not be negative, was "+compileThreshold);
+      }
+      this.program = program;
+      this.compileThreshold = compileThreshold;
+      if (compileThreshold == 0) {
+         compile();
+      }
+   }
+
+   public Program program() {
+      return program;
+   }
+
+   public boolean isCompiled() {
+      return compiled != null;
+   }
+
+   /**
+    * Run the program on the given inputs.
+    * @throws IllegalArgumentException If the inputs do not match the program, or an operation fails.
+    */
+   public Value apply(Value... inputs) {
+      MethodHandle handle = compiled;
+      if (handle == null) {
+         if (invocations.get() < compileThreshold && invocations.incrementAndGet() == compileThreshold) {
+            compile();
+         }
+         return program.interpret(inputs);
+      }
+      program.checkInputs(inputs);
+      try {
+         return (Value) handle.invokeExact(inputs);
+      } catch (RuntimeException | Error e) {
+         throw e;
+      } catch (Throwable e) {
+         throw new IllegalStateException("compiled program threw checked exception", e);
+      }
+   }
+
+   private void compile() {
+      try {
+         compiled = ProgramCompiler.compile(program);
+      } catch (RuntimeException | LinkageError e) {
+         LOGGER.warn("program could not be compiled, it stays interpreted", e);
+      }
+   }
+}
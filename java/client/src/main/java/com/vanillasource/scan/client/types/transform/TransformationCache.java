@@ -0,0 +1,105 @@
+package com.vanillasource.scan.client.types.transform;
+
+import com.vanillasource.util.Lock;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches transformations by the SHA-256 hash of their binary representation, so the same program
+ * received for many wirings is parsed once and shares one invocation count and compiled code.
+ * When the cache is full, the least recently used transformation is evicted, so programs of
+ * removed wirings fall out of the cache, and their compiled classes can be unloaded. Thread-safe.
+ */
+public final class TransformationCache {
+   public static final int DEFAULT_COMPILE_THRESHOLD = 1000;
+   private final int maximumSize;
+   private final int compileThreshold;
+   private final Lock lock = new Lock();
+   private final Map<String, Transformation> transformations;
+   private final LongAdder hits = new LongAdder();
+   private final LongAdder misses = new LongAdder();
+   private final LongAdder evictions = new LongAdder();
+
+   public TransformationCache(int maximumSize) {
+      this(maximumSize, DEFAULT_COMPILE_THRESHOLD);
+   }
+
+   public TransformationCache(int maximumSize, int compileThreshold) {
+      if (maximumSize <= 0) {
+         throw new IllegalArgumentException("maximum size must be positive, was "+maximumSize);
+      }
+      if (compileThreshold < 0) {
+         throw new IllegalArgumentException("compile threshold can not be negative, was "+compileThreshold);
+      }
+      this.maximumSize = maximumSize;
+      this.compileThreshold = compileThreshold;
+      this.transformations = new LinkedHashMap<>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, Transformation> eldest) {
+            if (size() > TransformationCache.this.maximumSize) {
+               evictions.increment();
+               return true;
+            }
+            return false;
+         }
+      };
+   }
+
+   /**
+    * Get the transformation for the program in the remaining bytes of the buffer, parsing it
+    * if it is not cached. The position of the buffer is not changed.
+    * @throws IllegalArgumentException If the program is not valid.
+    */
+   public Transformation get(ByteBuffer program) {
+      String hash = hash(program);
+      Transformation cached = lock.synchronize(() -> transformations.get(hash));
+      if (cached != null) {
+         hits.increment();
+         return cached;
+      }
+      misses.increment();
+      // Parsed outside the lock, if another thread parsed the same program meanwhile, that one is kept
+      Transformation transformation = new Transformation(Program.parse(program), compileThreshold);
+      return lock.synchronize(() -> transformations.computeIfAbsent(hash, key -> transformation));
+   }
+
+   /**
+    * Remove the transformation for the given program, if it is cached.
+    */
+   public void remove(ByteBuffer program) {
+      String hash = hash(program);
+      lock.synchronize(() -> transformations.remove(hash));
+   }
+
+   public int size() {
+      return lock.synchronize(transformations::size);
+   }
+
+   public long hits() {
+      return hits.sum();
+   }
+
+   public long misses() {
+      return misses.sum();
+   }
+
+   public long evictions() {
+      return evictions.sum();
+   }
+
+   private static String hash(ByteBuffer program) {
+      try {
+         MessageDigest digest = MessageDigest.getInstance("SHA-256");
+         digest.update(program.duplicate());
+         return HexFormat.of().formatHex(digest.digest());
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException("SHA-256 is not available", e);
+      }
+   }
+}
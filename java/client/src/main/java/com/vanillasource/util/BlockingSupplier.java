@@ -5,5 +5,10 @@ import java.util.function.Supplier;
 public interface BlockingSupplier<T> extends Supplier<T> {
    void notifyTry();
 
+   /**
+    * Like {@link #notifyTry()}, but wake only the given thread, if it is waiting.
+    */
+   void notifyTry(Thread waiter);
+
    T get();
 }
@@ -0,0 +1,118 @@
+package com.vanillasource.util;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates reference counted buffers from pools of direct buffers, one pool for each
+ * power of two size between the minimum and maximum size. Larger buffers are not pooled,
+ * they are allocated on the heap.
+ *
+ * If leak tracking is enabled, the allocation site of each buffer is remembered until it is
+ * released, so tests can check that all buffers were released with {@link #checkNoLeaks()}.
+ */
+public final class ByteBufferAllocator {
+   /**
+    * A shared read-only buffer without content.
+    */
+   public static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+   public static final int DEFAULT_MIN_SIZE = 64;
+   public static final int DEFAULT_MAX_SIZE = 64*1024;
+   /**
+    * Allocates all buffers on the heap, without pooling.
+    */
+   public static final ByteBufferAllocator UNPOOLED = new ByteBufferAllocator(1, 0, false);
+   private final int minSizeShift;
+   private final ByteBufferPool[] pools;
+   private final AtomicLong outstanding = new AtomicLong();
+   private final Map<PooledByteBuffer, Throwable> allocationSites;
+
+   public ByteBufferAllocator() {
+      this(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, false);
+   }
+
+   /**
+    * @param minSize The smallest pooled size, a power of two.
+    * @param maxSize The largest pooled size, a power of two, or 0 to pool nothing.
+    * @param trackLeaks Whether to remember allocation sites for {@link #checkNoLeaks()}.
+    */
+   public ByteBufferAllocator(int minSize, int maxSize, boolean trackLeaks) {
+      if (Integer.bitCount(minSize) != 1 || (maxSize != 0 && (Integer.bitCount(maxSize) != 1 || maxSize < minSize))) {
+         throw new IllegalArgumentException("sizes must be powers of two, and min must not be over max, was "+minSize+" and "+maxSize);
+      }
+      this.minSizeShift = Integer.numberOfTrailingZeros(minSize);
+      int classCount = maxSize == 0 ? 0 : Integer.numberOfTrailingZeros(maxSize) - minSizeShift + 1;
+      this.pools = new ByteBufferPool[classCount];
+      for (int i=0; i<classCount; i++) {
+         pools[i] = new ByteBufferPool(minSize << i);
+      }
+      this.allocationSites = trackLeaks ? new ConcurrentHashMap<>() : null;
+   }
+
+   /**
+    * Allocate a buffer of the given size. Its position is zero and its limit is the size.
+    */
+   public PooledByteBuffer allocate(int size) {
+      if (size < 0) {
+         throw new IllegalArgumentException("size can not be negative, was "+size);
+      }
+      int sizeClass = sizeClass(size);
+      PooledByteBuffer result;
+      if (sizeClass < pools.length) {
+         ByteBufferPool pool = pools[sizeClass];
+         result = new PooledByteBuffer(this, pool, pool.acquire().limit(size));
+      } else {
+         result = new PooledByteBuffer(this, null, ByteBuffer.allocate(size));
+      }
+      outstanding.incrementAndGet();
+      if (allocationSites != null) {
+         allocationSites.put(result, new Throwable("buffer of "+size+" bytes allocated here"));
+      }
+      return result;
+   }
+
+   /**
+    * Allocate a buffer with a copy of the remaining bytes of the given buffer, ready to be read.
+    * The position of the source is not changed.
+    */
+   public PooledByteBuffer copyOf(ByteBuffer source) {
+      PooledByteBuffer result = allocate(source.remaining());
+      result.buffer().put(source.duplicate()).flip();
+      return result;
+   }
+
+   /**
+    * The number of buffers allocated and not yet released.
+    */
+   public long outstandingCount() {
+      return outstanding.get();
+   }
+
+   /**
+    * @throws IllegalStateException If some buffers were not released. If leak tracking is
+    * enabled the cause is the allocation site of one of them.
+    */
+   public void checkNoLeaks() {
+      long count = outstanding.get();
+      if (count != 0) {
+         Throwable site = allocationSites == null ? null : allocationSites.values().stream().findFirst().orElse(null);
+         throw new IllegalStateException(count+" buffers were not released", site);
+      }
+   }
+
+   void freed(PooledByteBuffer buffer) {
+      outstanding.decrementAndGet();
+      if (allocationSites != null) {
+         allocationSites.remove(buffer);
+      }
+   }
+
+   private int sizeClass(int size) {
+      if (size <= 1 << minSizeShift) {
+         return 0;
+      }
+      return 32 - Integer.numberOfLeadingZeros(size - 1) - minSizeShift;
+   }
+}
@@ -0,0 +1,34 @@
+package com.vanillasource.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A pool of direct buffers of the same size. Buffers must be released only
+ * after nobody references them anymore.
+ */
+public final class ByteBufferPool {
+   private final int bufferSize;
+   private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+   public ByteBufferPool(int bufferSize) {
+      this.bufferSize = bufferSize;
+   }
+
+   public int bufferSize() {
+      return bufferSize;
+   }
+
+   public ByteBuffer acquire() {
+      ByteBuffer buffer = buffers.poll();
+      if (buffer == null) {
+         return ByteBuffer.allocateDirect(bufferSize);
+      }
+      return buffer.clear();
+   }
+
+   public void release(ByteBuffer buffer) {
+      buffers.offer(buffer);
+   }
+}
@@ -1,5 +1,7 @@
 package com.vanillasource.util;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -24,26 +26,57 @@ public class Lock {
       });
    }
 
+   /**
+    * Whether there are threads waiting to acquire this lock.
+    */
+   public boolean isContended() {
+      return lock.hasQueuedThreads();
+   }
+
+   /**
+    * A supplier that waits on this lock until the given logic returns a value. Each waiting thread
+    * has its own condition, so a notification meant for one thread wakes only that thread.
+    */
    public <T> BlockingSupplier<T> blockingSupplier(Supplier<Optional<T>> blockingSupplier) {
       return new BlockingSupplier<T>() {
-         private final Condition itemMaybeAvailable = lock.newCondition();
-         
+         private final Map<Thread, Condition> waiters = new HashMap<>();
+
          @Override
          public void notifyTry() {
-            synchronize(itemMaybeAvailable::signalAll);
+            synchronize(() -> waiters.values().forEach(Condition::signal));
+         }
+
+         @Override
+         public void notifyTry(Thread waiter) {
+            synchronize(() -> {
+               Condition itemMaybeAvailable = waiters.get(waiter);
+               if (itemMaybeAvailable != null) {
+                  itemMaybeAvailable.signal();
+               }
+            });
          }
 
          @Override
          public T get() {
             return synchronize(() -> {
                Optional<T> result = blockingSupplier.get();
-               while (result.isEmpty()) {
-                  try {
-                     itemMaybeAvailable.await();
-                  } catch (InterruptedException e) {
-                     throw new RuntimeException(e);
+               if (result.isPresent()) {
+                  return result.get();
+               }
+               Thread waiter = Thread.currentThread();
+               Condition itemMaybeAvailable = lock.newCondition();
+               waiters.put(waiter, itemMaybeAvailable);
+               try {
+                  while (result.isEmpty()) {
+                     try {
+                        itemMaybeAvailable.await();
+                     } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                     }
+                     result = blockingSupplier.get();
                   }
-                  result = blockingSupplier.get();
+               } finally {
+                  waiters.remove(waiter);
                }
                return result.orElseThrow();
             });
@@ -0,0 +1,71 @@
+package com.vanillasource.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted buffer from a {@link ByteBufferAllocator}. It starts with one
+ * reference owned by whoever allocated it. Everybody who keeps the buffer beyond the
+ * call it was given in must retain it, and release it when done. When the last
+ * reference is released the buffer goes back to the pool and must not be used anymore.
+ */
+public final class PooledByteBuffer {
+   private final ByteBufferAllocator allocator;
+   private final ByteBufferPool pool;
+   private final ByteBuffer buffer;
+   private final AtomicInteger references = new AtomicInteger(1);
+
+   PooledByteBuffer(ByteBufferAllocator allocator, ByteBufferPool pool, ByteBuffer buffer) {
+      this.allocator = allocator;
+      this.pool = pool;
+      this.buffer = buffer;
+   }
+
+   /**
+    * The buffer itself, with the limit set to the allocated size.
+    * @throws IllegalStateException If this buffer was already released.
+    */
+   public ByteBuffer buffer() {
+      if (references.get() <= 0) {
+         throw new IllegalStateException("buffer is already released");
+      }
+      return buffer;
+   }
+
+   /**
+    * Add a reference to this buffer.
+    * @throws IllegalStateException If this buffer was already released.
+    */
+   public PooledByteBuffer retain() {
+      int count;
+      do {
+         count = references.get();
+         if (count <= 0) {
+            throw new IllegalStateException("buffer is already released");
+         }
+      } while (!references.compareAndSet(count, count + 1));
+      return this;
+   }
+
+   /**
+    * Remove a reference, and give the buffer back to the pool if it was the last one.
+    * @throws IllegalStateException If this buffer was already released.
+    */
+   public void release() {
+      int count = references.decrementAndGet();
+      if (count < 0) {
+         references.incrementAndGet();
+         throw new IllegalStateException("buffer is already released");
+      }
+      if (count == 0) {
+         allocator.freed(this);
+         if (pool != null) {
+            pool.release(buffer);
+         }
+      }
+   }
+
+   public boolean isReleased() {
+      return references.get() <= 0;
+   }
+}
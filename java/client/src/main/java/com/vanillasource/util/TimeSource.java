@@ -4,4 +4,20 @@ public interface TimeSource {
    long currentTimeMillis();
 
    void sleep(long millis);
+
+   TimeSource SYSTEM = new TimeSource() {
+      @Override
+      public long currentTimeMillis() {
+         return System.currentTimeMillis();
+      }
+
+      @Override
+      public void sleep(long millis) {
+         try {
+            Thread.sleep(millis);
+         } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+         }
+      }
+   };
 }
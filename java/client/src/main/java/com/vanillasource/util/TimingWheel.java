@@ -0,0 +1,148 @@
+package com.vanillasource.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel. Timers are kept in doubly linked lists in slots of the wheel,
+ * so scheduling, rescheduling and cancelling are all constant time. Deadlines are rounded
+ * up to whole ticks, so timers never fire early, but may fire up to one tick late.
+ * Not thread-safe.
+ */
+public final class TimingWheel<T> {
+   private final TimeSource timeSource;
+   private final long tickMillis;
+   private final Timer<T>[] slots;
+   private final int mask;
+   private long lastTick;
+   private int size = 0;
+
+   /**
+    * @param slotCount Number of slots, must be a power of two.
+    */
+   @SuppressWarnings("unchecked")
+   public TimingWheel(TimeSource timeSource, long tickMillis, int slotCount) {
+      if (tickMillis <= 0) {
+         throw new IllegalArgumentException("tick must be positive, was "+tickMillis);
+      }
+      if (slotCount <= 0 || Integer.bitCount(slotCount) != 1) {
+         throw new IllegalArgumentException("slot count must be a power of two, was "+slotCount);
+      }
+      this.timeSource = timeSource;
+      this.tickMillis = tickMillis;
+      this.slots = (Timer<T>[]) new Timer[slotCount];
+      this.mask = slotCount - 1;
+      this.lastTick = timeSource.currentTimeMillis() / tickMillis;
+   }
+
+   /**
+    * Create a timer for the given item. It is not scheduled initially.
+    */
+   public Timer<T> newTimer(T item) {
+      return new Timer<>(item);
+   }
+
+   /**
+    * Schedule the timer to fire at the given time. If it is already scheduled, it is
+    * moved to the new deadline. Deadlines in the past fire on the next advance.
+    */
+   public void schedule(Timer<T> timer, long deadlineMillis) {
+      cancel(timer);
+      long deadlineTick = Math.max(lastTick + 1, ceilDiv(deadlineMillis, tickMillis));
+      timer.deadlineTick = deadlineTick;
+      link(timer, (int) (deadlineTick & mask));
+      size++;
+   }
+
+   /**
+    * Remove the timer from the wheel if it was scheduled.
+    */
+   public void cancel(Timer<T> timer) {
+      if (timer.slot >= 0) {
+         unlink(timer);
+         size--;
+      }
+   }
+
+   /**
+    * The number of timers scheduled.
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * Fire all timers that are due until now. Timers are removed from the wheel before
+    * their items are given to the consumer, so the consumer may schedule them again.
+    */
+   public void advance(Consumer<T> expired) {
+      long currentTick = timeSource.currentTimeMillis() / tickMillis;
+      if (currentTick <= lastTick) {
+         return;
+      }
+      long slotsToVisit = Math.min(currentTick - lastTick, slots.length);
+      List<Timer<T>> due = new ArrayList<>();
+      for (long tick = lastTick + 1; tick <= lastTick + slotsToVisit; tick++) {
+         Timer<T> timer = slots[(int) (tick & mask)];
+         while (timer != null) {
+            Timer<T> next = timer.next;
+            if (timer.deadlineTick <= currentTick) {
+               unlink(timer);
+               size--;
+               due.add(timer);
+            }
+            timer = next;
+         }
+      }
+      lastTick = currentTick;
+      due.forEach(timer -> expired.accept(timer.item));
+   }
+
+   private void link(Timer<T> timer, int slot) {
+      timer.slot = slot;
+      timer.previous = null;
+      timer.next = slots[slot];
+      if (timer.next != null) {
+         timer.next.previous = timer;
+      }
+      slots[slot] = timer;
+   }
+
+   private void unlink(Timer<T> timer) {
+      if (timer.previous == null) {
+         slots[timer.slot] = timer.next;
+      } else {
+         timer.previous.next = timer.next;
+      }
+      if (timer.next != null) {
+         timer.next.previous = timer.previous;
+      }
+      timer.previous = null;
+      timer.next = null;
+      timer.slot = -1;
+   }
+
+   private static long ceilDiv(long value, long divisor) {
+      return value / divisor + (value % divisor > 0 ? 1 : 0);
+   }
+
+   /**
+    * A reusable timer of an item.
+    */
+   public static final class Timer<T> {
+      private final T item;
+      private Timer<T> previous;
+      private Timer<T> next;
+      private long deadlineTick;
+      private int slot = -1;
+
+      private Timer(T item) {
+         this.item = item;
+      }
+
+      public boolean isScheduled() {
+         return slot >= 0;
+      }
+   }
+}
@@ -0,0 +1,222 @@
+package com.vanillasource.scan.client.device;
+
+import com.vanillasource.scan.client.types.ArrayValue;
+import com.vanillasource.scan.client.types.IntegerArrayValue;
+import com.vanillasource.scan.client.types.IntegerValue;
+import com.vanillasource.scan.client.types.StructValue;
+import com.vanillasource.scan.client.types.TypeDefinitions;
+import com.vanillasource.scan.client.types.UnionValue;
+import com.vanillasource.scan.client.types.UnitValue;
+import com.vanillasource.scan.client.types.Value;
+import com.vanillasource.scan.client.types.codec.CompiledValueCodec;
+import com.vanillasource.scan.client.types.codec.ValueCodec;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+@Test
+public class CapabilitiesCacheTests {
+   private static final ValueCodec CODEC = CompiledValueCodec.compile(TypeDefinitions.parse("""
+      Modality = Struct(name: String, modalityURI: String, readable: Boolean, writable: Boolean,
+         minimumSetWait: VariableLengthInteger(8), stateType: String, intentType: String)
+      Capabilities = Struct(
+         protocolVersion: Struct(major: Byte, minor: Byte),
+         deviceDefinition: Struct(deviceName: String, deviceURI: String),
+         typesDefinitions: DynamicArray(Byte),
+         modalities: DynamicArray(Modality))
+      """).type("Capabilities"));
+   private CapabilitiesCache cache;
+
+   public void testCapabilitiesAreParsed() {
+      Capabilities capabilities = Capabilities.parse(capabilities("Lamp"));
+
+      assertEquals(capabilities.protocolVersion(), new Capabilities.ProtocolVersion(1, 1));
+      assertEquals(capabilities.deviceDefinition(), new Capabilities.DeviceDefinition("Lamp", "https://example.com/lamp"));
+      assertEquals(capabilities.modalities().size(), 1);
+      Capabilities.Modality modality = capabilities.modalities().get(0);
+      assertEquals(modality.name(), "Brightness");
+      assertTrue(modality.readable());
+      assertFalse(modality.writable());
+      assertEquals(modality.minimumSetWaitMillis(), 250);
+      assertSame(modality.stateType(), capabilities.typeDefinitions().type("Level"));
+      assertSame(modality.intentType(), capabilities.typeDefinitions().resolve("Option(Level)"));
+   }
+
+   public void testModalityCodecsAreCompiled() {
+      Capabilities.Modality modality = Capabilities.parse(capabilities("Lamp")).modalities().get(0);
+      ByteBuffer buffer = ByteBuffer.allocate(16);
+
+      modality.stateCodec().encode(new IntegerValue(42), buffer);
+      assertEquals(modality.stateCodec().decode(buffer.flip()), new IntegerValue(42));
+   }
+
+   public void testInvalidCapabilitiesAreRejected() {
+      ByteBuffer valid = capabilities("Lamp");
+      assertThrows(IllegalArgumentException.class, () -> Capabilities.parse(valid.slice(0, valid.remaining()-1)));
+      ByteBuffer trailing = ByteBuffer.allocate(valid.remaining()+1).put(valid.duplicate()).put((byte) 0).flip();
+      assertThrows(IllegalArgumentException.class, () -> Capabilities.parse(trailing));
+      assertThrows(IllegalArgumentException.class, () -> Capabilities.parse(capabilities("Lamp", "Level = Byte", "Missing")));
+   }
+
+   public void testSameCapabilitiesAreParsedOnce() {
+      Capabilities first = cache.get(capabilities("Lamp"));
+      Capabilities second = cache.get(capabilities("Lamp"));
+
+      assertSame(first, second);
+      assertEquals(cache.hits(), 1);
+      assertEquals(cache.misses(), 1);
+   }
+
+   public void testBufferPositionIsNotChanged() {
+      ByteBuffer bytes = capabilities("Lamp");
+      cache.get(bytes);
+      cache.get(bytes);
+      assertEquals(bytes.position(), 0);
+   }
+
+   public void testLeastRecentlyUsedIsEvicted() {
+      Capabilities lamp = cache.get(capabilities("Lamp"));
+      cache.get(capabilities("Switch"));
+      cache.get(capabilities("Lamp"));
+      cache.get(capabilities("Sensor"));
+
+      assertEquals(cache.size(), 2);
+      assertEquals(cache.evictions(), 1);
+      assertSame(cache.get(capabilities("Lamp")), lamp);
+   }
+
+   public void testInvalidCapabilitiesAreNotCached() {
+      assertThrows(IllegalArgumentException.class, () -> cache.get(ByteBuffer.wrap(new byte[] {1})));
+      assertEquals(cache.size(), 0);
+   }
+
+   public void testStoredCapabilitiesAreParsedAfterRestart() throws Exception {
+      Path file = Files.createTempFile("scan-capabilities-test", ".store");
+      try {
+         CapabilitiesCache before = new CapabilitiesCache(10, CapabilitiesStore.open(file, 4096));
+         before.get(capabilities("Lamp"));
+         before.get(capabilities("Switch"));
+         before.get(capabilities("Lamp"));
+
+         CapabilitiesCache after = new CapabilitiesCache(10, CapabilitiesStore.open(file, 4096));
+         assertEquals(after.warmUp(), 2);
+         assertEquals(after.get(capabilities("Switch")).deviceDefinition().deviceName(), "Switch");
+         assertEquals(after.misses(), 0);
+         assertEquals(after.warmUp(), 0);
+      } finally {
+         Files.deleteIfExists(file);
+      }
+   }
+
+   public void testFullStoreStillCaches() throws Exception {
+      Path file = Files.createTempFile("scan-capabilities-test", ".store");
+      try {
+         CapabilitiesStore store = CapabilitiesStore.open(file, 64);
+         CapabilitiesCache cache = new CapabilitiesCache(10, store);
+
+         assertNotNull(cache.get(capabilities("Lamp")));
+         assertEquals(store.capabilities().size(), 0);
+      } finally {
+         Files.deleteIfExists(file);
+      }
+   }
+
+   public void testStoresAreFlushedTogether() throws Exception {
+      Path file = Files.createTempFile("scan-capabilities-test", ".store");
+      try {
+         List<Long> delays = new ArrayList<>();
+         List<Runnable> flushes = new ArrayList<>();
+         CapabilitiesCache cache = new CapabilitiesCache(10, CapabilitiesStore.open(file, 4096, delayMillis -> task -> {
+            delays.add(delayMillis);
+            flushes.add(task);
+         }));
+         cache.get(capabilities("Lamp"));
+         cache.get(capabilities("Switch"));
+         flushes.get(0).run();
+         cache.get(capabilities("Sensor"));
+
+         assertEquals(delays, List.of(CapabilitiesStore.FLUSH_DELAY_MILLIS, CapabilitiesStore.FLUSH_DELAY_MILLIS));
+      } finally {
+         Files.deleteIfExists(file);
+      }
+   }
+
+   public void testFullStoreKeepsNewestRecords() throws Exception {
+      Path file = Files.createTempFile("scan-capabilities-test", ".store");
+      try {
+         int recordLength = Integer.BYTES + CapabilitiesStore.HASH_LENGTH + capabilities("Dev1").remaining();
+         CapabilitiesStore store = CapabilitiesStore.open(file, 3*recordLength);
+         for (String name : List.of("Dev1", "Dev2", "Dev3", "Dev4")) {
+            ByteBuffer bytes = capabilities(name);
+            assertTrue(store.store(CapabilitiesCache.hash(bytes), bytes));
+         }
+
+         assertEquals(deviceNames(store), List.of("Dev3", "Dev4"));
+         assertEquals(deviceNames(CapabilitiesStore.open(file, 3*recordLength)), List.of("Dev3", "Dev4"));
+      } finally {
+         Files.deleteIfExists(file);
+      }
+   }
+
+   public void testCorruptedStoreRecordEndsStore() throws Exception {
+      Path file = Files.createTempFile("scan-capabilities-test", ".store");
+      try {
+         CapabilitiesStore store = CapabilitiesStore.open(file, 4096);
+         ByteBuffer lamp = capabilities("Lamp");
+         store.store(CapabilitiesCache.hash(lamp), lamp);
+         byte[] content = Files.readAllBytes(file);
+         content[Integer.BYTES + CapabilitiesStore.HASH_LENGTH + 10] ^= 1;
+         Files.write(file, content);
+
+         assertEquals(CapabilitiesStore.open(file, 4096).capabilities().size(), 0);
+      } finally {
+         Files.deleteIfExists(file);
+      }
+   }
+
+   private static List<String> deviceNames(CapabilitiesStore store) {
+      return store.capabilities().stream()
+         .map(bytes -> Capabilities.parse(bytes).deviceDefinition().deviceName())
+         .toList();
+   }
+
+   private static ByteBuffer capabilities(String deviceName) {
+      return capabilities(deviceName, "Level = Byte {0 to 100}", "Level");
+   }
+
+   private static ByteBuffer capabilities(String deviceName, String types, String stateType) {
+      Value modality = new StructValue(string("Brightness"), string("https://example.com/brightness"),
+            new UnionValue(1, UnitValue.INSTANCE), new UnionValue(0, UnitValue.INSTANCE), new IntegerValue(250),
+            string(stateType), string("Option("+stateType+")"));
+      Value capabilities = new StructValue(
+            new StructValue(new IntegerValue(1), new IntegerValue(1)),
+            new StructValue(string(deviceName), string("https://example.com/"+deviceName.toLowerCase())),
+            string(types),
+            new ArrayValue(new Value[] {modality}));
+      ByteBuffer buffer = ByteBuffer.allocate(1024);
+      CODEC.encode(capabilities, buffer);
+      return buffer.flip();
+   }
+
+   private static Value string(String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      long[] items = new long[bytes.length];
+      for (int i = 0; i < bytes.length; i++) {
+         items[i] = bytes[i] & 0xFF;
+      }
+      return new IntegerArrayValue(items);
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      cache = new CapabilitiesCache(2);
+   }
+}
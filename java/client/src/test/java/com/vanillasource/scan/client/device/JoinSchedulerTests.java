@@ -0,0 +1,163 @@
+package com.vanillasource.scan.client.device;
+
+import com.vanillasource.util.TimeSource;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+@Test
+public final class JoinSchedulerTests {
+   private TimeSource timeSource;
+   private List<String> sent;
+   private JoinScheduler<String, Integer> scheduler;
+
+   public void testValueIsSentImmediatelyAfterJoin() {
+      scheduler.join("a", 100);
+
+      scheduler.update("a", 1);
+
+      assertEquals(sent, List.of("a=1"));
+   }
+
+   public void testCurrentValueIsSentOnJoin() {
+      scheduler.join("a", JoinScheduler.INFINITE_WAIT);
+      scheduler.update("a", 1);
+      at(1000);
+
+      scheduler.join("a", 100);
+
+      assertEquals(sent, List.of("a=1", "a=1"));
+   }
+
+   public void testValuesAreNotSentMoreOftenThanWait() {
+      scheduler.join("a", 100);
+      scheduler.update("a", 1);
+
+      at(50);
+      scheduler.update("a", 2);
+      scheduler.advance();
+
+      assertEquals(sent, List.of("a=1"));
+   }
+
+   public void testNewestValueIsSentOnceWhenWindowOpens() {
+      scheduler.join("a", 100);
+      scheduler.update("a", 1);
+      at(30);
+      scheduler.update("a", 2);
+      at(60);
+      scheduler.update("a", 3);
+
+      at(100);
+      scheduler.advance();
+      at(500);
+      scheduler.advance();
+
+      assertEquals(sent, List.of("a=1", "a=3"));
+   }
+
+   public void testValueAfterWindowOpenedIsSentImmediately() {
+      scheduler.join("a", 100);
+      scheduler.update("a", 1);
+
+      at(150);
+      scheduler.update("a", 2);
+
+      assertEquals(sent, List.of("a=1", "a=2"));
+   }
+
+   public void testRejoinWithShorterWaitReschedules() {
+      scheduler.join("a", 1000);
+      scheduler.update("a", 1);
+      at(10);
+      scheduler.update("a", 2);
+
+      scheduler.join("a", 50);
+      at(50);
+      scheduler.advance();
+
+      assertEquals(sent, List.of("a=1", "a=2"));
+   }
+
+   public void testRejoinWithLongerWaitDelaysPendingValue() {
+      scheduler.join("a", 50);
+      scheduler.update("a", 1);
+      at(10);
+      scheduler.update("a", 2);
+
+      scheduler.join("a", 1000);
+      at(500);
+      scheduler.advance();
+
+      assertEquals(sent, List.of("a=1"));
+   }
+
+   public void testInfiniteWaitSendsCurrentValueOnlyOnce() {
+      scheduler.join("a", JoinScheduler.INFINITE_WAIT);
+      scheduler.update("a", 1);
+      scheduler.update("a", 2);
+      at(1000000);
+      scheduler.advance();
+
+      assertEquals(sent, List.of("a=1"));
+   }
+
+   public void testRepeatedInfiniteWaitJoinPullsAgain() {
+      scheduler.join("a", JoinScheduler.INFINITE_WAIT);
+      scheduler.update("a", 1);
+      scheduler.update("a", 2);
+
+      scheduler.join("a", JoinScheduler.INFINITE_WAIT);
+
+      assertEquals(sent, List.of("a=1", "a=2"));
+   }
+
+   public void testUnjoinedValuesAreIgnored() {
+      scheduler.update("a", 1);
+
+      assertTrue(sent.isEmpty());
+      assertEquals(scheduler.joinCount(), 0);
+   }
+
+   public void testLeaveCancelsPendingValue() {
+      scheduler.join("a", 100);
+      scheduler.update("a", 1);
+      scheduler.update("a", 2);
+
+      scheduler.leave("a");
+      at(200);
+      scheduler.advance();
+
+      assertEquals(sent, List.of("a=1"));
+   }
+
+   public void testManyJoinsAreSentIndependently() {
+      for (int i=0; i<10000; i++) {
+         scheduler.join("k"+i, 10 + i % 100);
+         scheduler.update("k"+i, 0);
+         scheduler.update("k"+i, 1);
+      }
+      sent.clear();
+
+      at(200);
+      scheduler.advance();
+
+      assertEquals(sent.size(), 10000);
+   }
+
+   private void at(long time) {
+      when(timeSource.currentTimeMillis()).thenReturn(time);
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      timeSource = mock(TimeSource.class);
+      sent = new ArrayList<>();
+      scheduler = new JoinScheduler<>(timeSource, (key, value) -> sent.add(key+"="+value), 10, 64);
+   }
+}
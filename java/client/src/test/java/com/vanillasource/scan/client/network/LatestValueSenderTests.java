@@ -0,0 +1,152 @@
+package com.vanillasource.scan.client.network;
+
+import com.vanillasource.util.ByteBufferAllocator;
+import org.mockito.InOrder;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+@Test
+public final class LatestValueSenderTests {
+   private Peer peer;
+   private List<Runnable> tasks;
+   private LatestValueSender<String> sender;
+
+   public void testMessageIsSentByExecutor() {
+      sender.send("a", message(1));
+
+      verify(peer, never()).receive(any());
+      runTasks();
+      verify(peer).receive(message(1));
+   }
+
+   public void testNewerMessageReplacesPendingOne() {
+      sender.send("a", message(1));
+      sender.send("a", message(2));
+
+      runTasks();
+
+      verify(peer, never()).receive(message(1));
+      verify(peer).receive(message(2));
+      assertEquals(sender.replacedCount(), 1);
+   }
+
+   public void testKeysAreSentInOrderTheyBecamePending() {
+      sender.send("a", message(1));
+      sender.send("b", message(2));
+      sender.send("a", message(3));
+
+      runTasks();
+
+      InOrder inOrder = inOrder(peer);
+      inOrder.verify(peer).receive(message(3));
+      inOrder.verify(peer).receive(message(2));
+   }
+
+   public void testKeyIsSentAgainAfterItWasSent() {
+      sender.send("a", message(1));
+      runTasks();
+      sender.send("a", message(2));
+      runTasks();
+
+      verify(peer).receive(message(1));
+      verify(peer).receive(message(2));
+      assertEquals(sender.sentCount(), 2);
+   }
+
+   public void testMessageIsCopied() {
+      ByteBuffer message = message(1);
+      sender.send("a", message);
+      message.put(0, (byte) 2);
+
+      runTasks();
+
+      verify(peer).receive(message(1));
+   }
+
+   public void testCloseDropsPendingMessages() {
+      sender.send("a", message(1));
+      sender.send("b", message(2));
+
+      sender.close();
+      runTasks();
+
+      verify(peer, never()).receive(any());
+      assertEquals(sender.droppedCount(), 2);
+   }
+
+   public void testSlowConsumerGetsFreshestMessagesWithBoundedPending() throws Exception {
+      CountDownLatch firstSendStarted = new CountDownLatch(1);
+      CountDownLatch consumerReady = new CountDownLatch(1);
+      List<ByteBuffer> received = new ArrayList<>();
+      Peer slowPeer = mock(Peer.class);
+      doAnswer(invocation -> {
+         firstSendStarted.countDown();
+         consumerReady.await();
+         synchronized (received) {
+            received.add((ByteBuffer) invocation.getArguments()[0]);
+         }
+         return null;
+      }).when(slowPeer).receive(any());
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+         LatestValueSender<String> slowSender = new LatestValueSender<>(slowPeer, executor);
+         slowSender.send("a", message(0));
+         firstSendStarted.await();
+         for (int i=1; i<=1000; i++) {
+            slowSender.send("a", message(i));
+            slowSender.send("b", message(-i));
+         }
+         assertEquals(slowSender.pendingCount(), 2);
+
+         consumerReady.countDown();
+         executor.shutdown();
+         executor.awaitTermination(5, TimeUnit.SECONDS);
+
+         assertEquals(received, List.of(message(0), message(1000), message(-1000)));
+         assertEquals(slowSender.replacedCount(), 1998);
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   public void testPooledCopiesAreReleasedWhenSentReplacedOrDropped() {
+      ByteBufferAllocator allocator = new ByteBufferAllocator(16, 1024, true);
+      LatestValueSender<String> pooledSender = new LatestValueSender<>(peer, tasks::add, allocator);
+      pooledSender.send("a", message(1));
+      pooledSender.send("a", message(2));
+      runTasks();
+      pooledSender.send("b", message(3));
+
+      pooledSender.close();
+
+      allocator.checkNoLeaks();
+   }
+
+   private void runTasks() {
+      while (!tasks.isEmpty()) {
+         tasks.remove(0).run();
+      }
+   }
+
+   private static ByteBuffer message(int value) {
+      return ByteBuffer.allocate(4).putInt(0, value);
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      peer = mock(Peer.class);
+      tasks = new ArrayList<>();
+      sender = new LatestValueSender<>(peer, tasks::add);
+   }
+}
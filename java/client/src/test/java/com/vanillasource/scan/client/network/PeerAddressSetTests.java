@@ -0,0 +1,41 @@
+package com.vanillasource.scan.client.network;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class PeerAddressSetTests {
+   private PeerAddressSet set;
+
+   public void testAddedAddressIsContained() {
+      set.add(PeerAddress.create(1, 2, 3, 4));
+
+      assertTrue(set.contains(PeerAddress.create(1, 2, 3, 4)));
+      assertFalse(set.contains(PeerAddress.create(1, 2, 3, 5)));
+   }
+
+   public void testAddingSameAddressTwiceReturnsFalse() {
+      assertTrue(set.add(PeerAddress.create(1, 2, 3, 4)));
+
+      assertFalse(set.add(PeerAddress.create(1, 2, 3, 4)));
+      assertEquals(set.size(), 1);
+   }
+
+   public void testSetGrowsBeyondInitialCapacity() {
+      for (int i=0; i<1000; i++) {
+         set.add(PeerAddress.create(i, 0, 0, i));
+      }
+
+      assertEquals(set.size(), 1000);
+      for (int i=0; i<1000; i++) {
+         assertTrue(set.contains(PeerAddress.create(i, 0, 0, i)));
+      }
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      set = new PeerAddressSet(4);
+   }
+}
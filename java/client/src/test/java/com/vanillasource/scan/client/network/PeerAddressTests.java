@@ -0,0 +1,93 @@
+package com.vanillasource.scan.client.network;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class PeerAddressTests {
+   public void testAddressesWithSameKeyAreEqual() {
+      assertEquals(address(1, 2), address(1, 2));
+      assertEquals(address(1, 2).hashCode(), address(1, 2).hashCode());
+   }
+
+   public void testAddressesDifferingInLastByteAreNotEqual() {
+      assertNotEquals(address(1, 2), address(1, 3));
+   }
+
+   public void testAddressIsWrittenAsCreated() {
+      byte[] key = key(5, 6);
+      ByteBuffer buffer = ByteBuffer.allocate(PeerAddress.LENGTH);
+
+      PeerAddress.create(key).writeTo(buffer);
+
+      assertEquals(buffer.array(), key);
+      assertFalse(buffer.hasRemaining());
+   }
+
+   public void testReadAdvancesPosition() {
+      ByteBuffer buffer = ByteBuffer.allocate(2*PeerAddress.LENGTH);
+      address(1, 2).writeTo(buffer);
+      address(3, 4).writeTo(buffer);
+      buffer.flip();
+
+      assertEquals(PeerAddress.read(buffer), address(1, 2));
+      assertEquals(PeerAddress.read(buffer), address(3, 4));
+   }
+
+   public void testByteOrderOfBufferDoesNotMatter() {
+      ByteBuffer buffer = ByteBuffer.allocate(PeerAddress.LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+
+      address(1, 2).writeTo(buffer, 0);
+
+      assertEquals(buffer.array(), key(1, 2));
+      assertEquals(PeerAddress.read(buffer, 0), address(1, 2));
+   }
+
+   public void testEqualsAtComparesWithBufferContent() {
+      ByteBuffer buffer = ByteBuffer.wrap(key(1, 2));
+
+      assertTrue(address(1, 2).equalsAt(buffer, 0));
+      assertFalse(address(1, 3).equalsAt(buffer, 0));
+   }
+
+   public void testOrderingIsUnsignedLexicographic() {
+      assertTrue(address(1, 2).compareTo(address(1, 3)) < 0);
+      assertTrue(address(0xFF, 0).compareTo(address(1, 0)) > 0);
+      assertEquals(address(1, 2).compareTo(address(1, 2)), 0);
+   }
+
+   public void testLongsAreBigEndianParts() {
+      PeerAddress address = address(0x12, 0x34);
+
+      assertEquals(address.longAt(0), 0x1200000000000000L);
+      assertEquals(address.longAt(3), 0x34L);
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testKeyMustBe32Bytes() {
+      PeerAddress.create(new byte[31]);
+   }
+
+   public void testPoolReturnsSameInstanceForEqualAddresses() {
+      PeerAddressPool pool = new PeerAddressPool();
+      PeerAddress first = pool.intern(address(1, 2));
+
+      assertSame(pool.intern(address(1, 2)), first);
+      assertEquals(pool.size(), 1);
+   }
+
+   private static PeerAddress address(int first, int last) {
+      return PeerAddress.create(key(first, last));
+   }
+
+   private static byte[] key(int first, int last) {
+      byte[] key = new byte[PeerAddress.LENGTH];
+      key[0] = (byte) first;
+      key[PeerAddress.LENGTH-1] = (byte) last;
+      return key;
+   }
+}
@@ -0,0 +1,65 @@
+package com.vanillasource.scan.client.network;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class PeerAddressesTests {
+   private static final PeerAddress A = address(1);
+   private static final PeerAddress B = address(2);
+   private static final PeerAddress C = address(3);
+
+   public void testAddressesAreReturnedInOrder() {
+      PeerAddresses addresses = PeerAddresses.of(A, B, C);
+
+      assertEquals(addresses.size(), 3);
+      assertEquals(addresses.get(0), A);
+      assertEquals(addresses.get(2), C);
+   }
+
+   public void testIterationReturnsAllAddresses() {
+      List<PeerAddress> result = new ArrayList<>();
+
+      PeerAddresses.of(A, B).forEach(result::add);
+
+      assertEquals(result, List.of(A, B));
+   }
+
+   public void testContainsFindsAddress() {
+      assertTrue(PeerAddresses.of(A, B).contains(B));
+      assertFalse(PeerAddresses.of(A, B).contains(C));
+      assertFalse(PeerAddresses.EMPTY.contains(A));
+   }
+
+   public void testSubListSharesAddresses() {
+      assertEquals(PeerAddresses.of(A, B, C).subList(1, 3), PeerAddresses.of(B, C));
+   }
+
+   public void testWrittenAddressesCanBeWrapped() {
+      ByteBuffer buffer = ByteBuffer.allocate(2*PeerAddress.LENGTH);
+      PeerAddresses.of(A, B).writeTo(buffer);
+
+      assertEquals(PeerAddresses.wrap(buffer.flip()), PeerAddresses.of(A, B));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testWrappingPartialAddressFails() {
+      PeerAddresses.wrap(ByteBuffer.allocate(PeerAddress.LENGTH + 1));
+   }
+
+   @Test(expectedExceptions = IndexOutOfBoundsException.class)
+   public void testGettingOutOfRangeFails() {
+      PeerAddresses.of(A).get(1);
+   }
+
+   private static PeerAddress address(int seed) {
+      byte[] key = new byte[PeerAddress.LENGTH];
+      key[7] = (byte) seed;
+      return PeerAddress.create(key);
+   }
+}
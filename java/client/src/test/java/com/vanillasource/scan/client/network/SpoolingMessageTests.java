@@ -0,0 +1,172 @@
+package com.vanillasource.scan.client.network;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.vanillasource.scan.client.network.SpoolingMessage.DropPolicy.*;
+import static org.testng.Assert.*;
+
+@Test
+public final class SpoolingMessageTests {
+   public void testChunksAreReadInOrder() {
+      SpoolingMessage message = message(64, BLOCK);
+      message.recieve(chunk(1, 10));
+      message.recieve(chunk(2, 10));
+
+      assertEquals(message.poll(), chunk(1, 10));
+      message.consume();
+      assertEquals(message.poll(), chunk(2, 10));
+   }
+
+   public void testSameChunkIsReturnedUntilConsumed() {
+      SpoolingMessage message = message(64, BLOCK);
+      message.recieve(chunk(1, 10));
+
+      message.poll();
+
+      assertEquals(message.poll(), chunk(1, 10));
+   }
+
+   public void testNextReturnsNullAfterEndAndAllConsumed() {
+      SpoolingMessage message = message(64, BLOCK);
+      message.endWith(chunk(1, 10));
+
+      assertEquals(message.next(), chunk(1, 10));
+      message.consume();
+
+      assertNull(message.next());
+      assertTrue(message.isFinished());
+   }
+
+   public void testChunksWrapAroundRing() {
+      SpoolingMessage message = message(64, BLOCK);
+      for (int i=0; i<50; i++) {
+         message.recieve(chunk(i, 20));
+         message.recieve(chunk(i + 1, 7));
+
+         assertEquals(message.poll(), chunk(i, 20));
+         message.consume();
+         assertEquals(message.poll(), chunk(i + 1, 7));
+         message.consume();
+      }
+      assertEquals(message.spooledBytes(), 0);
+   }
+
+   public void testChunkIsWrittenWhenEndOfRingHasNoRoomForHeader() {
+      SpoolingMessage message = message(64, BLOCK);
+      message.recieve(chunk(1, 26));
+      message.recieve(chunk(2, 28));
+      message.poll();
+      message.consume();
+
+      message.recieve(chunk(3, 10));
+
+      assertEquals(message.poll(), chunk(2, 28));
+      message.consume();
+      assertEquals(message.poll(), chunk(3, 10));
+   }
+
+   public void testDropNewestDropsIncomingChunkWhenFull() {
+      SpoolingMessage message = message(64, DROP_NEWEST);
+      message.recieve(chunk(1, 40));
+
+      message.recieve(chunk(2, 40));
+
+      assertEquals(message.poll(), chunk(1, 40));
+      assertEquals(message.droppedChunkCount(), 1);
+      assertEquals(message.droppedByteCount(), 40);
+   }
+
+   public void testDropOldestDropsOldestChunksWhenFull() {
+      SpoolingMessage message = message(64, DROP_OLDEST);
+      message.recieve(chunk(1, 20));
+      message.recieve(chunk(2, 20));
+
+      message.recieve(chunk(3, 20));
+
+      assertEquals(message.poll(), chunk(2, 20));
+      message.consume();
+      assertEquals(message.poll(), chunk(3, 20));
+      assertEquals(message.droppedChunkCount(), 1);
+   }
+
+   public void testDropOldestDoesNotDropChunkBeingRead() {
+      SpoolingMessage message = message(64, DROP_OLDEST);
+      message.recieve(chunk(1, 40));
+      ByteBuffer reading = message.poll();
+
+      message.recieve(chunk(2, 40));
+
+      assertEquals(reading, chunk(1, 40));
+      assertEquals(message.droppedChunkCount(), 1);
+   }
+
+   public void testBlockWaitsForReaderToConsume() throws Exception {
+      SpoolingMessage message = message(64, BLOCK);
+      message.recieve(chunk(1, 40));
+      CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> message.recieve(chunk(2, 40)));
+
+      assertThrows(TimeoutException.class, () -> writer.get(100, TimeUnit.MILLISECONDS));
+      message.poll();
+      message.consume();
+
+      writer.get(5, TimeUnit.SECONDS);
+      assertEquals(message.poll(), chunk(2, 40));
+   }
+
+   public void testCloseReleasesBlockedWriter() throws Exception {
+      SpoolingMessage message = message(64, BLOCK);
+      message.recieve(chunk(1, 40));
+      CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> message.recieve(chunk(2, 40)));
+
+      message.close();
+
+      writer.get(5, TimeUnit.SECONDS);
+      assertEquals(message.droppedChunkCount(), 1);
+   }
+
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testConsumingWithoutChunkFails() {
+      message(64, BLOCK).consume();
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testChunkLargerThanRingIsRejected() {
+      message(64, BLOCK).recieve(chunk(1, 61));
+   }
+
+   public void testMemoryMappedRingSpoolsChunks() throws Exception {
+      Path directory = Files.createTempDirectory("scan-spool-test");
+      try {
+         SpoolingMessage message = SpoolingMessage.spoolTo(directory, 4096, BLOCK);
+         message.recieve(chunk(1, 1000));
+         message.endWith(chunk(2, 1000));
+
+         assertEquals(message.next(), chunk(1, 1000));
+         message.consume();
+         assertEquals(message.next(), chunk(2, 1000));
+         message.consume();
+         assertNull(message.next());
+      } finally {
+         Files.deleteIfExists(directory);
+      }
+   }
+
+   private static SpoolingMessage message(int capacity, SpoolingMessage.DropPolicy dropPolicy) {
+      return new SpoolingMessage(ByteBuffer.allocate(capacity), dropPolicy);
+   }
+
+   private static ByteBuffer chunk(int value, int length) {
+      ByteBuffer chunk = ByteBuffer.allocate(length);
+      for (int i=0; i<length; i++) {
+         chunk.put(i, (byte) (value + i));
+      }
+      return chunk;
+   }
+}
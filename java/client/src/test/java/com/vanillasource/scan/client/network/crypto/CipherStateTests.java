@@ -0,0 +1,110 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class CipherStateTests {
+   private CipherState sender;
+   private CipherState receiver;
+
+   public void testDecryptedPayloadEqualsOriginal() {
+      ByteBuffer ciphertext = encrypt(plaintext(100));
+
+      assertEquals(decrypt(ciphertext), plaintext(100));
+   }
+
+   public void testCiphertextContainsMac() {
+      ByteBuffer ciphertext = encrypt(plaintext(100));
+
+      assertEquals(ciphertext.remaining(), 100 + CipherState.MAC_LENGTH);
+   }
+
+   public void testSamePlaintextIsEncryptedDifferentlyWithNextNonce() {
+      ByteBuffer first = encrypt(plaintext(100));
+      ByteBuffer second = encrypt(plaintext(100));
+
+      assertNotEquals(first, second);
+      assertEquals(sender.nonce(), 2);
+   }
+
+   public void testEmptyPayloadCanBeEncrypted() {
+      assertEquals(decrypt(encrypt(plaintext(0))), plaintext(0));
+   }
+
+   public void testPayloadsCanBeEncryptedAndDecryptedInPlaceInDirectBuffers() {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(100 + CipherState.MAC_LENGTH);
+      buffer.put(plaintext(100)).flip();
+
+      sender.encrypt(buffer.duplicate(), buffer.duplicate().clear());
+      buffer.clear();
+      ByteBuffer plaintext = buffer.duplicate();
+      receiver.decrypt(buffer, plaintext);
+
+      assertEquals(plaintext.flip(), plaintext(100));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testTamperedPayloadIsRejected() {
+      ByteBuffer ciphertext = encrypt(plaintext(100));
+      ciphertext.put(10, (byte) (ciphertext.get(10) + 1));
+
+      decrypt(ciphertext);
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testPayloadsOutOfOrderAreRejected() {
+      encrypt(plaintext(100));
+      ByteBuffer second = encrypt(plaintext(100));
+
+      decrypt(second);
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testPayloadWithoutMacIsRejected() {
+      decrypt(ByteBuffer.allocate(CipherState.MAC_LENGTH - 1));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testKeyWithWrongLengthIsRejected() {
+      new CipherState(new byte[16]);
+   }
+
+   private ByteBuffer encrypt(ByteBuffer plaintext) {
+      ByteBuffer ciphertext = ByteBuffer.allocate(plaintext.remaining() + CipherState.MAC_LENGTH);
+      sender.encrypt(plaintext, ciphertext);
+      return ciphertext.flip();
+   }
+
+   private ByteBuffer decrypt(ByteBuffer ciphertext) {
+      ByteBuffer plaintext = ByteBuffer.allocate(ciphertext.remaining());
+      receiver.decrypt(ciphertext.duplicate(), plaintext);
+      return plaintext.flip();
+   }
+
+   private static ByteBuffer plaintext(int length) {
+      ByteBuffer plaintext = ByteBuffer.allocate(length);
+      for (int i=0; i<length; i++) {
+         plaintext.put(i, (byte) i);
+      }
+      return plaintext;
+   }
+
+   static byte[] key() {
+      byte[] key = new byte[CipherState.KEY_LENGTH];
+      for (int i=0; i<key.length; i++) {
+         key[i] = (byte) (i * 7);
+      }
+      return key;
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      sender = new CipherState(key());
+      receiver = new CipherState(key());
+   }
+}
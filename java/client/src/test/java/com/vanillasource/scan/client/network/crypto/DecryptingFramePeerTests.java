@@ -0,0 +1,232 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.network.frame.FrameDecoder;
+import com.vanillasource.scan.client.network.frame.FrameEncoder;
+import com.vanillasource.scan.client.network.frame.FramePeer;
+import com.vanillasource.scan.client.network.frame.FrameReceiver;
+import com.vanillasource.scan.client.network.frame.FrameScheduler;
+import com.vanillasource.scan.client.network.physical.PhysicalPeer;
+import com.vanillasource.util.ByteBufferAllocator;
+import com.vanillasource.util.ByteBufferPool;
+import com.vanillasource.util.Lock;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class DecryptingFramePeerTests {
+   private static final VariableLengthInteger MESSAGE_ID = VariableLengthInteger.createLong(3);
+   private CipherState sender;
+   private RecordingFramePeer receiver;
+
+   public void testEncodedEncryptedFramesAreDecodedAndDecrypted() {
+      ByteBufferAllocator allocator = new ByteBufferAllocator(64, 1024, true);
+      ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      FrameEncoder encoder = new FrameEncoder(new FrameScheduler(new StreamPeer(stream), new Lock()),
+            new ByteBufferPool(FrameEncoder.HEADER_BUFFER_SIZE), address(1), address(2));
+      encoder.encryptWith(sender, allocator);
+
+      encoder.messageIntermediateFrame(MESSAGE_ID, payload(1, 100));
+      encoder.messageLastFrame(MESSAGE_ID, payload(2, 10));
+      encoder.messageSingleFrame(payload(3, 0));
+      DecryptingFramePeer peer = new DecryptingFramePeer(receiver, new CipherState(CipherStateTests.key()));
+      new FrameDecoder(new SingleConnectionReceiver(peer)).receive(ByteBuffer.wrap(stream.toByteArray()));
+
+      assertEquals(receiver.frames, List.of("intermediate 3", "last 3", "single"));
+      assertEquals(receiver.payloads, List.of(payload(1, 100), payload(2, 10), payload(3, 0)));
+      allocator.checkNoLeaks();
+   }
+
+   public void testFailedEncryptedWriteClosesConnection() {
+      ByteBufferAllocator allocator = new ByteBufferAllocator(64, 1024, true);
+      ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      StreamPeer output = new StreamPeer(stream);
+      List<String> closes = new ArrayList<>();
+      FrameEncoder encoder = new FrameEncoder(new FrameScheduler(output, new Lock()),
+            new ByteBufferPool(FrameEncoder.HEADER_BUFFER_SIZE), address(1), address(2), () -> closes.add("closed"));
+      encoder.encryptWith(sender, allocator);
+      output.failedWrites = 1;
+
+      assertThrows(UncheckedIOException.class, () -> encoder.messageSingleFrame(payload(1, 10)));
+      assertThrows(IllegalStateException.class, () -> encoder.messageSingleFrame(payload(2, 10)));
+      new FrameDecoder(new SingleConnectionReceiver(receiver)).receive(ByteBuffer.wrap(stream.toByteArray()));
+
+      assertEquals(closes, List.of("closed"));
+      assertEquals(receiver.frames, List.of("close"));
+      allocator.checkNoLeaks();
+   }
+
+   public void testPayloadsAreDecryptedInPlace() {
+      DecryptingFramePeer peer = new DecryptingFramePeer(receiver, new CipherState(CipherStateTests.key()));
+      ByteBuffer ciphertext = encrypt(payload(1, 100));
+
+      peer.messageSingleFrame(ciphertext);
+
+      assertEquals(ciphertext.limit(100), payload(1, 100));
+   }
+
+   public void testTamperedPayloadClosesConnectionAndDropsFurtherFrames() {
+      DecryptingFramePeer peer = new DecryptingFramePeer(receiver, new CipherState(CipherStateTests.key()));
+      ByteBuffer tampered = encrypt(payload(1, 100));
+      tampered.put(0, (byte) (tampered.get(0) + 1));
+
+      peer.messageSingleFrame(tampered);
+      peer.messageSingleFrame(encrypt(payload(2, 100)));
+
+      assertTrue(peer.isFailed());
+      assertEquals(receiver.frames, List.of("close"));
+   }
+
+   public void testFramesAreDeliveredInOrderOnExecutor() {
+      ByteBufferAllocator allocator = new ByteBufferAllocator(64, 1024, true);
+      List<Runnable> tasks = new ArrayList<>();
+      DecryptingFramePeer peer = new DecryptingFramePeer(receiver, new CipherState(CipherStateTests.key()), tasks::add, allocator);
+      ByteBuffer first = encrypt(payload(1, 100));
+      ByteBuffer second = encrypt(payload(2, 100));
+
+      peer.messageIntermediateFrame(MESSAGE_ID, first);
+      peer.messageLastFrame(MESSAGE_ID, second);
+      first.put(0, (byte) 0);
+      second.put(0, (byte) 0);
+      assertEquals(tasks.size(), 1);
+      tasks.get(0).run();
+
+      assertEquals(receiver.frames, List.of("intermediate 3", "last 3"));
+      assertEquals(receiver.payloads, List.of(payload(1, 100), payload(2, 100)));
+      allocator.checkNoLeaks();
+   }
+
+   private ByteBuffer encrypt(ByteBuffer plaintext) {
+      ByteBuffer ciphertext = ByteBuffer.allocate(plaintext.remaining() + CipherState.MAC_LENGTH);
+      sender.encrypt(plaintext, ciphertext);
+      return ciphertext.flip();
+   }
+
+   private static ByteBuffer payload(int value, int length) {
+      ByteBuffer payload = ByteBuffer.allocate(length);
+      for (int i=0; i<length; i++) {
+         payload.put(i, (byte) (value + i));
+      }
+      return payload;
+   }
+
+   private static PeerAddress address(int seed) {
+      byte[] key = new byte[PeerAddress.LENGTH];
+      key[0] = (byte) seed;
+      return PeerAddress.create(key);
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      sender = new CipherState(CipherStateTests.key());
+      receiver = new RecordingFramePeer();
+   }
+
+   private static final class StreamPeer implements PhysicalPeer {
+      private final ByteArrayOutputStream stream;
+      private int failedWrites = 0;
+
+      private StreamPeer(ByteArrayOutputStream stream) {
+         this.stream = stream;
+      }
+
+      @Override
+      public void receive(ByteBuffer message) {
+         if (failedWrites > 0) {
+            failedWrites--;
+            throw new UncheckedIOException(new IOException("connection reset"));
+         }
+         while (message.hasRemaining()) {
+            stream.write(message.get());
+         }
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+
+   private static final class SingleConnectionReceiver implements FrameReceiver {
+      private final FramePeer peer;
+
+      private SingleConnectionReceiver(FramePeer peer) {
+         this.peer = peer;
+      }
+
+      @Override
+      public FramePeer logicalConnection(PeerAddress source, PeerAddress destination, boolean initiating) {
+         return peer;
+      }
+
+      @Override
+      public void advertisement(PeerAddresses addresses) {
+      }
+
+      @Override
+      public void identityQuery(VariableLengthInteger queryId, PeerAddresses addresses) {
+      }
+   }
+
+   private static final class RecordingFramePeer implements FramePeer {
+      private final List<String> frames = new ArrayList<>();
+      private final List<ByteBuffer> payloads = new ArrayList<>();
+
+      @Override
+      public void initiateHandshake(String protocolName, ByteBuffer handshake) {
+      }
+
+      @Override
+      public void continueHandshake(ByteBuffer handshake) {
+      }
+
+      @Override
+      public void closeConnection() {
+         frames.add("close");
+      }
+
+      @Override
+      public void renegotiate() {
+      }
+
+      @Override
+      public void ignoredFrame(int frameCode) {
+      }
+
+      @Override
+      public void keepAlive() {
+      }
+
+      @Override
+      public void messageIntermediateFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+         record("intermediate "+messageId.longValueExact(), payload);
+      }
+
+      @Override
+      public void messageLastFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+         record("last "+messageId.longValueExact(), payload);
+      }
+
+      @Override
+      public void messageSingleFrame(ByteBuffer payload) {
+         record("single", payload);
+      }
+
+      private void record(String frame, ByteBuffer payload) {
+         frames.add(frame);
+         ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+         copy.put(payload.duplicate()).flip();
+         payloads.add(copy);
+      }
+   }
+}
@@ -0,0 +1,130 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.util.TimeSource;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static com.vanillasource.scan.client.network.crypto.KKpsk1HandshakeTests.psk;
+import static org.testng.Assert.*;
+
+@Test
+public final class HandshakeEngineTests {
+   private HandshakeEngine initiator;
+   private List<Runnable> tasks;
+
+   public void testRespondingCompletesHandshake() {
+      HandshakeEngine responder = responder(Runnable::run, 10, 10);
+      KKpsk1Handshake.Initiator handshake = initiator.initiate(responder.localAddress(), psk(2));
+
+      Session session = responder.respond(initiator.localAddress(), KKpsk1Handshake.PROTOCOL_NAME, handshake.initiation()).join();
+
+      assertEquals(session.psk(), psk(2));
+      handshake.complete(session.response());
+      assertEquals(responder.completedCount(), 1);
+      assertEquals(responder.pendingCount(), 0);
+   }
+
+   public void testReconnectingWithSamePskSucceeds() {
+      HandshakeEngine responder = responder(Runnable::run, 10, 10);
+
+      respond(responder, psk(3)).join();
+      Session session = respond(responder, psk(3)).join();
+
+      assertEquals(session.psk(), psk(3));
+   }
+
+   public void testReconnectingWithDifferentPskSucceeds() {
+      HandshakeEngine responder = responder(Runnable::run, 10, 10);
+
+      respond(responder, psk(3)).join();
+      Session session = respond(responder, psk(1)).join();
+
+      assertEquals(session.psk(), psk(1));
+   }
+
+   public void testFailedHandshakeIsCounted() {
+      HandshakeEngine responder = responder(Runnable::run, 10, 10);
+
+      CompletableFuture<Session> result = respond(responder, psk(9));
+
+      assertTrue(result.isCompletedExceptionally());
+      assertEquals(responder.failedCount(), 1);
+   }
+
+   public void testHandshakesRunOnWorkers() {
+      HandshakeEngine responder = responder(tasks::add, 10, 10);
+
+      CompletableFuture<Session> result = respond(responder, psk(1));
+
+      assertFalse(result.isDone());
+      assertEquals(responder.pendingCount(), 1);
+      tasks.forEach(Runnable::run);
+      assertEquals(result.join().psk(), psk(1));
+   }
+
+   public void testHandshakesOverPendingLimitAreRejected() {
+      HandshakeEngine responder = responder(tasks::add, 1, 10);
+      respond(responder, psk(1));
+
+      CompletableFuture<Session> result = respond(responder, psk(1));
+
+      assertTrue(result.isCompletedExceptionally());
+      assertEquals(responder.rejectedCount(), 1);
+      assertEquals(tasks.size(), 1);
+   }
+
+   public void testThrottledHandshakesAreRejected() {
+      HandshakeEngine responder = responder(Runnable::run, 10, 1);
+      respond(responder, psk(9));
+
+      CompletableFuture<Session> result = respond(responder, psk(1));
+
+      assertTrue(result.isCompletedExceptionally());
+      assertEquals(responder.rejectedCount(), 1);
+   }
+
+   public void testUnsupportedProtocolIsRejected() {
+      HandshakeEngine responder = responder(Runnable::run, 10, 10);
+      KKpsk1Handshake.Initiator handshake = initiator.initiate(responder.localAddress(), psk(1));
+
+      CompletableFuture<Session> result = responder.respond(initiator.localAddress(), "Noise_XX_25519_ChaChaPoly_BLAKE2s", handshake.initiation());
+
+      assertTrue(result.isCompletedExceptionally());
+   }
+
+   public void testOnlyRecentSourcesAreRemembered() {
+      HandshakeEngine responder = new HandshakeEngine(X25519.generatePrivateKey(), () -> List.of(psk(1)), Runnable::run, 10,
+            new HandshakeThrottle(TimeSource.SYSTEM, 10, 60_000, 100), 2);
+
+      for (int i=0; i<3; i++) {
+         setUp();
+         respond(responder, psk(1)).join();
+      }
+
+      assertEquals(responder.completedCount(), 3);
+      assertEquals(responder.rememberedSourceCount(), 2);
+   }
+
+   private CompletableFuture<Session> respond(HandshakeEngine responder, byte[] psk) {
+      KKpsk1Handshake.Initiator handshake = initiator.initiate(responder.localAddress(), psk);
+      return responder.respond(initiator.localAddress(), KKpsk1Handshake.PROTOCOL_NAME, handshake.initiation());
+   }
+
+   private static HandshakeEngine responder(Executor workers, int maxPending, int burst) {
+      return new HandshakeEngine(X25519.generatePrivateKey(), () -> List.of(psk(1), psk(2), psk(3)), workers, maxPending,
+            new HandshakeThrottle(TimeSource.SYSTEM, burst, 60_000, 100));
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      tasks = new ArrayList<>();
+      initiator = new HandshakeEngine(X25519.generatePrivateKey(), List::of, Runnable::run, 10,
+            new HandshakeThrottle(TimeSource.SYSTEM, 1, 60_000, 100));
+   }
+}
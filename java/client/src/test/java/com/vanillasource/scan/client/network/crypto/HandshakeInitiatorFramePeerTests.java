@@ -0,0 +1,198 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.network.frame.FrameDecoder;
+import com.vanillasource.scan.client.network.frame.FrameEncoder;
+import com.vanillasource.scan.client.network.frame.FramePeer;
+import com.vanillasource.scan.client.network.frame.FrameReceiver;
+import com.vanillasource.scan.client.network.frame.FrameScheduler;
+import com.vanillasource.scan.client.network.physical.PhysicalPeer;
+import com.vanillasource.util.ByteBufferAllocator;
+import com.vanillasource.util.ByteBufferPool;
+import com.vanillasource.util.Lock;
+import com.vanillasource.util.TimeSource;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.vanillasource.scan.client.network.crypto.KKpsk1HandshakeTests.psk;
+import static org.testng.Assert.*;
+
+@Test
+public final class HandshakeInitiatorFramePeerTests {
+   private HandshakeEngine initiatorEngine;
+   private HandshakeEngine responderEngine;
+   private ByteArrayOutputStream initiatorSent;
+   private ByteArrayOutputStream responderSent;
+   private FrameEncoder initiatorEncoder;
+   private FrameEncoder responderEncoder;
+   private RecordingFramePeer initiatorDelegate;
+   private RecordingFramePeer responderDelegate;
+   private HandshakeInitiatorFramePeer initiator;
+   private HandshakeResponderFramePeer responder;
+
+   public void testHandshakeEncryptsBothDirections() {
+      initiator.initiate(psk(1));
+      deliver(initiatorSent, responder);
+      deliver(responderSent, initiator);
+
+      initiatorEncoder.messageSingleFrame(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+      responderEncoder.messageSingleFrame(ByteBuffer.wrap(new byte[] { 4, 5 }));
+      deliver(initiatorSent, responder);
+      deliver(responderSent, initiator);
+
+      assertTrue(initiator.isEstablished());
+      assertTrue(responder.isEstablished());
+      assertEquals(responderDelegate.payloads, List.of(ByteBuffer.wrap(new byte[] { 1, 2, 3 })));
+      assertEquals(initiatorDelegate.payloads, List.of(ByteBuffer.wrap(new byte[] { 4, 5 })));
+   }
+
+   public void testRejectedPskClosesConnection() {
+      initiator.initiate(psk(9));
+      deliver(initiatorSent, responder);
+      deliver(responderSent, initiator);
+
+      assertFalse(initiator.isEstablished());
+      assertTrue(initiatorDelegate.closed);
+   }
+
+   public void testForgedResponseClosesConnection() {
+      initiator.initiate(psk(1));
+
+      initiator.continueHandshake(ByteBuffer.allocate(48));
+
+      assertFalse(initiator.isEstablished());
+      assertTrue(initiatorDelegate.closed);
+   }
+
+   public void testResponseWithoutInitiationClosesConnection() {
+      initiator.continueHandshake(ByteBuffer.allocate(48));
+
+      assertTrue(initiatorDelegate.closed);
+   }
+
+   public void testPayloadBeforeHandshakeClosesConnection() {
+      initiator.initiate(psk(1));
+
+      initiator.messageSingleFrame(ByteBuffer.allocate(20));
+
+      assertTrue(initiatorDelegate.closed);
+      assertTrue(initiatorDelegate.payloads.isEmpty());
+   }
+
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testInitiatingTwiceFails() {
+      initiator.initiate(psk(1));
+
+      initiator.initiate(psk(1));
+   }
+
+   /**
+    * Decode everything sent so far into the given peer.
+    */
+   private static void deliver(ByteArrayOutputStream sent, FramePeer peer) {
+      ByteBuffer frames = ByteBuffer.wrap(sent.toByteArray());
+      sent.reset();
+      new FrameDecoder(new FrameReceiver() {
+         @Override
+         public FramePeer logicalConnection(PeerAddress source, PeerAddress destination, boolean initiating) {
+            return peer;
+         }
+
+         @Override
+         public void advertisement(PeerAddresses addresses) {
+         }
+
+         @Override
+         public void identityQuery(VariableLengthInteger queryId, PeerAddresses addresses) {
+         }
+      }).receive(frames);
+   }
+
+   private static FrameEncoder encoder(ByteArrayOutputStream sent, PeerAddress source, PeerAddress destination) {
+      PhysicalPeer output = new PhysicalPeer() {
+         @Override
+         public void receive(ByteBuffer message) {
+            while (message.hasRemaining()) {
+               sent.write(message.get());
+            }
+         }
+
+         @Override
+         public void close() {
+         }
+      };
+      return new FrameEncoder(new FrameScheduler(output, new Lock()), new ByteBufferPool(FrameEncoder.HEADER_BUFFER_SIZE),
+            source, destination);
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      initiatorEngine = engine();
+      responderEngine = engine();
+      initiatorSent = new ByteArrayOutputStream();
+      responderSent = new ByteArrayOutputStream();
+      initiatorEncoder = encoder(initiatorSent, initiatorEngine.localAddress(), responderEngine.localAddress());
+      responderEncoder = encoder(responderSent, responderEngine.localAddress(), initiatorEngine.localAddress());
+      initiatorDelegate = new RecordingFramePeer();
+      responderDelegate = new RecordingFramePeer();
+      initiator = new HandshakeInitiatorFramePeer(initiatorEngine, responderEngine.localAddress(), initiatorEncoder,
+            initiatorDelegate, ByteBufferAllocator.UNPOOLED);
+      responder = new HandshakeResponderFramePeer(responderEngine, initiatorEngine.localAddress(), responderEncoder,
+            responderDelegate, ByteBufferAllocator.UNPOOLED);
+   }
+
+   private static HandshakeEngine engine() {
+      return new HandshakeEngine(X25519.generatePrivateKey(), () -> List.of(psk(1)), Runnable::run, 10,
+            new HandshakeThrottle(TimeSource.SYSTEM, 10, 1000, 100));
+   }
+
+   private static final class RecordingFramePeer implements FramePeer {
+      private final List<ByteBuffer> payloads = new ArrayList<>();
+      private boolean closed = false;
+
+      @Override
+      public void initiateHandshake(String protocolName, ByteBuffer handshake) {
+      }
+
+      @Override
+      public void continueHandshake(ByteBuffer handshake) {
+      }
+
+      @Override
+      public void closeConnection() {
+         closed = true;
+      }
+
+      @Override
+      public void renegotiate() {
+      }
+
+      @Override
+      public void ignoredFrame(int frameCode) {
+      }
+
+      @Override
+      public void keepAlive() {
+      }
+
+      @Override
+      public void messageIntermediateFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+      }
+
+      @Override
+      public void messageLastFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+      }
+
+      @Override
+      public void messageSingleFrame(ByteBuffer payload) {
+         payloads.add(ByteBuffer.allocate(payload.remaining()).put(payload.duplicate()).flip());
+      }
+   }
+}
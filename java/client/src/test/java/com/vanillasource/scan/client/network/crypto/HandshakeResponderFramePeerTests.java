@@ -0,0 +1,165 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.network.frame.FrameDecoder;
+import com.vanillasource.scan.client.network.frame.FrameEncoder;
+import com.vanillasource.scan.client.network.frame.FramePeer;
+import com.vanillasource.scan.client.network.frame.FrameReceiver;
+import com.vanillasource.scan.client.network.frame.FrameScheduler;
+import com.vanillasource.scan.client.network.physical.PhysicalPeer;
+import com.vanillasource.util.ByteBufferAllocator;
+import com.vanillasource.util.ByteBufferPool;
+import com.vanillasource.util.Lock;
+import com.vanillasource.util.TimeSource;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.vanillasource.scan.client.network.crypto.KKpsk1HandshakeTests.psk;
+import static org.testng.Assert.*;
+
+@Test
+public final class HandshakeResponderFramePeerTests {
+   private HandshakeEngine initiatorEngine;
+   private HandshakeEngine responderEngine;
+   private ByteArrayOutputStream sent;
+   private RecordingFramePeer delegate;
+   private HandshakeResponderFramePeer peer;
+
+   public void testSuccessfulHandshakeSendsResponseAndDecryptsPayloads() {
+      KKpsk1Handshake.Initiator handshake = initiatorEngine.initiate(responderEngine.localAddress(), psk(1));
+
+      peer.initiateHandshake(KKpsk1Handshake.PROTOCOL_NAME, handshake.initiation());
+      RecordingFramePeer initiator = decodeSent();
+      Session session = handshake.complete(initiator.handshakes.get(0));
+      peer.messageSingleFrame(encrypt(session.sendCipher(), new byte[] { 1, 2, 3 }));
+
+      assertTrue(peer.isEstablished());
+      assertEquals(delegate.payloads, List.of(ByteBuffer.wrap(new byte[] { 1, 2, 3 })));
+   }
+
+   public void testFailedHandshakeClosesConnection() {
+      KKpsk1Handshake.Initiator handshake = initiatorEngine.initiate(responderEngine.localAddress(), psk(9));
+
+      peer.initiateHandshake(KKpsk1Handshake.PROTOCOL_NAME, handshake.initiation());
+
+      assertFalse(peer.isEstablished());
+      assertTrue(delegate.closed);
+      assertTrue(decodeSent().closed);
+   }
+
+   public void testPayloadBeforeHandshakeClosesConnection() {
+      peer.messageSingleFrame(ByteBuffer.allocate(20));
+
+      assertTrue(delegate.closed);
+      assertTrue(delegate.payloads.isEmpty());
+   }
+
+   private static ByteBuffer encrypt(CipherState cipher, byte[] plaintext) {
+      ByteBuffer ciphertext = ByteBuffer.allocate(plaintext.length + CipherState.MAC_LENGTH);
+      cipher.encrypt(ByteBuffer.wrap(plaintext), ciphertext);
+      return ciphertext.flip();
+   }
+
+   private RecordingFramePeer decodeSent() {
+      RecordingFramePeer receiver = new RecordingFramePeer();
+      new FrameDecoder(new FrameReceiver() {
+         @Override
+         public FramePeer logicalConnection(PeerAddress source, PeerAddress destination, boolean initiating) {
+            return receiver;
+         }
+
+         @Override
+         public void advertisement(PeerAddresses addresses) {
+         }
+
+         @Override
+         public void identityQuery(VariableLengthInteger queryId, PeerAddresses addresses) {
+         }
+      }).receive(ByteBuffer.wrap(sent.toByteArray()));
+      return receiver;
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      initiatorEngine = engine();
+      responderEngine = engine();
+      sent = new ByteArrayOutputStream();
+      PhysicalPeer output = new PhysicalPeer() {
+         @Override
+         public void receive(ByteBuffer message) {
+            while (message.hasRemaining()) {
+               sent.write(message.get());
+            }
+         }
+
+         @Override
+         public void close() {
+         }
+      };
+      FrameEncoder encoder = new FrameEncoder(new FrameScheduler(output, new Lock()), new ByteBufferPool(FrameEncoder.HEADER_BUFFER_SIZE),
+            responderEngine.localAddress(), initiatorEngine.localAddress());
+      delegate = new RecordingFramePeer();
+      peer = new HandshakeResponderFramePeer(responderEngine, initiatorEngine.localAddress(), encoder, delegate, ByteBufferAllocator.UNPOOLED);
+   }
+
+   private static HandshakeEngine engine() {
+      return new HandshakeEngine(X25519.generatePrivateKey(), () -> List.of(psk(1)), Runnable::run, 10,
+            new HandshakeThrottle(TimeSource.SYSTEM, 10, 1000, 100));
+   }
+
+   private static final class RecordingFramePeer implements FramePeer {
+      private final List<ByteBuffer> handshakes = new ArrayList<>();
+      private final List<ByteBuffer> payloads = new ArrayList<>();
+      private boolean closed = false;
+
+      @Override
+      public void initiateHandshake(String protocolName, ByteBuffer handshake) {
+      }
+
+      @Override
+      public void continueHandshake(ByteBuffer handshake) {
+         handshakes.add(copy(handshake));
+      }
+
+      @Override
+      public void closeConnection() {
+         closed = true;
+      }
+
+      @Override
+      public void renegotiate() {
+      }
+
+      @Override
+      public void ignoredFrame(int frameCode) {
+      }
+
+      @Override
+      public void keepAlive() {
+      }
+
+      @Override
+      public void messageIntermediateFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+      }
+
+      @Override
+      public void messageLastFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+      }
+
+      @Override
+      public void messageSingleFrame(ByteBuffer payload) {
+         payloads.add(copy(payload));
+      }
+
+      private static ByteBuffer copy(ByteBuffer buffer) {
+         return ByteBuffer.allocate(buffer.remaining()).put(buffer.duplicate()).flip();
+      }
+   }
+}
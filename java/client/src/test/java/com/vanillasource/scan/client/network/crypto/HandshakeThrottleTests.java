@@ -0,0 +1,130 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.util.TimeSource;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class HandshakeThrottleTests {
+   private long now;
+   private HandshakeThrottle throttle;
+
+   public void testSourceCanAttemptBurstAtOnce() {
+      assertTrue(throttle.tryAcquire(address(1)));
+      assertTrue(throttle.tryAcquire(address(1)));
+      assertTrue(throttle.tryAcquire(address(1)));
+   }
+
+   public void testSourceIsThrottledAfterBurst() {
+      exhaust(address(1));
+
+      assertFalse(throttle.tryAcquire(address(1)));
+   }
+
+   public void testSourcesAreThrottledIndependently() {
+      exhaust(address(1));
+
+      assertTrue(throttle.tryAcquire(address(2)));
+   }
+
+   public void testAttemptIsAllowedAgainAfterRefill() {
+      exhaust(address(1));
+
+      now += 1000;
+
+      assertTrue(throttle.tryAcquire(address(1)));
+      assertFalse(throttle.tryAcquire(address(1)));
+   }
+
+   public void testPartialRefillIsNotEnough() {
+      exhaust(address(1));
+
+      now += 999;
+
+      assertFalse(throttle.tryAcquire(address(1)));
+   }
+
+   public void testRefillIsCappedAtBurst() {
+      exhaust(address(1));
+
+      now += 100_000;
+
+      exhaust(address(1));
+      assertFalse(throttle.tryAcquire(address(1)));
+   }
+
+   public void testNewSourcesAreRejectedIfAllSourcesAreBusy() {
+      for (int i=0; i<4; i++) {
+         throttle.tryAcquire(address(i));
+      }
+
+      assertFalse(throttle.tryAcquire(address(10)));
+   }
+
+   public void testIdleSourcesAreForgottenForNewSources() {
+      for (int i=0; i<4; i++) {
+         throttle.tryAcquire(address(i));
+      }
+
+      now += 1000;
+
+      assertTrue(throttle.tryAcquire(address(10)));
+      assertEquals(throttle.sourceCount(), 1);
+   }
+
+   public void testIdleSourcesAreLookedForAtMostOncePerRefill() {
+      for (int i=0; i<4; i++) {
+         throttle.tryAcquire(address(i));
+      }
+      now += 999;
+      assertFalse(throttle.tryAcquire(address(10)));
+
+      now += 1;
+      assertFalse(throttle.tryAcquire(address(10)));
+      now += 998;
+      assertFalse(throttle.tryAcquire(address(10)));
+      now += 1;
+
+      assertTrue(throttle.tryAcquire(address(10)));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testTooLargeBurstIsRejected() {
+      new HandshakeThrottle(timeSource(), 10_000, 1000, 4);
+   }
+
+   private void exhaust(PeerAddress source) {
+      for (int i=0; i<3; i++) {
+         throttle.tryAcquire(source);
+      }
+   }
+
+   private static PeerAddress address(int seed) {
+      byte[] key = new byte[PeerAddress.LENGTH];
+      key[0] = (byte) seed;
+      return PeerAddress.create(key);
+   }
+
+   private TimeSource timeSource() {
+      return new TimeSource() {
+         @Override
+         public long currentTimeMillis() {
+            return now;
+         }
+
+         @Override
+         public void sleep(long millis) {
+            now += millis;
+         }
+      };
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      now = 1_000_000;
+      throttle = new HandshakeThrottle(timeSource(), 3, 1000, 4);
+   }
+}
@@ -0,0 +1,104 @@
+package com.vanillasource.scan.client.network.crypto;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class KKpsk1HandshakeTests {
+   private static final byte[] PROLOGUE = { 1, 2, 3 };
+   private static final byte[] INITIATOR_KEY = X25519.generatePrivateKey();
+   private static final byte[] RESPONDER_KEY = X25519.generatePrivateKey();
+   private static final PeerAddress INITIATOR = PeerAddress.create(X25519.publicKey(INITIATOR_KEY));
+   private static final PeerAddress RESPONDER = PeerAddress.create(X25519.publicKey(RESPONDER_KEY));
+
+   public void testX25519MatchesRfc7748TestVector() {
+      byte[] alicePrivate = HexFormat.of().parseHex("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a");
+      byte[] bobPrivate = HexFormat.of().parseHex("5dab087e624a8a4b79e17f8b83800ee66f3bb1292618b6fd1c2f8b27ff88e0eb");
+
+      assertEquals(HexFormat.of().formatHex(X25519.publicKey(alicePrivate)), "8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a");
+      assertEquals(HexFormat.of().formatHex(X25519.dh(alicePrivate, X25519.publicKey(bobPrivate))),
+            "4a5d9d5ba4ce2de1728e3bf480350f25e07e21c947d19e3376f09b3c1e161742");
+   }
+
+   public void testBothPartiesCanCommunicateAfterHandshake() {
+      KKpsk1Handshake.Initiator initiator = initiate(psk(1));
+      Session responderSession = respond(initiator, List.of(psk(1)));
+      Session initiatorSession = initiator.complete(responderSession.response());
+
+      assertEquals(transfer(initiatorSession.sendCipher(), responderSession.receiveCipher()), payload());
+      assertEquals(transfer(responderSession.sendCipher(), initiatorSession.receiveCipher()), payload());
+   }
+
+   public void testResponderFindsPskUsedByInitiator() {
+      KKpsk1Handshake.Initiator initiator = initiate(psk(3));
+
+      Session session = respond(initiator, List.of(psk(1), psk(2), psk(3)));
+
+      assertEquals(session.psk(), psk(3));
+      initiator.complete(session.response());
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testUnknownPskIsRejected() {
+      respond(initiate(psk(4)), List.of(psk(1), psk(2)));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testDifferentPrologueIsRejected() {
+      KKpsk1Handshake.respond(new byte[] { 9 }, RESPONDER_KEY, RESPONDER, INITIATOR, initiate(psk(1)).initiation(), List.of(psk(1)));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testHandshakeFromDifferentStaticKeyIsRejected() {
+      byte[] otherKey = X25519.generatePrivateKey();
+      KKpsk1Handshake.Initiator initiator = KKpsk1Handshake.initiate(PROLOGUE, otherKey, INITIATOR, RESPONDER, psk(1));
+
+      respond(initiator, List.of(psk(1)));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testTamperedResponseIsRejected() {
+      KKpsk1Handshake.Initiator initiator = initiate(psk(1));
+      ByteBuffer response = respond(initiator, List.of(psk(1))).response();
+      response.put(0, (byte) (response.get(0) + 1));
+
+      initiator.complete(response);
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testInitiationWithWrongLengthIsRejected() {
+      KKpsk1Handshake.respond(PROLOGUE, RESPONDER_KEY, RESPONDER, INITIATOR, ByteBuffer.allocate(10), List.of(psk(1)));
+   }
+
+   private static KKpsk1Handshake.Initiator initiate(byte[] psk) {
+      return KKpsk1Handshake.initiate(PROLOGUE, INITIATOR_KEY, INITIATOR, RESPONDER, psk);
+   }
+
+   private static Session respond(KKpsk1Handshake.Initiator initiator, List<byte[]> psks) {
+      return KKpsk1Handshake.respond(PROLOGUE, RESPONDER_KEY, RESPONDER, INITIATOR, initiator.initiation(), psks);
+   }
+
+   private static ByteBuffer transfer(CipherState sender, CipherState receiver) {
+      ByteBuffer ciphertext = ByteBuffer.allocate(payload().remaining() + CipherState.MAC_LENGTH);
+      sender.encrypt(payload(), ciphertext);
+      ByteBuffer plaintext = ByteBuffer.allocate(payload().remaining());
+      receiver.decrypt(ciphertext.flip(), plaintext);
+      return plaintext.flip();
+   }
+
+   private static ByteBuffer payload() {
+      return ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 });
+   }
+
+   static byte[] psk(int seed) {
+      byte[] psk = new byte[32];
+      psk[0] = (byte) seed;
+      return psk;
+   }
+}
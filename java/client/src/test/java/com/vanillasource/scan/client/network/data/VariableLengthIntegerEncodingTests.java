@@ -0,0 +1,141 @@
+package com.vanillasource.scan.client.network.data;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class VariableLengthIntegerEncodingTests {
+   private static final int SAMPLES = 10000;
+
+   public void testZeroIsOneZeroByte() {
+      assertEquals(encode(0), new byte[] { 0 });
+   }
+
+   public void testOneByteMaxHasNoContinuation() {
+      assertEquals(encode(127), new byte[] { 0x7F });
+   }
+
+   public void testTwoByteValueHasContinuationOnFirstByte() {
+      assertEquals(encode(128), new byte[] { (byte) 0x81, 0x00 });
+   }
+
+   public void testLastByteOfMaxLengthUsesAllBits() {
+      assertEquals(encode(VariableLengthInteger.MAX_LONG_VALUE), new byte[] { -1, -1, -1, -1, -1, -1, -1, -1 });
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testValueOverMaxCanNotBeEncoded() {
+      encode(VariableLengthInteger.MAX_LONG_VALUE + 1);
+   }
+
+   public void testIncompleteValueHasNoLength() {
+      assertEquals(VariableLengthInteger.encodedLength(ByteBuffer.wrap(new byte[] { (byte) 0x81 }), 0), -1);
+   }
+
+   public void testRandomValuesMatchReferenceEncoding() {
+      Random random = new Random(1);
+      for (int i=0; i<SAMPLES; i++) {
+         long value = randomValue(random);
+
+         assertEquals(encode(value), referenceEncode(BigInteger.valueOf(value)), "encoding of "+value);
+      }
+   }
+
+   public void testRandomValuesRoundTripRelative() {
+      Random random = new Random(2);
+      ByteBuffer buffer = ByteBuffer.allocate(VariableLengthInteger.MAX_LENGTH);
+      for (int i=0; i<SAMPLES; i++) {
+         long value = randomValue(random);
+         buffer.clear();
+         VariableLengthInteger.encode(value, buffer);
+         int length = buffer.position();
+         buffer.flip();
+
+         assertEquals(length, VariableLengthInteger.encodedLength(value));
+         assertEquals(VariableLengthInteger.decode(buffer), value);
+         assertEquals(buffer.position(), length);
+      }
+   }
+
+   public void testRandomValuesRoundTripAbsolute() {
+      Random random = new Random(3);
+      ByteBuffer buffer = ByteBuffer.allocateDirect(VariableLengthInteger.MAX_LENGTH + 3);
+      for (int i=0; i<SAMPLES; i++) {
+         long value = randomValue(random);
+         int length = VariableLengthInteger.encode(value, buffer, 3);
+
+         assertEquals(VariableLengthInteger.encodedLength(buffer, 3), length);
+         assertEquals(VariableLengthInteger.decode(buffer, 3), value);
+         assertEquals(buffer.position(), 0);
+      }
+   }
+
+   public void testBulkRoundTrip() {
+      Random random = new Random(4);
+      long[] values = new long[SAMPLES];
+      for (int i=0; i<SAMPLES; i++) {
+         values[i] = randomValue(random);
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(SAMPLES * VariableLengthInteger.MAX_LENGTH);
+      VariableLengthInteger.encode(values, 0, SAMPLES, buffer);
+      buffer.flip();
+      long[] decoded = new long[SAMPLES];
+
+      VariableLengthInteger.decode(buffer, decoded, 0, SAMPLES);
+
+      assertEquals(decoded, values);
+      assertFalse(buffer.hasRemaining());
+   }
+
+   public void testObjectRoundTripMatchesBigIntegerValue() {
+      Random random = new Random(5);
+      ByteBuffer buffer = ByteBuffer.allocate(VariableLengthInteger.MAX_LENGTH);
+      for (int i=0; i<SAMPLES; i++) {
+         BigInteger value = BigInteger.valueOf(randomValue(random));
+         buffer.clear();
+         VariableLengthInteger.createBigInteger(value).writeTo(buffer);
+         buffer.flip();
+
+         assertEquals(VariableLengthInteger.read(buffer).bigIntegerValue(), value);
+      }
+   }
+
+   private static long randomValue(Random random) {
+      // Distribute evenly over the encoded lengths, not the values
+      int bits = 1 + random.nextInt(57);
+      return random.nextLong() & ((1L << bits) - 1);
+   }
+
+   private static byte[] encode(long value) {
+      ByteBuffer buffer = ByteBuffer.allocate(VariableLengthInteger.MAX_LENGTH);
+      VariableLengthInteger.encode(value, buffer);
+      byte[] result = new byte[buffer.position()];
+      buffer.flip().get(result);
+      return result;
+   }
+
+   private static byte[] referenceEncode(BigInteger value) {
+      BigInteger sevenBits = BigInteger.valueOf(0x7F);
+      int length = 1;
+      while (length < VariableLengthInteger.MAX_LENGTH && value.bitLength() > 7*length) {
+         length++;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      for (int i=0; i<length; i++) {
+         if (i == VariableLengthInteger.MAX_LENGTH - 1) {
+            bytes.write(value.and(BigInteger.valueOf(0xFF)).intValue());
+         } else {
+            int shift = 7*(length-i-1) + (length == VariableLengthInteger.MAX_LENGTH ? 1 : 0);
+            int group = value.shiftRight(shift).and(sevenBits).intValue();
+            bytes.write(i == length-1 ? group : group | 0x80);
+         }
+      }
+      return bytes.toByteArray();
+   }
+}
@@ -2,6 +2,7 @@ package com.vanillasource.scan.client.network.data;
 
 import org.testng.annotations.Test;
 
+import java.math.BigInteger;
 import java.util.Optional;
 
 import static org.testng.Assert.*;
@@ -51,4 +52,32 @@ public final class VariableLengthIntegerTests {
    public void testIntConversionFailsForLargeNumbers() {
       assertEquals(VariableLengthInteger.createLong(Integer.MAX_VALUE).increase().flatMap(VariableLengthInteger::intValue), Optional.empty());
    }
+
+   public void testSmallValuesAreCached() {
+      assertSame(VariableLengthInteger.createLong(127), VariableLengthInteger.createLong(126).increase().orElseThrow());
+   }
+
+   public void testAddOverMaxResultsInNone() {
+      assertEquals(VariableLengthInteger.LONG_MAX.add(VariableLengthInteger.createLong(1)), Optional.empty());
+   }
+
+   public void testLongValueOfMaxIsPrimitive() {
+      assertEquals(VariableLengthInteger.LONG_MAX.longValueExact(), (1L << 57) - 1);
+   }
+
+   public void testBigIntegerInRangeEqualsLong() {
+      assertEquals(VariableLengthInteger.createBigInteger(BigInteger.valueOf(1000)), VariableLengthInteger.createLong(1000));
+   }
+
+   @Test(expectedExceptions = ArithmeticException.class)
+   public void testOutOfRangeValueHasNoLongValue() {
+      VariableLengthInteger.createBigInteger(BigInteger.TWO.pow(60)).longValueExact();
+   }
+
+   public void testOutOfRangeValueCanBeSubtractedBackIntoRange() {
+      VariableLengthInteger big = VariableLengthInteger.createBigInteger(BigInteger.TWO.pow(60));
+
+      assertEquals(big.subtract(VariableLengthInteger.createBigInteger(BigInteger.TWO.pow(60).subtract(BigInteger.TEN))),
+              Optional.of(VariableLengthInteger.createLong(10)));
+   }
 }
\ No newline at end of file
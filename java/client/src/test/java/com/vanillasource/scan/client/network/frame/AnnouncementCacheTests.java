@@ -0,0 +1,187 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.util.TimeSource;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+@Test
+public final class AnnouncementCacheTests {
+   private static final InetAddress IP1 = ip(1);
+   private static final InetAddress IP2 = ip(2);
+   private TimeSource timeSource;
+   private AnnouncementCache.Listener listener;
+   private AnnouncementCache cache;
+
+   public void testUnknownAddressIsNotResolved() {
+      assertNull(cache.resolve(address(1)));
+   }
+
+   public void testAnnouncedAddressIsResolved() {
+      cache.announce(address(1), IP1);
+
+      assertEquals(cache.resolve(address(1)), IP1);
+   }
+
+   public void testLatestAnnouncementWins() {
+      cache.announce(address(1), IP1);
+      cache.announce(address(1), IP2);
+
+      assertEquals(cache.resolve(address(1)), IP2);
+      assertEquals(cache.size(), 1);
+   }
+
+   public void testFirstAnnouncementReportsOnline() {
+      cache.announce(address(1), IP1);
+      cache.announce(address(1), IP1);
+
+      verify(listener, times(1)).onlineStatusChanged(address(1), true);
+   }
+
+   public void testDeviceRegularlyAnnouncingStaysOnline() {
+      for (long time=0; time<10000; time+=1000) {
+         at(time);
+         cache.announce(address(1), IP1);
+      }
+
+      verify(listener, never()).onlineStatusChanged(address(1), false);
+      assertTrue(cache.isOnline(address(1)));
+   }
+
+   public void testDeviceMissingThreeAnnouncementsGoesOffline() {
+      cache.announce(address(1), IP1);
+
+      at(AnnouncementCache.OFFLINE_TIMEOUT_MILLIS + 500);
+      cache.expire();
+
+      verify(listener).onlineStatusChanged(address(1), false);
+      assertNull(cache.resolve(address(1)));
+   }
+
+   public void testDeviceMissingTwoAnnouncementsStaysOnline() {
+      cache.announce(address(1), IP1);
+
+      at(2900);
+      cache.expire();
+
+      assertTrue(cache.isOnline(address(1)));
+   }
+
+   public void testOfflineIsMeasuredFromLastAnnouncement() {
+      cache.announce(address(1), IP1);
+      at(3000);
+      cache.announce(address(1), IP1);
+
+      at(5000);
+      cache.expire();
+      assertTrue(cache.isOnline(address(1)));
+      at(3000 + AnnouncementCache.OFFLINE_TIMEOUT_MILLIS + 500);
+      cache.expire();
+
+      assertFalse(cache.isOnline(address(1)));
+   }
+
+   public void testOfflineDeviceComesBackOnline() {
+      cache.announce(address(1), IP1);
+      at(10000);
+      cache.expire();
+
+      cache.announce(address(1), IP2);
+
+      verify(listener, times(2)).onlineStatusChanged(address(1), true);
+      assertEquals(cache.resolve(address(1)), IP2);
+   }
+
+   public void testManyDevicesAreTrackedIndependently() {
+      for (int i=0; i<5000; i++) {
+         cache.announce(address(i), IP1);
+      }
+      at(2000);
+      for (int i=0; i<5000; i+=2) {
+         cache.announce(address(i), IP2);
+      }
+
+      at(5000);
+      cache.expire();
+
+      assertEquals(cache.size(), 2500);
+      for (int i=0; i<5000; i++) {
+         assertEquals(cache.isOnline(address(i)), i % 2 == 0);
+      }
+   }
+
+   public void testOfflineDeviceIsRemoved() {
+      cache.announce(address(1), IP1);
+      cache.announce(address(2), IP1);
+
+      at(AnnouncementCache.OFFLINE_TIMEOUT_MILLIS + 500);
+      cache.announce(address(2), IP1);
+
+      assertEquals(cache.size(), 1);
+      assertNull(cache.resolve(address(1)));
+      assertEquals(cache.resolve(address(2)), IP1);
+   }
+
+   public void testRemovedEntriesAreReused() {
+      for (int round=0; round<10; round++) {
+         at(round*10000L);
+         for (int i=0; i<1000; i++) {
+            cache.announce(address(round*1000 + i), IP1);
+         }
+         for (int i=0; i<1000; i++) {
+            assertEquals(cache.resolve(address(round*1000 + i)), IP1);
+         }
+      }
+
+      assertEquals(cache.size(), 1000);
+   }
+
+   public void testListenerIsCalledWithoutHoldingTheLock() throws InterruptedException {
+      Thread[] resolving = new Thread[1];
+      cache = new AnnouncementCache(timeSource, (address, online) -> {
+         resolving[0] = new Thread(() -> cache.resolve(address));
+         resolving[0].start();
+         try {
+            resolving[0].join(5000);
+         } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+         }
+      });
+
+      cache.announce(address(1), IP1);
+
+      assertFalse(resolving[0].isAlive());
+   }
+
+   private void at(long time) {
+      when(timeSource.currentTimeMillis()).thenReturn(time);
+   }
+
+   private static PeerAddress address(int seed) {
+      byte[] key = new byte[PeerAddress.LENGTH];
+      key[0] = (byte) seed;
+      key[1] = (byte) (seed >> 8);
+      key[31] = 7;
+      return PeerAddress.create(key);
+   }
+
+   private static InetAddress ip(int last) {
+      try {
+         return InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) last });
+      } catch (Exception e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      timeSource = mock(TimeSource.class);
+      listener = mock(AnnouncementCache.Listener.class);
+      cache = new AnnouncementCache(timeSource, listener);
+   }
+}
@@ -0,0 +1,169 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.util.TimeSource;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+@Test
+public final class AnnouncementSchedulerTests {
+   private TimeSource timeSource;
+   private List<ByteBuffer> sent;
+   private AnnouncementScheduler scheduler;
+
+   public void testIdentitiesArePackedSixteenPerPacket() {
+      addIdentities(40);
+
+      runFor(1000);
+
+      assertEquals(sent.size(), 3);
+      for (ByteBuffer packet : sent) {
+         assertTrue(addressesIn(packet).size() <= Frames.MAX_ADDRESSES);
+      }
+   }
+
+   public void testAllIdentitiesAreAnnouncedEachPeriod() {
+      addIdentities(40);
+
+      runFor(1000);
+
+      assertEquals(announced(), identities(40));
+   }
+
+   public void testPacketsAreSpreadOverPeriod() {
+      addIdentities(2000);
+
+      runFor(5000);
+
+      assertEquals(scheduler.peakBurstSize(), 1);
+      assertEquals(scheduler.sentPacketCount(), 5*125);
+   }
+
+   public void testUnchangedPacketsAreReused() {
+      addIdentities(16);
+      runFor(1000);
+      runFor(1000);
+
+      assertEquals(sent.size(), 2);
+      assertSame(sent.get(0).array(), sent.get(1).array());
+   }
+
+   public void testRemovedIdentityIsNoLongerAnnounced() {
+      addIdentities(40);
+      runFor(1000);
+      sent.clear();
+
+      scheduler.remove(identity(5));
+      runFor(1000);
+
+      Set<PeerAddress> expected = identities(40);
+      expected.remove(identity(5));
+      assertEquals(announced(), expected);
+   }
+
+   public void testAddedIdentityIsAnnouncedWithinPeriod() {
+      addIdentities(20);
+      runFor(500);
+
+      scheduler.add(identity(100));
+      runFor(1000);
+
+      assertTrue(announced().contains(identity(100)));
+   }
+
+   public void testFallingBehindDoesNotCauseBurst() {
+      addIdentities(160);
+      runFor(100);
+
+      at(now() + 10000);
+      scheduler.sendDue();
+
+      assertEquals(scheduler.peakBurstSize(), 1);
+   }
+
+   public void testPacketsPerSecondReflectsPacketCount() {
+      addIdentities(2000);
+
+      assertEquals(scheduler.packetsPerSecond(), 125.0);
+   }
+
+   private void addIdentities(int count) {
+      for (int i=0; i<count; i++) {
+         scheduler.add(identity(i));
+      }
+   }
+
+   private void runFor(long millis) {
+      long end = now() + millis;
+      while (now() < end) {
+         long next = Math.min(end, scheduler.sendDue());
+         at(Math.max(next, now() + 1));
+      }
+   }
+
+   private long now() {
+      return timeSource.currentTimeMillis();
+   }
+
+   private void at(long time) {
+      when(timeSource.currentTimeMillis()).thenReturn(time);
+   }
+
+   private Set<PeerAddress> announced() {
+      Set<PeerAddress> result = new HashSet<>();
+      sent.forEach(packet -> result.addAll(addressesIn(packet)));
+      return result;
+   }
+
+   private static List<PeerAddress> addressesIn(ByteBuffer packet) {
+      List<PeerAddress> result = new ArrayList<>();
+      new FrameDecoder(new FrameReceiver() {
+         @Override
+         public FramePeer logicalConnection(PeerAddress source, PeerAddress destination, boolean initiating) {
+            throw new AssertionError("unexpected frame");
+         }
+
+         @Override
+         public void advertisement(PeerAddresses addresses) {
+            addresses.forEach(result::add);
+         }
+
+         @Override
+         public void identityQuery(VariableLengthInteger queryId, PeerAddresses addresses) {
+            throw new AssertionError("unexpected frame");
+         }
+      }).receiveDatagram(packet.duplicate());
+      return result;
+   }
+
+   private static Set<PeerAddress> identities(int count) {
+      Set<PeerAddress> result = new HashSet<>();
+      for (int i=0; i<count; i++) {
+         result.add(identity(i));
+      }
+      return result;
+   }
+
+   private static PeerAddress identity(int seed) {
+      return PeerAddress.create(seed, 0, 0, 1);
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      timeSource = mock(TimeSource.class);
+      sent = new ArrayList<>();
+      scheduler = new AnnouncementScheduler(timeSource, sent::add, 1000, new Random(1));
+   }
+}
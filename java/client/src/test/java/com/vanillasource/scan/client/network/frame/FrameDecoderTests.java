@@ -0,0 +1,228 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.network.physical.PhysicalPeer;
+import com.vanillasource.util.ByteBufferAllocator;
+import com.vanillasource.util.ByteBufferPool;
+import com.vanillasource.util.Lock;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+@Test
+public final class FrameDecoderTests {
+   private static final PeerAddress SOURCE = address(1);
+   private static final PeerAddress DESTINATION = address(2);
+   private ByteArrayOutputStream stream;
+   private FrameEncoder encoder;
+   private FramePeer peer;
+   private FrameReceiver receiver;
+   private ByteBufferAllocator allocator;
+   private FrameDecoder decoder;
+
+   public void testSingleFrameIsDecoded() {
+      encoder.messageSingleFrame(payload(10));
+
+      decoder.receive(ByteBuffer.wrap(stream.toByteArray()));
+
+      verify(peer).messageSingleFrame(payload(10));
+   }
+
+   public void testFrameIsRoutedByAddresses() {
+      encoder.messageSingleFrame(payload(10));
+
+      decoder.receive(ByteBuffer.wrap(stream.toByteArray()));
+
+      verify(receiver).logicalConnection(SOURCE, DESTINATION, false);
+   }
+
+   public void testInitiateHandshakeIsDecoded() {
+      encoder.initiateHandshake("Noise_KKpsk1_25519_AESGCM_SHA256", ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+
+      decoder.receive(ByteBuffer.wrap(stream.toByteArray()));
+
+      verify(receiver).logicalConnection(SOURCE, DESTINATION, true);
+      verify(peer).initiateHandshake("Noise_KKpsk1_25519_AESGCM_SHA256", ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+   }
+
+   public void testUnsupportedVersionClosesOnlyThatConnection() {
+      encoder.initiateHandshake("Noise_KKpsk1_25519_AESGCM_SHA256", ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+      encoder.messageSingleFrame(payload(10));
+      byte[] bytes = stream.toByteArray();
+      byte[] name = "Noise_KKpsk1_25519_AESGCM_SHA256".getBytes(StandardCharsets.UTF_8);
+      int nameEnd = name.length;
+      while (!Arrays.equals(bytes, nameEnd - name.length, nameEnd, name, 0, name.length)) {
+         nameEnd++;
+      }
+      bytes[nameEnd] = (byte) (Frames.PROTOCOL_MAJOR_VERSION + 1);
+
+      decoder.receive(ByteBuffer.wrap(bytes));
+
+      verify(peer).closeConnection();
+      verify(peer, never()).initiateHandshake(any(), any());
+      verify(peer).messageSingleFrame(payload(10));
+   }
+
+   public void testMultipleFramesInOneBufferAreAllDecoded() {
+      encoder.messageIntermediateFrame(VariableLengthInteger.createLong(3), payload(20));
+      encoder.messageLastFrame(VariableLengthInteger.createLong(3), payload(30));
+      encoder.closeConnection();
+
+      decoder.receive(ByteBuffer.wrap(stream.toByteArray()));
+
+      verify(peer).messageIntermediateFrame(VariableLengthInteger.createLong(3), payload(20));
+      verify(peer).messageLastFrame(VariableLengthInteger.createLong(3), payload(30));
+      verify(peer).closeConnection();
+   }
+
+   public void testFramesSplitAtAnyPositionAreDecoded() {
+      encoder.continueHandshake(ByteBuffer.wrap(new byte[] { 5, 6 }));
+      encoder.messageSingleFrame(payload(300));
+      byte[] bytes = stream.toByteArray();
+      for (int split=0; split<=bytes.length; split++) {
+         setUpDecoder();
+
+         decoder.receive(ByteBuffer.wrap(bytes, 0, split));
+         decoder.receive(ByteBuffer.wrap(bytes, split, bytes.length - split));
+
+         verify(peer).continueHandshake(ByteBuffer.wrap(new byte[] { 5, 6 }));
+         verify(peer).messageSingleFrame(payload(300));
+      }
+   }
+
+   public void testFramesReceivedByteByByteAreDecoded() {
+      encoder.messageSingleFrame(payload(100));
+      encoder.messageSingleFrame(payload(200));
+      List<ByteBuffer> payloads = new ArrayList<>();
+      doAnswer(invocation -> payloads.add(copy((ByteBuffer) invocation.getArguments()[0])))
+              .when(peer).messageSingleFrame(any());
+
+      for (byte b : stream.toByteArray()) {
+         decoder.receive(ByteBuffer.wrap(new byte[] { b }));
+      }
+
+      assertEquals(payloads, List.of(payload(100), payload(200)));
+   }
+
+   public void testStraddlingFrameBufferIsReleasedAfterDelivery() {
+      encoder.messageSingleFrame(payload(100));
+      byte[] bytes = stream.toByteArray();
+
+      decoder.receive(ByteBuffer.wrap(bytes, 0, 50));
+      assertEquals(allocator.outstandingCount(), 1);
+      decoder.receive(ByteBuffer.wrap(bytes, 50, bytes.length - 50));
+
+      verify(peer).messageSingleFrame(payload(100));
+      allocator.checkNoLeaks();
+   }
+
+   public void testPartialFrameBufferIsReleasedOnClose() {
+      encoder.messageSingleFrame(payload(100));
+
+      decoder.receive(ByteBuffer.wrap(stream.toByteArray(), 0, 50));
+      decoder.close();
+
+      allocator.checkNoLeaks();
+   }
+
+   public void testCompleteFramesAreNotCopied() {
+      encoder.messageSingleFrame(payload(10));
+      ByteBuffer input = ByteBuffer.wrap(stream.toByteArray());
+      FramePeer checkingPeer = mock(FramePeer.class);
+      doAnswer(invocation -> {
+         assertSame(((ByteBuffer) invocation.getArguments()[0]).array(), input.array());
+         return null;
+      }).when(checkingPeer).messageSingleFrame(any());
+      when(receiver.logicalConnection(any(), any(), anyBoolean())).thenReturn(checkingPeer);
+
+      decoder.receive(input);
+
+      verify(checkingPeer).messageSingleFrame(any());
+   }
+
+   public void testAdvertisementIsDecodedFromDatagram() {
+      decoder.receiveDatagram(FrameEncoder.encodeAdvertisement(PeerAddresses.of(SOURCE, DESTINATION)));
+
+      verify(receiver).advertisement(PeerAddresses.of(SOURCE, DESTINATION));
+   }
+
+   public void testIdentityQueryIsDecodedFromDatagram() {
+      decoder.receiveDatagram(FrameEncoder.encodeIdentityQuery(VariableLengthInteger.createLong(7), PeerAddresses.of(SOURCE)));
+
+      verify(receiver).identityQuery(VariableLengthInteger.createLong(7), PeerAddresses.of(SOURCE));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testUnknownFrameCodeIsRejected() {
+      decoder.receive(ByteBuffer.wrap(new byte[] { 0x3F, 0 }));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testOversizedFrameIsRejectedBeforeReceivingIt() {
+      ByteBuffer header = ByteBuffer.allocate(10);
+      header.put((byte) Frames.SINGLE_CHUNK_PAYLOAD);
+      VariableLengthInteger.encode(Frames.MAX_CONTENT_LENGTH, header);
+
+      decoder.receive(header.flip());
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testEncodingOversizedPayloadFails() {
+      encoder.messageSingleFrame(payload(Frames.MAX_CONTENT_LENGTH));
+   }
+
+   private static ByteBuffer payload(int length) {
+      byte[] bytes = new byte[length + Frames.MAC_LENGTH];
+      for (int i=0; i<bytes.length; i++) {
+         bytes[i] = (byte) (i * length);
+      }
+      return ByteBuffer.wrap(bytes);
+   }
+
+   private static ByteBuffer copy(ByteBuffer buffer) {
+      ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+      copy.put(buffer.duplicate());
+      return copy.flip();
+   }
+
+   private static PeerAddress address(int seed) {
+      byte[] key = new byte[PeerAddress.LENGTH];
+      key[0] = (byte) seed;
+      return PeerAddress.create(key);
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      stream = new ByteArrayOutputStream();
+      PhysicalPeer output = mock(PhysicalPeer.class);
+      doAnswer(invocation -> {
+         for (ByteBuffer buffer : (ByteBuffer[]) invocation.getArguments()[0]) {
+            while (buffer.hasRemaining()) {
+               stream.write(buffer.get());
+            }
+         }
+         return null;
+      }).when(output).receive(any(ByteBuffer[].class));
+      allocator = new ByteBufferAllocator(ByteBufferAllocator.DEFAULT_MIN_SIZE, ByteBufferAllocator.DEFAULT_MAX_SIZE, true);
+      encoder = new FrameEncoder(new FrameScheduler(output, new Lock()), new ByteBufferPool(FrameEncoder.HEADER_BUFFER_SIZE), SOURCE, DESTINATION);
+      setUpDecoder();
+   }
+
+   private void setUpDecoder() {
+      peer = mock(FramePeer.class);
+      receiver = mock(FrameReceiver.class);
+      when(receiver.logicalConnection(any(), any(), anyBoolean())).thenReturn(peer);
+      decoder = new FrameDecoder(receiver, null, allocator);
+   }
+}
@@ -0,0 +1,172 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.physical.CoalescingPhysicalPeer;
+import com.vanillasource.scan.client.network.physical.PhysicalPeer;
+import com.vanillasource.util.Lock;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntSupplier;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class FrameSchedulerTests {
+   private BlockingPeer output;
+   private FrameScheduler scheduler;
+   private List<Thread> senders;
+
+   public void testFrameIsWrittenImmediatelyIfNothingElseIsSent() {
+      output.release.countDown();
+
+      scheduler.sendBulk("a", frame(1, 10));
+
+      assertEquals(output.writes, List.of(1));
+      assertEquals(scheduler.bulkFramesSent(), 1);
+   }
+
+   public void testPriorityFramesAreWrittenBeforeWaitingBulkFrames() throws Exception {
+      startBlockingWrite();
+      send(() -> scheduler.sendBulk("a", frame(2, 10)), scheduler::bulkQueueDepth);
+      send(() -> scheduler.sendBulk("b", frame(3, 10)), scheduler::bulkQueueDepth);
+      send(() -> scheduler.sendPriority(frame(4, 10)), scheduler::priorityQueueDepth);
+
+      assertEquals(scheduler.bulkQueueDepth(), 2);
+      assertEquals(scheduler.priorityQueueDepth(), 1);
+      assertEquals(scheduler.activeStreamCount(), 2);
+      finishSending();
+
+      assertEquals(output.writes, List.of(1, 4, 2, 3));
+   }
+
+   public void testStreamsAreInterleaved() throws Exception {
+      startBlockingWrite();
+      send(() -> scheduler.sendBulk("a", frame(2, 10)), scheduler::bulkQueueDepth);
+      send(() -> scheduler.sendBulk("a", frame(3, 10)), scheduler::bulkQueueDepth);
+      send(() -> scheduler.sendBulk("a", frame(4, 10)), scheduler::bulkQueueDepth);
+      send(() -> scheduler.sendBulk("b", frame(5, 10)), scheduler::bulkQueueDepth);
+      send(() -> scheduler.sendBulk("b", frame(6, 10)), scheduler::bulkQueueDepth);
+
+      finishSending();
+
+      assertEquals(output.writes, List.of(1, 2, 5, 3, 6, 4));
+   }
+
+   public void testStreamsWithSmallerFramesSendMoreFramesInOneRound() throws Exception {
+      startBlockingWrite();
+      send(() -> scheduler.sendBulk("a", frame(2, 5)), scheduler::bulkQueueDepth);
+      send(() -> scheduler.sendBulk("a", frame(3, 5)), scheduler::bulkQueueDepth);
+      send(() -> scheduler.sendBulk("a", frame(4, 5)), scheduler::bulkQueueDepth);
+      send(() -> scheduler.sendBulk("b", frame(5, 10)), scheduler::bulkQueueDepth);
+      send(() -> scheduler.sendBulk("b", frame(6, 10)), scheduler::bulkQueueDepth);
+
+      finishSending();
+
+      assertEquals(output.writes, List.of(1, 2, 3, 5, 4, 6));
+   }
+
+   public void testFramesWaitingInSchedulerAreCoalescedIntoOneWrite() throws Exception {
+      CoalescingPhysicalPeer coalescing = new CoalescingPhysicalPeer(output, new Lock(),
+            () -> scheduler.hasWaitingFrames(), 1024, 1_000_000);
+      scheduler = new FrameScheduler(coalescing, new Lock(), 10);
+      startBlockingWrite();
+      send(() -> scheduler.sendPriority(frame(2, 10)), scheduler::priorityQueueDepth);
+      send(() -> scheduler.sendBulk("a", frame(3, 10)), scheduler::bulkQueueDepth);
+      send(() -> scheduler.sendBulk("b", frame(4, 10)), scheduler::bulkQueueDepth);
+
+      finishSending();
+
+      assertEquals(output.writes, List.of(1, 2));
+      assertEquals(output.bytes, 40);
+      assertEquals(coalescing.frameCount(), 4);
+      assertEquals(coalescing.writeCount(), 2);
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testNonPositiveQuantumIsRejected() {
+      new FrameScheduler(output, new Lock(), 0);
+   }
+
+   private void startBlockingWrite() throws Exception {
+      Thread sender = new Thread(() -> scheduler.sendBulk("first", frame(1, 10)));
+      sender.start();
+      senders.add(sender);
+      output.writing.await();
+   }
+
+   /**
+    * Start sending in a new thread, and wait until the frame is queued, so frames are queued in order.
+    */
+   private void send(Runnable sending, IntSupplier queueDepth) {
+      int depth = queueDepth.getAsInt();
+      Thread sender = new Thread(sending);
+      sender.start();
+      senders.add(sender);
+      while (queueDepth.getAsInt() == depth) {
+         Thread.onSpinWait();
+      }
+   }
+
+   private void finishSending() throws Exception {
+      output.release.countDown();
+      for (Thread sender : senders) {
+         sender.join();
+      }
+   }
+
+   private static ByteBuffer[] frame(int id, int length) {
+      ByteBuffer frame = ByteBuffer.allocate(length);
+      frame.put(0, (byte) id);
+      return new ByteBuffer[] { frame };
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      output = new BlockingPeer();
+      scheduler = new FrameScheduler(output, new Lock(), 10);
+      senders = new ArrayList<>();
+   }
+
+   @AfterMethod
+   private void tearDown() throws Exception {
+      finishSending();
+   }
+
+   /**
+    * Records the first byte of each write and the number of bytes written, and blocks all writes until released.
+    */
+   private static final class BlockingPeer implements PhysicalPeer {
+      private final List<Integer> writes = new ArrayList<>();
+      private int bytes = 0;
+      private final CountDownLatch writing = new CountDownLatch(1);
+      private final CountDownLatch release = new CountDownLatch(1);
+
+      @Override
+      public void receive(ByteBuffer message) {
+         receive(new ByteBuffer[] { message });
+      }
+
+      @Override
+      public void receive(ByteBuffer[] messages) {
+         writing.countDown();
+         try {
+            release.await();
+         } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+         }
+         writes.add((int) messages[0].get(0));
+         for (ByteBuffer message : messages) {
+            bytes += message.remaining();
+         }
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+}
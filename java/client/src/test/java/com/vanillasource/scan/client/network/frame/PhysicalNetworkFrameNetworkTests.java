@@ -0,0 +1,187 @@
+package com.vanillasource.scan.client.network.frame;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.Role;
+import com.vanillasource.scan.client.network.physical.PhysicalNetwork;
+import com.vanillasource.scan.client.network.physical.PhysicalNetworkListener;
+import com.vanillasource.scan.client.network.physical.PhysicalPeer;
+import com.vanillasource.util.TimeSource;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Function;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class PhysicalNetworkFrameNetworkTests {
+   private static final PeerAddress LOCAL = PeerAddress.create(1, 1, 1, 1);
+   private static final PeerAddress DEVICE = PeerAddress.create(2, 2, 2, 2);
+   private long now;
+   private List<Long> delays;
+   private List<Runnable> tasks;
+   private List<String> statusChanges;
+   private Function<InetAddress, PhysicalPeer> connector;
+   private PhysicalNetworkListener physicalListener;
+   private PhysicalNetworkFrameNetwork network;
+
+   public void testSilentDeviceGoesOfflineWithoutOtherTraffic() throws Exception {
+      announce(DEVICE);
+
+      now += AnnouncementCache.OFFLINE_TIMEOUT_MILLIS + AnnouncementCache.ANNOUNCEMENT_PERIOD_MILLIS;
+      runScheduledTasks();
+
+      assertEquals(statusChanges, List.of(DEVICE+"=true", DEVICE+"=false"));
+   }
+
+   public void testExpiryIsScheduledEveryTick() {
+      runScheduledTasks();
+      runScheduledTasks();
+
+      long tick = AnnouncementCache.OFFLINE_TIMEOUT_MILLIS/16;
+      assertEquals(delays, List.of(tick, tick, tick));
+   }
+
+   public void testExpiryStopsWhenClosed() throws Exception {
+      announce(DEVICE);
+      network.close();
+
+      now += AnnouncementCache.OFFLINE_TIMEOUT_MILLIS + AnnouncementCache.ANNOUNCEMENT_PERIOD_MILLIS;
+      runScheduledTasks();
+
+      assertTrue(tasks.isEmpty());
+      assertEquals(statusChanges, List.of(DEVICE+"=true"));
+   }
+
+   public void testFailedConnectIsRetried() throws Exception {
+      announce(DEVICE);
+      List<InetAddress> attempts = new ArrayList<>();
+      connector = ip -> {
+         attempts.add(ip);
+         if (attempts.size() == 1) {
+            throw new UncheckedIOException(new IOException("connection refused"));
+         }
+         return new NullPeer();
+      };
+
+      assertThrows(UncheckedIOException.class, () -> network.connect(DEVICE, Role.UNKNOWN, null));
+      assertNotNull(network.connect(DEVICE, Role.UNKNOWN, null));
+      assertEquals(attempts.size(), 2);
+   }
+
+   public void testConnectingDoesNotBlockConnectsToOtherAddresses() throws Exception {
+      PeerAddress other = PeerAddress.create(3, 3, 3, 3);
+      announce(DEVICE, 2);
+      announce(other, 3);
+      CountDownLatch connecting = new CountDownLatch(1);
+      CountDownLatch release = new CountDownLatch(1);
+      connector = ip -> {
+         if (ip.getAddress()[3] == 2) {
+            connecting.countDown();
+            try {
+               release.await();
+            } catch (InterruptedException e) {
+               throw new RuntimeException(e);
+            }
+         }
+         return new NullPeer();
+      };
+      Thread blocked = new Thread(() -> network.connect(DEVICE, Role.UNKNOWN, null));
+      blocked.start();
+      connecting.await();
+
+      assertNotNull(network.connect(other, Role.UNKNOWN, null));
+      release.countDown();
+      blocked.join();
+   }
+
+   private void announce(PeerAddress address) throws Exception {
+      announce(address, 2);
+   }
+
+   private void announce(PeerAddress address, int host) throws Exception {
+      physicalListener.receiveMulticast(InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) host }),
+            FrameEncoder.encodeAdvertisement(PeerAddresses.of(address)));
+   }
+
+   private void runScheduledTasks() {
+      List<Runnable> due = new ArrayList<>(tasks);
+      tasks.clear();
+      due.forEach(Runnable::run);
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      now = 0;
+      delays = new ArrayList<>();
+      tasks = new ArrayList<>();
+      statusChanges = new ArrayList<>();
+      connector = ip -> {
+         throw new AssertionError("no connections expected");
+      };
+      TimeSource timeSource = new TimeSource() {
+         @Override
+         public long currentTimeMillis() {
+            return now;
+         }
+
+         @Override
+         public void sleep(long millis) {
+            now += millis;
+         }
+      };
+      FrameNetworkListener listener = new FrameNetworkListener() {
+         @Override
+         public void receiveAnnouncement(PeerAddress address) {
+         }
+
+         @Override
+         public void receiveOnlineStatus(PeerAddress address, boolean online) {
+            statusChanges.add(address+"="+online);
+         }
+
+         @Override
+         public FramePeer receiveConnection(PeerAddress address, Role role, FramePeer initiator) {
+            throw new AssertionError("no connections expected");
+         }
+      };
+      network = new PhysicalNetworkFrameNetwork(LOCAL, listener, physicalListener -> {
+         this.physicalListener = physicalListener;
+         return new PhysicalNetwork() {
+            @Override
+            public void sendMulticast(ByteBuffer packet) {
+            }
+
+            @Override
+            public PhysicalPeer openConnection(InetAddress address, PhysicalPeer initiator) {
+               return connector.apply(address);
+            }
+
+            @Override
+            public void close() {
+            }
+         };
+      }, 0, timeSource, delayMillis -> task -> {
+         delays.add(delayMillis);
+         tasks.add(task);
+      });
+   }
+
+   private static final class NullPeer implements PhysicalPeer {
+      @Override
+      public void receive(ByteBuffer message) {
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+}
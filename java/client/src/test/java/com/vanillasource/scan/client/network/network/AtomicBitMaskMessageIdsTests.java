@@ -0,0 +1,99 @@
+package com.vanillasource.scan.client.network.network;
+
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class AtomicBitMaskMessageIdsTests {
+   private AtomicBitMaskMessageIds ids;
+
+   public void testFirstIdIsAvailableOnNewIds() {
+      VariableLengthInteger id = ids.reserveId();
+
+      assertEquals(id, VariableLengthInteger.createLong(10));
+   }
+
+   public void testFirstIdIsAvailableAgainAfterReleaseEvenIfOthersAreStillReserved() {
+      ids.reserveId();
+      ids.reserveId();
+      ids.reserveId();
+      ids.releaseId(VariableLengthInteger.createLong(10));
+
+      VariableLengthInteger id = ids.reserveId();
+
+      assertEquals(id, VariableLengthInteger.createLong(10));
+   }
+
+   public void testAllIdsAreAvailable() {
+      for (int i=0; i<10; i++) {
+         assertEquals(ids.reserveId(), VariableLengthInteger.createLong(i+10));
+      }
+   }
+
+   public void testIdsSpanningMultipleWordsAreAllAvailable() {
+      AtomicBitMaskMessageIds largeIds = new AtomicBitMaskMessageIds(VariableLengthInteger.ZERO, VariableLengthInteger.createLong(199));
+      Set<VariableLengthInteger> reserved = new HashSet<>();
+      for (int i=0; i<200; i++) {
+         reserved.add(largeIds.reserveId());
+      }
+
+      assertEquals(reserved.size(), 200);
+   }
+
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testReleasingUnreservedIdFails() {
+      ids.releaseId(VariableLengthInteger.createLong(10));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testReleasingIdOutOfRangeFails() {
+      ids.releaseId(VariableLengthInteger.createLong(20));
+   }
+
+   @Test(expectedExceptions = TimeoutException.class)
+   public void testOverflowIdBlocks() throws ExecutionException, InterruptedException, TimeoutException {
+      for (int i=0; i<10; i++) {
+         ids.reserveId();
+      }
+
+      CompletableFuture<VariableLengthInteger> id = CompletableFuture.supplyAsync(() -> ids.reserveId(), Executors.newVirtualThreadPerTaskExecutor());
+
+      id.get(10, TimeUnit.MILLISECONDS);
+   }
+
+   public void testBlockedReserverGetsReleasedId() throws Exception {
+      for (int i=0; i<10; i++) {
+         ids.reserveId();
+      }
+      CompletableFuture<VariableLengthInteger> id = CompletableFuture.supplyAsync(() -> ids.reserveId(), Executors.newVirtualThreadPerTaskExecutor());
+
+      ids.releaseId(VariableLengthInteger.createLong(15));
+
+      assertEquals(id.get(1, TimeUnit.SECONDS), VariableLengthInteger.createLong(15));
+   }
+
+   public void testHeavyOverreservationIsEventuallyResolved() {
+      List<CompletableFuture<VariableLengthInteger>> reservations = new ArrayList<>();
+      for (int i=0; i<100; i++) {
+         reservations.add(CompletableFuture.supplyAsync(() -> ids.reserveId(), Executors.newVirtualThreadPerTaskExecutor()));
+      }
+
+      reservations.forEach(reservation -> reservation.thenAccept(ids::releaseId));
+
+      CompletableFuture.allOf(reservations.toArray(CompletableFuture[]::new)).join();
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      ids = new AtomicBitMaskMessageIds(VariableLengthInteger.createLong(10), VariableLengthInteger.createLong(19));
+   }
+}
@@ -0,0 +1,198 @@
+package com.vanillasource.scan.client.network.network;
+
+import com.vanillasource.scan.client.network.Message;
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.scan.client.network.frame.FrameDecoder;
+import com.vanillasource.scan.client.network.frame.FrameEncoder;
+import com.vanillasource.scan.client.network.frame.FramePeer;
+import com.vanillasource.scan.client.network.frame.FrameReceiver;
+import com.vanillasource.scan.client.network.frame.FrameScheduler;
+import com.vanillasource.scan.client.network.physical.PhysicalPeer;
+import com.vanillasource.util.ByteBufferPool;
+import com.vanillasource.util.Lock;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class FramePeerToPeerTests {
+   private static final PeerAddress SOURCE = PeerAddress.create(1, 1, 1, 1);
+   private static final PeerAddress DESTINATION = PeerAddress.create(2, 2, 2, 2);
+   private RecordingFramePeer framePeer;
+   private FramePeerToPeer peer;
+
+   public void testSmallMessageIsSentAsSingleFrame() {
+      peer.receive(bytes(8));
+
+      assertEquals(framePeer.frames, List.of("single 8"));
+   }
+
+   public void testLargeMessageIsSplitIntoChunks() {
+      peer.receive(bytes(20));
+
+      assertEquals(framePeer.frames, List.of("intermediate 1 8", "intermediate 1 8", "last 1 4"));
+   }
+
+   public void testLargeMessageOfWholeChunksEndsWithFullChunk() {
+      peer.receive(bytes(16));
+
+      assertEquals(framePeer.frames, List.of("intermediate 1 8", "last 1 8"));
+   }
+
+   public void testLargePartsAreSplitIntoChunks() {
+      Message message = peer.create();
+
+      message.recieve(bytes(10));
+      message.endWith(bytes(3));
+
+      assertEquals(framePeer.frames, List.of("intermediate 1 8", "intermediate 1 2", "last 1 3"));
+   }
+
+   public void testRemainderSmallerThanMinimumIsSentWithPreviousChunk() {
+      peer = new FramePeerToPeer(messageIds(), framePeer, 8, 4);
+
+      peer.receive(bytes(18));
+
+      assertEquals(framePeer.frames, List.of("intermediate 1 8", "last 1 10"));
+   }
+
+   public void testMessageWithSmallRemainderIsSentAsSingleFrame() {
+      peer = new FramePeerToPeer(messageIds(), framePeer, 8, 4);
+
+      peer.receive(bytes(11));
+
+      assertEquals(framePeer.frames, List.of("single 11"));
+   }
+
+   public void testPartRemainderSmallerThanMinimumIsSentWithPreviousChunk() {
+      peer = new FramePeerToPeer(messageIds(), framePeer, 8, 4);
+      Message message = peer.create();
+
+      message.recieve(bytes(26));
+      message.endWith(bytes(4));
+
+      assertEquals(framePeer.frames, List.of("intermediate 1 8", "intermediate 1 8", "intermediate 1 10", "last 1 4"));
+   }
+
+   public void testMessagesOfAllSizesCanBeEncodedWithoutEncryption() {
+      for (int size : new int[] {16, 4095, 4096, 4097, 4100, 4111, 4112, 8192, 8195, 12300}) {
+         List<ByteBuffer> written = new ArrayList<>();
+         FrameEncoder encoder = new FrameEncoder(new FrameScheduler(new PhysicalPeer() {
+            @Override
+            public void receive(ByteBuffer message) {
+               written.add(ByteBuffer.allocate(message.remaining()).put(message).flip());
+            }
+
+            @Override
+            public void close() {
+            }
+         }, new Lock()), new ByteBufferPool(FrameEncoder.HEADER_BUFFER_SIZE), SOURCE, DESTINATION);
+         ByteBuffer message = bytes(size);
+
+         new FramePeerToPeer(messageIds(), encoder).receive(message.duplicate());
+
+         RecordingFramePeer decoded = new RecordingFramePeer();
+         FrameDecoder decoder = new FrameDecoder(new FrameReceiver() {
+            @Override
+            public FramePeer logicalConnection(PeerAddress source, PeerAddress destination, boolean initiating) {
+               return decoded;
+            }
+
+            @Override
+            public void advertisement(PeerAddresses addresses) {
+            }
+
+            @Override
+            public void identityQuery(VariableLengthInteger queryId, PeerAddresses addresses) {
+            }
+         });
+         written.forEach(decoder::receive);
+         assertEquals(decoded.content, message.array(), "message of "+size+" bytes");
+      }
+   }
+
+   public void testChunksContainTheBytesInOrder() {
+      ByteBuffer message = bytes(20);
+
+      peer.receive(message);
+
+      assertEquals(framePeer.content, message.array());
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      framePeer = new RecordingFramePeer();
+      peer = new FramePeerToPeer(messageIds(), framePeer, 8, 1);
+   }
+
+   private static MessageIds messageIds() {
+      return new BitMaskMessageIds(VariableLengthInteger.createLong(1), VariableLengthInteger.createLong(10));
+   }
+
+   private static ByteBuffer bytes(int length) {
+      byte[] bytes = new byte[length];
+      for (int i=0; i<length; i++) {
+         bytes[i] = (byte) i;
+      }
+      return ByteBuffer.wrap(bytes);
+   }
+
+   private static final class RecordingFramePeer implements FramePeer {
+      private final List<String> frames = new ArrayList<>();
+      private byte[] content = new byte[0];
+
+      @Override
+      public void initiateHandshake(String protocolName, ByteBuffer handshake) {
+      }
+
+      @Override
+      public void continueHandshake(ByteBuffer handshake) {
+      }
+
+      @Override
+      public void closeConnection() {
+      }
+
+      @Override
+      public void renegotiate() {
+      }
+
+      @Override
+      public void ignoredFrame(int frameCode) {
+      }
+
+      @Override
+      public void keepAlive() {
+      }
+
+      @Override
+      public void messageIntermediateFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+         record("intermediate "+messageId.longValueExact()+" ", payload);
+      }
+
+      @Override
+      public void messageLastFrame(VariableLengthInteger messageId, ByteBuffer payload) {
+         record("last "+messageId.longValueExact()+" ", payload);
+      }
+
+      @Override
+      public void messageSingleFrame(ByteBuffer payload) {
+         record("single ", payload);
+      }
+
+      private void record(String frame, ByteBuffer payload) {
+         frames.add(frame+payload.remaining());
+         byte[] newContent = new byte[content.length + payload.remaining()];
+         System.arraycopy(content, 0, newContent, 0, content.length);
+         payload.get(newContent, content.length, payload.remaining());
+         content = newContent;
+      }
+   }
+}
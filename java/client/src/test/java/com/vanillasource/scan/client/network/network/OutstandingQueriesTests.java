@@ -0,0 +1,50 @@
+package com.vanillasource.scan.client.network.network;
+
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class OutstandingQueriesTests {
+   private static final VariableLengthInteger ID = VariableLengthInteger.createLong(3);
+   private OutstandingQueries<String> queries;
+
+   public void testRegisteredQueryIsOutstanding() {
+      queries.register(ID, "query");
+
+      assertEquals(List.copyOf(queries.all()), List.of("query"));
+   }
+
+   public void testCompletedQueryIsNoLongerFound() {
+      queries.register(ID, "query");
+
+      queries.complete(ID, "query");
+
+      assertTrue(queries.all().isEmpty());
+      assertEquals(queries.size(), 0);
+   }
+
+   public void testCompletingOtherQueryWithSameIdHasNoEffect() {
+      queries.register(ID, "query");
+
+      queries.complete(ID, "other");
+
+      assertEquals(List.copyOf(queries.all()), List.of("query"));
+   }
+
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testRegisteringSameIdTwiceFails() {
+      queries.register(ID, "query");
+
+      queries.register(ID, "other");
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      queries = new OutstandingQueries<>();
+   }
+}
@@ -0,0 +1,77 @@
+package com.vanillasource.scan.client.network.network;
+
+import com.vanillasource.scan.client.network.Message;
+import com.vanillasource.scan.client.network.Peer;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.mockito.Mockito.*;
+
+@Test
+public final class PeerToFramePeerTests {
+   private static final ByteBuffer PAYLOAD = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+   private static final VariableLengthInteger SMALL_ID = VariableLengthInteger.createLong(5);
+   private static final VariableLengthInteger LARGE_ID = VariableLengthInteger.createLong(100000);
+   private Peer peer;
+   private Message message;
+   private PeerToFramePeer framePeer;
+
+   public void testChunksOfSameMessageGoToSameMessage() {
+      framePeer.messageIntermediateFrame(SMALL_ID, PAYLOAD);
+      framePeer.messageIntermediateFrame(SMALL_ID, PAYLOAD);
+      framePeer.messageLastFrame(SMALL_ID, PAYLOAD);
+
+      verify(peer, times(1)).create();
+      verify(message, times(2)).recieve(PAYLOAD);
+      verify(message).endWith(PAYLOAD);
+   }
+
+   public void testChunksOfLargeIdGoToSameMessage() {
+      framePeer.messageIntermediateFrame(LARGE_ID, PAYLOAD);
+      framePeer.messageLastFrame(LARGE_ID, PAYLOAD);
+
+      verify(peer, times(1)).create();
+      verify(message).endWith(PAYLOAD);
+   }
+
+   public void testLastChunkWithoutIntermediateIsReceivedAsWhole() {
+      framePeer.messageLastFrame(SMALL_ID, PAYLOAD);
+
+      verify(peer).receive(PAYLOAD);
+   }
+
+   public void testIdIsReusableAfterLastChunk() {
+      framePeer.messageIntermediateFrame(SMALL_ID, PAYLOAD);
+      framePeer.messageLastFrame(SMALL_ID, PAYLOAD);
+      framePeer.messageIntermediateFrame(SMALL_ID, PAYLOAD);
+
+      verify(peer, times(2)).create();
+   }
+
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testOpeningMoreMessagesThanAllowedFails() {
+      framePeer.messageIntermediateFrame(VariableLengthInteger.createLong(1), PAYLOAD);
+      framePeer.messageIntermediateFrame(LARGE_ID, PAYLOAD);
+      framePeer.messageIntermediateFrame(VariableLengthInteger.createLong(2), PAYLOAD);
+   }
+
+   public void testClosedMessagesDoNotCountTowardsLimit() {
+      framePeer.messageIntermediateFrame(VariableLengthInteger.createLong(1), PAYLOAD);
+      framePeer.messageIntermediateFrame(LARGE_ID, PAYLOAD);
+      framePeer.messageLastFrame(LARGE_ID, PAYLOAD);
+      framePeer.messageIntermediateFrame(VariableLengthInteger.createLong(2), PAYLOAD);
+
+      verify(peer, times(3)).create();
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      peer = mock(Peer.class);
+      message = mock(Message.class);
+      when(peer.create()).thenReturn(message);
+      framePeer = new PeerToFramePeer(peer, 2);
+   }
+}
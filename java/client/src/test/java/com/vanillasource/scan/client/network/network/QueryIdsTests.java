@@ -5,13 +5,26 @@ import com.vanillasource.util.TimeSource;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import static org.mockito.Mockito.*;
-import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.*;
 
 @Test
 public final class QueryIdsTests {
    private TimeSource timeSource;
    private QueryIds ids;
+   private List<Long> delays;
+   private List<Runnable> delayedTasks;
 
    public void testNewIdsReturns1Immediately() {
       VariableLengthInteger id = ids.nextQueryId();
@@ -38,9 +51,88 @@ public final class QueryIdsTests {
       assertEquals(id, VariableLengthInteger.ZERO);
    }
 
+   public void testDoesNotResetWhileIdsAreUsed() {
+      for (int i=0; i<3; i++) {
+         when(timeSource.currentTimeMillis()).thenReturn(i*15000L);
+         ids.nextQueryId();
+      }
+
+      assertEquals(ids.nextQueryId(), VariableLengthInteger.createLong(3));
+   }
+
+   public void testNoIdIsAvailableWhenUsedUp() {
+      QueryIds limitedIds = limitedIds();
+      limitedIds.nextQueryId();
+      limitedIds.nextQueryId();
+
+      assertEquals(limitedIds.tryNextQueryId(), Optional.empty());
+      verify(timeSource, never()).sleep(anyLong());
+   }
+
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testGettingIdWhenUsedUpFails() {
+      QueryIds limitedIds = limitedIds();
+      limitedIds.nextQueryId();
+      limitedIds.nextQueryId();
+
+      limitedIds.nextQueryId();
+   }
+
+   public void testAsyncIdCompletesImmediatelyIfAvailable() {
+      CompletableFuture<VariableLengthInteger> id = ids.nextQueryIdAsync();
+
+      assertEquals(id.getNow(null), VariableLengthInteger.ZERO);
+   }
+
+   public void testAsyncIdCompletesAfterResetWhenUsedUp() {
+      QueryIds limitedIds = limitedIds();
+      limitedIds.nextQueryId();
+      when(timeSource.currentTimeMillis()).thenReturn(5000L);
+      limitedIds.nextQueryId();
+
+      CompletableFuture<VariableLengthInteger> id = limitedIds.nextQueryIdAsync();
+      assertFalse(id.isDone());
+      assertEquals(delays, List.of(20000L));
+
+      when(timeSource.currentTimeMillis()).thenReturn(25000L);
+      delayedTasks.remove(0).run();
+      assertEquals(id.getNow(null), VariableLengthInteger.ZERO);
+   }
+
+   public void testConcurrentCallersGetDistinctIds() throws Exception {
+      Set<VariableLengthInteger> seen = ConcurrentHashMap.newKeySet();
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      try {
+         List<Future<?>> futures = new ArrayList<>();
+         for (int t=0; t<8; t++) {
+            futures.add(executor.submit(() -> {
+               for (int i=0; i<10000; i++) {
+                  assertTrue(seen.add(ids.nextQueryId()));
+               }
+            }));
+         }
+         for (Future<?> future : futures) {
+            future.get();
+         }
+      } finally {
+         executor.shutdown();
+      }
+
+      assertEquals(seen.size(), 80000);
+   }
+
+   private QueryIds limitedIds() {
+      return new QueryIds(timeSource, 1, delay -> {
+         delays.add(delay);
+         return (Executor) delayedTasks::add;
+      });
+   }
+
    @BeforeMethod
    private void setUp() {
       timeSource = mock(TimeSource.class);
       ids = new QueryIds(timeSource);
+      delays = new ArrayList<>();
+      delayedTasks = new ArrayList<>();
    }
 }
@@ -0,0 +1,242 @@
+package com.vanillasource.scan.client.network.network;
+
+import com.vanillasource.scan.client.network.PeerAddress;
+import com.vanillasource.scan.client.network.PeerAddresses;
+import com.vanillasource.scan.client.network.data.VariableLengthInteger;
+import com.vanillasource.util.TimeSource;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+@Test
+public final class QueryPublisherTests {
+   private static final PeerAddress A = PeerAddress.create(1, 0, 0, 0);
+   private static final PeerAddress B = PeerAddress.create(2, 0, 0, 0);
+   private static final PeerAddress C = PeerAddress.create(3, 0, 0, 0);
+   private OutstandingQueries<Consumer<PeerAddress>> outstandingQueries;
+   private List<PeerAddresses> sentQueries;
+   private List<Runnable> timeouts;
+   private TimeSource timeSource;
+   private QueryIds queryIds;
+   private CollectingSubscriber subscriber;
+
+   public void testQueryIsSentOnSubscribe() {
+      publisher(PeerAddresses.EMPTY).subscribe(subscriber);
+
+      assertEquals(sentQueries, asList(PeerAddresses.EMPTY));
+      assertEquals(outstandingQueries.size(), 1);
+   }
+
+   public void testAnswersArePublished() {
+      publisher(PeerAddresses.EMPTY).subscribe(subscriber);
+
+      answer(A);
+      answer(B);
+
+      assertEquals(subscriber.received, asList(A, B));
+   }
+
+   public void testDuplicateAnswersArePublishedOnce() {
+      publisher(PeerAddresses.EMPTY).subscribe(subscriber);
+
+      answer(A);
+      answer(B);
+      answer(A);
+
+      assertEquals(subscriber.received, asList(A, B));
+   }
+
+   public void testAnswersAreBufferedUntilRequested() {
+      subscriber.initialRequest = 0;
+      publisher(PeerAddresses.EMPTY).subscribe(subscriber);
+      answer(A);
+      answer(B);
+
+      subscriber.subscription.request(1);
+
+      assertEquals(subscriber.received, asList(A));
+   }
+
+   public void testQueryForAllCompletesOnTimeout() {
+      publisher(PeerAddresses.EMPTY).subscribe(subscriber);
+      answer(A);
+
+      timeouts.forEach(Runnable::run);
+
+      assertTrue(subscriber.completed);
+      assertEquals(outstandingQueries.size(), 0);
+   }
+
+   public void testTargetedQueryCompletesWhenAllTargetsAnswered() {
+      publisher(PeerAddresses.of(A, B)).subscribe(subscriber);
+
+      answer(B);
+      answer(A);
+
+      assertEquals(subscriber.received, asList(B, A));
+      assertTrue(subscriber.completed);
+      assertEquals(outstandingQueries.size(), 0);
+   }
+
+   public void testTargetedQueryIgnoresOtherAnswers() {
+      publisher(PeerAddresses.of(A, B)).subscribe(subscriber);
+
+      answer(C);
+      answer(A);
+
+      assertEquals(subscriber.received, asList(A));
+      assertFalse(subscriber.completed);
+   }
+
+   public void testCompletionWaitsForBufferedAnswersToBeRequested() {
+      subscriber.initialRequest = 0;
+      publisher(PeerAddresses.of(A)).subscribe(subscriber);
+      answer(A);
+
+      assertFalse(subscriber.completed);
+      subscriber.subscription.request(1);
+
+      assertTrue(subscriber.completed);
+   }
+
+   public void testCancelledQueryIsNoLongerOutstanding() {
+      publisher(PeerAddresses.EMPTY).subscribe(subscriber);
+
+      subscriber.subscription.cancel();
+      answer(A);
+
+      assertEquals(outstandingQueries.size(), 0);
+      assertEquals(subscriber.received, emptyList());
+   }
+
+   public void testNonPositiveRequestSignalsError() {
+      publisher(PeerAddresses.EMPTY).subscribe(subscriber);
+
+      subscriber.subscription.request(0);
+
+      assertTrue(subscriber.error instanceof IllegalArgumentException);
+      assertEquals(outstandingQueries.size(), 0);
+   }
+
+   public void testEachSubscriberSendsItsOwnQuery() {
+      Flow.Publisher<PeerAddress> publisher = publisher(PeerAddresses.EMPTY);
+      publisher.subscribe(subscriber);
+      CollectingSubscriber other = new CollectingSubscriber();
+      publisher.subscribe(other);
+
+      answer(A);
+
+      assertEquals(sentQueries.size(), 2);
+      assertEquals(subscriber.received, asList(A));
+      assertEquals(other.received, asList(A));
+   }
+
+   public void testFailingSendSignalsErrorAndStopsTracking() {
+      new QueryPublisher(queryIds, outstandingQueries, (id, addresses) -> {
+         throw new IllegalStateException("network closed");
+      }, PeerAddresses.EMPTY, 5000, delay -> timeouts::add).subscribe(subscriber);
+
+      assertTrue(subscriber.error instanceof IllegalStateException);
+      assertEquals(outstandingQueries.size(), 0);
+      assertEquals(timeouts.size(), 1);
+   }
+
+   public void testFailedQueryIdSignalsError() {
+      queryIds = new QueryIds(timeSource, 0, delay -> task -> {
+         throw new RejectedExecutionException("shut down");
+      });
+      queryIds.nextQueryId();
+
+      publisher(PeerAddresses.EMPTY).subscribe(subscriber);
+
+      assertTrue(subscriber.error instanceof RejectedExecutionException);
+      assertEquals(sentQueries, emptyList());
+   }
+
+   public void testSubscriberIsCalledWithoutHoldingTheLock() throws InterruptedException {
+      List<Thread> answering = new ArrayList<>();
+      CollectingSubscriber answeringSubscriber = new CollectingSubscriber() {
+         @Override
+         public void onNext(PeerAddress item) {
+            super.onNext(item);
+            if (item.equals(A)) {
+               Thread thread = new Thread(() -> answer(B));
+               answering.add(thread);
+               thread.start();
+               try {
+                  thread.join(5000);
+               } catch (InterruptedException e) {
+                  throw new RuntimeException(e);
+               }
+            }
+         }
+      };
+      publisher(PeerAddresses.EMPTY).subscribe(answeringSubscriber);
+
+      answer(A);
+
+      assertFalse(answering.get(0).isAlive());
+      assertEquals(answeringSubscriber.received, asList(A, B));
+   }
+
+   private void answer(PeerAddress address) {
+      new ArrayList<>(outstandingQueries.all()).forEach(query -> query.accept(address));
+   }
+
+   private Flow.Publisher<PeerAddress> publisher(PeerAddresses targets) {
+      return new QueryPublisher(queryIds, outstandingQueries, (id, addresses) -> sentQueries.add(addresses),
+              targets, 5000, delay -> timeouts::add);
+   }
+
+   private static class CollectingSubscriber implements Flow.Subscriber<PeerAddress> {
+      private final List<PeerAddress> received = new ArrayList<>();
+      private long initialRequest = Long.MAX_VALUE;
+      private Flow.Subscription subscription;
+      private boolean completed = false;
+      private Throwable error;
+
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+         this.subscription = subscription;
+         if (initialRequest > 0) {
+            subscription.request(initialRequest);
+         }
+      }
+
+      @Override
+      public void onNext(PeerAddress item) {
+         received.add(item);
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+         error = throwable;
+      }
+
+      @Override
+      public void onComplete() {
+         completed = true;
+      }
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      outstandingQueries = new OutstandingQueries<>();
+      sentQueries = new ArrayList<>();
+      timeouts = new ArrayList<>();
+      timeSource = mock(TimeSource.class);
+      when(timeSource.currentTimeMillis()).thenReturn(1000L);
+      queryIds = new QueryIds(timeSource, VariableLengthInteger.MAX_LONG_VALUE, delay -> Runnable::run);
+      subscriber = new CollectingSubscriber();
+   }
+}
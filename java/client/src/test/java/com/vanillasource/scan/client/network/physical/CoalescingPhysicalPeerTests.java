@@ -0,0 +1,136 @@
+package com.vanillasource.scan.client.network.physical;
+
+import com.vanillasource.util.Lock;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class CoalescingPhysicalPeerTests {
+   private Lock lock;
+   private RecordingPeer delegate;
+   private CoalescingPhysicalPeer peer;
+
+   public void testFrameIsWrittenImmediatelyWithoutOtherProducers() {
+      lock.synchronize(() -> peer.receive(frame(1, 2)));
+
+      assertEquals(delegate.writes.size(), 1);
+      assertEquals(delegate.writes.get(0), new byte[] { 1, 2 });
+   }
+
+   public void testFramesAreBatchedWhileOtherProducersWait() throws Exception {
+      Thread other = new Thread(() -> lock.synchronize(() -> peer.receive(frame(3, 4))));
+      lock.synchronize(() -> {
+         other.start();
+         awaitContention();
+         peer.receive(frame(1, 2));
+
+         assertTrue(delegate.writes.isEmpty());
+      });
+      other.join();
+
+      assertEquals(delegate.writes.size(), 1);
+      assertEquals(delegate.writes.get(0), new byte[] { 1, 2, 3, 4 });
+      assertEquals(peer.framesPerWrite(), 2.0);
+   }
+
+   public void testFrameNotFittingIntoBatchIsWrittenTogetherWithBatch() throws Exception {
+      Thread other = new Thread(() -> lock.synchronize(() -> peer.receive(frame(new byte[10]))));
+      lock.synchronize(() -> {
+         other.start();
+         awaitContention();
+         peer.receive(frame(1, 2));
+      });
+      other.join();
+
+      assertEquals(delegate.writes.size(), 1);
+      assertEquals(delegate.writes.get(0).length, 12);
+   }
+
+   public void testExhaustedLatencyBudgetFlushesEvenIfOtherProducersWait() throws Exception {
+      peer = new CoalescingPhysicalPeer(delegate, lock, 8, 0);
+      Thread other = new Thread(() -> lock.synchronize(() -> {}));
+      lock.synchronize(() -> {
+         other.start();
+         awaitContention();
+         peer.receive(frame(1, 2));
+
+         assertEquals(delegate.writes.size(), 1);
+      });
+      other.join();
+   }
+
+   public void testCloseFlushesBatch() throws Exception {
+      Thread other = new Thread(() -> lock.synchronize(() -> {}));
+      lock.synchronize(() -> {
+         other.start();
+         awaitContention();
+         peer.receive(frame(1, 2));
+         peer.close();
+      });
+      other.join();
+
+      assertEquals(delegate.writes.size(), 1);
+      assertEquals(delegate.writes.get(0), new byte[] { 1, 2 });
+      assertTrue(delegate.closed);
+   }
+
+   private void awaitContention() {
+      while (!lock.isContended()) {
+         Thread.onSpinWait();
+      }
+   }
+
+   private static ByteBuffer[] frame(int... bytes) {
+      byte[] header = new byte[1];
+      byte[] payload = new byte[bytes.length - 1];
+      header[0] = (byte) bytes[0];
+      for (int i=1; i<bytes.length; i++) {
+         payload[i-1] = (byte) bytes[i];
+      }
+      return new ByteBuffer[] { ByteBuffer.wrap(header), ByteBuffer.wrap(payload) };
+   }
+
+   private static ByteBuffer[] frame(byte[] bytes) {
+      return new ByteBuffer[] { ByteBuffer.wrap(bytes) };
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      lock = new Lock();
+      delegate = new RecordingPeer();
+      peer = new CoalescingPhysicalPeer(delegate, lock, 8, 1_000_000);
+   }
+
+   private static final class RecordingPeer implements PhysicalPeer {
+      private final List<byte[]> writes = new ArrayList<>();
+      private boolean closed = false;
+
+      @Override
+      public void receive(ByteBuffer message) {
+         receive(new ByteBuffer[] { message });
+      }
+
+      @Override
+      public void receive(ByteBuffer[] messages) {
+         ByteArrayOutputStream write = new ByteArrayOutputStream();
+         for (ByteBuffer message : messages) {
+            while (message.hasRemaining()) {
+               write.write(message.get());
+            }
+         }
+         writes.add(write.toByteArray());
+      }
+
+      @Override
+      public void close() {
+         closed = true;
+      }
+   }
+}
@@ -0,0 +1,127 @@
+package com.vanillasource.scan.client.network.physical;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class SelectorPhysicalNetworkTests {
+   private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+   private RecordingPeer server;
+   private RecordingPeer client;
+   private CompletableFuture<PhysicalPeer> acceptedConnection;
+   private SelectorPhysicalNetwork serverNetwork;
+   private SelectorPhysicalNetwork clientNetwork;
+
+   public void testBytesSentByClientAreReceivedByServer() throws Exception {
+      PhysicalPeer connection = clientNetwork.openConnection(LOOPBACK, client);
+
+      connection.receive(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+
+      server.awaitBytes(3);
+      assertEquals(server.bytes(), new byte[] { 1, 2, 3 });
+   }
+
+   public void testServerCanAnswerThroughAcceptedConnection() throws Exception {
+      clientNetwork.openConnection(LOOPBACK, client).receive(ByteBuffer.wrap(new byte[] { 1 }));
+
+      acceptedConnection.get(5, TimeUnit.SECONDS).receive(ByteBuffer.wrap(new byte[] { 4, 5 }));
+
+      client.awaitBytes(2);
+      assertEquals(client.bytes(), new byte[] { 4, 5 });
+   }
+
+   public void testLargeTransferArrivesCompletelyAndInOrder() throws Exception {
+      PhysicalPeer connection = clientNetwork.openConnection(LOOPBACK, client);
+      byte[] data = new byte[4*1024*1024];
+      for (int i=0; i<data.length; i++) {
+         data[i] = (byte) i;
+      }
+
+      connection.receive(ByteBuffer.wrap(data));
+
+      server.awaitBytes(data.length);
+      assertEquals(server.bytes(), data);
+   }
+
+   public void testClosingConnectionClosesRemoteSide() throws Exception {
+      PhysicalPeer connection = clientNetwork.openConnection(LOOPBACK, client);
+      connection.receive(ByteBuffer.wrap(new byte[] { 1 }));
+      server.awaitBytes(1);
+
+      connection.close();
+
+      server.closed.get(5, TimeUnit.SECONDS);
+   }
+
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testSecondConnectionToSamePeerIsRejected() {
+      clientNetwork.openConnection(LOOPBACK, client);
+
+      clientNetwork.openConnection(LOOPBACK, client);
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      server = new RecordingPeer();
+      client = new RecordingPeer();
+      acceptedConnection = new CompletableFuture<>();
+      serverNetwork = new SelectorPhysicalNetwork(new PhysicalNetworkListener() {
+         @Override
+         public void receiveMulticast(InetAddress sender, ByteBuffer packet) {
+         }
+
+         @Override
+         public PhysicalPeer receiveConnection(InetAddress address, PhysicalPeer initiator) {
+            acceptedConnection.complete(initiator);
+            return server;
+         }
+      }, 1, new InetSocketAddress(LOOPBACK, 0), 0, SelectorPhysicalNetwork.MULTICAST_GROUP, null);
+      clientNetwork = new SelectorPhysicalNetwork(null, 2, new InetSocketAddress(LOOPBACK, 0), serverNetwork.localPort(),
+              SelectorPhysicalNetwork.MULTICAST_GROUP, null);
+   }
+
+   @AfterMethod
+   private void tearDown() {
+      clientNetwork.close();
+      serverNetwork.close();
+   }
+
+   private static final class RecordingPeer implements PhysicalPeer {
+      private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+      private final CompletableFuture<Void> closed = new CompletableFuture<>();
+
+      @Override
+      public synchronized void receive(ByteBuffer message) {
+         while (message.hasRemaining()) {
+            received.write(message.get());
+         }
+         notifyAll();
+      }
+
+      @Override
+      public void close() {
+         closed.complete(null);
+      }
+
+      private synchronized byte[] bytes() {
+         return received.toByteArray();
+      }
+
+      private synchronized void awaitBytes(int count) throws InterruptedException {
+         long deadline = System.currentTimeMillis() + 5000;
+         while (received.size() < count && System.currentTimeMillis() < deadline) {
+            wait(100);
+         }
+      }
+   }
+}
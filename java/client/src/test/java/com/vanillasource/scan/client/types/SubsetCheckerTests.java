@@ -0,0 +1,154 @@
+package com.vanillasource.scan.client.types;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class SubsetCheckerTests {
+   private SubsetChecker checker;
+   private TypeDefinitions definitions;
+
+   public void testTypeIsSubsetOfItself() {
+      assertTrue(isSubset("Byte", "Byte"));
+      assertTrue(isSubset("Option(String)", "Option(String)"));
+   }
+
+   public void testNamesAreIgnored() {
+      assertTrue(isSubset("Reading", "Double"));
+      assertTrue(isSubset("Boolean", "Union(Unit, Unit)"));
+   }
+
+   public void testSmallerIntegersAreSubsetsOfLargerIntegers() {
+      assertTrue(isSubset("Byte", "Long"));
+      assertTrue(isSubset("Byte", "SignedInteger(2)"));
+      assertTrue(isSubset("Byte", "VariableLengthInteger(2)"));
+      assertFalse(isSubset("Long", "Byte"));
+      assertFalse(isSubset("SignedInteger(1)", "Byte"));
+      assertFalse(isSubset("SignedInteger(1)", "VariableLengthInteger(8)"));
+   }
+
+   public void testConstraintsNarrowValues() {
+      assertTrue(isSubset("TableLeg", "Byte"));
+      assertTrue(isSubset("TableLeg", "Byte {min 1, max 4}"));
+      assertTrue(isSubset("TableLeg", "Byte {1, 2, 3, 4}"));
+      assertTrue(isSubset("TableLeg", "SignedInteger(1) {0 to 2, 3 to 10}"));
+      assertTrue(isSubset("Byte {2, 3}", "TableLeg"));
+      assertFalse(isSubset("Byte", "TableLeg"));
+      assertFalse(isSubset("TableLeg", "Byte {1, 2, 4}"));
+      assertFalse(isSubset("TableLeg", "Byte {min 2}"));
+   }
+
+   public void testConstraintsAreLimitedBySize() {
+      assertTrue(isSubset("Byte {min 0}", "Byte"));
+      assertTrue(isSubset("Byte", "Long {max 255}"));
+      assertFalse(isSubset("Byte", "Long {max 254}"));
+   }
+
+   public void testFloatingPointsAreNotIntegers() {
+      assertTrue(isSubset("Float", "Double"));
+      assertTrue(isSubset("Double {0 to 0.5}", "Double {min 0}"));
+      assertFalse(isSubset("Double", "Float"));
+      assertFalse(isSubset("Double {min 0}", "Double {0 to 0.5}"));
+      assertFalse(isSubset("Byte", "Double"));
+      assertFalse(isSubset("Double", "Long"));
+   }
+
+   public void testArraysAreSubsetsOfDynamicArrays() {
+      assertTrue(isSubset("Array(4, TableLeg)", "Array(4, Byte)"));
+      assertTrue(isSubset("Array(4, TableLeg)", "String"));
+      assertFalse(isSubset("Array(4, Byte)", "Array(5, Byte)"));
+      assertFalse(isSubset("String", "Array(4, Byte)"));
+      assertFalse(isSubset("Stream(Byte)", "String"));
+   }
+
+   public void testStructsNeedSameFieldsInOrder() {
+      assertTrue(isSubset("Struct(a: TableLeg, b: Float)", "Struct(a: Byte, b: Double)"));
+      assertFalse(isSubset("Struct(a: Byte, b: Float)", "Struct(b: Float, a: Byte)"));
+      assertFalse(isSubset("Struct(a: Byte)", "Struct(a: Byte, b: Byte)"));
+      assertFalse(isSubset("Struct(a: Long)", "Struct(a: Byte)"));
+   }
+
+   public void testUnionsCanGainAlternatives() {
+      assertTrue(isSubset("Union(Byte)", "Union(Long, Double)"));
+      assertTrue(isSubset("Option(TableLeg)", "Option(Byte)"));
+      assertFalse(isSubset("Union(Byte, Double)", "Union(Byte)"));
+      assertFalse(isSubset("Union(Double, Byte)", "Union(Byte, Double)"));
+      assertFalse(isSubset("Byte", "Option(Byte)"));
+   }
+
+   public void testRecursiveTypes() {
+      assertTrue(isSubset("Legs", "Bytes"));
+      assertTrue(isSubset("Legs", "Legs"));
+      assertFalse(isSubset("Bytes", "Legs"));
+      assertFalse(isSubset("Legs", "Trees"));
+   }
+
+   public void testSeparatelyDefinedTypesAreCompared() {
+      TypeDefinitions other = TypeDefinitions.parse("""
+         Leg = Byte {1 to 4}
+         LegList = Option(Struct(head: Leg, tail: LegList))
+         """);
+
+      assertTrue(checker.isSubset(definitions.type("Legs"), other.type("LegList")));
+      assertTrue(checker.isSubset(other.type("LegList"), definitions.type("Legs")));
+      assertTrue(checker.isSubset(other.type("Leg"), definitions.type("TableLeg")));
+   }
+
+   public void testEqualRecursiveTypesOfDifferentDevicesShareResults() {
+      TypeDefinitions other = TypeDefinitions.parse("""
+         Leg = Byte {1 to 4}
+         LegList = Option(Struct(head: Leg, tail: LegList))
+         ByteList = Option(Struct(head: Byte, tail: ByteList))
+         """);
+
+      assertTrue(isSubset("Legs", "Bytes"));
+      assertTrue(checker.isSubset(other.type("LegList"), other.type("ByteList")));
+
+      assertEquals(checker.misses(), 1);
+      assertEquals(checker.hits(), 1);
+   }
+
+   public void testCachesAreDroppedWhenFull() {
+      checker = new SubsetChecker(4);
+
+      assertTrue(isSubset("Legs", "Bytes"));
+      assertFalse(isSubset("Bytes", "Legs"));
+      assertFalse(isSubset("Legs", "Trees"));
+      assertTrue(isSubset("Legs", "Bytes"));
+
+      assertTrue(checker.resets() > 0);
+   }
+
+   public void testRepeatedChecksAreMemoized() {
+      assertTrue(isSubset("Legs", "Bytes"));
+      assertTrue(isSubset("Legs", "Bytes"));
+      assertFalse(isSubset("Bytes", "Legs"));
+      assertFalse(isSubset("Bytes", "Legs"));
+
+      assertEquals(checker.misses(), 2);
+      assertEquals(checker.hits(), 2);
+   }
+
+   public void testFailedCheckDoesNotPoisonOtherChecks() {
+      assertFalse(isSubset("Struct(a: Legs, b: Long)", "Struct(a: Bytes, b: Byte)"));
+      assertTrue(isSubset("Legs", "Bytes"));
+   }
+
+   private boolean isSubset(String subset, String superset) {
+      return checker.isSubset(definitions.resolve(subset), definitions.resolve(superset));
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      checker = new SubsetChecker();
+      definitions = TypeDefinitions.parse("""
+         Reading = Double
+         TableLeg = Byte {1 to 4}
+         Legs = Option(Struct(head: TableLeg, tail: Legs))
+         Bytes = Option(Struct(head: Byte, tail: Bytes))
+         Trees = Option(Struct(head: Byte, tail: Array(2, Trees)))
+         """);
+   }
+}
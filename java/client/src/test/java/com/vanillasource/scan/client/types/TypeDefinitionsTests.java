@@ -0,0 +1,121 @@
+package com.vanillasource.scan.client.types;
+
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Set;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class TypeDefinitionsTests {
+   public void testStandardTypesAreAvailable() {
+      TypeDefinitions definitions = TypeDefinitions.parse("Button = Boolean");
+
+      assertEquals(definitions.type("Button").structure(),
+            new UnionType(List.of(TypeDefinitions.STANDARD.type("False"), TypeDefinitions.STANDARD.type("True"))));
+   }
+
+   public void testSameNameAndArgumentsResultInSameType() {
+      TypeDefinitions definitions = TypeDefinitions.parse("Reading = Double");
+
+      assertSame(definitions.resolve("Option(Reading)"), definitions.resolve("Option(Reading)"));
+   }
+
+   public void testAggregatesAreParsed() {
+      TypeDefinitions definitions = TypeDefinitions.parse("""
+         LogLine = Struct(
+            severity: Byte,
+            lines: DynamicArray(String)
+         )
+         HourlyReadings = Array(24, Double)
+         Video = Stream(Byte)
+         """);
+
+      assertEquals(definitions.type("LogLine").structure(), new StructType(List.of(
+            new StructType.Field("severity", TypeDefinitions.STANDARD.type("Byte")),
+            new StructType.Field("lines", new DynamicArrayType(TypeDefinitions.STANDARD.type("String"))))));
+      assertEquals(definitions.type("HourlyReadings").structure(), new ArrayType(24, TypeDefinitions.STANDARD.type("Double")));
+      assertEquals(definitions.type("Video").structure(), new StreamType(TypeDefinitions.STANDARD.type("Byte")));
+   }
+
+   public void testTypeParametersAreSubstituted() {
+      TypeDefinitions definitions = TypeDefinitions.parse("Reading = Option(Double)");
+
+      assertEquals(definitions.type("Reading").structure().structure(),
+            new UnionType(List.of(UnitType.INSTANCE, TypeDefinitions.STANDARD.type("Double"))));
+   }
+
+   public void testValueParametersAreNotPartOfStructure() {
+      TypeDefinitions definitions = TypeDefinitions.parse("""
+         Measurement(unit: String) = Double
+         Voltage = Measurement("V")
+         """);
+
+      assertEquals(definitions.type("Voltage").structure(), new NumberType(NumberType.Encoding.FLOATING_POINT, 8));
+      assertEquals(definitions.type("Measurement", "A").arguments(), List.of("A"));
+   }
+
+   public void testAllConstraintFormsAreParsed() {
+      TypeDefinitions definitions = TypeDefinitions.parse("""
+         Listed = Byte {1,2,3,4}
+         Ranged = Byte {1 to 4}
+         Bounded = Byte {min 1, max 4}
+         """);
+
+      assertEquals(((NumberType) definitions.type("Listed").structure()).constraint().ranges().size(), 4);
+      assertEquals(((NumberType) definitions.type("Ranged").structure()).constraint(),
+            new Constraint(List.of(new Constraint.Range(BigDecimal.ONE, new BigDecimal(4)))));
+      assertEquals(((NumberType) definitions.type("Bounded").structure()).constraint(),
+            new Constraint(List.of(new Constraint.Range(BigDecimal.ONE, new BigDecimal(4)))));
+   }
+
+   public void testRecursiveTypesReferToThemselves() {
+      TypeDefinitions definitions = TypeDefinitions.parse("List(item: Type) = Unit | Struct(head: item, tail: List(item))");
+
+      NamedType list = definitions.type("List", TypeDefinitions.STANDARD.type("Byte"));
+
+      StructType cell = (StructType) ((UnionType) list.structure()).alternatives().get(1);
+      assertSame(cell.fields().get(1).type(), list);
+   }
+
+   public void testCommentsAreIgnored() {
+      TypeDefinitions definitions = TypeDefinitions.parse("""
+         // Device specific
+         Level = Byte // Percent
+         """);
+
+      assertEquals(definitions.names(), Set.of("Level"));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testTypeOnlyDefinedAsItselfIsRejected() {
+      TypeDefinitions.parse("A = B\nB = A").type("A");
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testUndefinedTypeIsRejected() {
+      TypeDefinitions.parse("A = Missing").type("A");
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testInvalidNumberSizeIsRejected() {
+      TypeDefinitions.parse("A = UnsignedInteger(3)").type("A");
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testConstraintOnAggregateIsRejected() {
+      TypeDefinitions.parse("A = String {1 to 4}").type("A");
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testSyntaxErrorIsRejected() {
+      TypeDefinitions.parse("A = Array(24, Byte");
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testRedefiningStandardTypeIsRejected() {
+      TypeDefinitions.parse("Byte = UnsignedInteger(2)");
+   }
+}
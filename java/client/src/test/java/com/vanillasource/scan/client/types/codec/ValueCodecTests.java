@@ -0,0 +1,178 @@
+package com.vanillasource.scan.client.types.codec;
+
+import com.vanillasource.scan.client.types.ArrayValue;
+import com.vanillasource.scan.client.types.FloatArrayValue;
+import com.vanillasource.scan.client.types.FloatValue;
+import com.vanillasource.scan.client.types.IntegerArrayValue;
+import com.vanillasource.scan.client.types.IntegerValue;
+import com.vanillasource.scan.client.types.StructValue;
+import com.vanillasource.scan.client.types.Type;
+import com.vanillasource.scan.client.types.TypeDefinitions;
+import com.vanillasource.scan.client.types.UnionValue;
+import com.vanillasource.scan.client.types.UnitValue;
+import com.vanillasource.scan.client.types.Value;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class ValueCodecTests {
+   private static final TypeDefinitions DEFINITIONS = TypeDefinitions.parse("""
+      Reading = Struct(
+         sensor: VariableLengthInteger(4),
+         level: SignedInteger(2),
+         value: Double,
+         valid: Boolean
+      )
+      Readings = Struct(
+         hourly: Array(3, Float),
+         events: DynamicArray(Reading),
+         counters: DynamicArray(UnsignedInteger(4)),
+         note: Option(String)
+      )
+      Tree = Struct(value: Byte, children: DynamicArray(Tree))
+      Samples = Stream(SignedInteger(2))
+      Frames = Stream(String)
+      """);
+
+   private static final List<Function<Type, ValueCodec>> CODECS = List.of(InterpretingValueCodec::new, CompiledValueCodec::compile);
+
+   public void testNumbersAreEncodedBigEndianInTheirSize() {
+      for (Function<Type, ValueCodec> codecs : CODECS) {
+         assertEquals(encode(codecs, "SignedInteger(2)", new IntegerValue(-2)), new byte[] { (byte) 0xFF, (byte) 0xFE });
+         assertEquals(encode(codecs, "UnsignedInteger(4)", new IntegerValue(0x01020304)), new byte[] { 1, 2, 3, 4 });
+         assertEquals(encode(codecs, "VariableLengthInteger(2)", new IntegerValue(0x80)), new byte[] { (byte) 0x81, 0 });
+         assertEquals(encode(codecs, "Float", new FloatValue(1)), new byte[] { 0x3F, (byte) 0x80, 0, 0 });
+      }
+   }
+
+   public void testUnionIsEncodedWithAlternativeIndex() {
+      for (Function<Type, ValueCodec> codecs : CODECS) {
+         assertEquals(encode(codecs, "Option(Byte)", new UnionValue(1, new IntegerValue(7))), new byte[] { 1, 7 });
+         assertEquals(encode(codecs, "Option(Byte)", new UnionValue(0, UnitValue.INSTANCE)), new byte[] { 0 });
+      }
+   }
+
+   public void testDynamicArrayIsEncodedWithCount() {
+      for (Function<Type, ValueCodec> codecs : CODECS) {
+         assertEquals(encode(codecs, "DynamicArray(Byte)", new IntegerArrayValue(new long[] { 5, 6 })), new byte[] { 2, 5, 6 });
+      }
+   }
+
+   public void testStructValueIsDecodedAsEncoded() {
+      for (Function<Type, ValueCodec> codecs : CODECS) {
+         Value readings = readings();
+
+         assertEquals(roundTrip(codecs, "Readings", readings), readings);
+      }
+   }
+
+   public void testRecursiveValueIsDecodedAsEncoded() {
+      for (Function<Type, ValueCodec> codecs : CODECS) {
+         Value leaf = new StructValue(new IntegerValue(2), new ArrayValue(new Value[0]));
+         Value tree = new StructValue(new IntegerValue(1), new ArrayValue(new Value[] { leaf, leaf }));
+
+         assertEquals(roundTrip(codecs, "Tree", tree), tree);
+      }
+   }
+
+   public void testStreamsAreDecodedUntilEndOfBuffer() {
+      for (Function<Type, ValueCodec> codecs : CODECS) {
+         Value samples = new IntegerArrayValue(new long[] { -1, 2, -3 });
+         Value frames = new ArrayValue(new Value[] { new IntegerArrayValue(new long[] { 1 }), new IntegerArrayValue(new long[0]) });
+
+         assertEquals(roundTrip(codecs, "Samples", samples), samples);
+         assertEquals(roundTrip(codecs, "Frames", frames), frames);
+      }
+   }
+
+   public void testLargeArraysAreDecodedIntoPrimitiveArrays() {
+      for (Function<Type, ValueCodec> codecs : CODECS) {
+         long[] longs = new long[1000];
+         double[] doubles = new double[1000];
+         for (int i=0; i<longs.length; i++) {
+            longs[i] = i * 1_000_003L;
+            doubles[i] = i / 7.0;
+         }
+
+         assertEquals(roundTrip(codecs, "DynamicArray(Long)", new IntegerArrayValue(longs)), new IntegerArrayValue(longs));
+         assertEquals(roundTrip(codecs, "Array(1000, Double)", new FloatArrayValue(doubles)), new FloatArrayValue(doubles));
+      }
+   }
+
+   public void testCodecsProduceSameBytes() {
+      for (Function<Type, ValueCodec> codecs : CODECS) {
+         Type type = DEFINITIONS.type("Readings");
+         ByteBuffer reference = ByteBuffer.allocate(1000);
+         new InterpretingValueCodec(type).encode(readings(), reference);
+
+         assertEquals(encode(codecs, "Readings", readings()), toArray(reference.flip()));
+      }
+   }
+
+   public void testValueOfOtherTypeIsRejected() {
+      for (Function<Type, ValueCodec> codecs : CODECS) {
+         assertThrows(IllegalArgumentException.class, () -> encode(codecs, "Reading", new IntegerValue(1)));
+      }
+   }
+
+   public void testIntegerOutOfRangeIsRejected() {
+      for (Function<Type, ValueCodec> codecs : CODECS) {
+         assertThrows(IllegalArgumentException.class, () -> encode(codecs, "SignedInteger(2)", new IntegerValue(40000)));
+      }
+   }
+
+   public void testUnknownAlternativeIsRejected() {
+      for (Function<Type, ValueCodec> codecs : CODECS) {
+         assertThrows(IllegalArgumentException.class, () -> codecs.apply(DEFINITIONS.resolve("Boolean")).decode(ByteBuffer.wrap(new byte[] { 2 })));
+      }
+   }
+
+   public void testCountLargerThanBufferIsRejected() {
+      for (Function<Type, ValueCodec> codecs : CODECS) {
+         assertThrows(IllegalArgumentException.class, () -> codecs.apply(DEFINITIONS.resolve("DynamicArray(Long)")).decode(ByteBuffer.wrap(new byte[] { 2, 0, 0, 0, 0, 0, 0, 0, 1 })));
+      }
+   }
+
+   public void testLittleEndianBufferIsRejected() {
+      for (Function<Type, ValueCodec> codecs : CODECS) {
+         assertThrows(IllegalArgumentException.class, () -> codecs.apply(DEFINITIONS.resolve("Long")).decode(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)));
+      }
+   }
+
+   private static Value readings() {
+      Value reading = new StructValue(new IntegerValue(300), new IntegerValue(-5), new FloatValue(3.5), new UnionValue(1, UnitValue.INSTANCE));
+      return new StructValue(
+            new FloatArrayValue(new double[] { 1, 2.5, -3 }),
+            new ArrayValue(new Value[] { reading, reading }),
+            new IntegerArrayValue(new long[] { 0xFFFFFFFFL, 0 }),
+            new UnionValue(1, new IntegerArrayValue(new long[] { 'o', 'k' })));
+   }
+
+   private static byte[] encode(Function<Type, ValueCodec> codecs, String type, Value value) {
+      ByteBuffer buffer = ByteBuffer.allocate(10000);
+      codecs.apply(DEFINITIONS.resolve(type)).encode(value, buffer);
+      return toArray(buffer.flip());
+   }
+
+   private static Value roundTrip(Function<Type, ValueCodec> codecs, String type, Value value) {
+      ValueCodec codec = codecs.apply(DEFINITIONS.resolve(type));
+      ByteBuffer buffer = ByteBuffer.allocate(10000);
+      codec.encode(value, buffer);
+      buffer.flip();
+      Value decoded = codec.decode(buffer);
+      assertFalse(buffer.hasRemaining());
+      return decoded;
+   }
+
+   private static byte[] toArray(ByteBuffer buffer) {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      return bytes;
+   }
+}
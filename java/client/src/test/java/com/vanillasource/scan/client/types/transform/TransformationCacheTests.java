@@ -0,0 +1,79 @@
+package com.vanillasource.scan.client.types.transform;
+
+import com.vanillasource.scan.client.types.IntegerValue;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.testng.Assert.*;
+
+@Test
+public class TransformationCacheTests {
+   private TransformationCache cache;
+
+   public void testSameProgramIsParsedOnce() {
+      Transformation first = cache.get(program(1));
+      Transformation second = cache.get(program(1));
+
+      assertSame(first, second);
+      assertEquals(cache.misses(), 1);
+      assertEquals(cache.hits(), 1);
+   }
+
+   public void testDifferentProgramsAreCachedSeparately() {
+      assertEquals(cache.get(program(1)).apply(new IntegerValue(1)), new IntegerValue(2));
+      assertEquals(cache.get(program(2)).apply(new IntegerValue(1)), new IntegerValue(3));
+      assertEquals(cache.size(), 2);
+   }
+
+   public void testLeastRecentlyUsedIsEvicted() {
+      Transformation first = cache.get(program(1));
+      cache.get(program(2));
+      cache.get(program(1));
+      cache.get(program(3));
+
+      assertEquals(cache.size(), 2);
+      assertEquals(cache.evictions(), 1);
+      assertSame(cache.get(program(1)), first);
+      assertEquals(cache.misses(), 3);
+      cache.get(program(2));
+      assertEquals(cache.misses(), 4);
+   }
+
+   public void testBufferPositionIsNotChanged() {
+      ByteBuffer program = program(1);
+      cache.get(program);
+      cache.get(program);
+      assertEquals(program.position(), 0);
+   }
+
+   public void testInvalidProgramIsNotCached() {
+      ByteBuffer invalid = ByteBuffer.wrap(new ProgramWriter(0).unit().toByteArray());
+      assertThrows(IllegalArgumentException.class, () -> cache.get(invalid));
+      assertEquals(cache.size(), 0);
+   }
+
+   public void testRemovedProgramIsParsedAgain() {
+      Transformation first = cache.get(program(1));
+      cache.remove(program(1));
+      assertNotSame(cache.get(program(1)), first);
+   }
+
+   public void testCachedTransformationCompilesAfterThreshold() {
+      Transformation transformation = cache.get(program(1));
+      transformation.apply(new IntegerValue(1));
+      assertFalse(transformation.isCompiled());
+      transformation.apply(new IntegerValue(1));
+      assertTrue(transformation.isCompiled());
+   }
+
+   private static ByteBuffer program(long increment) {
+      return ByteBuffer.wrap(new ProgramWriter(1).input(0).constant(increment).add().returnValue().toByteArray());
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      cache = new TransformationCache(2, 2);
+   }
+}
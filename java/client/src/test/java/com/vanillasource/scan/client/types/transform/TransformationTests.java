@@ -0,0 +1,163 @@
+package com.vanillasource.scan.client.types.transform;
+
+import com.vanillasource.scan.client.types.FloatValue;
+import com.vanillasource.scan.client.types.IntegerArrayValue;
+import com.vanillasource.scan.client.types.IntegerValue;
+import com.vanillasource.scan.client.types.StructValue;
+import com.vanillasource.scan.client.types.UnionValue;
+import com.vanillasource.scan.client.types.UnitValue;
+import com.vanillasource.scan.client.types.Value;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.testng.Assert.*;
+
+@Test
+public class TransformationTests {
+   public void testArithmeticOnIntegersStaysInteger() {
+      assertBothTiers(new ProgramWriter(2).input(0).input(1).multiply().constant(1L).add().returnValue(),
+            new IntegerValue(13), new IntegerValue(3), new IntegerValue(4));
+   }
+
+   public void testArithmeticWithFloatConvertsToFloat() {
+      assertBothTiers(new ProgramWriter(2).input(0).input(1).divide().returnValue(),
+            new FloatValue(1.5), new IntegerValue(3), new FloatValue(2.0));
+   }
+
+   public void testFieldsAreSelectedAndStructBuiltInOrder() {
+      assertBothTiers(new ProgramWriter(1).input(0).field(1).input(0).field(0).struct(2).returnValue(),
+            new StructValue(new IntegerValue(2), new IntegerValue(1)),
+            new StructValue(new IntegerValue(1), new IntegerValue(2)));
+   }
+
+   public void testEmptyStruct() {
+      assertBothTiers(new ProgramWriter(0).struct(0).returnValue(), new StructValue());
+   }
+
+   public void testItemAndLengthOfArray() {
+      assertBothTiers(new ProgramWriter(1).input(0).input(0).length().constant(1L).subtract().item().returnValue(),
+            new IntegerValue(7), new IntegerArrayValue(new long[] {5, 6, 7}));
+   }
+
+   public void testUnionContentAndAlternative() {
+      assertBothTiers(new ProgramWriter(1).input(0).content().input(0).alternative().struct(2).union(1).returnValue(),
+            new UnionValue(1, new StructValue(UnitValue.INSTANCE, new IntegerValue(0))),
+            new UnionValue(0, UnitValue.INSTANCE));
+   }
+
+   public void testConditionalSelectsBranch() {
+      for (long input = -2; input <= 2; input++) {
+         assertBothTiers(clampProgram(), new IntegerValue(Math.max(0, input)), new IntegerValue(input));
+      }
+   }
+
+   public void testBackwardJumpLoops() {
+      ProgramWriter.Label loop = new ProgramWriter.Label();
+      ProgramWriter.Label end = new ProgramWriter.Label();
+      ProgramWriter writer = new ProgramWriter(1).input(0)
+         .bind(loop).duplicate().constant(100L).less().jumpIfFalse(end)
+         .constant(2L).multiply().jump(loop)
+         .bind(end).returnValue();
+      assertBothTiers(writer, new IntegerValue(192), new IntegerValue(3));
+   }
+
+   public void testDivisionByZeroFailsInBothTiers() {
+      byte[] program = new ProgramWriter(1).constant(1L).input(0).divide().returnValue().toByteArray();
+      for (int threshold : new int[] {0, 1000}) {
+         Transformation transformation = new Transformation(Program.parse(ByteBuffer.wrap(program)), threshold);
+         assertThrows(IllegalArgumentException.class, () -> transformation.apply(new IntegerValue(0)));
+      }
+   }
+
+   public void testWrongInputCountIsRejected() {
+      Transformation transformation = new Transformation(parse(new ProgramWriter(1).input(0).returnValue()), 0);
+      assertThrows(IllegalArgumentException.class, () -> transformation.apply());
+      assertThrows(IllegalArgumentException.class, () -> transformation.apply((Value) null));
+   }
+
+   public void testCompilesAfterThreshold() {
+      Transformation transformation = new Transformation(clampProgram(), 3);
+      for (int i = 0; i < 3; i++) {
+         assertFalse(transformation.isCompiled());
+         assertEquals(transformation.apply(new IntegerValue(5)), new IntegerValue(5));
+      }
+      assertTrue(transformation.isCompiled());
+      assertEquals(transformation.apply(new IntegerValue(-5)), new IntegerValue(0));
+   }
+
+   public void testNegativeThresholdIsRejected() {
+      assertThrows(IllegalArgumentException.class, () -> new Transformation(clampProgram(), -1));
+   }
+
+   public void testUnknownOpcodeIsRejected() {
+      byte[] program = new ProgramWriter(0).unit().returnValue().toByteArray();
+      program[program.length-2] = (byte) 0x7F;
+      assertThrows(IllegalArgumentException.class, () -> Program.parse(ByteBuffer.wrap(program)));
+   }
+
+   public void testStackUnderflowIsRejected() {
+      assertThrows(IllegalArgumentException.class, () -> parse(new ProgramWriter(0).unit().add().returnValue()));
+   }
+
+   public void testMissingReturnIsRejected() {
+      assertThrows(IllegalArgumentException.class, () -> parse(new ProgramWriter(0).unit()));
+   }
+
+   public void testInputOutOfRangeIsRejected() {
+      assertThrows(IllegalArgumentException.class, () -> parse(new ProgramWriter(1).input(1).returnValue()));
+   }
+
+   public void testInconsistentStackDepthIsRejected() {
+      ProgramWriter.Label end = new ProgramWriter.Label();
+      assertThrows(IllegalArgumentException.class, () -> parse(new ProgramWriter(1)
+            .input(0).input(0).jumpIfFalse(end).input(0).bind(end).returnValue()));
+   }
+
+   public void testUnreachableCodeIsRejected() {
+      assertThrows(IllegalArgumentException.class, () -> parse(new ProgramWriter(0).unit().returnValue().unit().returnValue()));
+   }
+
+   public void testJumpIntoInstructionIsRejected() {
+      byte[] program = new ProgramWriter(1).input(0).returnValue().toByteArray();
+      byte[] jumping = new byte[program.length+3];
+      System.arraycopy(program, 0, jumping, 0, 2);
+      jumping[2] = (byte) (program[2] + 3);
+      jumping[3] = Opcodes.JUMP;
+      jumping[4] = 0;
+      jumping[5] = 1;
+      System.arraycopy(program, 3, jumping, 6, program.length-3);
+      assertThrows(IllegalArgumentException.class, () -> Program.parse(ByteBuffer.wrap(jumping)));
+   }
+
+   public void testParseDoesNotMoveBufferPosition() {
+      ByteBuffer buffer = ByteBuffer.wrap(new ProgramWriter(0).unit().returnValue().toByteArray());
+      Program.parse(buffer);
+      assertEquals(buffer.position(), 0);
+   }
+
+   private Program clampProgram() {
+      ProgramWriter.Label positive = new ProgramWriter.Label();
+      ProgramWriter.Label end = new ProgramWriter.Label();
+      return parse(new ProgramWriter(1)
+            .input(0).constant(0L).less().jumpIfFalse(positive)
+            .constant(0L).jump(end)
+            .bind(positive).input(0)
+            .bind(end).returnValue());
+   }
+
+   private static Program parse(ProgramWriter writer) {
+      return Program.parse(ByteBuffer.wrap(writer.toByteArray()));
+   }
+
+   private static void assertBothTiers(ProgramWriter writer, Value expected, Value... inputs) {
+      assertBothTiers(parse(writer), expected, inputs);
+   }
+
+   private static void assertBothTiers(Program program, Value expected, Value... inputs) {
+      assertEquals(program.interpret(inputs), expected);
+      Transformation compiled = new Transformation(program, 0);
+      assertTrue(compiled.isCompiled());
+      assertEquals(compiled.apply(inputs), expected);
+   }
+}
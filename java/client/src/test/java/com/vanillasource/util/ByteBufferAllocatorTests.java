@@ -0,0 +1,117 @@
+package com.vanillasource.util;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class ByteBufferAllocatorTests {
+   private ByteBufferAllocator allocator;
+
+   public void testAllocatedBufferHasRequestedSize() {
+      PooledByteBuffer buffer = allocator.allocate(100);
+
+      assertEquals(buffer.buffer().position(), 0);
+      assertEquals(buffer.buffer().limit(), 100);
+      assertEquals(buffer.buffer().capacity(), 128);
+      assertTrue(buffer.buffer().isDirect());
+   }
+
+   public void testReleasedBufferIsReused() {
+      PooledByteBuffer first = allocator.allocate(100);
+      ByteBuffer released = first.buffer();
+      first.release();
+
+      PooledByteBuffer second = allocator.allocate(120);
+
+      assertSame(second.buffer(), released);
+      assertEquals(second.buffer().limit(), 120);
+   }
+
+   public void testBuffersOfDifferentSizeClassesAreNotShared() {
+      PooledByteBuffer small = allocator.allocate(10);
+      ByteBuffer released = small.buffer();
+      small.release();
+
+      PooledByteBuffer large = allocator.allocate(1000);
+
+      assertNotSame(large.buffer(), released);
+   }
+
+   public void testOversizedBufferIsNotPooled() {
+      PooledByteBuffer buffer = allocator.allocate(5000);
+
+      assertEquals(buffer.buffer().capacity(), 5000);
+      assertFalse(buffer.buffer().isDirect());
+   }
+
+   public void testBufferIsReturnedOnlyAfterLastRelease() {
+      PooledByteBuffer buffer = allocator.allocate(10);
+      buffer.retain();
+
+      buffer.release();
+
+      assertFalse(buffer.isReleased());
+      assertEquals(allocator.outstandingCount(), 1);
+      buffer.release();
+      assertTrue(buffer.isReleased());
+      assertEquals(allocator.outstandingCount(), 0);
+   }
+
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testReleasingTwiceFails() {
+      PooledByteBuffer buffer = allocator.allocate(10);
+      buffer.release();
+
+      buffer.release();
+   }
+
+   @Test(expectedExceptions = IllegalStateException.class)
+   public void testReleasedBufferCanNotBeUsed() {
+      PooledByteBuffer buffer = allocator.allocate(10);
+      buffer.release();
+
+      buffer.buffer();
+   }
+
+   public void testCopyContainsRemainingBytesAndKeepsSourcePosition() {
+      ByteBuffer source = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+      source.get();
+
+      PooledByteBuffer copy = allocator.copyOf(source);
+
+      assertEquals(copy.buffer(), ByteBuffer.wrap(new byte[] { 2, 3 }));
+      assertEquals(source.position(), 1);
+   }
+
+   public void testLeakReportsAllocationSite() {
+      allocator.allocate(10);
+
+      try {
+         allocator.checkNoLeaks();
+         fail("leak was not detected");
+      } catch (IllegalStateException e) {
+         assertNotNull(e.getCause());
+      }
+   }
+
+   public void testNoLeaksAfterAllReleased() {
+      allocator.allocate(10).release();
+      allocator.allocate(5000).release();
+
+      allocator.checkNoLeaks();
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testSizesMustBePowersOfTwo() {
+      new ByteBufferAllocator(48, 1024, false);
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      allocator = new ByteBufferAllocator(16, 4096, true);
+   }
+}
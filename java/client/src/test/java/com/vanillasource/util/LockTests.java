@@ -0,0 +1,78 @@
+package com.vanillasource.util;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.*;
+
+@Test
+public final class LockTests {
+   private Lock lock;
+   private AtomicReference<Thread> allowed;
+   private Map<Thread, AtomicInteger> tries;
+   private BlockingSupplier<Thread> supplier;
+
+   public void testAvailableItemIsReturnedWithoutWaiting() {
+      allowed.set(Thread.currentThread());
+
+      assertEquals(supplier.get(), Thread.currentThread());
+   }
+
+   public void testNotifyingOneWaiterDoesNotWakeOthers() throws Exception {
+      Thread first = waiter();
+      Thread second = waiter();
+
+      lock.synchronize(() -> allowed.set(first));
+      supplier.notifyTry(first);
+      first.join();
+
+      assertEquals(tries.get(second).get(), 1);
+      lock.synchronize(() -> allowed.set(second));
+      supplier.notifyTry(second);
+      second.join();
+   }
+
+   public void testNotifyingAllWakesEveryWaiter() throws Exception {
+      Thread first = waiter();
+      Thread second = waiter();
+
+      lock.synchronize(() -> allowed.set(second));
+      supplier.notifyTry();
+      second.join();
+
+      assertEquals(tries.get(first).get(), 2);
+      lock.synchronize(() -> allowed.set(first));
+      supplier.notifyTry();
+      first.join();
+   }
+
+   /**
+    * Start a thread that gets from the supplier, and wait until it is waiting.
+    */
+   private Thread waiter() {
+      Thread waiter = new Thread(supplier::get);
+      tries.put(waiter, new AtomicInteger());
+      waiter.start();
+      while (tries.get(waiter).get() == 0 || waiter.getState() != Thread.State.WAITING) {
+         Thread.onSpinWait();
+      }
+      return waiter;
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      lock = new Lock();
+      allowed = new AtomicReference<>();
+      tries = new ConcurrentHashMap<>();
+      supplier = lock.blockingSupplier(() -> {
+         tries.computeIfAbsent(Thread.currentThread(), thread -> new AtomicInteger()).incrementAndGet();
+         return allowed.get() == Thread.currentThread() ? Optional.of(Thread.currentThread()) : Optional.empty();
+      });
+   }
+}
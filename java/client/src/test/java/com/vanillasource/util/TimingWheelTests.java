@@ -0,0 +1,113 @@
+package com.vanillasource.util;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+@Test
+public final class TimingWheelTests {
+   private TimeSource timeSource;
+   private TimingWheel<String> wheel;
+   private List<String> fired;
+
+   public void testTimerDoesNotFireBeforeDeadline() {
+      wheel.schedule(wheel.newTimer("a"), 25);
+
+      advanceTo(29);
+
+      assertTrue(fired.isEmpty());
+   }
+
+   public void testTimerFiresAfterDeadline() {
+      wheel.schedule(wheel.newTimer("a"), 25);
+
+      advanceTo(30);
+
+      assertEquals(fired, List.of("a"));
+      assertEquals(wheel.size(), 0);
+   }
+
+   public void testTimerFiresOnlyOnce() {
+      wheel.schedule(wheel.newTimer("a"), 25);
+
+      advanceTo(30);
+      advanceTo(1000);
+
+      assertEquals(fired, List.of("a"));
+   }
+
+   public void testTimerBeyondOneRotationFiresOnlyAtDeadline() {
+      wheel.schedule(wheel.newTimer("a"), 100);
+
+      advanceTo(50);
+      advanceTo(90);
+      assertTrue(fired.isEmpty());
+      advanceTo(100);
+
+      assertEquals(fired, List.of("a"));
+   }
+
+   public void testRescheduledTimerFiresOnlyAtNewDeadline() {
+      TimingWheel.Timer<String> timer = wheel.newTimer("a");
+      wheel.schedule(timer, 20);
+
+      wheel.schedule(timer, 50);
+      advanceTo(40);
+
+      assertTrue(fired.isEmpty());
+      assertEquals(wheel.size(), 1);
+   }
+
+   public void testCancelledTimerDoesNotFire() {
+      TimingWheel.Timer<String> timer = wheel.newTimer("a");
+      wheel.schedule(timer, 20);
+
+      wheel.cancel(timer);
+      advanceTo(40);
+
+      assertTrue(fired.isEmpty());
+      assertFalse(timer.isScheduled());
+   }
+
+   public void testDeadlineInThePastFiresOnNextAdvance() {
+      advanceTo(100);
+      wheel.schedule(wheel.newTimer("a"), 10);
+
+      advanceTo(110);
+
+      assertEquals(fired, List.of("a"));
+   }
+
+   public void testTimersInSameSlotFireIndependently() {
+      wheel.schedule(wheel.newTimer("a"), 10);
+      wheel.schedule(wheel.newTimer("b"), 90);
+      wheel.schedule(wheel.newTimer("c"), 10);
+
+      advanceTo(10);
+
+      assertEquals(fired.size(), 2);
+      assertTrue(fired.containsAll(List.of("a", "c")));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void testSlotCountMustBePowerOfTwo() {
+      new TimingWheel<>(timeSource, 10, 6);
+   }
+
+   private void advanceTo(long time) {
+      when(timeSource.currentTimeMillis()).thenReturn(time);
+      wheel.advance(fired::add);
+   }
+
+   @BeforeMethod
+   private void setUp() {
+      timeSource = mock(TimeSource.class);
+      wheel = new TimingWheel<>(timeSource, 10, 8);
+      fired = new ArrayList<>();
+   }
+}